@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth;
+
+/**
+ * Immutable 48-bit Bluetooth device address packed in a long.
+ *
+ * <p>Equality and hashing work on the packed value, so addresses can be used as map keys whatever
+ * the case of the string they were parsed from. The static helpers convert between the packed
+ * value, {@code byte[]} and {@code String} without intermediate allocations, and the canonical
+ * upper case string form is interned in a small cache: formatting the address of a device seen
+ * again during scanning or discovery returns the same {@code String} instance.
+ */
+public final class BluetoothAddress {
+    public static final int LENGTH = 6;
+
+    private static final int STRING_LENGTH = LENGTH * 3 - 1;
+    private static final long MASK = 0xFFFFFFFFFFFFL;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    // Direct mapped cache of the canonical strings, sized for the devices around during a scan.
+    private static final int STRING_CACHE_SIZE = 1024;
+    private static final CachedString[] sStringCache = new CachedString[STRING_CACHE_SIZE];
+
+    private static final class CachedString {
+        final long value;
+        final String string;
+
+        CachedString(long value, String string) {
+            this.value = value;
+            this.string = string;
+        }
+    }
+
+    private final long mValue;
+
+    private BluetoothAddress(long value) {
+        mValue = value & MASK;
+    }
+
+    /** Creates an address from its packed value. */
+    public static BluetoothAddress fromLong(long value) {
+        return new BluetoothAddress(value);
+    }
+
+    /** Creates an address from the first 6 bytes of {@code address}, most significant first. */
+    public static BluetoothAddress fromBytes(byte[] address) {
+        return new BluetoothAddress(toLong(address, 0));
+    }
+
+    /**
+     * Creates an address from its string form, with or without colons, in any case.
+     *
+     * @return the address, or null if {@code address} is not a valid Bluetooth address
+     */
+    public static BluetoothAddress fromString(String address) {
+        if (address == null) {
+            return null;
+        }
+        try {
+            return new BluetoothAddress(parse(address));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Returns the packed value of the address. */
+    public long toLong() {
+        return mValue;
+    }
+
+    /** Returns the 6 bytes of the address, most significant first. */
+    public byte[] toBytes() {
+        byte[] bytes = new byte[LENGTH];
+        toBytes(mValue, bytes, 0);
+        return bytes;
+    }
+
+    /** Returns the canonical upper case form of the address, e.g. "00:11:22:AA:BB:CC". */
+    @Override
+    public String toString() {
+        return toString(mValue);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BluetoothAddress && ((BluetoothAddress) o).mValue == mValue;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(mValue * 0x9E3779B97F4A7C15L);
+    }
+
+    /** Packs 6 bytes of {@code address} starting at {@code offset}, most significant first. */
+    public static long toLong(byte[] address, int offset) {
+        long value = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            value = (value << 8) | (address[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /** Packs 6 bytes of {@code address} starting at {@code offset}, least significant first. */
+    public static long toLongReversed(byte[] address, int offset) {
+        long value = 0;
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            value = (value << 8) | (address[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /** Writes the 6 bytes of a packed address in {@code dest}, most significant first. */
+    public static void toBytes(long value, byte[] dest, int offset) {
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            dest[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    /**
+     * Parses an address, with or without colons, in any case.
+     *
+     * @throws NumberFormatException if {@code address} is not a valid Bluetooth address
+     */
+    public static long parse(String address) {
+        long value = 0;
+        int digits = 0;
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c == ':' && (digits & 1) == 0) {
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0 || digits == LENGTH * 2) {
+                throw new NumberFormatException("Invalid Bluetooth address");
+            }
+            value = (value << 4) | digit;
+            digits++;
+        }
+        if (digits != LENGTH * 2) {
+            throw new NumberFormatException("Invalid Bluetooth address");
+        }
+        return value;
+    }
+
+    /** Returns the interned canonical upper case form of a packed address. */
+    public static String toString(long value) {
+        value &= MASK;
+        int slot = (int) ((value * 0x9E3779B97F4A7C15L) >>> 54);
+        CachedString cached = sStringCache[slot];
+        if (cached != null && cached.value == value) {
+            return cached.string;
+        }
+        char[] chars = new char[STRING_LENGTH];
+        long remaining = value;
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            int b = (int) (remaining & 0xFF);
+            chars[i * 3] = HEX_DIGITS[b >> 4];
+            chars[i * 3 + 1] = HEX_DIGITS[b & 0x0F];
+            if (i > 0) {
+                chars[i * 3 - 1] = ':';
+            }
+            remaining >>>= 8;
+        }
+        String string = new String(chars);
+        // Entries are immutable, so a racing reader sees either the old or the new one in full.
+        sStringCache[slot] = new CachedString(value, string);
+        return string;
+    }
+}
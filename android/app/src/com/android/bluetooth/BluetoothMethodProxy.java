@@ -29,6 +29,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.AssetFileDescriptor;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
@@ -135,6 +136,22 @@ public class BluetoothMethodProxy {
         return contentResolver.delete(url, where, selectionArgs);
     }
 
+    /**
+     * Proxies {@link ContentResolver#registerContentObserver(Uri, boolean, ContentObserver)}.
+     */
+    public void contentResolverRegisterContentObserver(ContentResolver contentResolver,
+            final Uri uri, final boolean notifyForDescendants, final ContentObserver observer) {
+        contentResolver.registerContentObserver(uri, notifyForDescendants, observer);
+    }
+
+    /**
+     * Proxies {@link ContentResolver#unregisterContentObserver(ContentObserver)}.
+     */
+    public void contentResolverUnregisterContentObserver(ContentResolver contentResolver,
+            final ContentObserver observer) {
+        contentResolver.unregisterContentObserver(observer);
+    }
+
     /**
      * Proxies {@link BluetoothAdapter#isEnabled()}.
      */
@@ -177,8 +177,7 @@ public final class Utils {
             return null;
         }
 
-        return String.format("%02X:%02X:%02X:%02X:%02X:%02X", address[0], address[1], address[2],
-                address[3], address[4], address[5]);
+        return BluetoothAddress.toString(BluetoothAddress.toLong(address, 0));
     }
 
     public static String getRedactedAddressStringFromByte(byte[] address) {
@@ -194,17 +193,21 @@ public final class Utils {
     }
 
     public static byte[] getBytesFromAddress(String address) {
-        int i, j = 0;
         byte[] output = new byte[BD_ADDR_LEN];
-
-        for (i = 0; i < address.length(); i++) {
-            if (address.charAt(i) != ':') {
-                output[j] = (byte) Integer.parseInt(address.substring(i, i + 2), BD_UUID_LEN);
-                j++;
-                i++;
+        try {
+            BluetoothAddress.toBytes(BluetoothAddress.parse(address), output, 0);
+        } catch (NumberFormatException e) {
+            // Keep converting malformed or short addresses pair of digits by pair of digits, and
+            // throwing for the ones too long.
+            int j = 0;
+            for (int i = 0; i < address.length(); i++) {
+                if (address.charAt(i) != ':') {
+                    output[j] = (byte) Integer.parseInt(address.substring(i, i + 2), BD_UUID_LEN);
+                    j++;
+                    i++;
+                }
             }
         }
-
         return output;
     }
 
@@ -60,6 +60,7 @@ import com.android.bluetooth.BluetoothMetricsProto;
 import com.android.bluetooth.BluetoothStatsLog;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.ConnectionStateIndex;
 import com.android.bluetooth.btservice.MetricsLogger;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
@@ -236,6 +237,7 @@ public class A2dpService extends ProfileService {
                 sm.cleanup();
             }
             mStateMachines.clear();
+            ConnectionStateIndex.getInstance().clear(BluetoothProfile.A2DP);
         }
 
         if (mStateMachinesThread != null) {
@@ -447,7 +449,8 @@ public class A2dpService extends ProfileService {
         if (states == null) {
             return devices;
         }
-        final BluetoothDevice[] bondedDevices = mAdapterService.getBondedDevices();
+        final BluetoothDevice[] bondedDevices = ConnectionStateIndex.getInstance()
+                .getBondedDevicesToCheck(mAdapterService, BluetoothProfile.A2DP, states);
         if (bondedDevices == null) {
             return devices;
         }
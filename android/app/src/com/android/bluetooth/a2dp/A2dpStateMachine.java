@@ -60,6 +60,7 @@ import android.util.Log;
 
 import com.android.bluetooth.BluetoothStatsLog;
 import com.android.bluetooth.Utils;
+import com.android.bluetooth.btservice.ConnectionStateIndex;
 import com.android.bluetooth.btservice.MetricsLogger;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.internal.annotations.VisibleForTesting;
@@ -135,6 +136,8 @@ final class A2dpStateMachine extends StateMachine {
 
     public void doQuit() {
         log("doQuit for device " + mDevice);
+        ConnectionStateIndex.getInstance().setConnectionState(BluetoothProfile.A2DP, mDevice,
+                BluetoothProfile.STATE_DISCONNECTED);
         if (mIsPlaying) {
             // Stop if auido is still playing
             log("doQuit: stopped playing " + mDevice);
@@ -729,6 +732,8 @@ final class A2dpStateMachine extends StateMachine {
         log("Connection state " + mDevice + ": " + profileStateToString(prevState)
                     + "->" + profileStateToString(newState));
 
+        ConnectionStateIndex.getInstance()
+                .setConnectionState(BluetoothProfile.A2DP, mDevice, newState);
         Intent intent = new Intent(BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED);
         intent.putExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE, prevState);
         intent.putExtra(BluetoothProfile.EXTRA_STATE, newState);
@@ -83,7 +83,11 @@ public class BassClientService extends ProfileService {
 
     private final Map<BluetoothDevice, BassClientStateMachine> mStateMachines = new HashMap<>();
     private final Object mSearchScanCallbackLock = new Object();
-    private final Map<Integer, ScanResult> mCachedBroadcasts = new HashMap<>();
+    // Guards the periodic advertisement results and BASEs, written from the state machine,
+    // periodic advertising callback and binder threads.
+    private final Object mPeriodicAdvertisementLock = new Object();
+    private final BroadcastSourceCache mCachedBroadcasts =
+            new BroadcastSourceCache(this::onBroadcastSourceRemoved);
 
     private final Map<BluetoothDevice, List<Pair<Integer, Object>>> mPendingGroupOp =
             new ConcurrentHashMap<>();
@@ -150,130 +154,150 @@ public class BassClientService extends ProfileService {
             int bId,
             PublicBroadcastData pbData,
             String broadcastName) {
-        log("updatePeriodicAdvertisementResultMap: device: " + device);
-        log("updatePeriodicAdvertisementResultMap: syncHandle: " + syncHandle);
-        log("updatePeriodicAdvertisementResultMap: advSid: " + advSid);
-        log("updatePeriodicAdvertisementResultMap: addressType: " + addressType);
-        log("updatePeriodicAdvertisementResultMap: advInterval: " + advInterval);
-        log("updatePeriodicAdvertisementResultMap: broadcastId: " + bId);
-        log("updatePeriodicAdvertisementResultMap: broadcastName: " + broadcastName);
-        log("mSyncHandleToDeviceMap" + mSyncHandleToDeviceMap);
-        log("mPeriodicAdvertisementResultMap" + mPeriodicAdvertisementResultMap);
-        // Cache the SyncHandle and source device
-        if (mSyncHandleToDeviceMap != null && syncHandle != BassConstants.INVALID_SYNC_HANDLE) {
-            mSyncHandleToDeviceMap.put(syncHandle, device);
-        }
-        if (mPeriodicAdvertisementResultMap != null) {
-            HashMap<Integer, PeriodicAdvertisementResult> paResMap =
-                    mPeriodicAdvertisementResultMap.get(device);
-            if (paResMap == null
-                    || (bId != BassConstants.INVALID_BROADCAST_ID && !paResMap.containsKey(bId))) {
-                log("PAResmap: add >>>");
-                PeriodicAdvertisementResult paRes = new PeriodicAdvertisementResult(device,
-                        addressType, syncHandle, advSid, advInterval, bId, pbData, broadcastName);
-                if (paRes != null) {
-                    paRes.print();
-                    mPeriodicAdvertisementResultMap.putIfAbsent(device, new HashMap<>());
-                    mPeriodicAdvertisementResultMap.get(device).put(bId, paRes);
-                }
-            } else {
-                log("PAResmap: update >>>");
-                if (bId == BassConstants.INVALID_BROADCAST_ID) {
-                    // Update when onSyncEstablished, try to retrieve valid broadcast id
-                    for (Map.Entry<Integer, PeriodicAdvertisementResult> entry :
-                            paResMap.entrySet()) {
-                        PeriodicAdvertisementResult value = entry.getValue();
-                        if (value.getBroadcastId() != BassConstants.INVALID_BROADCAST_ID) {
-                            bId = value.getBroadcastId();
-                            break;
-                        }
+        synchronized (mPeriodicAdvertisementLock) {
+            log("updatePeriodicAdvertisementResultMap: device: " + device);
+            log("updatePeriodicAdvertisementResultMap: syncHandle: " + syncHandle);
+            log("updatePeriodicAdvertisementResultMap: advSid: " + advSid);
+            log("updatePeriodicAdvertisementResultMap: addressType: " + addressType);
+            log("updatePeriodicAdvertisementResultMap: advInterval: " + advInterval);
+            log("updatePeriodicAdvertisementResultMap: broadcastId: " + bId);
+            log("updatePeriodicAdvertisementResultMap: broadcastName: " + broadcastName);
+            log("mSyncHandleToDeviceMap" + mSyncHandleToDeviceMap);
+            log("mPeriodicAdvertisementResultMap" + mPeriodicAdvertisementResultMap);
+            if (bId != BassConstants.INVALID_BROADCAST_ID && broadcastName != null) {
+                mCachedBroadcasts.updateBroadcastName(bId, broadcastName);
+            }
+            // Cache the SyncHandle and source device
+            if (mSyncHandleToDeviceMap != null && syncHandle != BassConstants.INVALID_SYNC_HANDLE) {
+                mSyncHandleToDeviceMap.put(syncHandle, device);
+            }
+            if (mPeriodicAdvertisementResultMap != null) {
+                HashMap<Integer, PeriodicAdvertisementResult> paResMap =
+                        mPeriodicAdvertisementResultMap.get(device);
+                if (paResMap == null
+                        || (bId != BassConstants.INVALID_BROADCAST_ID
+                                && !paResMap.containsKey(bId))) {
+                    log("PAResmap: add >>>");
+                    PeriodicAdvertisementResult paRes = new PeriodicAdvertisementResult(device,
+                            addressType, syncHandle, advSid, advInterval, bId, pbData,
+                            broadcastName);
+                    if (paRes != null) {
+                        paRes.print();
+                        mPeriodicAdvertisementResultMap.putIfAbsent(device, new HashMap<>());
+                        mPeriodicAdvertisementResultMap.get(device).put(bId, paRes);
                     }
+                } else {
+                    log("PAResmap: update >>>");
                     if (bId == BassConstants.INVALID_BROADCAST_ID) {
-                        log("PAResmap: error! no valid broadcast id found>>>");
-                        return;
+                        // Update when onSyncEstablished, try to retrieve valid broadcast id
+                        for (Map.Entry<Integer, PeriodicAdvertisementResult> entry :
+                                paResMap.entrySet()) {
+                            PeriodicAdvertisementResult value = entry.getValue();
+                            if (value.getBroadcastId() != BassConstants.INVALID_BROADCAST_ID) {
+                                bId = value.getBroadcastId();
+                                break;
+                            }
+                        }
+                        if (bId == BassConstants.INVALID_BROADCAST_ID) {
+                            log("PAResmap: error! no valid broadcast id found>>>");
+                            return;
+                        }
                     }
-                }
-                PeriodicAdvertisementResult paRes = paResMap.get(bId);
-                if (advSid != BassConstants.INVALID_ADV_SID) {
-                    paRes.updateAdvSid(advSid);
-                }
-                if (syncHandle != BassConstants.INVALID_SYNC_HANDLE) {
-                    paRes.updateSyncHandle(syncHandle);
-                    if (mSyncHandleToBroadcastIdMap != null
-                            && paRes.getBroadcastId() != BassConstants.INVALID_BROADCAST_ID) {
-                        // broadcast successfully synced, update the map
-                        mSyncHandleToBroadcastIdMap.put(syncHandle, paRes.getBroadcastId());
+                    PeriodicAdvertisementResult paRes = paResMap.get(bId);
+                    if (advSid != BassConstants.INVALID_ADV_SID) {
+                        paRes.updateAdvSid(advSid);
                     }
+                    if (syncHandle != BassConstants.INVALID_SYNC_HANDLE) {
+                        paRes.updateSyncHandle(syncHandle);
+                        if (mSyncHandleToBroadcastIdMap != null
+                                && paRes.getBroadcastId() != BassConstants.INVALID_BROADCAST_ID) {
+                            // broadcast successfully synced, update the map
+                            mSyncHandleToBroadcastIdMap.put(syncHandle, paRes.getBroadcastId());
+                        }
+                    }
+                    if (addressType != BassConstants.INVALID_ADV_ADDRESS_TYPE) {
+                        paRes.updateAddressType(addressType);
+                    }
+                    if (advInterval != BassConstants.INVALID_ADV_INTERVAL) {
+                        paRes.updateAdvInterval(advInterval);
+                    }
+                    if (bId != BassConstants.INVALID_BROADCAST_ID) {
+                        paRes.updateBroadcastId(bId);
+                    }
+                    if (pbData != null) {
+                        paRes.updatePublicBroadcastData(pbData);
+                    }
+                    if (broadcastName != null) {
+                        paRes.updateBroadcastName(broadcastName);
+                    }
+                    paRes.print();
+                    paResMap.replace(bId, paRes);
                 }
-                if (addressType != BassConstants.INVALID_ADV_ADDRESS_TYPE) {
-                    paRes.updateAddressType(addressType);
-                }
-                if (advInterval != BassConstants.INVALID_ADV_INTERVAL) {
-                    paRes.updateAdvInterval(advInterval);
-                }
-                if (bId != BassConstants.INVALID_BROADCAST_ID) {
-                    paRes.updateBroadcastId(bId);
-                }
-                if (pbData != null) {
-                    paRes.updatePublicBroadcastData(pbData);
-                }
-                if (broadcastName != null) {
-                    paRes.updateBroadcastName(broadcastName);
-                }
-                paRes.print();
-                paResMap.replace(bId, paRes);
             }
+            log(">>mPeriodicAdvertisementResultMap" + mPeriodicAdvertisementResultMap);
         }
-        log(">>mPeriodicAdvertisementResultMap" + mPeriodicAdvertisementResultMap);
     }
 
     PeriodicAdvertisementResult getPeriodicAdvertisementResult(
             BluetoothDevice device, int broadcastId) {
-        if (mPeriodicAdvertisementResultMap == null) {
-            Log.e(TAG, "getPeriodicAdvertisementResult: mPeriodicAdvertisementResultMap is null");
-            return null;
-        }
+        synchronized (mPeriodicAdvertisementLock) {
+            if (mPeriodicAdvertisementResultMap == null) {
+                Log.e(TAG, "getPeriodicAdvertisementResult: "
+                        + "mPeriodicAdvertisementResultMap is null");
+                return null;
+            }
 
-        if (broadcastId == BassConstants.INVALID_BROADCAST_ID) {
-            Log.e(TAG, "getPeriodicAdvertisementResult: invalid broadcast id");
-            return null;
-        }
+            if (broadcastId == BassConstants.INVALID_BROADCAST_ID) {
+                Log.e(TAG, "getPeriodicAdvertisementResult: invalid broadcast id");
+                return null;
+            }
 
-        if (mPeriodicAdvertisementResultMap.containsKey(device)) {
-            return mPeriodicAdvertisementResultMap.get(device).get(broadcastId);
+            if (mPeriodicAdvertisementResultMap.containsKey(device)) {
+                return mPeriodicAdvertisementResultMap.get(device).get(broadcastId);
+            }
+            return null;
         }
-        return null;
     }
 
     void clearNotifiedFlags() {
-        log("clearNotifiedFlags");
-        for (Map.Entry<BluetoothDevice, HashMap<Integer, PeriodicAdvertisementResult>> entry :
-                mPeriodicAdvertisementResultMap.entrySet()) {
-            HashMap<Integer, PeriodicAdvertisementResult> value = entry.getValue();
-            for (PeriodicAdvertisementResult result : value.values()) {
-                result.setNotified(false);
-                result.print();
+        synchronized (mPeriodicAdvertisementLock) {
+            log("clearNotifiedFlags");
+            for (Map.Entry<BluetoothDevice, HashMap<Integer, PeriodicAdvertisementResult>> entry :
+                    mPeriodicAdvertisementResultMap.entrySet()) {
+                HashMap<Integer, PeriodicAdvertisementResult> value = entry.getValue();
+                for (PeriodicAdvertisementResult result : value.values()) {
+                    result.setNotified(false);
+                    result.print();
+                }
             }
         }
     }
 
     void updateBase(int syncHandlemap, BaseData base) {
-        if (mSyncHandleToBaseDataMap == null) {
-            Log.e(TAG, "updateBase: mSyncHandleToBaseDataMap is null");
-            return;
+        synchronized (mPeriodicAdvertisementLock) {
+            if (mSyncHandleToBaseDataMap == null) {
+                Log.e(TAG, "updateBase: mSyncHandleToBaseDataMap is null");
+                return;
+            }
+            log("updateBase : mSyncHandleToBaseDataMap>>");
+            mSyncHandleToBaseDataMap.put(syncHandlemap, base);
+            int broadcastId = getBroadcastIdForSyncHandle(syncHandlemap);
+            if (broadcastId != BassConstants.INVALID_BROADCAST_ID) {
+                mCachedBroadcasts.updateBase(broadcastId, base);
+            }
         }
-        log("updateBase : mSyncHandleToBaseDataMap>>");
-        mSyncHandleToBaseDataMap.put(syncHandlemap, base);
     }
 
     BaseData getBase(int syncHandlemap) {
-        if (mSyncHandleToBaseDataMap == null) {
-            Log.e(TAG, "getBase: mSyncHandleToBaseDataMap is null");
-            return null;
+        synchronized (mPeriodicAdvertisementLock) {
+            if (mSyncHandleToBaseDataMap == null) {
+                Log.e(TAG, "getBase: mSyncHandleToBaseDataMap is null");
+                return null;
+            }
+            BaseData base = mSyncHandleToBaseDataMap.get(syncHandlemap);
+            log("getBase returns" + base);
+            return base;
         }
-        BaseData base = mSyncHandleToBaseDataMap.get(syncHandlemap);
-        log("getBase returns" + base);
-        return base;
     }
 
     void removeActiveSyncedSource(BluetoothDevice scanDelegator, Integer syncHandle) {
@@ -336,7 +360,50 @@ public class BassClientService extends ProfileService {
     }
 
     ScanResult getCachedBroadcast(int broadcastId) {
-        return mCachedBroadcasts.get(broadcastId);
+        return mCachedBroadcasts.getScanResult(broadcastId);
+    }
+
+    /**
+     * Called on the thread which evicted the broadcast source {@code broadcastId} from the cache,
+     * e.g. a scan or binder thread. Its data is released on the service handler, which owns it.
+     */
+    private void onBroadcastSourceRemoved(int broadcastId) {
+        Handler handler = mHandler;
+        if (handler == null) {
+            return;
+        }
+        handler.post(() -> {
+            // The source may have been found again meanwhile.
+            if (!mCachedBroadcasts.contains(broadcastId)) {
+                removeBroadcastSourceData(broadcastId);
+            }
+        });
+    }
+
+    /**
+     * Release the periodic advertisement result and BASE of a broadcast source which is no
+     * longer cached, unless a sink is synced to it.
+     */
+    private void removeBroadcastSourceData(int broadcastId) {
+        synchronized (mPeriodicAdvertisementLock) {
+            int syncHandle = getSyncHandleForBroadcastId(broadcastId);
+            if (syncHandle != BassConstants.INVALID_SYNC_HANDLE) {
+                for (List<Integer> sources : mActiveSourceMap.values()) {
+                    if (sources.contains(syncHandle)) {
+                        log("removeBroadcastSourceData: broadcastId " + broadcastId + " is synced");
+                        return;
+                    }
+                }
+                if (mSyncHandleToBaseDataMap != null) {
+                    mSyncHandleToBaseDataMap.remove(syncHandle);
+                }
+            }
+            if (mPeriodicAdvertisementResultMap != null) {
+                mPeriodicAdvertisementResultMap.values().removeIf(
+                        paResMap -> paResMap.remove(broadcastId) != null && paResMap.isEmpty());
+            }
+            log("removeBroadcastSourceData: broadcastId " + broadcastId);
+        }
     }
 
     public Callbacks getCallbacks() {
@@ -374,11 +441,13 @@ public class BassClientService extends ProfileService {
 
         setBassClientService(this);
         // Saving PSync stuff for future addition
-        mSyncHandleToDeviceMap = new HashMap<Integer, BluetoothDevice>();
-        mPeriodicAdvertisementResultMap =
-                new HashMap<BluetoothDevice, HashMap<Integer, PeriodicAdvertisementResult>>();
-        mSyncHandleToBaseDataMap = new HashMap<Integer, BaseData>();
-        mSyncHandleToBroadcastIdMap = new HashMap<Integer, Integer>();
+        synchronized (mPeriodicAdvertisementLock) {
+            mSyncHandleToDeviceMap = new HashMap<Integer, BluetoothDevice>();
+            mPeriodicAdvertisementResultMap =
+                    new HashMap<BluetoothDevice, HashMap<Integer, PeriodicAdvertisementResult>>();
+            mSyncHandleToBaseDataMap = new HashMap<Integer, BaseData>();
+            mSyncHandleToBroadcastIdMap = new HashMap<Integer, Integer>();
+        }
         mSearchScanCallback = null;
         return true;
     }
@@ -411,13 +480,15 @@ public class BassClientService extends ProfileService {
         }
 
         setBassClientService(null);
-        if (mSyncHandleToDeviceMap != null) {
-            mSyncHandleToDeviceMap.clear();
-            mSyncHandleToDeviceMap = null;
-        }
-        if (mPeriodicAdvertisementResultMap != null) {
-            mPeriodicAdvertisementResultMap.clear();
-            mPeriodicAdvertisementResultMap = null;
+        synchronized (mPeriodicAdvertisementLock) {
+            if (mSyncHandleToDeviceMap != null) {
+                mSyncHandleToDeviceMap.clear();
+                mSyncHandleToDeviceMap = null;
+            }
+            if (mPeriodicAdvertisementResultMap != null) {
+                mPeriodicAdvertisementResultMap.clear();
+                mPeriodicAdvertisementResultMap = null;
+            }
         }
         if (mActiveSourceMap != null) {
             mActiveSourceMap.clear();
@@ -425,15 +496,15 @@ public class BassClientService extends ProfileService {
         if (mPendingGroupOp != null) {
             mPendingGroupOp.clear();
         }
-        if (mCachedBroadcasts != null) {
-            mCachedBroadcasts.clear();
-        }
+        mCachedBroadcasts.clear();
         if (mBroadcastMetadataMap != null) {
             mBroadcastMetadataMap.clear();
         }
-        if (mSyncHandleToBroadcastIdMap != null) {
-            mSyncHandleToBroadcastIdMap.clear();
-            mSyncHandleToBroadcastIdMap = null;
+        synchronized (mPeriodicAdvertisementLock) {
+            if (mSyncHandleToBroadcastIdMap != null) {
+                mSyncHandleToBroadcastIdMap.clear();
+                mSyncHandleToBroadcastIdMap = null;
+            }
         }
         return true;
     }
@@ -445,37 +516,43 @@ public class BassClientService extends ProfileService {
     }
 
     BluetoothDevice getDeviceForSyncHandle(int syncHandle) {
-        if (mSyncHandleToDeviceMap == null) {
-            return null;
+        synchronized (mPeriodicAdvertisementLock) {
+            if (mSyncHandleToDeviceMap == null) {
+                return null;
+            }
+            return mSyncHandleToDeviceMap.get(syncHandle);
         }
-        return mSyncHandleToDeviceMap.get(syncHandle);
     }
 
     int getSyncHandleForBroadcastId(int broadcastId) {
-        if (mSyncHandleToBroadcastIdMap == null) {
-            return BassConstants.INVALID_SYNC_HANDLE;
-        }
+        synchronized (mPeriodicAdvertisementLock) {
+            if (mSyncHandleToBroadcastIdMap == null) {
+                return BassConstants.INVALID_SYNC_HANDLE;
+            }
 
-        int syncHandle = BassConstants.INVALID_SYNC_HANDLE;
-        for (Map.Entry<Integer, Integer> entry : mSyncHandleToBroadcastIdMap.entrySet()) {
-            Integer value = entry.getValue();
-            if (value == broadcastId) {
-                syncHandle = entry.getKey();
-                break;
+            int syncHandle = BassConstants.INVALID_SYNC_HANDLE;
+            for (Map.Entry<Integer, Integer> entry : mSyncHandleToBroadcastIdMap.entrySet()) {
+                Integer value = entry.getValue();
+                if (value == broadcastId) {
+                    syncHandle = entry.getKey();
+                    break;
+                }
             }
+            return syncHandle;
         }
-        return syncHandle;
     }
 
     int getBroadcastIdForSyncHandle(int syncHandle) {
-        if (mSyncHandleToBroadcastIdMap == null) {
-            return BassConstants.INVALID_BROADCAST_ID;
-        }
+        synchronized (mPeriodicAdvertisementLock) {
+            if (mSyncHandleToBroadcastIdMap == null) {
+                return BassConstants.INVALID_BROADCAST_ID;
+            }
 
-        if (mSyncHandleToBroadcastIdMap.containsKey(syncHandle)) {
-            return mSyncHandleToBroadcastIdMap.get(syncHandle);
+            if (mSyncHandleToBroadcastIdMap.containsKey(syncHandle)) {
+                return mSyncHandleToBroadcastIdMap.get(syncHandle);
+            }
+            return BassConstants.INVALID_BROADCAST_ID;
         }
-        return BassConstants.INVALID_BROADCAST_ID;
     }
 
     private static synchronized void setBassClientService(BassClientService instance) {
@@ -1073,9 +1150,8 @@ public class BassClientService extends ProfileService {
                             + broadcastId);
 
                     if (broadcastId != BassConstants.INVALID_BROADCAST_ID
-                            && mCachedBroadcasts.get(broadcastId) == null) {
+                            && mCachedBroadcasts.put(broadcastId, result)) {
                         log("selectBroadcastSource: broadcastId " + broadcastId);
-                        mCachedBroadcasts.put(broadcastId, result);
                         synchronized (mStateMachines) {
                             for (BassClientStateMachine sm : mStateMachines.values()) {
                                 if (sm.isConnected()) {
@@ -1090,8 +1166,9 @@ public class BassClientService extends ProfileService {
                     Log.e(TAG, "Scan Failure:" + errorCode);
                 }
             };
-            // when starting scan, clear the previously cached broadcast scan results
-            mCachedBroadcasts.clear();
+            // when starting scan, select again the previously cached broadcast sources once
+            // they are found
+            mCachedBroadcasts.beginSearch();
             // clear previous sources notify flag before scanning new result
             // this is to make sure the active sources are notified even if already synced
             if (mPeriodicAdvertisementResultMap != null) {
@@ -1902,6 +1979,8 @@ public class BassClientService extends ProfileService {
         }
 
         sb.append("\n\n");
+        mCachedBroadcasts.dump(sb);
+        sb.append("\n");
         sEventLogger.dump(sb);
         sb.append("\n");
     }
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.bass_client;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.SystemClock;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Broadcast sources found while searching, bounded in number and age.
+ *
+ * <p>Sources are kept in the order they were last seen. The least recently seen source is
+ * evicted once {@link #MAX_SOURCES} are cached, and sources not seen for {@link #EXPIRY_MS} are
+ * dropped. Evicted and expired sources are reported to the removal listener, so that the data
+ * kept for them elsewhere can be released.
+ *
+ * <p>Sources are returned as copies, which are not updated once returned.
+ */
+class BroadcastSourceCache {
+    @VisibleForTesting
+    static final int MAX_SOURCES = 64;
+    @VisibleForTesting
+    static final long EXPIRY_MS = 10 * 60 * 1000;
+
+    /** Compact form of a broadcast source. */
+    static class Source {
+        private final int mBroadcastId;
+        // Kept to sync to the source again when it is added to a sink.
+        private BluetoothDevice mDevice;
+        private int mAdvertisingSid;
+        private int mPeriodicAdvertisingInterval;
+        private byte[] mScanRecord;
+        private String mBroadcastName;
+        private int mNumSubgroups;
+        private int mNumBises;
+        private int mRssi;
+        private long mLastSeenTime;
+        private int mSearch;
+
+        private Source(int broadcastId) {
+            mBroadcastId = broadcastId;
+        }
+
+        private Source copy() {
+            Source source = new Source(mBroadcastId);
+            source.mDevice = mDevice;
+            source.mAdvertisingSid = mAdvertisingSid;
+            source.mPeriodicAdvertisingInterval = mPeriodicAdvertisingInterval;
+            source.mScanRecord = mScanRecord;
+            source.mBroadcastName = mBroadcastName;
+            source.mNumSubgroups = mNumSubgroups;
+            source.mNumBises = mNumBises;
+            source.mRssi = mRssi;
+            source.mLastSeenTime = mLastSeenTime;
+            source.mSearch = mSearch;
+            return source;
+        }
+
+        int getBroadcastId() {
+            return mBroadcastId;
+        }
+
+        /**
+         * Returns a scan result of the source, with the fields needed to sync to it again: the
+         * device, advertising SID, periodic advertising interval, RSSI and scan record.
+         */
+        ScanResult getScanResult() {
+            return new ScanResult(mDevice, 0, BluetoothDevice.PHY_LE_1M, ScanResult.PHY_UNUSED,
+                    mAdvertisingSid, ScanResult.TX_POWER_NOT_PRESENT, mRssi,
+                    mPeriodicAdvertisingInterval,
+                    mScanRecord != null ? ScanRecord.parseFromBytes(mScanRecord) : null,
+                    TimeUnit.MILLISECONDS.toNanos(mLastSeenTime));
+        }
+
+        /** Returns the broadcast name, or null if it is not known yet. */
+        String getBroadcastName() {
+            return mBroadcastName;
+        }
+
+        /** Returns the number of subgroups in the BASE, or 0 if it was not received yet. */
+        int getNumSubgroups() {
+            return mNumSubgroups;
+        }
+
+        /** Returns the number of BISes in the BASE, or 0 if it was not received yet. */
+        int getNumBises() {
+            return mNumBises;
+        }
+
+        int getRssi() {
+            return mRssi;
+        }
+
+        /** Returns when the source was last seen, in {@link SystemClock#elapsedRealtime}. */
+        long getLastSeenTime() {
+            return mLastSeenTime;
+        }
+
+        @Override
+        public String toString() {
+            return "Source{broadcastId=" + mBroadcastId + ", name=" + mBroadcastName
+                    + ", subgroups=" + mNumSubgroups + ", bises=" + mNumBises
+                    + ", rssi=" + mRssi + ", lastSeen=" + mLastSeenTime + "}";
+        }
+    }
+
+    private final LinkedHashMap<Integer, Source> mSources = new LinkedHashMap<>();
+    private final IntConsumer mRemovalListener;
+    private final LongSupplier mClock;
+    private int mSearch;
+    private int mHits;
+    private int mMisses;
+    private int mEvictions;
+    private int mExpirations;
+
+    /**
+     * @param removalListener called with the broadcast ID of the evicted and expired sources
+     */
+    BroadcastSourceCache(IntConsumer removalListener) {
+        this(removalListener, SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    BroadcastSourceCache(IntConsumer removalListener, LongSupplier clock) {
+        mRemovalListener = removalListener;
+        mClock = clock;
+    }
+
+    /**
+     * Caches a scan result of the source {@code broadcastId}.
+     *
+     * @return true if the source was not seen yet since {@link #beginSearch}
+     */
+    boolean put(int broadcastId, ScanResult result) {
+        List<Integer> removed = new ArrayList<>();
+        boolean isNew;
+        synchronized (this) {
+            long now = mClock.getAsLong();
+            Source source = mSources.remove(broadcastId);
+            isNew = source == null || source.mSearch != mSearch;
+            if (source == null) {
+                source = new Source(broadcastId);
+            }
+            source.mDevice = result.getDevice();
+            source.mAdvertisingSid = result.getAdvertisingSid();
+            source.mPeriodicAdvertisingInterval = result.getPeriodicAdvertisingInterval();
+            source.mScanRecord =
+                    result.getScanRecord() != null ? result.getScanRecord().getBytes() : null;
+            source.mRssi = result.getRssi();
+            source.mLastSeenTime = now;
+            source.mSearch = mSearch;
+            mSources.put(broadcastId, source);
+            removeExpiredSources(now, removed);
+            Iterator<Source> it = mSources.values().iterator();
+            while (mSources.size() > MAX_SOURCES) {
+                removed.add(it.next().mBroadcastId);
+                it.remove();
+                mEvictions++;
+            }
+        }
+        notifyRemoved(removed);
+        return isNew;
+    }
+
+    /** Returns the last scan result of the source {@code broadcastId}, or null if not cached. */
+    ScanResult getScanResult(int broadcastId) {
+        Source source = get(broadcastId);
+        return source != null ? source.getScanResult() : null;
+    }
+
+    /** Returns whether the source {@code broadcastId} is cached, without counting a lookup. */
+    synchronized boolean contains(int broadcastId) {
+        return mSources.containsKey(broadcastId);
+    }
+
+    /** Returns the source {@code broadcastId}, or null if not cached. */
+    Source get(int broadcastId) {
+        List<Integer> removed = new ArrayList<>();
+        Source source;
+        synchronized (this) {
+            removeExpiredSources(mClock.getAsLong(), removed);
+            source = mSources.get(broadcastId);
+            if (source != null) {
+                source = source.copy();
+                mHits++;
+            } else {
+                mMisses++;
+            }
+        }
+        notifyRemoved(removed);
+        return source;
+    }
+
+    synchronized void updateBroadcastName(int broadcastId, String broadcastName) {
+        Source source = mSources.get(broadcastId);
+        if (source != null) {
+            source.mBroadcastName = broadcastName;
+        }
+    }
+
+    synchronized void updateBase(int broadcastId, BaseData base) {
+        Source source = mSources.get(broadcastId);
+        if (source != null) {
+            source.mNumSubgroups = base.getNumberOfSubgroupsofBIG();
+            source.mNumBises = base.getNumberOfIndices();
+        }
+    }
+
+    /** Starts a new search, cached sources are reported as new by {@link #put} once seen again. */
+    synchronized void beginSearch() {
+        mSearch++;
+    }
+
+    /** Removes all the sources, without reporting them to the removal listener. */
+    synchronized void clear() {
+        mSources.clear();
+    }
+
+    synchronized int size() {
+        return mSources.size();
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        sb.append("Broadcast source cache: size=" + mSources.size() + "/" + MAX_SOURCES
+                + " hits=" + mHits + " misses=" + mMisses + " evictions=" + mEvictions
+                + " expirations=" + mExpirations + "\n");
+        List<Source> sources = new ArrayList<>(mSources.values());
+        Collections.reverse(sources);
+        for (Source source : sources) {
+            sb.append("  " + source + "\n");
+        }
+    }
+
+    private void removeExpiredSources(long now, List<Integer> removed) {
+        Iterator<Source> it = mSources.values().iterator();
+        while (it.hasNext()) {
+            Source source = it.next();
+            // Sources are ordered by last seen time.
+            if (now - source.mLastSeenTime < EXPIRY_MS) {
+                break;
+            }
+            removed.add(source.mBroadcastId);
+            it.remove();
+            mExpirations++;
+        }
+    }
+
+    private void notifyRemoved(List<Integer> removed) {
+        for (int broadcastId : removed) {
+            mRemovalListener.accept(broadcastId);
+        }
+    }
+}
@@ -206,6 +206,10 @@ public class AdapterService extends Service {
     private final ArrayList<String> mStartedProfiles = new ArrayList<>();
     private final ArrayList<ProfileService> mRegisteredProfiles = new ArrayList<>();
     private final ArrayList<ProfileService> mRunningProfiles = new ArrayList<>();
+    private final ProfileStartupScheduler mProfileStartupScheduler =
+            new ProfileStartupScheduler(
+                    service -> setProfileServiceState(service, BluetoothAdapter.STATE_ON),
+                    SystemClock::elapsedRealtime);
     private HashSet<String> mLeAudioAllowDevices = new HashSet<>();
 
     public static final String ACTION_LOAD_ADAPTER_PROPERTIES =
@@ -511,6 +515,7 @@ public class AdapterService extends Service {
                         return;
                     }
                     mRunningProfiles.add(profile);
+                    mProfileStartupScheduler.onServiceStarted(profile.getName());
                     // TODO(b/228875190): GATT is assumed supported. GATT starting triggers hardware
                     // initializtion. Configuring a device without GATT causes start up failures.
                     if (GattService.class.getSimpleName().equals(profile.getName())) {
@@ -627,10 +632,12 @@ public class AdapterService extends Service {
         mAdapter = BluetoothAdapter.getDefaultAdapter();
         mAdapterProperties = new AdapterProperties(this);
         mAdapterStateMachine = new AdapterState(this, mLooper);
+        long phaseStartMs = SystemClock.elapsedRealtime();
         mBluetoothKeystoreService =
                 new BluetoothKeystoreService(
                         BluetoothKeystoreNativeInterface.getInstance(), isCommonCriteriaMode());
         mBluetoothKeystoreService.start();
+        mProfileStartupScheduler.recordPhase("keystore", phaseStartMs);
         int configCompareResult = mBluetoothKeystoreService.getCompareResult();
 
         // Start tracking Binder latency for the bluetooth process.
@@ -641,6 +648,7 @@ public class AdapterService extends Service {
                 getApplicationContext()
                         .getPackageManager()
                         .hasSystemFeature(PackageManager.FEATURE_LEANBACK_ONLY);
+        phaseStartMs = SystemClock.elapsedRealtime();
         mNativeInterface.init(
                 this,
                 mAdapterProperties,
@@ -650,6 +658,7 @@ public class AdapterService extends Service {
                 getInitFlags(),
                 isAtvDevice,
                 getApplicationInfo().dataDir);
+        mProfileStartupScheduler.recordPhase("native init", phaseStartMs);
         mNativeAvailable = true;
         mPreferredAudioProfilesCallbacks =
                 new RemoteCallbackList<IBluetoothPreferredAudioProfilesCallback>();
@@ -669,12 +678,16 @@ public class AdapterService extends Service {
                         "BluetoothQualityReportNativeInterface cannot be null when BQR starts");
         mBluetoothQualityReportNativeInterface.init();
 
+        phaseStartMs = SystemClock.elapsedRealtime();
         mSdpManager = SdpManager.init(this);
+        mProfileStartupScheduler.recordPhase("sdp", phaseStartMs);
 
         FeatureFlagsImpl featureFlags = new FeatureFlagsImpl();
 
+        phaseStartMs = SystemClock.elapsedRealtime();
         mDatabaseManager = new DatabaseManager(this, featureFlags);
         mDatabaseManager.start(MetadataDatabase.createDatabase(this));
+        mProfileStartupScheduler.recordPhase("database", phaseStartMs);
 
         boolean isAutomotiveDevice =
                 getApplicationContext()
@@ -689,8 +702,10 @@ public class AdapterService extends Service {
          */
         if (!isAutomotiveDevice && getResources().getBoolean(R.bool.enable_phone_policy)) {
             Log.i(TAG, "Phone policy enabled");
+            phaseStartMs = SystemClock.elapsedRealtime();
             mPhonePolicy = new PhonePolicy(this, new ServiceFactory(), featureFlags);
             mPhonePolicy.start();
+            mProfileStartupScheduler.recordPhase("phone policy", phaseStartMs);
         } else {
             Log.i(TAG, "Phone policy disabled");
         }
@@ -976,7 +991,12 @@ public class AdapterService extends Service {
             updateUuids();
             mAdapterStateMachine.sendMessage(AdapterState.BREDR_STARTED);
         } else {
-            setAllProfileServiceStates(supportedProfileServices, BluetoothAdapter.STATE_ON);
+            // TODO(b/228875190): GATT is assumed supported and treated differently as part of the
+            // "BLE ON" state, despite GATT not being BLE specific.
+            mProfileStartupScheduler.start(
+                    Arrays.stream(supportedProfileServices)
+                            .filter(service -> !GattService.class.equals(service))
+                            .toArray(Class[]::new));
         }
     }
 
@@ -996,7 +1016,12 @@ public class AdapterService extends Service {
             debugLog("stopProfileServices() - No profiles services to stop or already stopped.");
             mAdapterStateMachine.sendMessage(AdapterState.BREDR_STOPPED);
         } else {
-            setAllProfileServiceStates(supportedProfileServices, BluetoothAdapter.STATE_OFF);
+            List<Class> notStartedServices = mProfileStartupScheduler.cancel();
+            setAllProfileServiceStates(
+                    Arrays.stream(supportedProfileServices)
+                            .filter(service -> !notStartedServices.contains(service))
+                            .toArray(Class[]::new),
+                    BluetoothAdapter.STATE_OFF);
         }
     }
 
@@ -7033,6 +7058,9 @@ public class AdapterService extends Service {
         if (mPbapService != null && mPbapService.isAvailable()) {
             mPbapService.handleBondStateChanged(device, fromState, toState);
         }
+        if (mPbapClientService != null && mPbapClientService.isAvailable()) {
+            mPbapClientService.handleBondStateChanged(device, fromState, toState);
+        }
         if (mCsipSetCoordinatorService != null && mCsipSetCoordinatorService.isAvailable()) {
             mCsipSetCoordinatorService.handleBondStateChanged(device, fromState, toState);
         }
@@ -7264,6 +7292,8 @@ public class AdapterService extends Service {
         for (ProfileService profile : mRegisteredProfiles) {
             profile.dump(sb);
         }
+        ConnectionStateIndex.getInstance().dump(sb);
+        mProfileStartupScheduler.dump(sb);
         mSilenceDeviceManager.dump(fd, writer, args);
         mDatabaseManager.dump(writer);
 
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the connection states of the devices, per profile.
+ *
+ * <p>Profile state machines publish their transitions here, so that the devices in a given state
+ * are found without asking the state machine of every bonded device. Only the devices which are
+ * not disconnected are indexed: the state of a device is found in O(1) and the devices in given
+ * states in O(k), k being the number of devices not disconnected on the profile. The index is
+ * lock-free and can be read from any thread.
+ *
+ * <p>The indexed states are the ones last published, which the state of a state machine may be
+ * ahead of until it publishes its transition.
+ */
+public class ConnectionStateIndex {
+    private static final ConnectionStateIndex sInstance = new ConnectionStateIndex();
+
+    // profile -> device -> connection state, disconnected devices are removed
+    private final Map<Integer, Map<BluetoothDevice, Integer>> mStates =
+            new ConcurrentHashMap<>();
+
+    ConnectionStateIndex() {}
+
+    /**
+     * Get the index shared by the profile services.
+     *
+     * @return the singleton instance, guaranteed not null
+     */
+    public static ConnectionStateIndex getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Returns whether {@code states} contains {@link BluetoothProfile#STATE_DISCONNECTED}, in
+     * which case the bonded devices must be checked, as disconnected devices are not indexed.
+     */
+    public static boolean containsDisconnectedState(int[] states) {
+        for (int state : states) {
+            if (state == BluetoothProfile.STATE_DISCONNECTED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Called by the state machine of {@code profile} when {@code device} enters {@code state}. */
+    public void setConnectionState(int profile, BluetoothDevice device, int state) {
+        if (state == BluetoothProfile.STATE_DISCONNECTED) {
+            Map<BluetoothDevice, Integer> states = mStates.get(profile);
+            if (states != null) {
+                states.remove(device);
+            }
+            return;
+        }
+        mStates.computeIfAbsent(profile, k -> new ConcurrentHashMap<>()).put(device, state);
+    }
+
+    /** Returns the connection state of {@code device} on {@code profile}. */
+    public int getConnectionState(int profile, BluetoothDevice device) {
+        Map<BluetoothDevice, Integer> states = mStates.get(profile);
+        Integer state = states != null ? states.get(device) : null;
+        return state != null ? state : BluetoothProfile.STATE_DISCONNECTED;
+    }
+
+    /**
+     * Returns the devices in one of {@code states} on {@code profile}. Disconnected devices are
+     * never returned.
+     */
+    public List<BluetoothDevice> getDevicesMatchingConnectionStates(int profile, int[] states) {
+        List<BluetoothDevice> devices = new ArrayList<>();
+        Map<BluetoothDevice, Integer> profileStates = mStates.get(profile);
+        if (profileStates == null) {
+            return devices;
+        }
+        for (Map.Entry<BluetoothDevice, Integer> entry : profileStates.entrySet()) {
+            int connectionState = entry.getValue();
+            for (int state : states) {
+                if (connectionState == state) {
+                    devices.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * Returns the bonded devices to check for {@code states} on {@code profile}: all of them if
+     * {@code states} contains {@link BluetoothProfile#STATE_DISCONNECTED}, else every indexed one,
+     * which avoids copying the bonded devices. The indexed state is not matched against
+     * {@code states}, as the caller checks the state of its state machine, which may be ahead of
+     * the index.
+     *
+     * @return the devices to check, or null if the bonded devices are unknown
+     */
+    public BluetoothDevice[] getBondedDevicesToCheck(AdapterService adapterService, int profile,
+            int[] states) {
+        if (containsDisconnectedState(states)) {
+            return adapterService.getBondedDevices();
+        }
+        List<BluetoothDevice> devices = new ArrayList<>();
+        Map<BluetoothDevice, Integer> profileStates = mStates.get(profile);
+        if (profileStates != null) {
+            for (BluetoothDevice device : profileStates.keySet()) {
+                if (adapterService.getBondState(device) == BluetoothDevice.BOND_BONDED) {
+                    devices.add(device);
+                }
+            }
+        }
+        return devices.toArray(new BluetoothDevice[0]);
+    }
+
+    /** Forgets the connection states on {@code profile}, when its service stops. */
+    public void clear(int profile) {
+        mStates.remove(profile);
+    }
+
+    /** Dump the index of every profile. */
+    public void dump(StringBuilder sb) {
+        sb.append("\nConnection state index:\n");
+        for (Map.Entry<Integer, Map<BluetoothDevice, Integer>> entry : mStates.entrySet()) {
+            sb.append("  " + BluetoothProfile.getProfileName(entry.getKey()) + ": "
+                    + entry.getValue() + "\n");
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import android.util.Log;
+
+import com.android.bluetooth.a2dp.A2dpService;
+import com.android.bluetooth.a2dpsink.A2dpSinkService;
+import com.android.bluetooth.avrcp.AvrcpTargetService;
+import com.android.bluetooth.avrcpcontroller.AvrcpControllerService;
+import com.android.bluetooth.csip.CsipSetCoordinatorService;
+import com.android.bluetooth.hap.HapClientService;
+import com.android.bluetooth.hearingaid.HearingAidService;
+import com.android.bluetooth.hfp.HeadsetService;
+import com.android.bluetooth.hfpclient.HeadsetClientService;
+import com.android.bluetooth.le_audio.LeAudioService;
+import com.android.bluetooth.vc.VolumeControlService;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Starts the profile services and records the startup timings.
+ *
+ * <p>The audio profiles are started first as they gate the auto-reconnection of the remote
+ * devices. The services not started yet when the profiles are stopped are skipped. The latency
+ * of each service, the adapter initialization phases and the time until the audio profiles and
+ * all the profiles are ready are available through dumpsys.
+ */
+class ProfileStartupScheduler {
+    private static final String TAG = "ProfileStartupScheduler";
+
+    /** Services started first, the time until they are all running is reported. */
+    @VisibleForTesting
+    static final Set<Class> AUDIO_PROFILES =
+            Set.of(
+                    A2dpService.class,
+                    A2dpSinkService.class,
+                    AvrcpTargetService.class,
+                    AvrcpControllerService.class,
+                    CsipSetCoordinatorService.class,
+                    HapClientService.class,
+                    HeadsetService.class,
+                    HeadsetClientService.class,
+                    HearingAidService.class,
+                    LeAudioService.class,
+                    VolumeControlService.class);
+
+    private final Consumer<Class> mStarter;
+    private final LongSupplier mClock;
+
+    // Services not started yet, in start order
+    private final List<Class> mPendingServices = new ArrayList<>();
+    // service simple name -> start request time, for the services not running yet
+    private final Map<String, Long> mStartTimes = new HashMap<>();
+    // service simple name -> start latency, in start order
+    private final Map<String, Long> mLatencies = new LinkedHashMap<>();
+    // adapter initialization phase -> duration
+    private final Map<String, Long> mPhases = new LinkedHashMap<>();
+    private final Set<String> mPendingAudioProfiles = new HashSet<>();
+    private long mStartTime;
+    private long mAudioProfilesReadyMs = -1;
+    private long mAllProfilesReadyMs = -1;
+
+    /**
+     * @param starter starts the given profile service
+     * @param clock returns the current time in milliseconds
+     */
+    ProfileStartupScheduler(Consumer<Class> starter, LongSupplier clock) {
+        mStarter = starter;
+        mClock = clock;
+    }
+
+    /** Records the duration of an adapter initialization phase which began at {@code startMs}. */
+    synchronized void recordPhase(String phase, long startMs) {
+        mPhases.put(phase, mClock.getAsLong() - startMs);
+    }
+
+    /** Starts {@code services}, the audio profiles first. */
+    void start(Class[] services) {
+        synchronized (this) {
+            mPendingServices.clear();
+            mStartTimes.clear();
+            mLatencies.clear();
+            mPendingAudioProfiles.clear();
+            mStartTime = mClock.getAsLong();
+            mAudioProfilesReadyMs = -1;
+            mAllProfilesReadyMs = -1;
+
+            // Audio profiles first, the order of the others is kept
+            for (Class service : services) {
+                if (AUDIO_PROFILES.contains(service)) {
+                    mPendingServices.add(service);
+                    mPendingAudioProfiles.add(service.getSimpleName());
+                }
+            }
+            for (Class service : services) {
+                if (!AUDIO_PROFILES.contains(service)) {
+                    mPendingServices.add(service);
+                }
+            }
+            if (mPendingAudioProfiles.isEmpty()) {
+                mAudioProfilesReadyMs = 0;
+            }
+        }
+        while (true) {
+            Class service;
+            synchronized (this) {
+                // Emptied by cancel() if the profiles are stopped meanwhile
+                if (mPendingServices.isEmpty()) {
+                    return;
+                }
+                service = mPendingServices.remove(0);
+                mStartTimes.put(service.getSimpleName(), mClock.getAsLong());
+            }
+            mStarter.accept(service);
+        }
+    }
+
+    /** Called when the profile service {@code name} reports {@code STATE_ON}. */
+    synchronized void onServiceStarted(String name) {
+        Long startTime = mStartTimes.remove(name);
+        if (startTime == null) {
+            return;
+        }
+        long now = mClock.getAsLong();
+        mLatencies.put(name, now - startTime);
+        if (mPendingAudioProfiles.remove(name) && mPendingAudioProfiles.isEmpty()) {
+            mAudioProfilesReadyMs = now - mStartTime;
+            Log.i(TAG, "Audio profiles ready in " + mAudioProfilesReadyMs + " ms");
+        }
+        if (mPendingServices.isEmpty() && mStartTimes.isEmpty()) {
+            mAllProfilesReadyMs = now - mStartTime;
+            Log.i(TAG, "Profile services ready in " + mAllProfilesReadyMs + " ms");
+        }
+    }
+
+    /**
+     * Drops the services not started yet, when the profiles are stopped.
+     *
+     * @return the services which were never started, and must not be stopped
+     */
+    synchronized List<Class> cancel() {
+        List<Class> notStartedServices = new ArrayList<>(mPendingServices);
+        mPendingServices.clear();
+        mStartTimes.clear();
+        return notStartedServices;
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        sb.append("\nProfile startup:\n");
+        for (Map.Entry<String, Long> entry : mPhases.entrySet()) {
+            sb.append("  " + entry.getKey() + ": " + entry.getValue() + " ms\n");
+        }
+        for (Map.Entry<String, Long> entry : mLatencies.entrySet()) {
+            sb.append("  " + entry.getKey() + " started in " + entry.getValue() + " ms\n");
+        }
+        for (String name : mStartTimes.keySet()) {
+            sb.append("  " + name + " starting\n");
+        }
+        for (Class service : mPendingServices) {
+            sb.append("  " + service.getSimpleName() + " not started\n");
+        }
+        sb.append("  audio profiles ready: "
+                + (mAudioProfilesReadyMs < 0 ? "no" : mAudioProfilesReadyMs + " ms") + "\n");
+        sb.append("  all profiles ready: "
+                + (mAllProfilesReadyMs < 0 ? "no" : mAllProfilesReadyMs + " ms") + "\n");
+    }
+}
@@ -42,6 +42,7 @@ import android.os.RemoteException;
 import android.os.SystemProperties;
 import android.util.Log;
 
+import com.android.bluetooth.BluetoothAddress;
 import com.android.bluetooth.BluetoothStatsLog;
 import com.android.bluetooth.R;
 import com.android.bluetooth.Utils;
@@ -75,9 +76,10 @@ public class RemoteDevices {
     private static final int MESSAGE_UUID_INTENT = 1;
     private static final String LOG_SOURCE_DIS = "DIS";
 
-    private final HashMap<String, DeviceProperties> mDevices;
-    private final HashMap<String, String> mDualDevicesMap;
-    private ArrayDeque<String> mDeviceQueue;
+    // Keyed on the packed address, lookups from native callbacks don't format the address.
+    private final HashMap<BluetoothAddress, DeviceProperties> mDevices;
+    private final HashMap<BluetoothAddress, BluetoothAddress> mDualDevicesMap;
+    private ArrayDeque<BluetoothAddress> mDeviceQueue;
 
     /**
      * Bluetooth HFP v1.8 specifies the Battery Charge indicator of AG can take values from
@@ -153,8 +155,8 @@ public class RemoteDevices {
         mAdapter = ((Context) service).getSystemService(BluetoothManager.class).getAdapter();
         mAdapterService = service;
         mSdpTracker = new ArrayList<BluetoothDevice>();
-        mDevices = new HashMap<String, DeviceProperties>();
-        mDualDevicesMap = new HashMap<String, String>();
+        mDevices = new HashMap<BluetoothAddress, DeviceProperties>();
+        mDualDevicesMap = new HashMap<BluetoothAddress, BluetoothAddress>();
         mDeviceQueue = new ArrayDeque<>();
         mHandler = new RemoteDevicesHandler(looper);
         mMainHandler = new Handler(Looper.getMainLooper());
@@ -233,45 +235,46 @@ public class RemoteDevices {
 
     DeviceProperties getDeviceProperties(BluetoothDevice device) {
         synchronized (mDevices) {
-            String address = mDualDevicesMap.get(device.getAddress());
-            // If the device is not in the dual map, use its original address
-            if (address == null || mDevices.get(address) == null) {
-                address = device.getAddress();
-            }
-            return mDevices.get(address);
+            return getDeviceProperties(BluetoothAddress.fromString(device.getAddress()));
         }
     }
 
     BluetoothDevice getDevice(byte[] address) {
-        String addressString = Utils.getAddressStringFromByte(address);
-        String deviceAddress = mDualDevicesMap.get(addressString);
-        // If the device is not in the dual map, use its original address
-        if (deviceAddress == null || mDevices.get(deviceAddress) == null) {
-            deviceAddress = addressString;
+        if (address == null || address.length != BluetoothAddress.LENGTH) {
+            return null;
         }
-
-        DeviceProperties prop = mDevices.get(deviceAddress);
+        DeviceProperties prop = getDeviceProperties(BluetoothAddress.fromBytes(address));
         if (prop != null) {
             return prop.getDevice();
         }
         return null;
     }
 
+    private DeviceProperties getDeviceProperties(BluetoothAddress address) {
+        if (address == null) {
+            return null;
+        }
+        BluetoothAddress deviceAddress = mDualDevicesMap.get(address);
+        // If the device is not in the dual map, use its original address
+        DeviceProperties prop = deviceAddress == null ? null : mDevices.get(deviceAddress);
+        return prop != null ? prop : mDevices.get(address);
+    }
+
     @VisibleForTesting
     DeviceProperties addDeviceProperties(byte[] address) {
         synchronized (mDevices) {
             DeviceProperties prop = new DeviceProperties();
-            prop.setDevice(mAdapter.getRemoteDevice(Utils.getAddressStringFromByte(address)));
+            BluetoothAddress key = BluetoothAddress.fromBytes(address);
+            prop.setDevice(mAdapter.getRemoteDevice(key.toString()));
             prop.setAddress(address);
-            String key = Utils.getAddressStringFromByte(address);
             DeviceProperties pv = mDevices.put(key, prop);
 
             if (pv == null) {
                 mDeviceQueue.offer(key);
                 if (mDeviceQueue.size() > MAX_DEVICE_QUEUE_SIZE) {
-                    String deleteKey = mDeviceQueue.poll();
+                    BluetoothAddress deleteKey = mDeviceQueue.poll();
                     for (BluetoothDevice device : mAdapterService.getBondedDevices()) {
-                        if (device.getAddress().equals(deleteKey)) {
+                        if (device.getAddress().equals(deleteKey.toString())) {
                             return prop;
                         }
                     }
@@ -1066,7 +1069,8 @@ public class RemoteDevices {
         deviceProperties.setIsConsolidated(true);
         deviceProperties.setDeviceType(BluetoothDevice.DEVICE_TYPE_DUAL);
         deviceProperties.setIdentityAddress(Utils.getAddressStringFromByte(secondaryAddress));
-        mDualDevicesMap.put(deviceProperties.getIdentityAddress(), Utils.getAddressStringFromByte(mainAddress));
+        mDualDevicesMap.put(BluetoothAddress.fromBytes(secondaryAddress),
+                BluetoothAddress.fromBytes(mainAddress));
     }
 
     /**
@@ -1149,7 +1153,7 @@ public class RemoteDevices {
                 Utils.sendBroadcast(mAdapterService, intent, BLUETOOTH_CONNECT,
                         Utils.getTempAllowlistBroadcastOptions());
             } else if (device.getBondState() == BluetoothDevice.BOND_NONE) {
-                String key = Utils.getAddressStringFromByte(address);
+                BluetoothAddress key = BluetoothAddress.fromBytes(address);
                 mDevices.remove(key);
                 mDeviceQueue.remove(key); // Remove from LRU cache
 
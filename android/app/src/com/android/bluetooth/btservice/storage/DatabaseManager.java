@@ -36,6 +36,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemProperties;
 import android.provider.Settings;
 import android.util.Log;
 
@@ -52,6 +53,7 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -83,11 +85,27 @@ public class DatabaseManager {
 
     private static final int LOAD_DATABASE_TIMEOUT = 500; // milliseconds
     private static final int MSG_LOAD_DATABASE = 0;
-    private static final int MSG_UPDATE_DATABASE = 1;
     private static final int MSG_DELETE_DATABASE = 2;
+    private static final int MSG_FLUSH_PENDING_WRITES = 3;
     private static final int MSG_CLEAR_DATABASE = 100;
     private static final String LOCAL_STORAGE = "LocalStorage";
 
+    // Updates of a device within this window are merged into a single database write.
+    private static final String WRITE_COALESCING_WINDOW_PROPERTY =
+            "bluetooth.database.write_coalescing_window_ms";
+    private static final int WRITE_COALESCING_WINDOW_MS = 200;
+    private long mWriteCoalescingWindowMillis =
+            SystemProperties.getInt(WRITE_COALESCING_WINDOW_PROPERTY, WRITE_COALESCING_WINDOW_MS);
+    // Metadata waiting to be written, by address, in update order.
+    @GuardedBy("mPendingWrites")
+    private final Map<String, Metadata> mPendingWrites = new LinkedHashMap<>();
+    @GuardedBy("mPendingWrites")
+    private long mRequestedWriteCount = 0;
+    @GuardedBy("mPendingWrites")
+    private long mCommittedWriteCount = 0;
+    @GuardedBy("mPendingWrites")
+    private long mTransactionCount = 0;
+
     private static final String
             LEGACY_HEADSET_PRIORITY_PREFIX = "bluetooth_headset_priority_";
     private static final String
@@ -144,21 +162,23 @@ public class DatabaseManager {
                     }
                     break;
                 }
-                case MSG_UPDATE_DATABASE: {
-                    Metadata data = (Metadata) msg.obj;
-                    synchronized (mDatabaseLock) {
-                        mDatabase.insert(data);
-                    }
-                    break;
-                }
                 case MSG_DELETE_DATABASE: {
                     String address = (String) msg.obj;
+                    // Commit the other pending updates before the bond removal.
+                    flushPendingWrites();
                     synchronized (mDatabaseLock) {
                         mDatabase.delete(address);
                     }
                     break;
                 }
+                case MSG_FLUSH_PENDING_WRITES: {
+                    flushPendingWrites();
+                    break;
+                }
                 case MSG_CLEAR_DATABASE: {
+                    synchronized (mPendingWrites) {
+                        mPendingWrites.clear();
+                    }
                     synchronized (mDatabaseLock) {
                         mDatabase.deleteAll();
                     }
@@ -1077,6 +1097,9 @@ public class DatabaseManager {
         removeUnusedMetadata();
         mAdapterService.unregisterReceiver(mReceiver);
         if (mHandlerThread != null) {
+            // Don't lose the updates still waiting for the coalescing window.
+            mHandler.removeMessages(MSG_FLUSH_PENDING_WRITES);
+            flushPendingWrites();
             mHandlerThread.quit();
             mHandlerThread = null;
         }
@@ -1351,9 +1374,47 @@ public class DatabaseManager {
             return;
         }
         Log.d(TAG, "updateDatabase " + data.getAnonymizedAddress());
-        Message message = mHandler.obtainMessage(MSG_UPDATE_DATABASE);
-        message.obj = data;
-        mHandler.sendMessage(message);
+        synchronized (mPendingWrites) {
+            mRequestedWriteCount++;
+            boolean flushScheduled = !mPendingWrites.isEmpty();
+            // The latest metadata of the device replaces any update still pending.
+            mPendingWrites.remove(data.getAddress());
+            mPendingWrites.put(data.getAddress(), data);
+            if (!flushScheduled) {
+                mHandler.sendEmptyMessageDelayed(
+                        MSG_FLUSH_PENDING_WRITES, mWriteCoalescingWindowMillis);
+            }
+        }
+    }
+
+    /**
+     * Writes all the pending metadata updates in a single database transaction.
+     */
+    private void flushPendingWrites() {
+        synchronized (mDatabaseLock) {
+            Metadata[] pending;
+            synchronized (mPendingWrites) {
+                if (mPendingWrites.isEmpty()) {
+                    return;
+                }
+                pending = mPendingWrites.values().toArray(new Metadata[0]);
+                mPendingWrites.clear();
+                mCommittedWriteCount += pending.length;
+                mTransactionCount++;
+            }
+            Log.d(TAG, "flushPendingWrites: " + pending.length + " devices");
+            mDatabase.runInTransaction(() -> mDatabase.insert(pending));
+        }
+    }
+
+    /**
+     * Set how long metadata updates are held to be merged before being written
+     *
+     * @param windowMillis the coalescing window, 0 to write on the next handler iteration
+     */
+    @VisibleForTesting
+    void setWriteCoalescingWindowMillis(long windowMillis) {
+        mWriteCoalescingWindowMillis = windowMillis;
     }
 
     @VisibleForTesting
@@ -1364,6 +1425,10 @@ public class DatabaseManager {
             return;
         }
         logMetadataChange(data, "Metadata deleted");
+        synchronized (mPendingWrites) {
+            // The row is deleted, an update still waiting must not recreate it.
+            mPendingWrites.remove(address);
+        }
         Message message = mHandler.obtainMessage(MSG_DELETE_DATABASE);
         message.obj = data.getAddress();
         mHandler.sendMessage(message);
@@ -1418,6 +1483,12 @@ public class DatabaseManager {
      */
     public void dump(PrintWriter writer) {
         writer.println("\nBluetoothDatabase:");
+        synchronized (mPendingWrites) {
+            writer.println("  Write coalescing window: " + mWriteCoalescingWindowMillis + " ms");
+            writer.println("  Updates: " + mRequestedWriteCount + " requested, "
+                    + mCommittedWriteCount + " written in " + mTransactionCount
+                    + " transactions, " + mPendingWrites.size() + " pending");
+        }
         writer.println("  Metadata Changes:");
         for (String log : mMetadataChangedLog) {
             writer.println("    " + log);
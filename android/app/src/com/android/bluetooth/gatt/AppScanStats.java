@@ -39,6 +39,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * ScanStats class helps keep track of information about scans
@@ -78,6 +79,10 @@ import java.util.Objects;
     static boolean sIsRadioStarted = false;
     static boolean sIsScreenOn = false;
 
+    // Work avoided by sharing one parsed result per advertisement across all scanners.
+    private static final AtomicLong sScanRecordParsesSaved = new AtomicLong();
+    private static final AtomicLong sScanResultAllocationsSaved = new AtomicLong();
+
     class LastScan {
         public long duration;
         public long suspendDuration;
@@ -507,6 +512,29 @@ import java.util.Objects;
         }
     }
 
+    static void recordSharedScanResultSavings(int parsesSaved, int allocationsSaved) {
+        if (parsesSaved > 0) {
+            sScanRecordParsesSaved.addAndGet(parsesSaved);
+        }
+        if (allocationsSaved > 0) {
+            sScanResultAllocationsSaved.addAndGet(allocationsSaved);
+        }
+    }
+
+    static long getScanRecordParsesSaved() {
+        return sScanRecordParsesSaved.get();
+    }
+
+    static long getScanResultAllocationsSaved() {
+        return sScanResultAllocationsSaved.get();
+    }
+
+    static void dumpSharedScanResultSavings(StringBuilder sb) {
+        sb.append("  Shared scan results (parses/allocations saved)              : "
+                + sScanRecordParsesSaved.get() + " / " + sScanResultAllocationsSaved.get()
+                + "\n\n");
+    }
+
     static void setScreenState(boolean isScreenOn) {
         synchronized (sLock) {
             if (sIsScreenOn == isScreenOn) {
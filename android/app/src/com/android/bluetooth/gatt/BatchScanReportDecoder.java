@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.SystemClock;
+
+import com.android.bluetooth.BluetoothAddress;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cursor over the records of an {@code onBatchScanReports} payload.
+ *
+ * <p>Records are read in place from the native payload. The address of the current record is
+ * formatted on demand, and its {@link ScanResult} is only built when a client is permitted to
+ * receive it, then shared by every client of the report. A record identical to an earlier one of
+ * the report is skipped, as it would be the same scan result.
+ */
+class BatchScanReportDecoder {
+    // Truncated record: address (6), address type, tx power, rssi, timestamp (2).
+    static final int TRUNCATED_RESULT_SIZE = 11;
+
+    private static final int ADDRESS_LENGTH = BluetoothAddress.LENGTH;
+
+    private final boolean mTruncated;
+    private final int mNumRecords;
+    private final byte[] mData;
+    private final long mNowNanos;
+
+    private int mRecordIndex = -1;
+    // Offset of the current record, and of the next one.
+    private int mPosition;
+    private int mNextPosition;
+
+    private String mAddress;
+    private ScanResult mResult;
+    // Views of the records read, compared by content without copying them.
+    private final Set<ByteBuffer> mRecords = new HashSet<>();
+
+    BatchScanReportDecoder(int reportType, int numRecords, byte[] data) {
+        mTruncated = reportType == ScanManager.SCAN_RESULT_TYPE_TRUNCATED;
+        mNumRecords = numRecords;
+        mData = data;
+        mNowNanos = SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Moves to the next record, skipping duplicates of the records already read. Returns false
+     * once every record was read.
+     */
+    boolean moveToNext() {
+        do {
+            if (mNumRecords == 0) {
+                return false;
+            }
+            if (mTruncated) {
+                if (mRecordIndex + 1 >= mNumRecords) {
+                    return false;
+                }
+            } else if (mNextPosition >= mData.length) {
+                return false;
+            }
+            mRecordIndex++;
+            mPosition = mNextPosition;
+            mNextPosition = mTruncated ? mPosition + TRUNCATED_RESULT_SIZE : getFullRecordEnd();
+        } while (!mRecords.add(ByteBuffer.wrap(mData, mPosition, mNextPosition - mPosition)));
+        mAddress = null;
+        mResult = null;
+        return true;
+    }
+
+    /** Returns the address of the current record. */
+    String getAddress() {
+        if (mAddress == null) {
+            // Addresses are reported in little endian.
+            mAddress = BluetoothAddress.toString(BluetoothAddress.toLongReversed(mData, mPosition));
+        }
+        return mAddress;
+    }
+
+    /** Returns the result of the current record, built on first call. */
+    ScanResult getResult() {
+        if (mResult != null) {
+            return mResult;
+        }
+        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(getAddress());
+        // Skip address, address type and tx power level.
+        int position = mPosition + ADDRESS_LENGTH + 2;
+        int rssi = mData[position++];
+        long timestampNanos = mNowNanos - parseTimestampNanos(mData, position);
+        position += 2;
+
+        ScanRecord scanRecord;
+        if (mTruncated) {
+            scanRecord = ScanRecord.parseFromBytes(new byte[0]);
+        } else {
+            // Combine advertise packet and scan response packet.
+            int advertisePacketLen = mData[position++];
+            int scanResponsePacketLen = mData[position + advertisePacketLen];
+            byte[] scanRecordBytes = new byte[advertisePacketLen + scanResponsePacketLen];
+            System.arraycopy(mData, position, scanRecordBytes, 0, advertisePacketLen);
+            System.arraycopy(mData, position + advertisePacketLen + 1, scanRecordBytes,
+                    advertisePacketLen, scanResponsePacketLen);
+            scanRecord = ScanRecord.parseFromBytesLazily(scanRecordBytes);
+        }
+        mResult = new ScanResult(device, scanRecord, rssi, timestampNanos);
+        return mResult;
+    }
+
+    private int getFullRecordEnd() {
+        // Address, address type, tx power level, rssi and timestamp.
+        int position = mPosition + ADDRESS_LENGTH + 5;
+        int advertisePacketLen = mData[position++];
+        position += advertisePacketLen;
+        int scanResponsePacketLen = mData[position++];
+        return position + scanResponsePacketLen;
+    }
+
+    /** Parses the two bytes little endian timestamp of a record, in units of 50 ms. */
+    static long parseTimestampNanos(byte[] data, int offset) {
+        long timestampUnit = (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+        return TimeUnit.MILLISECONDS.toNanos(timestampUnit * 50);
+    }
+}
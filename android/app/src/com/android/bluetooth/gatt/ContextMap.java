@@ -29,6 +29,7 @@ import android.util.Log;
 
 import androidx.annotation.VisibleForTesting;
 
+import com.android.bluetooth.BluetoothAddress;
 import com.android.bluetooth.BluetoothMethodProxy;
 import com.android.internal.annotations.GuardedBy;
 
@@ -43,10 +44,16 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Helper class that keeps track of registered GATT applications.
  * This class manages application callbacks and keeps track of GATT connections.
+ *
+ * <p>Applications and connections are indexed in concurrent maps, updated under their lock, so
+ * lookups on the scan and GATT callback paths don't take a lock nor depend on the number of
+ * registered applications.
  * @hide
  */
 @VisibleForTesting(otherwise = VisibleForTesting.PACKAGE_PRIVATE)
@@ -188,10 +195,12 @@ public class ContextMap<C, T> {
         }
     }
 
-    /** Our internal application list */
+    /** Our internal application list, modified under mAppsLock along with its indices */
     private final Object mAppsLock = new Object();
-    @GuardedBy("mAppsLock")
-    private List<App> mApps = new ArrayList<App>();
+    private final List<App> mApps = new CopyOnWriteArrayList<App>();
+    private final Map<Integer, App> mAppsById = new ConcurrentHashMap<>();
+    private final Map<UUID, App> mAppsByUuid = new ConcurrentHashMap<>();
+    private final Map<T, App> mAppsByInfo = new ConcurrentHashMap<>();
 
     /** Internal map to keep track of logging information by app name */
     private HashMap<Integer, AppScanStats> mAppScanStats = new HashMap<Integer, AppScanStats>();
@@ -205,8 +214,11 @@ public class ContextMap<C, T> {
     private final EvictingQueue<AppAdvertiseStats> mLastAdvertises =
             EvictingQueue.create(ADVERTISE_STATE_MAX_SIZE);
 
-    /** Internal list of connected devices **/
-    private Set<Connection> mConnections = new HashSet<Connection>();
+    /** Internal list of connected devices, modified under mConnectionsLock **/
+    private final Map<Integer, Connection> mConnectionsByConnId = new ConcurrentHashMap<>();
+    /** Connections by device address, then by application ID **/
+    private final Map<BluetoothAddress, Map<Integer, Connection>> mConnectionsByAddress =
+            new ConcurrentHashMap<>();
     private final Object mConnectionsLock = new Object();
 
     /** Add an entry to the application context list. */
@@ -236,7 +248,7 @@ public class ContextMap<C, T> {
                 mAppScanStats.put(appUid, appScanStats);
             }
             App app = new App(uuid, callback, (T) piInfo, appName, appScanStats);
-            mApps.add(app);
+            addApp(app);
             appScanStats.isRegistered = true;
             return app;
         }
@@ -261,10 +273,10 @@ public class ContextMap<C, T> {
                     mAppAdvertiseStats.put(id, appAdvertiseStats);
                 }
             }
-            App app = getById(appUid);
+            App app = mAppsById.get(appUid);
             if (app == null) {
                 app = new App(appUid, callback, appName);
-                mApps.add(app);
+                addApp(app);
             }
             return app;
         }
@@ -275,15 +287,11 @@ public class ContextMap<C, T> {
      */
     void remove(UUID uuid) {
         synchronized (mAppsLock) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
-                if (entry.uuid.equals(uuid)) {
-                    entry.unlinkToDeath();
-                    entry.appScanStats.isRegistered = false;
-                    i.remove();
-                    break;
-                }
+            App entry = mAppsByUuid.get(uuid);
+            if (entry != null) {
+                entry.unlinkToDeath();
+                entry.appScanStats.isRegistered = false;
+                removeApp(entry);
             }
         }
     }
@@ -294,16 +302,12 @@ public class ContextMap<C, T> {
     void remove(int id) {
         boolean find = false;
         synchronized (mAppsLock) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
-                if (entry.id == id) {
-                    find = true;
-                    entry.unlinkToDeath();
-                    entry.appScanStats.isRegistered = false;
-                    i.remove();
-                    break;
-                }
+            App entry = mAppsById.get(id);
+            if (entry != null) {
+                find = true;
+                entry.unlinkToDeath();
+                entry.appScanStats.isRegistered = false;
+                removeApp(entry);
             }
         }
         if (find) {
@@ -311,18 +315,68 @@ public class ContextMap<C, T> {
         }
     }
 
-    List<Integer> getAllAppsIds() {
-        List<Integer> appIds = new ArrayList();
+    /**
+     * Sets the ID assigned by the stack to a registered application.
+     */
+    void setId(App app, int id) {
         synchronized (mAppsLock) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
-                appIds.add(entry.id);
+            if (mAppsById.remove(app.id, app)) {
+                reindexId(app.id);
             }
+            app.id = id;
+            if (mApps.contains(app)) {
+                mAppsById.put(id, app);
+            }
+        }
+    }
+
+    List<Integer> getAllAppsIds() {
+        List<Integer> appIds = new ArrayList();
+        for (App entry : mApps) {
+            appIds.add(entry.id);
         }
         return appIds;
     }
 
+    @GuardedBy("mAppsLock")
+    private void addApp(App app) {
+        mApps.add(app);
+        // Like a scan of mApps, the first app added with an ID is found by it. Apps waiting for
+        // their ID share ID 0.
+        mAppsById.putIfAbsent(app.id, app);
+        if (app.uuid != null) {
+            mAppsByUuid.put(app.uuid, app);
+        }
+        if (app.info != null) {
+            mAppsByInfo.put(app.info, app);
+        }
+    }
+
+    // Indexes the next app holding an ID shared with a removed app.
+    @GuardedBy("mAppsLock")
+    private void reindexId(int id) {
+        for (App app : mApps) {
+            if (app.id == id) {
+                mAppsById.putIfAbsent(id, app);
+                return;
+            }
+        }
+    }
+
+    @GuardedBy("mAppsLock")
+    private void removeApp(App app) {
+        mApps.remove(app);
+        if (mAppsById.remove(app.id, app)) {
+            reindexId(app.id);
+        }
+        if (app.uuid != null) {
+            mAppsByUuid.remove(app.uuid, app);
+        }
+        if (app.info != null) {
+            mAppsByInfo.remove(app.info, app);
+        }
+    }
+
     /**
      * Add a new connection for a given application ID.
      */
@@ -330,7 +384,13 @@ public class ContextMap<C, T> {
         synchronized (mConnectionsLock) {
             App entry = getById(id);
             if (entry != null) {
-                mConnections.add(new Connection(connId, address, id));
+                Connection connection = new Connection(connId, address, id);
+                removeConnection(mConnectionsByConnId.put(connId, connection));
+                BluetoothAddress key = BluetoothAddress.fromString(address);
+                if (key != null) {
+                    mConnectionsByAddress.computeIfAbsent(key, k -> new ConcurrentHashMap<>())
+                            .put(id, connection);
+                }
             }
         }
     }
@@ -340,14 +400,7 @@ public class ContextMap<C, T> {
      */
     void removeConnection(int id, int connId) {
         synchronized (mConnectionsLock) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.connId == connId) {
-                    i.remove();
-                    break;
-                }
-            }
+            removeConnection(mConnectionsByConnId.remove(connId));
         }
     }
 
@@ -356,28 +409,41 @@ public class ContextMap<C, T> {
      */
     void removeConnectionsByAppId(int appId) {
         synchronized (mConnectionsLock) {
-            Iterator<Connection> i = mConnections.iterator();
+            Iterator<Connection> i = mConnectionsByConnId.values().iterator();
             while (i.hasNext()) {
                 Connection connection = i.next();
                 if (connection.appId == appId) {
                     i.remove();
+                    removeConnection(connection);
                 }
             }
         }
     }
 
+    // Removes the connection from the address index, once removed from the connection ID index.
+    @GuardedBy("mConnectionsLock")
+    private void removeConnection(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        BluetoothAddress key = BluetoothAddress.fromString(connection.address);
+        Map<Integer, Connection> connections = key == null ? null : mConnectionsByAddress.get(key);
+        if (connections == null) {
+            return;
+        }
+        connections.remove(connection.appId, connection);
+        if (connections.isEmpty()) {
+            mConnectionsByAddress.remove(key);
+        }
+    }
+
     /**
      * Get an application context by ID.
      */
     App getById(int id) {
-        synchronized (mAppsLock) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
-                if (entry.id == id) {
-                    return entry;
-                }
-            }
+        App entry = mAppsById.get(id);
+        if (entry != null) {
+            return entry;
         }
         Log.e(TAG, "Context not found for ID " + id);
         return null;
@@ -387,14 +453,9 @@ public class ContextMap<C, T> {
      * Get an application context by UUID.
      */
     App getByUuid(UUID uuid) {
-        synchronized (mAppsLock) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
-                if (entry.uuid.equals(uuid)) {
-                    return entry;
-                }
-            }
+        App entry = uuid == null ? null : mAppsByUuid.get(uuid);
+        if (entry != null) {
+            return entry;
         }
         Log.e(TAG, "Context not found for UUID " + uuid);
         return null;
@@ -404,13 +465,10 @@ public class ContextMap<C, T> {
      * Get an application context by the calling Apps name.
      */
     App getByName(String name) {
-        synchronized (mAppsLock) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
-                if (entry.name.equals(name)) {
-                    return entry;
-                }
+        // Names are not unique, and only looked up when dumping scan statistics.
+        for (App entry : mApps) {
+            if (entry.name.equals(name)) {
+                return entry;
             }
         }
         Log.e(TAG, "Context not found for name " + name);
@@ -421,14 +479,9 @@ public class ContextMap<C, T> {
      * Get an application context by the context info object.
      */
     App getByContextInfo(T contextInfo) {
-        synchronized (mAppsLock) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
-                if (entry.info != null && entry.info.equals(contextInfo)) {
-                    return entry;
-                }
-            }
+        App entry = contextInfo == null ? null : mAppsByInfo.get(contextInfo);
+        if (entry != null) {
+            return entry;
         }
         Log.e(TAG, "Context not found for info " + contextInfo);
         return null;
@@ -589,12 +642,8 @@ public class ContextMap<C, T> {
      */
     Set<String> getConnectedDevices() {
         Set<String> addresses = new HashSet<String>();
-        synchronized (mConnectionsLock) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                addresses.add(connection.address);
-            }
+        for (Connection connection : mConnectionsByConnId.values()) {
+            addresses.add(connection.address);
         }
         return addresses;
     }
@@ -603,19 +652,9 @@ public class ContextMap<C, T> {
      * Get an application context by a connection ID.
      */
     App getByConnId(int connId) {
-        int appId = -1;
-        synchronized (mConnectionsLock) {
-            Iterator<Connection> ii = mConnections.iterator();
-            while (ii.hasNext()) {
-                Connection connection = ii.next();
-                if (connection.connId == connId) {
-                    appId = connection.appId;
-                    break;
-                }
-            }
-        }
-        if (appId >= 0) {
-            return getById(appId);
+        Connection connection = mConnectionsByConnId.get(connId);
+        if (connection != null && connection.appId >= 0) {
+            return getById(connection.appId);
         }
         return null;
     }
@@ -628,43 +667,28 @@ public class ContextMap<C, T> {
         if (entry == null) {
             return null;
         }
-        synchronized (mConnectionsLock) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.address.equalsIgnoreCase(address) && connection.appId == id) {
-                    return connection.connId;
-                }
-            }
+        BluetoothAddress key = BluetoothAddress.fromString(address);
+        if (key == null) {
+            return null;
         }
-        return null;
+        Map<Integer, Connection> connections = mConnectionsByAddress.get(key);
+        Connection connection = connections == null ? null : connections.get(id);
+        return connection == null ? null : connection.connId;
     }
 
     /**
      * Returns the device address for a given connection ID.
      */
     String addressByConnId(int connId) {
-        synchronized (mConnectionsLock) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.connId == connId) {
-                    return connection.address;
-                }
-            }
-        }
-        return null;
+        Connection connection = mConnectionsByConnId.get(connId);
+        return connection == null ? null : connection.address;
     }
 
     List<Connection> getConnectionByApp(int appId) {
         List<Connection> currentConnections = new ArrayList<Connection>();
-        synchronized (mConnectionsLock) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.appId == appId) {
-                    currentConnections.add(connection);
-                }
+        for (Connection connection : mConnectionsByConnId.values()) {
+            if (connection.appId == appId) {
+                currentConnections.add(connection);
             }
         }
         return currentConnections;
@@ -675,19 +699,21 @@ public class ContextMap<C, T> {
      */
     void clear() {
         synchronized (mAppsLock) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
+            for (App entry : mApps) {
                 entry.unlinkToDeath();
                 if (entry.appScanStats != null) {
                     entry.appScanStats.isRegistered = false;
                 }
-                i.remove();
             }
+            mApps.clear();
+            mAppsById.clear();
+            mAppsByUuid.clear();
+            mAppsByInfo.clear();
         }
 
         synchronized (mConnectionsLock) {
-            mConnections.clear();
+            mConnectionsByConnId.clear();
+            mConnectionsByAddress.clear();
         }
 
         synchronized (this) {
@@ -701,10 +727,8 @@ public class ContextMap<C, T> {
      */
     Map<Integer, String> getConnectedMap() {
         Map<Integer, String> connectedmap = new HashMap<Integer, String>();
-        synchronized (mConnectionsLock) {
-            for (Connection conn : mConnections) {
-                connectedmap.put(conn.appId, conn.address);
-            }
+        for (Connection conn : mConnectionsByConnId.values()) {
+            connectedmap.put(conn.appId, conn.address);
         }
         return connectedmap;
     }
@@ -93,7 +93,6 @@ import com.android.bluetooth.btservice.BluetoothAdapterProxy;
 import com.android.bluetooth.btservice.CompanionManager;
 import com.android.bluetooth.btservice.MetricsLogger;
 import com.android.bluetooth.btservice.ProfileService;
-import com.android.bluetooth.util.NumberUtils;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.SynchronousResultReceiver;
 
@@ -102,6 +101,7 @@ import libcore.util.HexEncoding;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -109,7 +109,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 
 /**
@@ -129,7 +128,6 @@ public class GattService extends ProfileService {
 
     private static final int MAC_ADDRESS_LENGTH = 6;
     // Batch scan related constants.
-    private static final int TRUNCATED_RESULT_SIZE = 11;
     private static final int TIME_STAMP_LENGTH = 2;
 
     private enum MatchOrigin {
@@ -166,6 +164,9 @@ public class GattService extends ProfileService {
 
     private static final int ET_LEGACY_MASK = 0x10;
 
+    // Action of onScanFilterParamsConfigured() for added parameters, the others delete them.
+    private static final int SCAN_FILTER_PARAM_ACTION_ADD = 0;
+
     private static final UUID HID_SERVICE_UUID =
             UUID.fromString("00001812-0000-1000-8000-00805F9B34FB");
 
@@ -220,6 +221,11 @@ public class GattService extends ProfileService {
             }
             return intent.equals(((PendingIntentInfo) other).intent);
         }
+
+        @Override
+        public int hashCode() {
+            return intent == null ? 0 : intent.hashCode();
+        }
     }
 
     private final PendingIntent.CancelListener mScanIntentCancelListener =
@@ -237,6 +243,8 @@ public class GattService extends ProfileService {
 
     ScannerMap mScannerMap = new ScannerMap();
 
+    private final ScanFilterIndex mScanFilterIndex = new ScanFilterIndex();
+
     /**
      * List of our registered advertisers.
      */
@@ -1951,9 +1959,16 @@ public class GattService extends ProfileService {
         }
 
 
-        byte[] legacyAdvData = Arrays.copyOfRange(advData, 0, 62);
+        SharedScanResult sharedResult = new SharedScanResult(eventType, addressType, address,
+                primaryPhy, secondaryPhy, advertisingSid, txPower, rssi, periodicAdvInt, advData);
 
-        for (ScanClient client : mScanManager.getRegularScanQueue()) {
+        Set<ScanClient> regularScanClients = mScanManager.getRegularScanQueue();
+        // Resolve which filters may match with one pass over the data, instead of trying
+        // every filter of every client.
+        ScanFilterIndex.Candidates candidates = mScanFilterIndex.getCandidates(
+                regularScanClients, advData, address, originalAddress);
+
+        for (ScanClient client : regularScanClients) {
             ScannerMap.App app = mScannerMap.getById(client.scannerId);
             if (app == null) {
                 if (VDBG) {
@@ -1962,32 +1977,18 @@ public class GattService extends ProfileService {
                 continue;
             }
 
-            BluetoothDevice device =
-                BluetoothAdapter.getDefaultAdapter().getRemoteLeDevice(address, addressType);
-
             ScanSettings settings = client.settings;
-            byte[] scanRecordData;
             // This is for compability with applications that assume fixed size scan data.
-            if (settings.getLegacy()) {
-                if ((eventType & ET_LEGACY_MASK) == 0) {
-                    // If this is legacy scan, but nonlegacy result - skip.
-                    if (VDBG) {
-                        Log.d(TAG, "Legacy scan, non legacy result; skip.");
-                    }
-                    continue;
-                } else {
-                    // Some apps are used to fixed-size advertise data.
-                    scanRecordData = legacyAdvData;
+            if (settings.getLegacy() && (eventType & ET_LEGACY_MASK) == 0) {
+                // If this is legacy scan, but nonlegacy result - skip.
+                if (VDBG) {
+                    Log.d(TAG, "Legacy scan, non legacy result; skip.");
                 }
-            } else {
-                scanRecordData = advData;
+                continue;
             }
 
-            ScanRecord scanRecord = ScanRecord.parseFromBytes(scanRecordData);
-            ScanResult result =
-                    new ScanResult(device, eventType, primaryPhy, secondaryPhy, advertisingSid,
-                            txPower, rssi, periodicAdvInt, scanRecord,
-                            SystemClock.elapsedRealtimeNanos());
+            // The same result instance is handed to every client asking for the same form.
+            ScanResult result = sharedResult.getResult(settings.getLegacy());
 
             if (client.hasDisavowedLocation) {
                 if (mLocationDenylistPredicate.test(result)) {
@@ -2012,7 +2013,9 @@ public class GattService extends ProfileService {
                     result = sanitized;
                 }
             }
-            MatchResult matchResult = matchesFilters(client, result, originalAddress);
+            MatchResult matchResult = candidates.isIndexed(client)
+                    ? matchesFilters(client, result, originalAddress, candidates.get(client))
+                    : matchesFilters(client, result, originalAddress);
             if (!hasPermission || !matchResult.getMatches()) {
                 if (VDBG) {
                     Log.d(TAG, "Skipping client: permission="
@@ -2030,6 +2033,7 @@ public class GattService extends ProfileService {
                 continue;
             }
 
+            sharedResult.markDelivered();
             try {
                 app.appScanStats.addResult(client.scannerId);
                 if (app.callback != null) {
@@ -2047,6 +2051,8 @@ public class GattService extends ProfileService {
                 mScanManager.stopScan(client.scannerId);
             }
         }
+        AppScanStats.recordSharedScanResultSavings(
+                sharedResult.getParsesSaved(), sharedResult.getAllocationsSaved());
     }
 
     private void sendResultByPendingIntent(PendingIntentInfo pii, ScanResult result,
@@ -2094,7 +2100,7 @@ public class GattService extends ProfileService {
         ScannerMap.App cbApp = mScannerMap.getByUuid(uuid);
         if (cbApp != null) {
             if (status == 0) {
-                cbApp.id = scannerId;
+                mScannerMap.setId(cbApp, scannerId);
                 // If app is callback based, setup a death recipient. App will initiate the start.
                 // Otherwise, if PendingIntent based, start the scan directly.
                 if (cbApp.callback != null) {
@@ -2149,6 +2155,26 @@ public class GattService extends ProfileService {
         return new MatchResult(false, MatchOrigin.PSEUDO_ADDRESS);
     }
 
+    // Same as above, only trying the filters found by the scan filter index.
+    private MatchResult matchesFilters(ScanClient client, ScanResult scanResult,
+            String originalAddress, BitSet candidateFilters) {
+        if (candidateFilters == null) {
+            return new MatchResult(false, MatchOrigin.PSEUDO_ADDRESS);
+        }
+        for (int i = candidateFilters.nextSetBit(0); i >= 0;
+                i = candidateFilters.nextSetBit(i + 1)) {
+            ScanFilter filter = client.filters.get(i);
+            if (filter.matches(scanResult)) {
+                return new MatchResult(true, MatchOrigin.PSEUDO_ADDRESS);
+            }
+            if (originalAddress != null
+                    && originalAddress.equalsIgnoreCase(filter.getDeviceAddress())) {
+                return new MatchResult(true, MatchOrigin.ORIGINAL_ADDRESS);
+            }
+        }
+        return new MatchResult(false, MatchOrigin.PSEUDO_ADDRESS);
+    }
+
     void onClientRegistered(int status, int clientIf, long uuidLsb, long uuidMsb)
             throws RemoteException {
         UUID uuid = new UUID(uuidMsb, uuidLsb);
@@ -2158,7 +2184,7 @@ public class GattService extends ProfileService {
         ClientMap.App app = mClientMap.getByUuid(uuid);
         if (app != null) {
             if (status == 0) {
-                app.id = clientIf;
+                mClientMap.setId(app, clientIf);
                 app.linkToDeath(new ClientDeathRecipient(clientIf, app.name));
             } else {
                 mClientMap.remove(uuid);
@@ -2651,7 +2677,7 @@ public class GattService extends ProfileService {
             Log.d(TAG, "onScanFilterEnableDisabled() - clientIf=" + clientIf + ", status=" + status
                     + ", action=" + action);
         }
-        mScanManager.callbackDone(clientIf, status);
+        mScanManager.scanFilterCallbackDone(ScanFilterPipeline.COMMAND_ENABLE, clientIf, status);
     }
 
     void onScanFilterParamsConfigured(int action, int status, int clientIf, int availableSpace) {
@@ -2660,7 +2686,9 @@ public class GattService extends ProfileService {
                     "onScanFilterParamsConfigured() - clientIf=" + clientIf + ", status=" + status
                             + ", action=" + action + ", availableSpace=" + availableSpace);
         }
-        mScanManager.callbackDone(clientIf, status);
+        mScanManager.scanFilterCallbackDone(action == SCAN_FILTER_PARAM_ACTION_ADD
+                ? ScanFilterPipeline.COMMAND_PARAM_ADD : ScanFilterPipeline.COMMAND_PARAM_DELETE,
+                clientIf, status);
     }
 
     void onScanFilterConfig(int action, int status, int clientIf, int filterType,
@@ -2671,7 +2699,7 @@ public class GattService extends ProfileService {
                     + availableSpace);
         }
 
-        mScanManager.callbackDone(clientIf, status);
+        mScanManager.scanFilterCallbackDone(ScanFilterPipeline.COMMAND_ADD, clientIf, status);
     }
 
     void onBatchScanStorageConfigured(int status, int clientIf) {
@@ -2716,7 +2744,12 @@ public class GattService extends ProfileService {
                     + ", reportType=" + reportType + ", numRecords=" + numRecords);
         }
 
-        Set<ScanResult> results = parseBatchScanResults(numRecords, reportType, recordData);
+        if (DBG) {
+            Log.d(TAG, "current time is " + SystemClock.elapsedRealtimeNanos()
+                    + ", batch record " + Arrays.toString(recordData));
+        }
+        BatchScanReportDecoder records =
+                new BatchScanReportDecoder(reportType, numRecords, recordData);
         if (reportType == ScanManager.SCAN_RESULT_TYPE_TRUNCATED) {
             // We only support single client for truncated mode.
             ScannerMap.App app = mScannerMap.getById(scannerId);
@@ -2729,24 +2762,15 @@ public class GattService extends ProfileService {
                 return;
             }
 
-            ArrayList<ScanResult> permittedResults;
-            if (hasScanResultPermission(client)) {
-                permittedResults = new ArrayList<ScanResult>(results);
-            } else {
-                permittedResults = new ArrayList<ScanResult>();
-                for (ScanResult scanResult : results) {
-                    for (String associatedDevice : client.associatedDevices) {
-                        if (associatedDevice.equalsIgnoreCase(scanResult.getDevice()
-                                    .getAddress())) {
-                            permittedResults.add(scanResult);
-                        }
-                    }
-                }
-                if (permittedResults.isEmpty()) {
-                    return;
-                }
+            BatchScanDelivery delivery = new BatchScanDelivery(client, app);
+            while (records.moveToNext()) {
+                delivery.addPermittedResult(records);
+            }
+            if (!delivery.hasPermission && delivery.permittedResults.isEmpty()) {
+                return;
             }
 
+            ArrayList<ScanResult> permittedResults = delivery.permittedResults;
             if (client.hasDisavowedLocation) {
                 permittedResults.removeIf(mLocationDenylistPredicate);
             }
@@ -2762,9 +2786,28 @@ public class GattService extends ProfileService {
                 }
             }
         } else {
+            ArrayList<BatchScanDelivery> deliveries = new ArrayList<>();
             for (ScanClient client : mScanManager.getFullBatchScanQueue()) {
+                ScannerMap.App app = mScannerMap.getById(client.scannerId);
+                if (app != null) {
+                    deliveries.add(new BatchScanDelivery(client, app));
+                }
+            }
+            // Decode the report once, checking permission and filters of every client on the way.
+            while (!deliveries.isEmpty() && records.moveToNext()) {
+                for (BatchScanDelivery delivery : deliveries) {
+                    int count = delivery.addPermittedResult(records);
+                    ScanClient client = delivery.client;
+                    if (count > 0 && matchesFilters(client, records.getResult()).getMatches()) {
+                        for (int i = 0; i < count; i++) {
+                            delivery.matchedResults.add(records.getResult());
+                        }
+                    }
+                }
+            }
+            for (BatchScanDelivery delivery : deliveries) {
                 // Deliver results for each client.
-                deliverBatchScan(client, results);
+                deliverBatchScan(delivery);
             }
         }
         mScanManager.callbackDone(scannerId, status);
@@ -2799,143 +2842,59 @@ public class GattService extends ProfileService {
         }
     }
 
-    // Check and deliver scan results for different scan clients.
-    private void deliverBatchScan(ScanClient client, Set<ScanResult> allResults)
-            throws RemoteException {
-        ScannerMap.App app = mScannerMap.getById(client.scannerId);
-        if (app == null) {
-            return;
+    /** Results of a batch scan report for one client, collected while decoding the report. */
+    private class BatchScanDelivery {
+        final ScanClient client;
+        final ScannerMap.App app;
+        final boolean hasPermission;
+        final ArrayList<ScanResult> permittedResults = new ArrayList<>();
+        final ArrayList<ScanResult> matchedResults = new ArrayList<>();
+
+        BatchScanDelivery(ScanClient client, ScannerMap.App app) {
+            this.client = client;
+            this.app = app;
+            this.hasPermission = hasScanResultPermission(client);
         }
 
-        ArrayList<ScanResult> permittedResults;
-        if (hasScanResultPermission(client)) {
-            permittedResults = new ArrayList<ScanResult>(allResults);
-        } else {
-            permittedResults = new ArrayList<ScanResult>();
-            for (ScanResult scanResult : allResults) {
+        /**
+         * Adds the current record if the client may receive it, once per matching associated
+         * device when it lacks the scan permission. Returns the number of times it was added.
+         */
+        int addPermittedResult(BatchScanReportDecoder records) {
+            int count = 0;
+            if (hasPermission) {
+                count = 1;
+            } else {
                 for (String associatedDevice : client.associatedDevices) {
-                    if (associatedDevice.equalsIgnoreCase(scanResult.getDevice().getAddress())) {
-                        permittedResults.add(scanResult);
+                    if (associatedDevice.equalsIgnoreCase(records.getAddress())) {
+                        count++;
                     }
                 }
             }
-            if (permittedResults.isEmpty()) {
-                return;
+            for (int i = 0; i < count; i++) {
+                permittedResults.add(records.getResult());
             }
+            return count;
         }
-
-        if (client.filters == null || client.filters.isEmpty()) {
-            sendBatchScanResults(app, client, permittedResults);
-            // TODO: Question to reviewer: Shouldn't there be a return here?
-        }
-        // Reconstruct the scan results.
-        ArrayList<ScanResult> results = new ArrayList<ScanResult>();
-        for (ScanResult scanResult : permittedResults) {
-            if (matchesFilters(client, scanResult).getMatches()) {
-                results.add(scanResult);
-            }
-        }
-        sendBatchScanResults(app, client, results);
     }
 
-    private Set<ScanResult> parseBatchScanResults(int numRecords, int reportType,
-            byte[] batchRecord) {
-        if (numRecords == 0) {
-            return Collections.emptySet();
-        }
-        if (DBG) {
-            Log.d(TAG, "current time is " + SystemClock.elapsedRealtimeNanos());
-        }
-        if (reportType == ScanManager.SCAN_RESULT_TYPE_TRUNCATED) {
-            return parseTruncatedResults(numRecords, batchRecord);
-        } else {
-            return parseFullResults(numRecords, batchRecord);
+    // Deliver scan results for different scan clients.
+    private void deliverBatchScan(BatchScanDelivery delivery) {
+        if (!delivery.hasPermission && delivery.permittedResults.isEmpty()) {
+            return;
         }
-    }
 
-    private Set<ScanResult> parseTruncatedResults(int numRecords, byte[] batchRecord) {
-        if (DBG) {
-            Log.d(TAG, "batch record " + Arrays.toString(batchRecord));
-        }
-        Set<ScanResult> results = new HashSet<ScanResult>(numRecords);
-        long now = SystemClock.elapsedRealtimeNanos();
-        for (int i = 0; i < numRecords; ++i) {
-            byte[] record =
-                    extractBytes(batchRecord, i * TRUNCATED_RESULT_SIZE, TRUNCATED_RESULT_SIZE);
-            byte[] address = extractBytes(record, 0, 6);
-            reverse(address);
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
-            int rssi = record[8];
-            long timestampNanos = now - parseTimestampNanos(extractBytes(record, 9, 2));
-            results.add(new ScanResult(device, ScanRecord.parseFromBytes(new byte[0]), rssi,
-                    timestampNanos));
+        ScanClient client = delivery.client;
+        if (client.filters == null || client.filters.isEmpty()) {
+            sendBatchScanResults(delivery.app, client, delivery.permittedResults);
+            // TODO: Question to reviewer: Shouldn't there be a return here?
         }
-        return results;
+        sendBatchScanResults(delivery.app, client, delivery.matchedResults);
     }
 
     @VisibleForTesting
     long parseTimestampNanos(byte[] data) {
-        long timestampUnit = NumberUtils.littleEndianByteArrayToInt(data);
-        // Timestamp is in every 50 ms.
-        return TimeUnit.MILLISECONDS.toNanos(timestampUnit * 50);
-    }
-
-    private Set<ScanResult> parseFullResults(int numRecords, byte[] batchRecord) {
-        if (DBG) {
-            Log.d(TAG, "Batch record : " + Arrays.toString(batchRecord));
-        }
-        Set<ScanResult> results = new HashSet<ScanResult>(numRecords);
-        int position = 0;
-        long now = SystemClock.elapsedRealtimeNanos();
-        while (position < batchRecord.length) {
-            byte[] address = extractBytes(batchRecord, position, 6);
-            // TODO: remove temp hack.
-            reverse(address);
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
-            position += 6;
-            // Skip address type.
-            position++;
-            // Skip tx power level.
-            position++;
-            int rssi = batchRecord[position++];
-            long timestampNanos = now - parseTimestampNanos(extractBytes(batchRecord, position, 2));
-            position += 2;
-
-            // Combine advertise packet and scan response packet.
-            int advertisePacketLen = batchRecord[position++];
-            byte[] advertiseBytes = extractBytes(batchRecord, position, advertisePacketLen);
-            position += advertisePacketLen;
-            int scanResponsePacketLen = batchRecord[position++];
-            byte[] scanResponseBytes = extractBytes(batchRecord, position, scanResponsePacketLen);
-            position += scanResponsePacketLen;
-            byte[] scanRecord = new byte[advertisePacketLen + scanResponsePacketLen];
-            System.arraycopy(advertiseBytes, 0, scanRecord, 0, advertisePacketLen);
-            System.arraycopy(scanResponseBytes, 0, scanRecord, advertisePacketLen,
-                    scanResponsePacketLen);
-            if (DBG) {
-                Log.d(TAG, "ScanRecord : " + Arrays.toString(scanRecord));
-            }
-            results.add(new ScanResult(device, ScanRecord.parseFromBytes(scanRecord), rssi,
-                    timestampNanos));
-        }
-        return results;
-    }
-
-    // Reverse byte array.
-    private void reverse(byte[] address) {
-        int len = address.length;
-        for (int i = 0; i < len / 2; ++i) {
-            byte b = address[i];
-            address[i] = address[len - 1 - i];
-            address[len - 1 - i] = b;
-        }
-    }
-
-    // Helper method to extract bytes from byte array.
-    private static byte[] extractBytes(byte[] scanRecord, int start, int length) {
-        byte[] bytes = new byte[length];
-        System.arraycopy(scanRecord, start, bytes, 0, length);
-        return bytes;
+        return BatchScanReportDecoder.parseTimestampNanos(data, 0);
     }
 
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_SCAN)
@@ -4216,7 +4175,7 @@ public class GattService extends ProfileService {
         }
         ServerMap.App app = mServerMap.getByUuid(uuid);
         if (app != null) {
-            app.id = serverIf;
+            mServerMap.setId(app, serverIf);
             app.linkToDeath(new ServerDeathRecipient(serverIf, app.name));
             app.callback.onServerRegistered(status, serverIf);
         }
@@ -5035,6 +4994,11 @@ public class GattService extends ProfileService {
 
         sb.append("GATT Scanner Map\n");
         mScannerMap.dump(sb);
+        AppScanStats.dumpSharedScanResultSavings(sb);
+        if (mScanManager != null) {
+            mScanManager.dump(sb);
+        }
+        mScanFilterIndex.dump(sb);
 
         sb.append("GATT Advertiser Map\n");
         mAdvertiserMap.dumpAdvertiser(sb);
@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothUuid;
+import android.bluetooth.le.ScanFilter;
+import android.util.LongSparseArray;
+import android.util.SparseArray;
+
+import com.android.bluetooth.BluetoothAddress;
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compiled index over the software scan filters of all active scanners.
+ *
+ * <p>Every filter is indexed under its most selective key: device address, manufacturer id,
+ * service data UUID or unmasked service UUID. A single pass over the advertising data then yields,
+ * per scanner, the positions of the filters that can possibly match. Manufacturer and service data
+ * patterns are pre-masked so that most mismatches are rejected in place, without parsing the
+ * record. Candidates still have to be confirmed with {@link ScanFilter#matches}, the index only
+ * guarantees that no other filter of the scanner can match.
+ */
+class ScanFilterIndex {
+    private static final int DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL = 0x02;
+    private static final int DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE = 0x03;
+    private static final int DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL = 0x04;
+    private static final int DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE = 0x05;
+    private static final int DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL = 0x06;
+    private static final int DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE = 0x07;
+    private static final int DATA_TYPE_SERVICE_DATA_16_BIT = 0x16;
+    private static final int DATA_TYPE_SERVICE_DATA_32_BIT = 0x20;
+    private static final int DATA_TYPE_SERVICE_DATA_128_BIT = 0x21;
+    private static final int DATA_TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
+
+    private static final long BASE_UUID_MSB = BluetoothUuid.BASE_UUID.getUuid()
+            .getMostSignificantBits();
+    private static final long BASE_UUID_LSB = BluetoothUuid.BASE_UUID.getUuid()
+            .getLeastSignificantBits();
+
+    /** A filter of a scanner, with its data pattern pre-masked for in place comparison. */
+    private static class Entry {
+        final int scannerId;
+        final int position;
+        // Pattern and mask of the indexed data field, null when the field has no pattern.
+        final byte[] maskedData;
+        final byte[] mask;
+
+        Entry(int scannerId, int position, byte[] data, byte[] dataMask) {
+            this.scannerId = scannerId;
+            this.position = position;
+            if (data == null) {
+                this.maskedData = null;
+                this.mask = null;
+                return;
+            }
+            this.mask = new byte[data.length];
+            this.maskedData = new byte[data.length];
+            for (int i = 0; i < data.length; i++) {
+                mask[i] = dataMask == null ? (byte) 0xFF : dataMask[i];
+                maskedData[i] = (byte) (data[i] & mask[i]);
+            }
+        }
+
+        // Same semantic as ScanFilter#matchesPartialData, on a slice of the advertising data.
+        boolean matchesData(byte[] advData, int offset, int length) {
+            if (maskedData == null) {
+                return true;
+            }
+            if (length < maskedData.length) {
+                return false;
+            }
+            for (int i = 0; i < maskedData.length; i++) {
+                if ((advData[offset + i] & mask[i]) != maskedData[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Filters that may match one advertisement. */
+    static class Candidates {
+        private final Map<Integer, List<ScanFilter>> mIndexedFilters;
+        private final SparseArray<BitSet> mPositions = new SparseArray<>();
+
+        private Candidates(Map<Integer, List<ScanFilter>> indexedFilters) {
+            mIndexedFilters = indexedFilters;
+        }
+
+        /** Returns whether the filters of {@code client} were part of the index. */
+        boolean isIndexed(ScanClient client) {
+            return client.filters != null
+                    && mIndexedFilters.get(client.scannerId) == client.filters;
+        }
+
+        /**
+         * Returns the positions in {@link ScanClient#filters} of the filters of an indexed
+         * {@code client} that may match, or null if none can.
+         */
+        BitSet get(ScanClient client) {
+            return mPositions.get(client.scannerId);
+        }
+
+        private void add(Entry entry) {
+            BitSet positions = mPositions.get(entry.scannerId);
+            if (positions == null) {
+                positions = new BitSet();
+                mPositions.put(entry.scannerId, positions);
+            }
+            positions.set(entry.position);
+        }
+    }
+
+    private final Object mLock = new Object();
+
+    // Replaced, never modified, on rebuild so that Candidates can keep a reference to it.
+    @GuardedBy("mLock")
+    private Map<Integer, List<ScanFilter>> mIndexedFilters = new HashMap<>();
+    @GuardedBy("mLock")
+    private final LongSparseArray<List<Entry>> mByAddress = new LongSparseArray<>();
+    @GuardedBy("mLock")
+    private final SparseArray<List<Entry>> mByManufacturerId = new SparseArray<>();
+    @GuardedBy("mLock")
+    private final Map<UUID, List<Entry>> mByServiceDataUuid = new HashMap<>();
+    @GuardedBy("mLock")
+    private final Map<UUID, List<Entry>> mByServiceUuid = new HashMap<>();
+    @GuardedBy("mLock")
+    private final List<Entry> mUnindexed = new ArrayList<>();
+    @GuardedBy("mLock")
+    private int mFilterCount;
+
+    /**
+     * Returns the filters that may match the advertisement. Scanners without filters are not
+     * indexed and must be handled by the caller.
+     *
+     * <p>The index is recompiled first if the filters of {@code clients} changed since last call.
+     */
+    Candidates getCandidates(Collection<ScanClient> clients, byte[] advData, String address,
+            String originalAddress) {
+        synchronized (mLock) {
+            if (!isUpToDate(clients)) {
+                rebuild(clients);
+            }
+            Candidates candidates = new Candidates(mIndexedFilters);
+            if (mFilterCount == 0) {
+                return candidates;
+            }
+            addAll(candidates, mUnindexed);
+            if (address != null) {
+                addAll(candidates, getByAddress(address));
+            }
+            if (originalAddress != null) {
+                addAll(candidates, getByAddress(originalAddress));
+            }
+            if (advData != null) {
+                walkAdvertisingData(candidates, advData);
+            }
+            return candidates;
+        }
+    }
+
+    /** Returns the number of indexed filters. */
+    @VisibleForTesting
+    int getFilterCount() {
+        synchronized (mLock) {
+            return mFilterCount;
+        }
+    }
+
+    void dump(StringBuilder sb) {
+        synchronized (mLock) {
+            sb.append("  Software filter index (filters/addresses/manufacturers/service data/"
+                    + "service uuids/unindexed): " + mFilterCount + "/" + mByAddress.size() + "/"
+                    + mByManufacturerId.size() + "/" + mByServiceDataUuid.size() + "/"
+                    + mByServiceUuid.size() + "/" + mUnindexed.size() + "\n");
+        }
+    }
+
+    @GuardedBy("mLock")
+    private boolean isUpToDate(Collection<ScanClient> clients) {
+        int indexedClients = 0;
+        for (ScanClient client : clients) {
+            if (client.filters == null || client.filters.isEmpty()) {
+                continue;
+            }
+            // Filters are never mutated once a scan is started, identity is enough.
+            if (mIndexedFilters.get(client.scannerId) != client.filters) {
+                return false;
+            }
+            indexedClients++;
+        }
+        return indexedClients == mIndexedFilters.size();
+    }
+
+    @GuardedBy("mLock")
+    private void rebuild(Collection<ScanClient> clients) {
+        mIndexedFilters = new HashMap<>();
+        mByAddress.clear();
+        mByManufacturerId.clear();
+        mByServiceDataUuid.clear();
+        mByServiceUuid.clear();
+        mUnindexed.clear();
+        mFilterCount = 0;
+
+        for (ScanClient client : clients) {
+            List<ScanFilter> filters = client.filters;
+            if (filters == null || filters.isEmpty()) {
+                continue;
+            }
+            mIndexedFilters.put(client.scannerId, filters);
+            for (int i = 0; i < filters.size(); i++) {
+                addFilter(client.scannerId, i, filters.get(i));
+                mFilterCount++;
+            }
+        }
+    }
+
+    // Addresses are compared packed, whatever their case, without formatting them.
+    @GuardedBy("mLock")
+    private List<Entry> getByAddress(String address) {
+        try {
+            return mByAddress.get(BluetoothAddress.parse(address));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void addFilter(int scannerId, int position, ScanFilter filter) {
+        BluetoothAddress filterAddress = BluetoothAddress.fromString(filter.getDeviceAddress());
+        if (filterAddress != null) {
+            List<Entry> entries = mByAddress.get(filterAddress.toLong());
+            if (entries == null) {
+                entries = new ArrayList<>();
+                mByAddress.put(filterAddress.toLong(), entries);
+            }
+            entries.add(new Entry(scannerId, position, null, null));
+        } else if (filter.getManufacturerId() >= 0) {
+            List<Entry> entries = mByManufacturerId.get(filter.getManufacturerId());
+            if (entries == null) {
+                entries = new ArrayList<>();
+                mByManufacturerId.put(filter.getManufacturerId(), entries);
+            }
+            entries.add(new Entry(scannerId, position, filter.getManufacturerData(),
+                    filter.getManufacturerDataMask()));
+        } else if (filter.getServiceDataUuid() != null) {
+            mByServiceDataUuid.computeIfAbsent(filter.getServiceDataUuid().getUuid(),
+                    k -> new ArrayList<>())
+                    .add(new Entry(scannerId, position, filter.getServiceData(),
+                            filter.getServiceDataMask()));
+        } else if (filter.getServiceUuid() != null && filter.getServiceUuidMask() == null) {
+            mByServiceUuid.computeIfAbsent(filter.getServiceUuid().getUuid(),
+                    k -> new ArrayList<>())
+                    .add(new Entry(scannerId, position, null, null));
+        } else {
+            mUnindexed.add(new Entry(scannerId, position, null, null));
+        }
+    }
+
+    // Walks the AD structures the same way ScanRecord#parseFromBytes does.
+    @GuardedBy("mLock")
+    private void walkAdvertisingData(Candidates candidates, byte[] advData) {
+        int currentPos = 0;
+        while (currentPos < advData.length) {
+            int length = advData[currentPos++] & 0xFF;
+            if (length == 0) {
+                break;
+            }
+            int dataLength = length - 1;
+            if (currentPos + length > advData.length) {
+                // Malformed record, ScanRecord will not expose any of its fields.
+                break;
+            }
+            int fieldType = advData[currentPos++] & 0xFF;
+            switch (fieldType) {
+                case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+                case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+                    addServiceUuids(candidates, advData, currentPos, dataLength,
+                            BluetoothUuid.UUID_BYTES_16_BIT);
+                    break;
+                case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+                case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+                    addServiceUuids(candidates, advData, currentPos, dataLength,
+                            BluetoothUuid.UUID_BYTES_32_BIT);
+                    break;
+                case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+                case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+                    addServiceUuids(candidates, advData, currentPos, dataLength,
+                            BluetoothUuid.UUID_BYTES_128_BIT);
+                    break;
+                case DATA_TYPE_SERVICE_DATA_16_BIT:
+                case DATA_TYPE_SERVICE_DATA_32_BIT:
+                case DATA_TYPE_SERVICE_DATA_128_BIT:
+                    int uuidLength = BluetoothUuid.UUID_BYTES_16_BIT;
+                    if (fieldType == DATA_TYPE_SERVICE_DATA_32_BIT) {
+                        uuidLength = BluetoothUuid.UUID_BYTES_32_BIT;
+                    } else if (fieldType == DATA_TYPE_SERVICE_DATA_128_BIT) {
+                        uuidLength = BluetoothUuid.UUID_BYTES_128_BIT;
+                    }
+                    if (dataLength >= uuidLength && !mByServiceDataUuid.isEmpty()) {
+                        addMatchingData(candidates,
+                                mByServiceDataUuid.get(uuidAt(advData, currentPos, uuidLength)),
+                                advData, currentPos + uuidLength, dataLength - uuidLength);
+                    }
+                    break;
+                case DATA_TYPE_MANUFACTURER_SPECIFIC_DATA:
+                    if (dataLength >= 2) {
+                        // Manufacturer id is the first two bytes, in little endian.
+                        int manufacturerId = ((advData[currentPos + 1] & 0xFF) << 8)
+                                + (advData[currentPos] & 0xFF);
+                        addMatchingData(candidates, mByManufacturerId.get(manufacturerId),
+                                advData, currentPos + 2, dataLength - 2);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            currentPos += dataLength;
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void addServiceUuids(Candidates candidates, byte[] advData, int offset,
+            int dataLength, int uuidLength) {
+        if (mByServiceUuid.isEmpty()) {
+            return;
+        }
+        while (dataLength >= uuidLength) {
+            addAll(candidates, mByServiceUuid.get(uuidAt(advData, offset, uuidLength)));
+            offset += uuidLength;
+            dataLength -= uuidLength;
+        }
+    }
+
+    private static void addMatchingData(Candidates candidates, List<Entry> entries,
+            byte[] advData, int offset, int length) {
+        if (entries == null) {
+            return;
+        }
+        for (Entry entry : entries) {
+            if (entry.matchesData(advData, offset, length)) {
+                candidates.add(entry);
+            }
+        }
+    }
+
+    private static void addAll(Candidates candidates, List<Entry> entries) {
+        if (entries == null) {
+            return;
+        }
+        for (Entry entry : entries) {
+            candidates.add(entry);
+        }
+    }
+
+    // Same as BluetoothUuid#parseUuidFrom, without copying the uuid bytes out of the record.
+    @VisibleForTesting
+    static UUID uuidAt(byte[] bytes, int offset, int length) {
+        if (length == BluetoothUuid.UUID_BYTES_128_BIT) {
+            long lsb = 0;
+            long msb = 0;
+            for (int i = 7; i >= 0; i--) {
+                lsb = (lsb << 8) | (bytes[offset + i] & 0xFF);
+                msb = (msb << 8) | (bytes[offset + 8 + i] & 0xFF);
+            }
+            return new UUID(msb, lsb);
+        }
+        long shortUuid = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            shortUuid = (shortUuid << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return new UUID(BASE_UUID_MSB + (shortUuid << 32), BASE_UUID_LSB);
+    }
+}
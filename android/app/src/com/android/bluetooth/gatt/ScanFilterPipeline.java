@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Pipelines the commands programming the controller scan filters (APCF).
+ *
+ * <p>Commands are queued, then issued back to back and awaited together, instead of one
+ * controller round trip each. The stack processes APCF commands in order and its callbacks do not
+ * carry the filter index, so completions are correlated with the in-flight commands in FIFO order.
+ * A completion is only accepted if its callback and scanner match the command at the head of the
+ * queue. The commands still in flight when a batch times out are kept apart, so that their late
+ * completions are dropped instead of being counted for the next batch.
+ */
+class ScanFilterPipeline {
+    private static final boolean DBG = GattServiceConfig.DBG;
+    private static final String TAG = GattServiceConfig.TAG_PREFIX + "ScanFilterPipeline";
+
+    static final int COMMAND_ENABLE = 0;
+    static final int COMMAND_ADD = 1;
+    static final int COMMAND_PARAM_ADD = 2;
+    static final int COMMAND_PARAM_DELETE = 3;
+    private static final String[] COMMAND_NAMES = {"Enable", "Add", "ParamAdd", "ParamDelete"};
+
+    // Upper bounds of the latency histogram buckets, the last bucket is unbounded.
+    private static final long[] LATENCY_BUCKETS_MILLIS = {2, 5, 10, 20, 50, 100, 200};
+
+    private static class Command {
+        final int type;
+        final int scannerId;
+        final int filterIndex;
+        final Runnable issue;
+        long issueTimeMillis;
+
+        Command(int type, int scannerId, int filterIndex, Runnable issue) {
+            this.type = type;
+            this.scannerId = scannerId;
+            this.filterIndex = filterIndex;
+            this.issue = issue;
+        }
+    }
+
+    private final ScanNativeInterface mNativeInterface;
+    private final int mTimeoutPerCommandMillis;
+
+    // Commands queued on the scan handler thread, not issued yet.
+    private final List<Command> mQueued = new ArrayList<>();
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final Deque<Command> mInFlight = new ArrayDeque<>();
+    // Commands of timed out batches, whose completions may still come before those in flight.
+    @GuardedBy("mLock")
+    private final Deque<Command> mTimedOut = new ArrayDeque<>();
+    @GuardedBy("mLock")
+    private int mFailures;
+    @GuardedBy("mLock")
+    private final long[][] mLatencyHistograms =
+            new long[COMMAND_NAMES.length][LATENCY_BUCKETS_MILLIS.length + 1];
+    @GuardedBy("mLock")
+    private long mTimeouts;
+
+    ScanFilterPipeline(ScanNativeInterface nativeInterface, int timeoutPerCommandMillis) {
+        mNativeInterface = nativeInterface;
+        mTimeoutPerCommandMillis = timeoutPerCommandMillis;
+    }
+
+    /** Queues a command, {@code issue} runs the native call once the pipeline is executed. */
+    void enqueue(int type, int scannerId, int filterIndex, Runnable issue) {
+        mQueued.add(new Command(type, scannerId, filterIndex, issue));
+    }
+
+    /**
+     * Issues every queued command and waits for all of them to complete.
+     *
+     * @return true if all commands completed successfully in time
+     */
+    boolean execute() {
+        if (mQueued.isEmpty()) {
+            return true;
+        }
+        int count = mQueued.size();
+        synchronized (mLock) {
+            mInFlight.clear();
+            mFailures = 0;
+        }
+        mNativeInterface.resetCountDownLatch(count);
+        for (Command command : mQueued) {
+            command.issueTimeMillis = SystemClock.elapsedRealtime();
+            synchronized (mLock) {
+                mInFlight.add(command);
+            }
+            command.issue.run();
+        }
+        mQueued.clear();
+
+        boolean completed = mNativeInterface.waitForCallback(mTimeoutPerCommandMillis * count);
+        synchronized (mLock) {
+            if (!completed) {
+                mTimeouts++;
+                Log.w(TAG, "Timed out waiting for " + mInFlight.size() + " of " + count
+                        + " scan filter commands");
+                mTimedOut.addAll(mInFlight);
+                mInFlight.clear();
+            } else {
+                // The stack completes commands in order, no earlier completion is still to come.
+                mTimedOut.clear();
+            }
+            return completed && mFailures == 0;
+        }
+    }
+
+    /**
+     * Handles a scan filter callback from the stack.
+     *
+     * @param type the command the callback completes, parameter additions and deletions are told
+     *     apart by the action of the callback
+     * @return false if no pipelined command was waiting for it
+     */
+    boolean onCommandComplete(int type, int scannerId, int status) {
+        Command command;
+        synchronized (mLock) {
+            if (mInFlight.isEmpty() && mTimedOut.isEmpty()) {
+                return false;
+            }
+            command = mTimedOut.peek();
+            if (command != null && isCompletedBy(command, type, scannerId)) {
+                mTimedOut.poll();
+                Log.w(TAG, "Late " + COMMAND_NAMES[type] + " done for scannerId=" + scannerId
+                        + ", status=" + status + ", dropped");
+                return true;
+            }
+            command = mInFlight.peek();
+            if (command == null || !isCompletedBy(command, type, scannerId)) {
+                Log.w(TAG, "Unexpected " + COMMAND_NAMES[type] + " done for scannerId="
+                        + scannerId + ", status=" + status + ", dropped");
+                return true;
+            }
+            mInFlight.poll();
+            long latencyMillis = SystemClock.elapsedRealtime() - command.issueTimeMillis;
+            mLatencyHistograms[command.type][getBucket(latencyMillis)]++;
+            if (status != 0) {
+                mFailures++;
+            }
+        }
+        if (DBG || status != 0) {
+            Log.d(TAG, COMMAND_NAMES[command.type] + " done for scannerId=" + command.scannerId
+                    + ", filterIndex=" + command.filterIndex + ", status=" + status);
+        }
+        mNativeInterface.callbackDone();
+        return true;
+    }
+
+    @VisibleForTesting
+    long getLatencyCount(int type) {
+        synchronized (mLock) {
+            long count = 0;
+            for (long bucket : mLatencyHistograms[type]) {
+                count += bucket;
+            }
+            return count;
+        }
+    }
+
+    void dump(StringBuilder sb) {
+        synchronized (mLock) {
+            sb.append("  Scan filter command latency (ms <=");
+            for (long bound : LATENCY_BUCKETS_MILLIS) {
+                sb.append(" " + bound);
+            }
+            sb.append(" >" + LATENCY_BUCKETS_MILLIS[LATENCY_BUCKETS_MILLIS.length - 1] + "):\n");
+            for (int type = 0; type < COMMAND_NAMES.length; type++) {
+                sb.append("    " + COMMAND_NAMES[type] + ":");
+                for (long bucket : mLatencyHistograms[type]) {
+                    sb.append(" " + bucket);
+                }
+                sb.append("\n");
+            }
+            sb.append("  Scan filter command timeouts: " + mTimeouts + "\n");
+        }
+    }
+
+    private static boolean isCompletedBy(Command command, int type, int scannerId) {
+        return command.type == type && command.scannerId == scannerId;
+    }
+
+    private static int getBucket(long latencyMillis) {
+        for (int i = 0; i < LATENCY_BUCKETS_MILLIS.length; i++) {
+            if (latencyMillis <= LATENCY_BUCKETS_MILLIS[i]) {
+                return i;
+            }
+        }
+        return LATENCY_BUCKETS_MILLIS.length;
+    }
+}
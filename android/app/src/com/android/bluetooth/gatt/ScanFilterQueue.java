@@ -22,9 +22,12 @@ import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.TransportBlockFilter;
 import android.os.ParcelUuid;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
@@ -203,6 +206,25 @@ import java.util.UUID;
         return selc;
     }
 
+    /**
+     * Returns an encoding of the queued entries that is identical for queues programming the same
+     * hardware filter, whatever order the entries were added in.
+     */
+    String getCanonicalKey() {
+        List<String> entries = new ArrayList<>(mEntries.size());
+        for (Entry entry : mEntries) {
+            entries.add(entry.type + "," + entry.address + "," + entry.addr_type + ","
+                    + Arrays.toString(entry.irk) + "," + entry.uuid + "," + entry.uuid_mask + ","
+                    + entry.name + "," + entry.company + "," + entry.company_mask + ","
+                    + entry.ad_type + "," + Arrays.toString(entry.data) + ","
+                    + Arrays.toString(entry.data_mask) + "," + entry.org_id + ","
+                    + entry.tds_flags + "," + entry.tds_flags_mask + "," + entry.meta_data_type
+                    + "," + Arrays.toString(entry.meta_data));
+        }
+        Collections.sort(entries);
+        return String.join(";", entries);
+    }
+
     ScanFilterQueue.Entry[] toArray() {
         return mEntries.toArray(new ScanFilterQueue.Entry[mEntries.size()]);
     }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.util.SparseArray;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reference counted table of the hardware scan filter slots shared by scanners.
+ *
+ * <p>Scanners registering identical filters with identical parameters share one controller filter
+ * index. The controller then reports a match once, and results are delivered to each scanner
+ * after matching its own filters in software.
+ */
+class ScanFilterSlotTable {
+    private static class Slot {
+        final String key;
+        final int filterIndex;
+        int refCount;
+
+        Slot(String key, int filterIndex) {
+            this.key = key;
+            this.filterIndex = filterIndex;
+        }
+    }
+
+    private final Map<String, Slot> mSlotsByKey = new HashMap<>();
+    private final SparseArray<Slot> mSlotsByIndex = new SparseArray<>();
+    private int mReferenceCount;
+
+    /** Returns the filter index programmed for {@code key}, or -1 if there is none. */
+    int getFilterIndex(String key) {
+        Slot slot = mSlotsByKey.get(key);
+        return slot == null ? -1 : slot.filterIndex;
+    }
+
+    /** Adds a reference to the filter index already programmed for {@code key}. */
+    int acquire(String key) {
+        Slot slot = mSlotsByKey.get(key);
+        if (slot == null) {
+            return -1;
+        }
+        slot.refCount++;
+        mReferenceCount++;
+        return slot.filterIndex;
+    }
+
+    /** Records a newly programmed filter index, holding its first reference. */
+    void add(String key, int filterIndex) {
+        Slot slot = new Slot(key, filterIndex);
+        slot.refCount = 1;
+        mSlotsByKey.put(key, slot);
+        mSlotsByIndex.put(filterIndex, slot);
+        mReferenceCount++;
+    }
+
+    /**
+     * Drops a reference to {@code filterIndex}.
+     *
+     * @return true if the filter index is no longer used and must be removed from the controller
+     */
+    boolean release(int filterIndex) {
+        Slot slot = mSlotsByIndex.get(filterIndex);
+        if (slot == null) {
+            // Not a shared slot.
+            return true;
+        }
+        mReferenceCount--;
+        if (--slot.refCount > 0) {
+            return false;
+        }
+        mSlotsByKey.remove(slot.key);
+        mSlotsByIndex.remove(filterIndex);
+        return true;
+    }
+
+    int getSlotCount() {
+        return mSlotsByIndex.size();
+    }
+
+    int getReferenceCount() {
+        return mReferenceCount;
+    }
+
+    void dump(StringBuilder sb, int usedSlots, int freeSlots) {
+        int slots = getSlotCount();
+        sb.append("  Hardware scan filter slots: " + usedSlots + " used, " + freeSlots + " free\n");
+        sb.append("  Shareable scan filter slots: " + slots + ", references: " + mReferenceCount);
+        if (slots > 0) {
+            sb.append(String.format(" (sharing ratio %.2f)", (float) mReferenceCount / slots));
+        }
+        sb.append("\n");
+    }
+}
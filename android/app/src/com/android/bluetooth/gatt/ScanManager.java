@@ -306,6 +306,19 @@ public class ScanManager {
         mScanNative.callbackDone(scannerId, status);
     }
 
+    /**
+     * Handles the completion of a scan filter command (enable, add or parameter change).
+     *
+     * @param type the {@link ScanFilterPipeline} command completed
+     */
+    void scanFilterCallbackDone(int type, int scannerId, int status) {
+        mScanNative.scanFilterCallbackDone(type, scannerId, status);
+    }
+
+    void dump(StringBuilder sb) {
+        mScanNative.dump(sb);
+    }
+
     private void sendMessage(int what, ScanClient client) {
         final ClientHandler handler = mHandler;
         if (handler == null) {
@@ -432,12 +445,18 @@ public class ScanManager {
             // Begin scan operations.
             if (isBatchClient(client) || isAutoBatchScanClientEnabled(client)) {
                 mBatchClients.add(client);
-                mScanNative.startBatchScan(client);
+                if (!mScanNative.startBatchScan(client)) {
+                    mBatchClients.remove(client);
+                    return;
+                }
             } else {
                 updateScanModeBeforeStart(client);
                 updateScanModeConcurrency(client);
                 mRegularScanClients.add(client);
-                mScanNative.startRegularScan(client);
+                if (!mScanNative.startRegularScan(client)) {
+                    mRegularScanClients.remove(client);
+                    return;
+                }
                 if (!mScanNative.isOpportunisticScanClient(client)) {
                     mScanNative.configureRegularScanParams();
 
@@ -993,10 +1012,17 @@ public class ScanManager {
         // The logic is AND for each filter field.
         private static final int LIST_LOGIC_TYPE = 0x1111111;
         private static final int FILTER_LOGIC_TYPE = 1;
+        // Guards the filter slots, mutated on the scan handler thread and dumped from binder.
+        private final Object mFilterSlotsLock = new Object();
         // Filter indices that are available to user. It's sad we need to maintain filter index.
+        @GuardedBy("mFilterSlotsLock")
         private final Deque<Integer> mFilterIndexStack;
         // Map of scannerId and Filter indices used by client.
         private final Map<Integer, Deque<Integer>> mClientFilterIndexMap;
+        // Filter indices shared by clients registering identical filters.
+        @GuardedBy("mFilterSlotsLock")
+        private final ScanFilterSlotTable mFilterSlots = new ScanFilterSlotTable();
+        private int mNumOfFilterSlots;
         // Keep track of the clients that uses ALL_PASS filters.
         private final Set<Integer> mAllPassRegularClients = new HashSet<>();
         private final Set<Integer> mAllPassBatchClients = new HashSet<>();
@@ -1004,9 +1030,11 @@ public class ScanManager {
         private AlarmManager mAlarmManager;
         private PendingIntent mBatchScanIntervalIntent;
         private ScanNativeInterface mNativeInterface;
+        private final ScanFilterPipeline mFilterPipeline;
 
         ScanNative() {
             mNativeInterface = GattObjectsFactory.getInstance().getScanNativeInterface();
+            mFilterPipeline = new ScanFilterPipeline(mNativeInterface, OPERATION_TIME_OUT_MILLIS);
             mFilterIndexStack = new ArrayDeque<Integer>();
             mClientFilterIndexMap = new HashMap<Integer, Deque<Integer>>();
 
@@ -1048,6 +1076,20 @@ public class ScanManager {
             // TODO: add a callback for scan failure.
         }
 
+        private void scanFilterCallbackDone(int type, int scannerId, int status) {
+            if (!mFilterPipeline.onCommandComplete(type, scannerId, status)) {
+                callbackDone(scannerId, status);
+            }
+        }
+
+        void dump(StringBuilder sb) {
+            synchronized (mFilterSlotsLock) {
+                mFilterSlots.dump(sb, mNumOfFilterSlots - mFilterIndexStack.size(),
+                        mFilterIndexStack.size());
+            }
+            mFilterPipeline.dump(sb);
+        }
+
         private void resetCountDownLatch() {
             mNativeInterface.resetCountDownLatch();
         }
@@ -1116,13 +1158,19 @@ public class ScanManager {
             return result;
         }
 
-        void startRegularScan(ScanClient client) {
+        /**
+         * Starts a regular scan once the scan filters of {@code client} are programmed.
+         *
+         * @return false if the scan filters could not be programmed, the client is notified
+         */
+        boolean startRegularScan(ScanClient client) {
             if (isFilteringSupported() && mFilterIndexStack.isEmpty()
                     && mClientFilterIndexMap.isEmpty()) {
                 initFilterIndexStack();
             }
-            if (isFilteringSupported()) {
-                configureScanFilters(client);
+            if (isFilteringSupported() && !configureScanFilters(client)) {
+                onConfigureScanFiltersFailed(client);
+                return false;
             }
             // Start scan native only for the first client.
             if (numRegularScanClients() == 1
@@ -1136,6 +1184,7 @@ public class ScanManager {
                     Log.w(TAG, "Scan radio already started");
                 }
             }
+            return true;
         }
 
         private int numRegularScanClients() {
@@ -1148,16 +1197,38 @@ public class ScanManager {
             return num;
         }
 
-        void startBatchScan(ScanClient client) {
+        /**
+         * Starts a batch scan once the scan filters of {@code client} are programmed.
+         *
+         * @return false if the scan filters could not be programmed, the client is notified
+         */
+        boolean startBatchScan(ScanClient client) {
             if (mFilterIndexStack.isEmpty() && isFilteringSupported()) {
                 initFilterIndexStack();
             }
-            configureScanFilters(client);
+            if (!configureScanFilters(client)) {
+                onConfigureScanFiltersFailed(client);
+                return false;
+            }
             if (!isOpportunisticScanClient(client)) {
                 // Reset batch scan. May need to stop the existing batch scan and update scan
                 // params.
                 resetBatchScan(client);
             }
+            return true;
+        }
+
+        // The scan is not started: release the filters and report the failure to the client.
+        private void onConfigureScanFiltersFailed(ScanClient client) {
+            Log.e(TAG, "Scan filters of scannerId " + client.scannerId + " not configured,"
+                    + " scan not started");
+            removeScanFilters(client.scannerId);
+            try {
+                mService.onScanManagerErrorCallback(client.scannerId,
+                        ScanCallback.SCAN_FAILED_INTERNAL_ERROR);
+            } catch (RemoteException e) {
+                Log.e(TAG, "failed on onScanManagerCallback", e);
+            }
         }
 
         private boolean isExemptFromScanTimeout(ScanClient client) {
@@ -1486,47 +1557,59 @@ public class ScanManager {
         // Add scan filters. The logic is:
         // If no offload filter can/needs to be set, set ALL_PASS filter.
         // Otherwise offload all filters to hardware and enable all filters.
-        private void configureScanFilters(ScanClient client) {
+        // Returns false if a filter command failed or timed out.
+        private boolean configureScanFilters(ScanClient client) {
             int scannerId = client.scannerId;
             int deliveryMode = getDeliveryMode(client);
             int trackEntries = 0;
 
             // Do not add any filters set by opportunistic scan clients
             if (isOpportunisticScanClient(client)) {
-                return;
+                return true;
             }
 
             if (!shouldAddAllPassFilterToController(client, deliveryMode)) {
-                return;
+                return true;
             }
 
-            resetCountDownLatch();
-            mNativeInterface.gattClientScanFilterEnable(scannerId, true);
-            waitForCallback();
+            mFilterPipeline.enqueue(ScanFilterPipeline.COMMAND_ENABLE, scannerId, -1,
+                    () -> mNativeInterface.gattClientScanFilterEnable(scannerId, true));
 
             if (shouldUseAllPassFilter(client)) {
                 int filterIndex =
                         (deliveryMode == DELIVERY_MODE_BATCH) ? ALL_PASS_FILTER_INDEX_BATCH_SCAN
                                 : ALL_PASS_FILTER_INDEX_REGULAR_SCAN;
-                resetCountDownLatch();
                 // Don't allow Onfound/onlost with all pass
                 configureFilterParamter(scannerId, client, ALL_PASS_FILTER_SELECTION, filterIndex,
                         0);
-                waitForCallback();
             } else {
                 Deque<Integer> clientFilterIndices = new ArrayDeque<Integer>();
                 for (ScanFilter filter : client.filters) {
                     ScanFilterQueue queue = new ScanFilterQueue();
                     queue.addScanFilter(filter);
                     int featureSelection = queue.getFeatureSelection();
-                    int filterIndex = mFilterIndexStack.pop();
+                    String sharedKey = getSharedFilterKey(client, queue);
+                    int filterIndex;
+                    synchronized (mFilterSlotsLock) {
+                        int sharedFilterIndex =
+                                sharedKey == null ? -1 : mFilterSlots.acquire(sharedKey);
+                        if (sharedFilterIndex >= 0) {
+                            // Identical filter already programmed, results are matched in
+                            // software.
+                            clientFilterIndices.add(sharedFilterIndex);
+                            continue;
+                        }
+                        filterIndex = mFilterIndexStack.pop();
+                        if (sharedKey != null) {
+                            mFilterSlots.add(sharedKey, filterIndex);
+                        }
+                    }
 
-                    resetCountDownLatch();
-                    mNativeInterface.gattClientScanFilterAdd(scannerId, queue.toArray(),
-                            filterIndex);
-                    waitForCallback();
+                    ScanFilterQueue.Entry[] entries = queue.toArray();
+                    mFilterPipeline.enqueue(ScanFilterPipeline.COMMAND_ADD, scannerId, filterIndex,
+                            () -> mNativeInterface.gattClientScanFilterAdd(scannerId, entries,
+                                    filterIndex));
 
-                    resetCountDownLatch();
                     if (deliveryMode == DELIVERY_MODE_ON_FOUND_LOST) {
                         trackEntries = getNumOfTrackingAdvertisements(client.settings);
                         if (!manageAllocationOfTrackingAdvertisement(trackEntries, true)) {
@@ -1543,11 +1626,13 @@ public class ScanManager {
                     }
                     configureFilterParamter(scannerId, client, featureSelection, filterIndex,
                             trackEntries);
-                    waitForCallback();
                     clientFilterIndices.add(filterIndex);
                 }
                 mClientFilterIndexMap.put(scannerId, clientFilterIndices);
             }
+
+            // The scan is only started once every filter command completed.
+            return mFilterPipeline.execute();
         }
 
         // Check whether the filter should be added to controller.
@@ -1570,11 +1655,17 @@ public class ScanManager {
         private void removeScanFilters(int scannerId) {
             Deque<Integer> filterIndices = mClientFilterIndexMap.remove(scannerId);
             if (filterIndices != null) {
-                mFilterIndexStack.addAll(filterIndices);
                 for (Integer filterIndex : filterIndices) {
-                    resetCountDownLatch();
-                    mNativeInterface.gattClientScanFilterParamDelete(scannerId, filterIndex);
-                    waitForCallback();
+                    synchronized (mFilterSlotsLock) {
+                        if (!mFilterSlots.release(filterIndex)) {
+                            // Still used by another client.
+                            continue;
+                        }
+                        mFilterIndexStack.add(filterIndex);
+                    }
+                    mFilterPipeline.enqueue(ScanFilterPipeline.COMMAND_PARAM_DELETE, scannerId,
+                            filterIndex, () -> mNativeInterface.gattClientScanFilterParamDelete(
+                                    scannerId, filterIndex));
                 }
             }
             // Remove if ALL_PASS filters are used.
@@ -1582,6 +1673,7 @@ public class ScanManager {
                     ALL_PASS_FILTER_INDEX_REGULAR_SCAN);
             removeFilterIfExisits(mAllPassBatchClients, scannerId,
                     ALL_PASS_FILTER_INDEX_BATCH_SCAN);
+            mFilterPipeline.execute();
         }
 
         private void removeFilterIfExisits(Set<Integer> clients, int scannerId, int filterIndex) {
@@ -1591,9 +1683,9 @@ public class ScanManager {
             clients.remove(scannerId);
             // Remove ALL_PASS filter iff no app is using it.
             if (clients.isEmpty()) {
-                resetCountDownLatch();
-                mNativeInterface.gattClientScanFilterParamDelete(scannerId, filterIndex);
-                waitForCallback();
+                mFilterPipeline.enqueue(ScanFilterPipeline.COMMAND_PARAM_DELETE, scannerId,
+                        filterIndex, () -> mNativeInterface.gattClientScanFilterParamDelete(
+                                scannerId, filterIndex));
             }
         }
 
@@ -1630,27 +1722,59 @@ public class ScanManager {
             if (client.filters == null || client.filters.isEmpty()) {
                 return true;
             }
-            if (client.filters.size() > mFilterIndexStack.size()) {
+            if (getNumOfNewFilterSlots(client) > mFilterIndexStack.size()) {
                 client.stats.recordHwFilterNotAvailableCountMetrics();
                 return true;
             }
             return false;
         }
 
+        // Number of filter indices the client needs on top of the slots it can share.
+        private int getNumOfNewFilterSlots(ScanClient client) {
+            Set<String> newKeys = new HashSet<>();
+            int count = 0;
+            for (ScanFilter filter : client.filters) {
+                ScanFilterQueue queue = new ScanFilterQueue();
+                queue.addScanFilter(filter);
+                String sharedKey = getSharedFilterKey(client, queue);
+                if (sharedKey == null) {
+                    count++;
+                } else if (mFilterSlots.getFilterIndex(sharedKey) < 0 && newKeys.add(sharedKey)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        // Key of the filter index that can be shared with other clients, filter parameters are set
+        // per filter index so they are part of the key. Returns null if the filter can't be shared.
+        private String getSharedFilterKey(ScanClient client, ScanFilterQueue queue) {
+            int deliveryMode = getDeliveryMode(client);
+            if (deliveryMode == DELIVERY_MODE_ON_FOUND_LOST) {
+                // Tracked advertisers are allocated and reported per client.
+                return null;
+            }
+            return deliveryMode + "/" + getOnFoundOnLostTimeoutMillis(client.settings, true) + "/"
+                    + getOnFoundOnLostSightings(client.settings) + "/" + queue.getCanonicalKey();
+        }
+
         private void initFilterIndexStack() {
             int maxFiltersSupported =
                     AdapterService.getAdapterService().getNumOfOffloadedScanFilterSupported();
+            mNumOfFilterSlots = Math.max(maxFiltersSupported - 4, 0);
             // Start from index 4 as:
             // index 0 is reserved for ALL_PASS filter in Settings app.
             // index 1 is reserved for ALL_PASS filter for regular scan apps.
             // index 2 is reserved for ALL_PASS filter for batch scan apps.
             // index 3 is reserved for BAP/CAP Announcements
-            for (int i = 4; i < maxFiltersSupported; ++i) {
-                mFilterIndexStack.add(i);
+            synchronized (mFilterSlotsLock) {
+                for (int i = 4; i < maxFiltersSupported; ++i) {
+                    mFilterIndexStack.add(i);
+                }
             }
         }
 
-        // Configure filter parameters.
+        // Queue the filter parameters, issued when the filter pipeline is executed.
         private void configureFilterParamter(int scannerId, ScanClient client, int featureSelection,
                 int filterIndex, int numOfTrackingEntries) {
             int deliveryMode = getDeliveryMode(client);
@@ -1668,7 +1792,8 @@ public class ScanManager {
                     new FilterParams(scannerId, filterIndex, featureSelection, LIST_LOGIC_TYPE,
                             FILTER_LOGIC_TYPE, rssiThreshold, rssiThreshold, deliveryMode,
                             onFoundTimeout, onLostTimeout, onFoundCount, numOfTrackingEntries);
-            mNativeInterface.gattClientScanFilterParamAdd(filtValue);
+            mFilterPipeline.enqueue(ScanFilterPipeline.COMMAND_PARAM_ADD, scannerId, filterIndex,
+                    () -> mNativeInterface.gattClientScanFilterParamAdd(filtValue));
         }
 
         // Get delivery mode based on scan settings.
@@ -181,7 +181,12 @@ public class ScanNativeInterface {
     }
 
     void resetCountDownLatch() {
-        mLatch = new CountDownLatch(1);
+        resetCountDownLatch(1);
+    }
+
+    // Expects count callbacks before waitForCallback returns true.
+    void resetCountDownLatch(int count) {
+        mLatch = new CountDownLatch(count);
     }
 
     // Returns true if mLatch reaches 0, false if timeout or interrupted.
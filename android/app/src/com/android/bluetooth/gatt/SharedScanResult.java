@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.SystemClock;
+
+import java.util.Arrays;
+
+/**
+ * Scan result of a single advertisement, shared by every scan client it is delivered to.
+ *
+ * <p>The remote device, the legacy (fixed size) and the extended {@link ScanResult} are only built
+ * on first use, so an advertisement costs at most one parse of each form regardless of how many
+ * scanners are registered.
+ */
+class SharedScanResult {
+    // Some apps are used to fixed-size advertise data.
+    static final int LEGACY_ADV_DATA_LENGTH = 62;
+
+    private final int mEventType;
+    private final int mAddressType;
+    private final String mAddress;
+    private final int mPrimaryPhy;
+    private final int mSecondaryPhy;
+    private final int mAdvertisingSid;
+    private final int mTxPower;
+    private final int mRssi;
+    private final int mPeriodicAdvInt;
+    private final byte[] mAdvData;
+    private final long mTimestampNanos;
+
+    private BluetoothDevice mDevice;
+    private ScanResult mLegacyResult;
+    private ScanResult mExtendedResult;
+    // Whether a result was handed to a client.
+    private boolean mDelivered;
+
+    private int mParsesSaved;
+    private int mAllocationsSaved;
+
+    SharedScanResult(int eventType, int addressType, String address, int primaryPhy,
+            int secondaryPhy, int advertisingSid, int txPower, int rssi, int periodicAdvInt,
+            byte[] advData) {
+        mEventType = eventType;
+        mAddressType = addressType;
+        mAddress = address;
+        mPrimaryPhy = primaryPhy;
+        mSecondaryPhy = secondaryPhy;
+        mAdvertisingSid = advertisingSid;
+        mTxPower = txPower;
+        mRssi = rssi;
+        mPeriodicAdvInt = periodicAdvInt;
+        mAdvData = advData;
+        mTimestampNanos = SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Returns the result to deliver to a client.
+     *
+     * @param legacy whether the client expects fixed-size legacy advertising data
+     */
+    ScanResult getResult(boolean legacy) {
+        if (legacy) {
+            if (mLegacyResult == null) {
+                byte[] legacyAdvData = Arrays.copyOfRange(mAdvData, 0, LEGACY_ADV_DATA_LENGTH);
+                mLegacyResult = buildResult(legacyAdvData);
+            } else {
+                recordReuse();
+            }
+            return mLegacyResult;
+        }
+        if (mExtendedResult == null) {
+            mExtendedResult = buildResult(mAdvData);
+        } else {
+            recordReuse();
+        }
+        return mExtendedResult;
+    }
+
+    /** Records that a result was handed to a client, once its permission and filters passed. */
+    void markDelivered() {
+        mDelivered = true;
+    }
+
+    /** Returns the number of scan record parses avoided by sharing this result. */
+    int getParsesSaved() {
+        return mParsesSaved;
+    }
+
+    /**
+     * Returns the number of allocations (scan record, scan result and legacy data copies) avoided
+     * by sharing this result.
+     */
+    int getAllocationsSaved() {
+        // The legacy slice used to be copied for every delivered advertisement, even with no
+        // legacy client. Nothing was saved if no client got a result.
+        return mDelivered && mLegacyResult == null ? mAllocationsSaved + 1 : mAllocationsSaved;
+    }
+
+    private ScanResult buildResult(byte[] scanRecordData) {
+        if (mDevice == null) {
+            mDevice = BluetoothAdapter.getDefaultAdapter()
+                    .getRemoteLeDevice(mAddress, mAddressType);
+        }
+        ScanRecord scanRecord = ScanRecord.parseFromBytesLazily(scanRecordData);
+        return new ScanResult(mDevice, mEventType, mPrimaryPhy, mSecondaryPhy, mAdvertisingSid,
+                mTxPower, mRssi, mPeriodicAdvInt, scanRecord, mTimestampNanos);
+    }
+
+    private void recordReuse() {
+        mParsesSaved++;
+        // One ScanRecord and one ScanResult per reuse.
+        mAllocationsSaved += 2;
+    }
+}
@@ -47,6 +47,7 @@ import android.util.Log;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.ActiveDeviceManager;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.ConnectionStateIndex;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
@@ -206,6 +207,7 @@ public class HapClientService extends ProfileService {
                 sm.cleanup();
             }
             mStateMachines.clear();
+            ConnectionStateIndex.getInstance().clear(BluetoothProfile.HAP_CLIENT);
         }
 
         if (mStateMachinesThread != null) {
@@ -298,7 +300,8 @@ public class HapClientService extends ProfileService {
         if (states == null) {
             return devices;
         }
-        final BluetoothDevice[] bondedDevices = mAdapterService.getBondedDevices();
+        final BluetoothDevice[] bondedDevices = ConnectionStateIndex.getInstance()
+                .getBondedDevicesToCheck(mAdapterService, BluetoothProfile.HAP_CLIENT, states);
         if (bondedDevices == null) {
             return devices;
         }
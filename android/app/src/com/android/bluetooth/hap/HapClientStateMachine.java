@@ -56,6 +56,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 
+import com.android.bluetooth.btservice.ConnectionStateIndex;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.State;
@@ -155,6 +156,8 @@ final class HapClientStateMachine extends StateMachine {
 
     public void doQuit() {
         log("doQuit for device " + mDevice);
+        ConnectionStateIndex.getInstance().setConnectionState(BluetoothProfile.HAP_CLIENT, mDevice,
+                BluetoothProfile.STATE_DISCONNECTED);
         quitNow();
     }
 
@@ -179,6 +182,8 @@ final class HapClientStateMachine extends StateMachine {
         log("Connection state " + mDevice + ": " + profileStateToString(prevState)
                 + "->" + profileStateToString(newState));
 
+        ConnectionStateIndex.getInstance()
+                .setConnectionState(BluetoothProfile.HAP_CLIENT, mDevice, newState);
         mService.connectionStateChanged(mDevice, prevState, newState);
         Intent intent = new Intent(BluetoothHapClient.ACTION_HAP_CONNECTION_STATE_CHANGED);
         intent.putExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE, prevState);
@@ -55,6 +55,7 @@ import com.android.bluetooth.BluetoothStatsLog;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.a2dp.A2dpService;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.ConnectionStateIndex;
 import com.android.bluetooth.btservice.MetricsLogger;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
@@ -252,6 +253,7 @@ public class HeadsetService extends ProfileService {
                 HeadsetObjectsFactory.getInstance().destroyStateMachine(stateMachine);
             }
             mStateMachines.clear();
+            ConnectionStateIndex.getInstance().clear(BluetoothProfile.HEADSET);
         }
         // Step 4: Destroy native interface
         mNativeInterface.cleanup();
@@ -1010,10 +1012,23 @@ public class HeadsetService extends ProfileService {
     @VisibleForTesting
     public List<BluetoothDevice> getDevicesMatchingConnectionStates(int[] states) {
         ArrayList<BluetoothDevice> devices = new ArrayList<>();
-        synchronized (mStateMachines) {
-            if (states == null || mAdapterService == null) {
-                return devices;
+        if (states == null || mAdapterService == null) {
+            return devices;
+        }
+        if (!ConnectionStateIndex.containsDisconnectedState(states)) {
+            // The devices in the states last published by their state machine, without copying
+            // the bonded devices nor locking the state machines.
+            for (BluetoothDevice device : ConnectionStateIndex.getInstance()
+                    .getDevicesMatchingConnectionStates(BluetoothProfile.HEADSET, states)) {
+                if (mAdapterService.getBondState(device) == BluetoothDevice.BOND_BONDED
+                        && BluetoothUuid.containsAnyUuid(
+                                mAdapterService.getRemoteUuids(device), HEADSET_UUIDS)) {
+                    devices.add(device);
+                }
             }
+            return devices;
+        }
+        synchronized (mStateMachines) {
             final BluetoothDevice[] bondedDevices = mAdapterService.getBondedDevices();
             if (bondedDevices == null) {
                 return devices;
@@ -46,6 +46,7 @@ import android.util.Log;
 import com.android.bluetooth.BluetoothStatsLog;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.ConnectionStateIndex;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 import com.android.internal.annotations.VisibleForTesting;
@@ -258,6 +259,8 @@ public class HeadsetStateMachine extends StateMachine {
         }
         stateMachine.quitNow();
         stateMachine.cleanup();
+        ConnectionStateIndex.getInstance().setConnectionState(BluetoothProfile.HEADSET,
+                stateMachine.mDevice, BluetoothProfile.STATE_DISCONNECTED);
     }
 
     public void cleanup() {
@@ -348,6 +351,8 @@ public class HeadsetStateMachine extends StateMachine {
         // Should not be called from enter() method
         void broadcastConnectionState(BluetoothDevice device, int fromState, int toState) {
             stateLogD("broadcastConnectionState " + device + ": " + fromState + "->" + toState);
+            ConnectionStateIndex.getInstance()
+                    .setConnectionState(BluetoothProfile.HEADSET, device, toState);
             mHeadsetService.onConnectionStateChangedFromStateMachine(device, fromState, toState);
             Intent intent = new Intent(BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED);
             intent.putExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE, fromState);
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.le_audio;
+
+import static android.bluetooth.IBluetoothLeAudio.LE_AUDIO_GROUP_ID_INVALID;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Group membership of the LE Audio devices, readable without holding the group lock of
+ * {@link LeAudioService}.
+ *
+ * <p>The service updates the index along with its device descriptors, while holding its group
+ * lock. Readers get the group of a device in O(1) and the members of a group without walking the
+ * device descriptors: each group keeps an immutable member list which is replaced on change, so
+ * audio routing queries never block on native stack callbacks.
+ */
+class LeAudioGroupIndex {
+    private static final List<BluetoothDevice> NO_MEMBERS = Collections.emptyList();
+
+    // device -> group id, LE_AUDIO_GROUP_ID_INVALID when the device is not grouped
+    private final Map<BluetoothDevice, Integer> mGroupIds = new ConcurrentHashMap<>();
+    // group id -> members, in the order they joined the group
+    private final Map<Integer, List<BluetoothDevice>> mMembers = new ConcurrentHashMap<>();
+    private volatile int mActiveGroupId = LE_AUDIO_GROUP_ID_INVALID;
+
+    /** Adds {@code device} out of any group, when its descriptor is created. */
+    synchronized void addDevice(BluetoothDevice device) {
+        mGroupIds.putIfAbsent(device, LE_AUDIO_GROUP_ID_INVALID);
+    }
+
+    /** Moves {@code device} to {@code groupId}, or out of its group for an invalid group id. */
+    synchronized void setGroupId(BluetoothDevice device, int groupId) {
+        Integer oldGroupId = mGroupIds.put(device, groupId);
+        if (oldGroupId != null && oldGroupId == groupId) {
+            return;
+        }
+        if (oldGroupId != null) {
+            removeMember(oldGroupId, device);
+        }
+        if (groupId != LE_AUDIO_GROUP_ID_INVALID) {
+            List<BluetoothDevice> members =
+                    new ArrayList<>(mMembers.getOrDefault(groupId, NO_MEMBERS));
+            members.add(device);
+            mMembers.put(groupId, Collections.unmodifiableList(members));
+        }
+    }
+
+    /** Forgets {@code device}, when its descriptor is removed. */
+    synchronized void removeDevice(BluetoothDevice device) {
+        Integer groupId = mGroupIds.remove(device);
+        if (groupId != null) {
+            removeMember(groupId, device);
+        }
+    }
+
+    private void removeMember(int groupId, BluetoothDevice device) {
+        List<BluetoothDevice> members = mMembers.get(groupId);
+        if (members == null || !members.contains(device)) {
+            return;
+        }
+        if (members.size() == 1) {
+            mMembers.remove(groupId);
+            return;
+        }
+        List<BluetoothDevice> newMembers = new ArrayList<>(members);
+        newMembers.remove(device);
+        mMembers.put(groupId, Collections.unmodifiableList(newMembers));
+    }
+
+    /** Returns the group id of {@code device}, or null if the device is not known. */
+    Integer getGroupId(BluetoothDevice device) {
+        return mGroupIds.get(device);
+    }
+
+    /** Returns an immutable snapshot of the members of {@code groupId}. */
+    List<BluetoothDevice> getGroupDevices(int groupId) {
+        return mMembers.getOrDefault(groupId, NO_MEMBERS);
+    }
+
+    /** Returns whether {@code groupId} has no member left. */
+    boolean isGroupEmpty(int groupId) {
+        return !mMembers.containsKey(groupId);
+    }
+
+    /** Records whether {@code groupId} is the active group. */
+    synchronized void setGroupActive(int groupId, boolean isActive) {
+        if (isActive) {
+            mActiveGroupId = groupId;
+        } else if (mActiveGroupId == groupId) {
+            mActiveGroupId = LE_AUDIO_GROUP_ID_INVALID;
+        }
+    }
+
+    /** Returns the active group id, or LE_AUDIO_GROUP_ID_INVALID if no group is active. */
+    int getActiveGroupId() {
+        return mActiveGroupId;
+    }
+
+    /** Forgets every device and group. */
+    synchronized void clear() {
+        mGroupIds.clear();
+        mMembers.clear();
+        mActiveGroupId = LE_AUDIO_GROUP_ID_INVALID;
+    }
+}
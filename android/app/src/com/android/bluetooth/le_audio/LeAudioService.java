@@ -67,6 +67,7 @@ import android.util.Pair;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.bass_client.BassClientService;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.ConnectionStateIndex;
 import com.android.bluetooth.btservice.MetricsLogger;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
@@ -247,6 +248,8 @@ public class LeAudioService extends ProfileService {
     private final Map<Integer, LeAudioGroupDescriptor> mGroupDescriptors = new LinkedHashMap<>();
     private final Map<BluetoothDevice, LeAudioDeviceDescriptor> mDeviceDescriptors =
             new LinkedHashMap<>();
+    // Group membership and active group, read without mGroupLock
+    private final LeAudioGroupIndex mGroupIndex = new LeAudioGroupIndex();
     private final Map<Integer, LeAudioBroadcastDescriptor> mBroadcastDescriptors =
             new LinkedHashMap<>();
 
@@ -311,6 +314,7 @@ public class LeAudioService extends ProfileService {
         synchronized (mGroupLock) {
             mDeviceDescriptors.clear();
             mGroupDescriptors.clear();
+            mGroupIndex.clear();
         }
 
         // Setup broadcast callbacks
@@ -405,7 +409,7 @@ public class LeAudioService extends ProfileService {
                 LeAudioGroupDescriptor descriptor = entry.getValue();
                 Integer group_id = entry.getKey();
                 if (descriptor.mIsActive) {
-                    descriptor.mIsActive = false;
+                    setGroupActive(group_id, descriptor, false);
                     updateActiveDevices(group_id, descriptor.mDirection, AUDIO_DIRECTION_NONE,
                             descriptor.mIsActive, false, false);
                     break;
@@ -424,6 +428,8 @@ public class LeAudioService extends ProfileService {
 
             mDeviceDescriptors.clear();
             mGroupDescriptors.clear();
+            mGroupIndex.clear();
+            ConnectionStateIndex.getInstance().clear(BluetoothProfile.LE_AUDIO);
         }
 
         // Cleanup native interfaces
@@ -553,6 +559,7 @@ public class LeAudioService extends ProfileService {
 
             mDeviceDescriptors.put(device, new LeAudioDeviceDescriptor(isInbandRingtoneEnabled));
             descriptor = mDeviceDescriptors.get(device);
+            mGroupIndex.addDevice(device);
             Log.d(TAG, "Created descriptor for device: " + device);
         } else {
             Log.w(TAG, "Device: " + device + ", already exists");
@@ -665,7 +672,8 @@ public class LeAudioService extends ProfileService {
         if (states == null) {
             return devices;
         }
-        final BluetoothDevice[] bondedDevices = mAdapterService.getBondedDevices();
+        final BluetoothDevice[] bondedDevices = ConnectionStateIndex.getInstance()
+                .getBondedDevicesToCheck(mAdapterService, BluetoothProfile.LE_AUDIO, states);
         if (bondedDevices == null) {
             return devices;
         }
@@ -785,21 +793,10 @@ public class LeAudioService extends ProfileService {
      * @return all devices within a given group or empty list
      */
     public List<BluetoothDevice> getGroupDevices(int groupId) {
-        List<BluetoothDevice> result = new ArrayList<>();
-
         if (groupId == LE_AUDIO_GROUP_ID_INVALID) {
-            return result;
-        }
-
-        synchronized (mGroupLock) {
-            for (Map.Entry<BluetoothDevice, LeAudioDeviceDescriptor> entry
-                    : mDeviceDescriptors.entrySet()) {
-                if (entry.getValue().mGroupId == groupId) {
-                    result.add(entry.getKey());
-                }
-            }
+            return new ArrayList<>();
         }
-        return result;
+        return new ArrayList<>(mGroupIndex.getGroupDevices(groupId));
     }
 
     /**
@@ -808,37 +805,14 @@ public class LeAudioService extends ProfileService {
      * @return all devices within a given group or empty list
      */
     public List<BluetoothDevice> getGroupDevices(BluetoothDevice device) {
-        List<BluetoothDevice> result = new ArrayList<>();
-        int groupId = getGroupId(device);
-
-        if (groupId == LE_AUDIO_GROUP_ID_INVALID) {
-            return result;
-        }
-
-        synchronized (mGroupLock) {
-            for (Map.Entry<BluetoothDevice, LeAudioDeviceDescriptor> entry
-                    : mDeviceDescriptors.entrySet()) {
-                if (entry.getValue().mGroupId == groupId) {
-                    result.add(entry.getKey());
-                }
-            }
-        }
-        return result;
+        return getGroupDevices(getGroupId(device));
     }
 
     /**
      * Get the active device group id
      */
     public Integer getActiveGroupId() {
-        synchronized (mGroupLock) {
-            for (Map.Entry<Integer, LeAudioGroupDescriptor> entry : mGroupDescriptors.entrySet()) {
-                LeAudioGroupDescriptor descriptor = entry.getValue();
-                if (descriptor.mIsActive) {
-                    return entry.getKey();
-                }
-            }
-        }
-        return LE_AUDIO_GROUP_ID_INVALID;
+        return mGroupIndex.getActiveGroupId();
     }
 
     /**
@@ -1180,7 +1154,7 @@ public class LeAudioService extends ProfileService {
                 /* Mark old group as no active */
                 LeAudioGroupDescriptor descriptor = getGroupDescriptor(deviceDescriptor.mGroupId);
                 if (descriptor != null) {
-                    descriptor.mIsActive = false;
+                    setGroupActive(deviceDescriptor.mGroupId, descriptor, false);
                 }
             }
         }
@@ -1244,7 +1218,7 @@ public class LeAudioService extends ProfileService {
                 /* Mark old group as no active */
                 LeAudioGroupDescriptor descriptor = getGroupDescriptor(deviceDescriptor.mGroupId);
                 if (descriptor != null) {
-                    descriptor.mIsActive = false;
+                    setGroupActive(deviceDescriptor.mGroupId, descriptor, false);
                 }
             }
         }
@@ -1994,8 +1968,9 @@ public class LeAudioService extends ProfileService {
                 return;
             }
 
-            descriptor.mIsActive = updateActiveDevices(groupId, AUDIO_DIRECTION_NONE,
+            boolean isActive = updateActiveDevices(groupId, AUDIO_DIRECTION_NONE,
                     descriptor.mDirection, true, false, false);
+            setGroupActive(groupId, descriptor, isActive);
 
             if (descriptor.mIsActive) {
                 notifyGroupStatusChanged(groupId, LeAudioStackEvent.GROUP_STATUS_ACTIVE);
@@ -2025,7 +2000,7 @@ public class LeAudioService extends ProfileService {
                 newDirections |= AUDIO_DIRECTION_INPUT_BIT;
             }
 
-            descriptor.mIsActive = false;
+            setGroupActive(groupId, descriptor, false);
             updateActiveDevices(
                     groupId,
                     descriptor.mDirection,
@@ -2761,6 +2736,7 @@ public class LeAudioService extends ProfileService {
             }
 
             descriptor.mGroupId = LE_AUDIO_GROUP_ID_INVALID;
+            mGroupIndex.setGroupId(device, LE_AUDIO_GROUP_ID_INVALID);
             descriptor.mSinkAudioLocation = BluetoothLeAudio.AUDIO_LOCATION_INVALID;
             descriptor.mDirection = AUDIO_DIRECTION_NONE;
 
@@ -2797,6 +2773,7 @@ public class LeAudioService extends ProfileService {
             descriptor.mStateMachine = null;
 
             mDeviceDescriptors.remove(device);
+            mGroupIndex.removeDevice(device);
             if (!isScannerNeeded()) {
                 stopAudioServersBackgroundScan();
             }
@@ -2889,7 +2866,7 @@ public class LeAudioService extends ProfileService {
                 if (descriptor.mIsActive) {
                     /* Notify Native layer */
                     removeActiveDevice(hasFallbackDevice);
-                    descriptor.mIsActive = false;
+                    setGroupActive(deviceDescriptor.mGroupId, descriptor, false);
                     /* Update audio framework */
                     updateActiveDevices(deviceDescriptor.mGroupId,
                             descriptor.mDirection,
@@ -3155,15 +3132,12 @@ public class LeAudioService extends ProfileService {
             return LE_AUDIO_GROUP_ID_INVALID;
         }
 
-        synchronized (mGroupLock) {
-            LeAudioDeviceDescriptor descriptor = getDeviceDescriptor(device);
-            if (descriptor == null) {
-                Log.e(TAG, "getGroupId: No valid descriptor for device: " + device);
-                return LE_AUDIO_GROUP_ID_INVALID;
-            }
-
-            return descriptor.mGroupId;
+        Integer groupId = mGroupIndex.getGroupId(device);
+        if (groupId == null) {
+            Log.e(TAG, "getGroupId: No valid descriptor for device: " + device);
+            return LE_AUDIO_GROUP_ID_INVALID;
         }
+        return groupId;
     }
 
     /**
@@ -3280,6 +3254,12 @@ public class LeAudioService extends ProfileService {
         }
     }
 
+    private void setGroupActive(int groupId, LeAudioGroupDescriptor descriptor,
+            boolean isActive) {
+        descriptor.mIsActive = isActive;
+        mGroupIndex.setGroupActive(groupId, isActive);
+    }
+
     private void handleGroupNodeAdded(BluetoothDevice device, int groupId) {
         synchronized (mGroupLock) {
             if (DBG) {
@@ -3313,6 +3293,7 @@ public class LeAudioService extends ProfileService {
                 }
             }
             deviceDescriptor.mGroupId = groupId;
+            mGroupIndex.setGroupId(device, groupId);
 
             notifyGroupNodeAdded(device, groupId);
         }
@@ -3366,15 +3347,9 @@ public class LeAudioService extends ProfileService {
                 return;
             }
             deviceDescriptor.mGroupId = LE_AUDIO_GROUP_ID_INVALID;
+            mGroupIndex.setGroupId(device, LE_AUDIO_GROUP_ID_INVALID);
 
-            boolean isGroupEmpty = true;
-
-            for (LeAudioDeviceDescriptor descriptor : mDeviceDescriptors.values()) {
-                if (descriptor.mGroupId == groupId) {
-                    isGroupEmpty = false;
-                    break;
-                }
-            }
+            boolean isGroupEmpty = mGroupIndex.isGroupEmpty(groupId);
 
             if (isGroupEmpty) {
                 /* Device is currently an active device. Group needs to be inactivated before
@@ -3385,6 +3360,7 @@ public class LeAudioService extends ProfileService {
                     handleGroupTransitToInactive(groupId);
                 }
                 mGroupDescriptors.remove(groupId);
+                mGroupIndex.setGroupActive(groupId, false);
 
                 if (mUnicastGroupIdDeactivatedForBroadcastTransition == groupId) {
                     mUnicastGroupIdDeactivatedForBroadcastTransition = LE_AUDIO_GROUP_ID_INVALID;
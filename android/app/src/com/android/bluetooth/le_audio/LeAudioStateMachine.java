@@ -52,6 +52,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 
+import com.android.bluetooth.btservice.ConnectionStateIndex;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.flags.FeatureFlags;
 import com.android.internal.annotations.VisibleForTesting;
@@ -130,6 +131,8 @@ final class LeAudioStateMachine extends StateMachine {
 
     public void doQuit() {
         log("doQuit for device " + mDevice);
+        ConnectionStateIndex.getInstance().setConnectionState(BluetoothProfile.LE_AUDIO, mDevice,
+                BluetoothProfile.STATE_DISCONNECTED);
         quitNow();
     }
 
@@ -528,6 +531,8 @@ final class LeAudioStateMachine extends StateMachine {
     private void broadcastConnectionState(int newState, int prevState) {
         log("Connection state " + mDevice + ": " + profileStateToString(prevState)
                     + "->" + profileStateToString(newState));
+        ConnectionStateIndex.getInstance()
+                .setConnectionState(BluetoothProfile.LE_AUDIO, mDevice, newState);
         mService.notifyConnectionStateChanged(mDevice, newState, prevState);
     }
 
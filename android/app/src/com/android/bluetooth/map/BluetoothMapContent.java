@@ -55,6 +55,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -539,20 +540,12 @@ public class BluetoothMapContent {
 
     private void setRead(BluetoothMapMessageListingElement e, Cursor c, FilterInfo fi,
             BluetoothMapAppParams ap) {
-        int read = 0;
-        if (fi.mMsgType == FilterInfo.TYPE_SMS) {
-            read = c.getInt(fi.mSmsColRead);
-        } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
-            read = c.getInt(fi.mMmsColRead);
-        } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL || fi.mMsgType == FilterInfo.TYPE_IM) {
-            read = c.getInt(fi.mMessageColRead);
-        }
         String setread = null;
 
         if (V) {
             Log.d(TAG, "setRead: " + setread);
         }
-        e.setRead((read == 1), ((ap.getParameterMask() & MASK_READ) != 0));
+        e.setRead(isRead(c, fi), ((ap.getParameterMask() & MASK_READ) != 0));
     }
 
     private void setPriority(BluetoothMapMessageListingElement e, Cursor c, FilterInfo fi,
@@ -1192,25 +1185,29 @@ public class BluetoothMapContent {
     void setDateTime(BluetoothMapMessageListingElement e, Cursor c, FilterInfo fi,
             BluetoothMapAppParams ap) {
         if ((ap.getParameterMask() & MASK_DATETIME) != 0) {
-            long date = 0;
-            if (fi.mMsgType == FilterInfo.TYPE_SMS) {
-                date = c.getLong(fi.mSmsColDate);
-            } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
-                /* Use Mms.DATE for all messages. Although contract class states */
-                /* Mms.DATE_SENT are for outgoing messages. But that is not working. */
-                date = c.getLong(fi.mMmsColDate) * 1000L;
-
-                /* int msgBox = c.getInt(c.getColumnIndex(Mms.MESSAGE_BOX)); */
-                /* if (msgBox == Mms.MESSAGE_BOX_INBOX) { */
-                /*     date = c.getLong(c.getColumnIndex(Mms.DATE)) * 1000L; */
-                /* } else { */
-                /*     date = c.getLong(c.getColumnIndex(Mms.DATE_SENT)) * 1000L; */
-                /* } */
-            } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL || fi.mMsgType == FilterInfo.TYPE_IM) {
-                date = c.getLong(fi.mMessageColDate);
-            }
-            e.setDateTime(date);
+            e.setDateTime(getDateTime(c, fi));
+        }
+    }
+
+    private static long getDateTime(Cursor c, FilterInfo fi) {
+        long date = 0;
+        if (fi.mMsgType == FilterInfo.TYPE_SMS) {
+            date = c.getLong(fi.mSmsColDate);
+        } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
+            /* Use Mms.DATE for all messages. Although contract class states */
+            /* Mms.DATE_SENT are for outgoing messages. But that is not working. */
+            date = c.getLong(fi.mMmsColDate) * 1000L;
+
+            /* int msgBox = c.getInt(c.getColumnIndex(Mms.MESSAGE_BOX)); */
+            /* if (msgBox == Mms.MESSAGE_BOX_INBOX) { */
+            /*     date = c.getLong(c.getColumnIndex(Mms.DATE)) * 1000L; */
+            /* } else { */
+            /*     date = c.getLong(c.getColumnIndex(Mms.DATE_SENT)) * 1000L; */
+            /* } */
+        } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL || fi.mMsgType == FilterInfo.TYPE_IM) {
+            date = c.getLong(fi.mMessageColDate);
         }
+        return date;
     }
 
     @VisibleForTesting
@@ -1336,15 +1333,26 @@ public class BluetoothMapContent {
         return e;
     }
 
-    /* TODO: Change to use SmsMmsContacts.getContactNameFromPhone() with proper use of
-     *       caching. */
+    /**
+     * Looks up the name of the contact with the phone number {@code phone}, through the
+     * {@link ContactNameCache} shared by the MAS instances.
+     *
+     * @return the name of the contact or null, if no contact was found
+     */
     public static String getContactNameFromPhone(String phone, ContentResolver resolver) {
-        String name = null;
         //Handle possible exception for empty phone address
         if (TextUtils.isEmpty(phone)) {
-            return name;
+            return null;
         }
+        return ContactNameCache.getInstance().getContactName(phone, resolver);
+    }
 
+    /**
+     * Queries the contact with the phone number {@code phone}.
+     *
+     * @return the contact, with a negative id if no contact was found
+     */
+    static MapContact lookupContactFromPhone(String phone, ContentResolver resolver) {
         Uri uri =
                 Uri.withAppendedPath(PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI, Uri.encode(phone));
 
@@ -1359,7 +1367,8 @@ public class BluetoothMapContent {
                 int colIndex = c.getColumnIndex(Contacts.DISPLAY_NAME);
                 if (c.getCount() >= 1) {
                     c.moveToFirst();
-                    name = c.getString(colIndex);
+                    return MapContact.create(c.getLong(c.getColumnIndex(Contacts._ID)),
+                            c.getString(colIndex));
                 }
             }
         } finally {
@@ -1367,7 +1376,7 @@ public class BluetoothMapContent {
                 c.close();
             }
         }
-        return name;
+        return MapContact.create(-1, null);
     }
 
     private static final String[] RECIPIENT_ID_PROJECTION = {Threads.RECIPIENT_IDS};
@@ -2159,6 +2168,8 @@ public class BluetoothMapContent {
         if (ap.getMaxListCount() > 0) {
             limit = " LIMIT " + (ap.getMaxListCount() + ap.getStartOffset());
         }
+        // In the order the rows were added to the listing before it was sorted
+        List<MsgListingSource> sources = new ArrayList<MsgListingSource>(4);
         try {
             if (smsSelected(fi, ap) && folderElement.hasSmsMmsContent()) {
                 if (ap.getFilterMessageType() == (BluetoothMapAppParams.FILTER_NO_EMAIL
@@ -2186,21 +2197,12 @@ public class BluetoothMapContent {
                             Sms.CONTENT_URI, SMS_PROJECTION, where, null,
                             Sms.DATE + " DESC" + limit);
                     if (smsCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         if (D) {
                             Log.d(TAG, "Found " + smsCursor.getCount() + " sms messages.");
                         }
                         fi.setSmsColumns(smsCursor);
-                        while (smsCursor.moveToNext()) {
-                            if (matchAddresses(smsCursor, fi, ap)) {
-                                if (V) {
-                                    BluetoothMapUtils.printCursor(smsCursor);
-                                }
-                                e = element(smsCursor, fi, ap);
-                                bmList.add(e);
-                            }
-                        }
+                        sources.add(new MsgListingSource(smsCursor, FilterInfo.TYPE_SMS));
                     }
                 }
             }
@@ -2229,21 +2231,12 @@ public class BluetoothMapContent {
                             Mms.CONTENT_URI, MMS_PROJECTION, where, null,
                             Mms.DATE + " DESC" + limit);
                     if (mmsCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         fi.setMmsColumns(mmsCursor);
                         if (D) {
                             Log.d(TAG, "Found " + mmsCursor.getCount() + " mms messages.");
                         }
-                        while (mmsCursor.moveToNext()) {
-                            if (matchAddresses(mmsCursor, fi, ap)) {
-                                if (V) {
-                                    BluetoothMapUtils.printCursor(mmsCursor);
-                                }
-                                e = element(mmsCursor, fi, ap);
-                                bmList.add(e);
-                            }
-                        }
+                        sources.add(new MsgListingSource(mmsCursor, FilterInfo.TYPE_MMS));
                     }
                 }
             }
@@ -2273,20 +2266,12 @@ public class BluetoothMapContent {
                             contentUri, BluetoothMapContract.BT_MESSAGE_PROJECTION, where, null,
                             BluetoothMapContract.MessageColumns.DATE + " DESC" + limit);
                     if (emailCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         fi.setEmailMessageColumns(emailCursor);
                         if (D) {
                             Log.d(TAG, "Found " + emailCursor.getCount() + " email messages.");
                         }
-                        while (emailCursor.moveToNext()) {
-                            if (V) {
-                                BluetoothMapUtils.printCursor(emailCursor);
-                            }
-                            e = element(emailCursor, fi, ap);
-                            bmList.add(e);
-                        }
-                        //   emailCursor.close();
+                        sources.add(new MsgListingSource(emailCursor, FilterInfo.TYPE_EMAIL));
                     }
                 }
             }
@@ -2315,70 +2300,16 @@ public class BluetoothMapContent {
                         contentUri, BluetoothMapContract.BT_INSTANT_MESSAGE_PROJECTION, where, null,
                         BluetoothMapContract.MessageColumns.DATE + " DESC" + limit);
                 if (imCursor != null) {
-                    BluetoothMapMessageListingElement e = null;
                     // store column index so we dont have to look them up anymore (optimization)
                     fi.setImMessageColumns(imCursor);
                     if (D) {
                         Log.d(TAG, "Found " + imCursor.getCount() + " im messages.");
                     }
-                    while (imCursor.moveToNext()) {
-                        if (V) {
-                            BluetoothMapUtils.printCursor(imCursor);
-                        }
-                        e = element(imCursor, fi, ap);
-                        bmList.add(e);
-                    }
+                    sources.add(new MsgListingSource(imCursor, FilterInfo.TYPE_IM));
                 }
             }
 
-            /* Enable this if post sorting and segmenting needed */
-            bmList.sort();
-            bmList.segment(ap.getMaxListCount(), offsetNum);
-            List<BluetoothMapMessageListingElement> list = bmList.getList();
-            int listSize = list.size();
-            Cursor tmpCursor = null;
-            for (int x = 0; x < listSize; x++) {
-                BluetoothMapMessageListingElement ele = list.get(x);
-                /* If OBEX "GET" request header includes "ParameterMask" with 'Type' NOT set,
-                 * then ele.getType() returns "null" even for a valid cursor.
-                 * Avoid NullPointerException in equals() check when 'mType' value is "null" */
-                TYPE tmpType = ele.getType();
-                if (smsCursor != null && ((TYPE.SMS_GSM).equals(tmpType) || (TYPE.SMS_CDMA).equals(
-                        tmpType))) {
-                    tmpCursor = smsCursor;
-                    fi.mMsgType = FilterInfo.TYPE_SMS;
-                } else if (mmsCursor != null && (TYPE.MMS).equals(tmpType)) {
-                    tmpCursor = mmsCursor;
-                    fi.mMsgType = FilterInfo.TYPE_MMS;
-                } else if (emailCursor != null && ((TYPE.EMAIL).equals(tmpType))) {
-                    tmpCursor = emailCursor;
-                    fi.mMsgType = FilterInfo.TYPE_EMAIL;
-                } else if (imCursor != null && ((TYPE.IM).equals(tmpType))) {
-                    tmpCursor = imCursor;
-                    fi.mMsgType = FilterInfo.TYPE_IM;
-                }
-                if (tmpCursor != null) {
-                    tmpCursor.moveToPosition(ele.getCursorIndex());
-                    setSenderAddressing(ele, tmpCursor, fi, ap);
-                    setSenderName(ele, tmpCursor, fi, ap);
-                    setRecipientAddressing(ele, tmpCursor, fi, ap);
-                    setRecipientName(ele, tmpCursor, fi, ap);
-                    setSubject(ele, tmpCursor, fi, ap);
-                    setSize(ele, tmpCursor, fi, ap);
-                    setText(ele, tmpCursor, fi, ap);
-                    setPriority(ele, tmpCursor, fi, ap);
-                    setSent(ele, tmpCursor, fi, ap);
-                    setProtected(ele, tmpCursor, fi, ap);
-                    setReceptionStatus(ele, ap);
-                    setAttachment(ele, tmpCursor, fi, ap);
-
-                    if (mMsgListingVersion > BluetoothMapUtils.MAP_MESSAGE_LISTING_FORMAT_V10) {
-                        setDeliveryStatus(ele, tmpCursor, fi, ap);
-                        setThreadId(ele, tmpCursor, fi, ap);
-                        setThreadName(ele, tmpCursor, fi, ap);
-                    }
-                }
-            }
+            mergeMsgListing(bmList, sources, fi, ap, offsetNum);
         } finally {
             if (emailCursor != null) {
                 emailCursor.close();
@@ -2401,6 +2332,128 @@ public class BluetoothMapContent {
         return bmList;
     }
 
+    /** A date ordered cursor of one message type, merged into a message listing. */
+    private static class MsgListingSource {
+        final Cursor mCursor;
+        final int mMsgType;
+        // Whether the cursor is on a row matching the filters, and the date the row sorts by.
+        boolean mHasRow;
+        long mDate;
+
+        MsgListingSource(Cursor cursor, int msgType) {
+            mCursor = cursor;
+            mMsgType = msgType;
+        }
+    }
+
+    /**
+     * Merges the rows of the date ordered listing sources into {@code bmList}, in the order a
+     * stable sort of all the rows by date gives. The first {@code offset} rows are skipped and only
+     * the returned rows are turned into elements with their fields filled. The remaining rows are
+     * only read until one tells the listing has unread messages.
+     */
+    private void mergeMsgListing(BluetoothMapMessageListing bmList,
+            List<MsgListingSource> sources, FilterInfo fi, BluetoothMapAppParams ap, int offset) {
+        int maxListCount = ap.getMaxListCount();
+        for (MsgListingSource source : sources) {
+            moveToNextListingRow(source, fi, ap);
+        }
+        for (int position = 0; ; position++) {
+            boolean listFull = maxListCount > 0 && bmList.getCount() >= maxListCount;
+            if (listFull && bmList.hasUnread()) {
+                break;
+            }
+            MsgListingSource next = null;
+            for (MsgListingSource source : sources) {
+                // On equal dates the first source wins, as the rows of sources added first did.
+                if (source.mHasRow && (next == null || source.mDate > next.mDate)) {
+                    next = source;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            selectListingSource(next, fi);
+            Cursor c = next.mCursor;
+            if (position >= offset && !listFull) {
+                BluetoothMapMessageListingElement e = element(c, fi, ap);
+                bmList.add(e);
+                setListingElementDetails(e, c, fi, ap);
+            } else if (!bmList.hasUnread() && !isRead(c, fi)) {
+                bmList.setHasUnread(true);
+            }
+            moveToNextListingRow(next, fi, ap);
+        }
+    }
+
+    /** Moves {@code source} to its next row matching the address filters. */
+    private void moveToNextListingRow(MsgListingSource source, FilterInfo fi,
+            BluetoothMapAppParams ap) {
+        selectListingSource(source, fi);
+        Cursor c = source.mCursor;
+        source.mHasRow = false;
+        while (c.moveToNext()) {
+            if ((source.mMsgType == FilterInfo.TYPE_SMS || source.mMsgType == FilterInfo.TYPE_MMS)
+                    && !matchAddresses(c, fi, ap)) {
+                continue;
+            }
+            if (V) {
+                BluetoothMapUtils.printCursor(c);
+            }
+            source.mHasRow = true;
+            // Elements without date time sort as equal
+            source.mDate = (ap.getParameterMask() & MASK_DATETIME) != 0 ? getDateTime(c, fi) : 0;
+            return;
+        }
+    }
+
+    private void selectListingSource(MsgListingSource source, FilterInfo fi) {
+        if (fi.mMsgType == source.mMsgType) {
+            return;
+        }
+        fi.mMsgType = source.mMsgType;
+        // Email and IM share the message column indices
+        if (source.mMsgType == FilterInfo.TYPE_EMAIL) {
+            fi.setEmailMessageColumns(source.mCursor);
+        } else if (source.mMsgType == FilterInfo.TYPE_IM) {
+            fi.setImMessageColumns(source.mCursor);
+        }
+    }
+
+    private boolean isRead(Cursor c, FilterInfo fi) {
+        int read = 0;
+        if (fi.mMsgType == FilterInfo.TYPE_SMS) {
+            read = c.getInt(fi.mSmsColRead);
+        } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
+            read = c.getInt(fi.mMmsColRead);
+        } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL || fi.mMsgType == FilterInfo.TYPE_IM) {
+            read = c.getInt(fi.mMessageColRead);
+        }
+        return read == 1;
+    }
+
+    private void setListingElementDetails(BluetoothMapMessageListingElement e, Cursor c,
+            FilterInfo fi, BluetoothMapAppParams ap) {
+        setSenderAddressing(e, c, fi, ap);
+        setSenderName(e, c, fi, ap);
+        setRecipientAddressing(e, c, fi, ap);
+        setRecipientName(e, c, fi, ap);
+        setSubject(e, c, fi, ap);
+        setSize(e, c, fi, ap);
+        setText(e, c, fi, ap);
+        setPriority(e, c, fi, ap);
+        setSent(e, c, fi, ap);
+        setProtected(e, c, fi, ap);
+        setReceptionStatus(e, ap);
+        setAttachment(e, c, fi, ap);
+
+        if (mMsgListingVersion > BluetoothMapUtils.MAP_MESSAGE_LISTING_FORMAT_V10) {
+            setDeliveryStatus(e, c, fi, ap);
+            setThreadId(e, c, fi, ap);
+            setThreadName(e, c, fi, ap);
+        }
+    }
+
     /**
      * Get the size of the message listing
      * @param folderElement Must contain a valid folder string != null
@@ -36,6 +36,7 @@ import android.os.Message;
 import android.os.ParcelFileDescriptor;
 import android.os.Process;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserManager;
 import android.provider.Telephony;
 import android.provider.Telephony.Mms;
@@ -76,6 +77,7 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -479,7 +481,46 @@ public class BluetoothMapContentObserver {
         return smsType;
     }
 
-    private final ContentObserver mObserver = new ContentObserver(new Handler()) {
+    // SMS/MMS change notifications arriving within this delay are handled together.
+    @VisibleForTesting
+    static final long MSG_LIST_CHANGE_DELAY_MS = 100;
+    // Incremental SMS/MMS updates fall back to a full scan of the table when the last one is older
+    // than this, to catch up with changes that were not notified with the URI of the message.
+    @VisibleForTesting
+    static final long MSG_LIST_FULL_RESYNC_INTERVAL_MS = 5 * DateUtils.MINUTE_IN_MILLIS;
+
+    private static final Set<String> SMS_FOLDER_PATHS = new HashSet<String>(Arrays.asList(
+            "inbox", "sent", "draft", "outbox", "failed", "queued"));
+    private static final Set<String> MMS_FOLDER_PATHS = new HashSet<String>(Arrays.asList(
+            "inbox", "sent", "drafts", "outbox"));
+
+    private final Handler mObserverHandler = new Handler();
+    private final Runnable mMsgListChangesRunnable = this::handlePendingMsgListChanges;
+
+    /* Pending SMS/MMS changes, only accessed from the observer handler thread. */
+    private boolean mMsgListChangesScheduled = false;
+    private final Set<Long> mChangedSmsIds = new HashSet<Long>();
+    private final Set<Long> mChangedMmsIds = new HashSet<Long>();
+    private boolean mSmsResyncNeeded = false;
+    private boolean mMmsResyncNeeded = false;
+    private boolean mUnattributedChange = false;
+
+    /* Results of handleSmsRow */
+    private static final int SMS_ROW_UNCHANGED = 0;
+    private static final int SMS_ROW_CHANGED = 1;
+    private static final int SMS_ROW_TOO_OLD = 2;
+
+    /* Highest _ID seen in the SMS/MMS tables, rows above it are new. -1 until a full scan. */
+    @VisibleForTesting
+    long mSmsIdWatermark = -1;
+    @VisibleForTesting
+    long mMmsIdWatermark = -1;
+    @VisibleForTesting
+    long mLastSmsResyncMillis;
+    @VisibleForTesting
+    long mLastMmsResyncMillis;
+
+    private final ContentObserver mObserver = new ContentObserver(mObserverHandler) {
         @Override
         public void onChange(boolean selfChange) {
             onChange(selfChange, null);
@@ -1030,6 +1071,9 @@ public class BluetoothMapContentObserver {
         if (mEnableSmsMms) {
             //this is sms/mms
             mResolver.registerContentObserver(MmsSms.CONTENT_URI, false, mObserver);
+            /* The Sms and Mms Uris tell which message changed, for incremental updates */
+            mResolver.registerContentObserver(Sms.CONTENT_URI, true, mObserver);
+            mResolver.registerContentObserver(Mms.CONTENT_URI, true, mObserver);
             mObserverRegistered = true;
         }
 
@@ -1274,6 +1318,7 @@ public class BluetoothMapContentObserver {
 
         if (mEnableSmsMms) {
             HashMap<Long, Msg> msgListSms = new HashMap<Long, Msg>();
+            long maxId = -1;
 
             Cursor c;
             try {
@@ -1286,14 +1331,16 @@ public class BluetoothMapContentObserver {
 
             try {
                 if (c != null && c.moveToFirst()) {
+                    SmsColumns cols = new SmsColumns(c);
                     do {
-                        long id = c.getLong(c.getColumnIndex(Sms._ID));
-                        int type = c.getInt(c.getColumnIndex(Sms.TYPE));
-                        int threadId = c.getInt(c.getColumnIndex(Sms.THREAD_ID));
-                        int read = c.getInt(c.getColumnIndex(Sms.READ));
+                        long id = c.getLong(cols.id);
+                        int type = c.getInt(cols.type);
+                        int threadId = c.getInt(cols.threadId);
+                        int read = c.getInt(cols.read);
 
                         Msg msg = new Msg(id, type, threadId, read);
                         msgListSms.put(id, msg);
+                        maxId = Math.max(maxId, id);
                     } while (c.moveToNext());
                 }
             } finally {
@@ -1305,22 +1352,27 @@ public class BluetoothMapContentObserver {
             synchronized (getMsgListSms()) {
                 getMsgListSms().clear();
                 setMsgListSms(msgListSms, true); // Set initial folder version counter
+                mSmsIdWatermark = maxId;
+                mLastSmsResyncMillis = SystemClock.elapsedRealtime();
             }
 
             HashMap<Long, Msg> msgListMms = new HashMap<Long, Msg>();
+            maxId = -1;
 
             c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver, Mms.CONTENT_URI,
                     MMS_PROJECTION_SHORT, null, null, null);
             try {
                 if (c != null && c.moveToFirst()) {
+                    MmsColumns cols = new MmsColumns(c);
                     do {
-                        long id = c.getLong(c.getColumnIndex(Mms._ID));
-                        int type = c.getInt(c.getColumnIndex(Mms.MESSAGE_BOX));
-                        int threadId = c.getInt(c.getColumnIndex(Mms.THREAD_ID));
-                        int read = c.getInt(c.getColumnIndex(Mms.READ));
+                        long id = c.getLong(cols.id);
+                        int type = c.getInt(cols.messageBox);
+                        int threadId = c.getInt(cols.threadId);
+                        int read = c.getInt(cols.read);
 
                         Msg msg = new Msg(id, type, threadId, read);
                         msgListMms.put(id, msg);
+                        maxId = Math.max(maxId, id);
                     } while (c.moveToNext());
                 }
             } finally {
@@ -1332,6 +1384,8 @@ public class BluetoothMapContentObserver {
             synchronized (getMsgListMms()) {
                 getMsgListMms().clear();
                 setMsgListMms(msgListMms, true); // Set initial folder version counter
+                mMmsIdWatermark = maxId;
+                mLastMmsResyncMillis = SystemClock.elapsedRealtime();
             }
         }
 
@@ -1420,6 +1474,330 @@ public class BluetoothMapContentObserver {
         }
     }
 
+    /** Column indices of a SMS query, resolved once per cursor. */
+    private static class SmsColumns {
+        final int id;
+        final int type;
+        final int threadId;
+        final int read;
+        final int date;
+        final int body;
+        final int address;
+
+        SmsColumns(Cursor c) {
+            id = c.getColumnIndexOrThrow(Sms._ID);
+            type = c.getColumnIndex(Sms.TYPE);
+            threadId = c.getColumnIndex(Sms.THREAD_ID);
+            read = c.getColumnIndex(Sms.READ);
+            date = c.getColumnIndex(Sms.DATE);
+            body = c.getColumnIndex(Sms.BODY);
+            address = c.getColumnIndex(Sms.ADDRESS);
+        }
+    }
+
+    /** Column indices of a MMS query, resolved once per cursor. */
+    private static class MmsColumns {
+        final int id;
+        final int messageBox;
+        final int messageType;
+        final int threadId;
+        final int read;
+        final int date;
+        final int subject;
+        final int priority;
+
+        MmsColumns(Cursor c) {
+            id = c.getColumnIndexOrThrow(Mms._ID);
+            messageBox = c.getColumnIndex(Mms.MESSAGE_BOX);
+            messageType = c.getColumnIndex(Mms.MESSAGE_TYPE);
+            threadId = c.getColumnIndex(Mms.THREAD_ID);
+            read = c.getColumnIndex(Mms.READ);
+            date = c.getColumnIndex(Mms.DATE);
+            subject = c.getColumnIndex(Mms.SUBJECT);
+            priority = c.getColumnIndex(Mms.PRIORITY);
+        }
+    }
+
+    private String[] getSmsProjection() {
+        return mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10
+                ? SMS_PROJECTION_SHORT : SMS_PROJECTION_SHORT_EXT;
+    }
+
+    private String[] getMmsProjection() {
+        return mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10
+                ? MMS_PROJECTION_SHORT : MMS_PROJECTION_SHORT_EXT;
+    }
+
+    /**
+     * Records a change notified for the SMS/MMS tables. Bursts of notifications are handled
+     * together once {@link #MSG_LIST_CHANGE_DELAY_MS} elapsed.
+     */
+    @VisibleForTesting
+    void onSmsMmsChange(Uri uri) {
+        String authority = uri.getAuthority();
+        if (Sms.CONTENT_URI.getAuthority().equals(authority)) {
+            long id = getSmsMessageId(uri);
+            if (id >= 0) {
+                mChangedSmsIds.add(id);
+            } else {
+                mSmsResyncNeeded = true;
+            }
+        } else if (Mms.CONTENT_URI.getAuthority().equals(authority)) {
+            long id = getMmsMessageId(uri);
+            if (id >= 0) {
+                mChangedMmsIds.add(id);
+            } else {
+                mMmsResyncNeeded = true;
+            }
+        } else {
+            mUnattributedChange = true;
+        }
+        if (!mMsgListChangesScheduled) {
+            mMsgListChangesScheduled = true;
+            mObserverHandler.postDelayed(mMsgListChangesRunnable, MSG_LIST_CHANGE_DELAY_MS);
+        }
+    }
+
+    /**
+     * Updates the SMS/MMS message lists from the changes recorded by {@link #onSmsMmsChange}.
+     *
+     * <p>Only the notified messages and the ones added since the last update are queried. A table
+     * is scanned in full when a change could not be attributed to specific messages, and when the
+     * last full scan is older than {@link #MSG_LIST_FULL_RESYNC_INTERVAL_MS}.
+     */
+    @VisibleForTesting
+    void handlePendingMsgListChanges() {
+        if (!mObserverRegistered) {
+            // The message lists are initialized again when the observer is registered.
+            clearPendingMsgListChanges();
+            return;
+        }
+        // The provider notifies the MmsSms content URI along with the Sms/Mms URI of each change.
+        // Notified alone, e.g. for a deleted conversation, it can't be attributed to messages and
+        // calls for a full scan.
+        boolean unattributed = mUnattributedChange && mChangedSmsIds.isEmpty()
+                && mChangedMmsIds.isEmpty() && !mSmsResyncNeeded && !mMmsResyncNeeded;
+        long now = SystemClock.elapsedRealtime();
+        if (unattributed || mSmsResyncNeeded || mSmsIdWatermark < 0
+                || now - mLastSmsResyncMillis >= MSG_LIST_FULL_RESYNC_INTERVAL_MS) {
+            handleMsgListChangesSms();
+        } else {
+            handleMsgListChangesSms(mChangedSmsIds);
+        }
+        if (unattributed || mMmsResyncNeeded || mMmsIdWatermark < 0
+                || now - mLastMmsResyncMillis >= MSG_LIST_FULL_RESYNC_INTERVAL_MS) {
+            handleMsgListChangesMms();
+        } else {
+            handleMsgListChangesMms(mChangedMmsIds);
+        }
+        clearPendingMsgListChanges();
+    }
+
+    private void clearPendingMsgListChanges() {
+        mMsgListChangesScheduled = false;
+        mChangedSmsIds.clear();
+        mChangedMmsIds.clear();
+        mSmsResyncNeeded = false;
+        mMmsResyncNeeded = false;
+        mUnattributedChange = false;
+    }
+
+    /** Returns the id of the SMS notified by {@code uri}, or -1 if it is not a single message. */
+    @VisibleForTesting
+    static long getSmsMessageId(Uri uri) {
+        // content://sms/<id> or content://sms/<folder>/<id>
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() == 1
+                || (segments.size() == 2 && SMS_FOLDER_PATHS.contains(segments.get(0)))) {
+            return parseMessageId(segments.get(segments.size() - 1));
+        }
+        return -1;
+    }
+
+    /** Returns the id of the MMS notified by {@code uri}, or -1 if it is not a single message. */
+    @VisibleForTesting
+    static long getMmsMessageId(Uri uri) {
+        // content://mms/<id>, content://mms/<id>/part or content://mms/<folder>/<id>
+        List<String> segments = uri.getPathSegments();
+        if (segments.isEmpty()) {
+            return -1;
+        }
+        long id = parseMessageId(segments.get(0));
+        if (id < 0 && segments.size() == 2 && MMS_FOLDER_PATHS.contains(segments.get(0))) {
+            id = parseMessageId(segments.get(1));
+        }
+        return id;
+    }
+
+    private static long parseMessageId(String segment) {
+        try {
+            long id = Long.parseLong(segment);
+            return id >= 0 ? id : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Returns the selection of the rows with the given ids or added after {@code watermark}. */
+    @VisibleForTesting
+    static String getChangedRowsSelection(String idColumn, long watermark, Set<Long> ids) {
+        StringBuilder selection = new StringBuilder();
+        selection.append(idColumn).append(" > ").append(watermark);
+        if (!ids.isEmpty()) {
+            selection.append(" OR ").append(idColumn).append(" IN (");
+            boolean first = true;
+            for (long id : ids) {
+                if (!first) {
+                    selection.append(',');
+                }
+                selection.append(id);
+                first = false;
+            }
+            selection.append(')');
+        }
+        return selection.toString();
+    }
+
+    /**
+     * Compares a row of the SMS table with the message tracked for it, if any, and sends the
+     * resulting events. The message is put in {@code msgListSms} unless it is not tracked.
+     *
+     * @return {@link #SMS_ROW_CHANGED} if the message list changed, {@link #SMS_ROW_TOO_OLD} if
+     *     a new message older than one year was skipped, else {@link #SMS_ROW_UNCHANGED}
+     */
+    private int handleSmsRow(Cursor c, SmsColumns cols, long id, Msg msg,
+            Map<Long, Msg> msgListSms) {
+        int type = c.getInt(cols.type);
+        int threadId = c.getInt(cols.threadId);
+        int read = c.getInt(cols.read);
+        boolean listChanged = false;
+
+        /* We must filter out any actions made by the MCE, hence do not send e.g.
+         * a message deleted and/or MessageShift for messages deleted by the MCE. */
+
+        if (msg == null) {
+            /* New message */
+            msg = new Msg(id, type, threadId, read);
+            Event evt;
+            if (mTransmitEvents && // extract contact details only if needed
+                    mMapEventReportVersion > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+                long timestamp = c.getLong(cols.date);
+                String date = BluetoothMapUtils.getDateTimeString(timestamp);
+                if (BluetoothMapUtils.isDateTimeOlderThanOneYear(timestamp)) {
+                    // Skip sending message events older than one year
+                    return SMS_ROW_TOO_OLD;
+                }
+                String subject = c.getString(cols.body);
+                if (subject == null) {
+                    subject = "";
+                }
+                String name = "";
+                String phone = "";
+                if (type == 1) { //inbox
+                    phone = c.getString(cols.address);
+                    if (phone != null && !phone.isEmpty()) {
+                        name = BluetoothMapContent.getContactNameFromPhone(phone, mResolver);
+                        if (name == null || name.isEmpty()) {
+                            name = phone;
+                        }
+                    } else {
+                        name = phone;
+                    }
+                } else {
+                    TelephonyManager tm = mContext.getSystemService(TelephonyManager.class);
+                    if (tm != null) {
+                        phone = tm.getLine1Number();
+                        name = phone;
+                    }
+                }
+                String priority = "no"; // no priority for sms
+                /* Incoming message from the network */
+                if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
+                    evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type), mSmsType, date,
+                            subject, name, priority);
+                } else {
+                    evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type), mSmsType, date,
+                            subject, name, priority, (long) threadId, null);
+                }
+            } else {
+                /* Incoming message from the network */
+                evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type), null, mSmsType);
+            }
+            msgListSms.put(id, msg);
+            sendEvent(evt);
+            return SMS_ROW_CHANGED;
+        }
+
+        /* Existing message */
+        if (type != msg.type) {
+            listChanged = true;
+            Log.d(TAG, "new type: " + type + " old type: " + msg.type);
+            String oldFolder = getSmsFolderName(msg.type);
+            String newFolder = getSmsFolderName(type);
+            // Filter out the intermediate outbox steps
+            if (!oldFolder.equalsIgnoreCase(newFolder)) {
+                Event evt = new Event(EVENT_TYPE_SHIFT, id, getSmsFolderName(type), oldFolder,
+                        mSmsType);
+                sendEvent(evt);
+            }
+            msg.type = type;
+        } else if (threadId != msg.threadId) {
+            listChanged = true;
+            Log.d(TAG, "Message delete change: type: " + type + " old type: " + msg.type
+                    + "\n    threadId: " + threadId + " old threadId: " + msg.threadId);
+            if (threadId == DELETED_THREAD_ID) { // Message deleted
+                // TODO:
+                // We shall only use the folder attribute, but can't remember
+                // wether to set it to "deleted" or the name of the folder
+                // from which the message have been deleted.
+                // "old_folder" used only for MessageShift event
+                Event evt = new Event(EVENT_TYPE_DELETE, id, getSmsFolderName(msg.type), null,
+                        mSmsType);
+                sendEvent(evt);
+                msg.threadId = threadId;
+            } else { // Undelete
+                Event evt = new Event(EVENT_TYPE_SHIFT, id, getSmsFolderName(msg.type),
+                        BluetoothMapContract.FOLDER_NAME_DELETED, mSmsType);
+                sendEvent(evt);
+                msg.threadId = threadId;
+            }
+        }
+        if (read != msg.flagRead) {
+            listChanged = true;
+            msg.flagRead = read;
+            if (mMapEventReportVersion > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+                Event evt = new Event(EVENT_TYPE_READ_STATUS, id, getSmsFolderName(msg.type),
+                        mSmsType);
+                sendEvent(evt);
+            }
+        }
+        msgListSms.put(id, msg);
+        return listChanged ? SMS_ROW_CHANGED : SMS_ROW_UNCHANGED;
+    }
+
+    private static boolean updateListChanged(boolean listChanged, int smsRowChange) {
+        switch (smsRowChange) {
+            case SMS_ROW_CHANGED:
+                return true;
+            case SMS_ROW_TOO_OLD:
+                // A skipped message older than one year resets the change
+                return false;
+            default:
+                return listChanged;
+        }
+    }
+
+    private void sendSmsRemovedEvent(Msg msg) {
+        String eventType = EVENT_TYPE_DELETE;
+        // "old_folder" used only for MessageShift event
+        if (mMapEventReportVersion >= BluetoothMapUtils.MAP_EVENT_REPORT_V12) {
+            eventType = EVENT_TYPE_REMOVED;
+            if (V) Log.v(TAG," sent EVENT_TYPE_REMOVED");
+        }
+        Event evt = new Event(eventType, msg.id, getSmsFolderName(msg.type), null, mSmsType);
+        sendEvent(evt);
+    }
+
     @VisibleForTesting
     void handleMsgListChangesSms() {
         if (V) {
@@ -1428,143 +1806,77 @@ public class BluetoothMapContentObserver {
 
         HashMap<Long, Msg> msgListSms = new HashMap<Long, Msg>();
         boolean listChanged = false;
+        long maxId = -1;
 
         Cursor c;
         synchronized (getMsgListSms()) {
-            if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT, null, null, null);
-            } else {
-                c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT_EXT, null, null, null);
-            }
+            c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
+                    Sms.CONTENT_URI, getSmsProjection(), null, null, null);
             try {
                 if (c != null && c.moveToFirst()) {
+                    SmsColumns cols = new SmsColumns(c);
                     do {
-                        int idIndex = c.getColumnIndexOrThrow(Sms._ID);
-                        if (c.isNull(idIndex)) {
+                        if (c.isNull(cols.id)) {
                             Log.w(TAG, "handleMsgListChangesSms, ID is null");
                             continue;
                         }
-                        long id = c.getLong(idIndex);
-                        int type = c.getInt(c.getColumnIndex(Sms.TYPE));
-                        int threadId = c.getInt(c.getColumnIndex(Sms.THREAD_ID));
-                        int read = c.getInt(c.getColumnIndex(Sms.READ));
-
+                        long id = c.getLong(cols.id);
+                        maxId = Math.max(maxId, id);
                         Msg msg = getMsgListSms().remove(id);
+                        listChanged = updateListChanged(listChanged,
+                                handleSmsRow(c, cols, id, msg, msgListSms));
+                    } while (c.moveToNext());
+                }
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+            for (Msg msg : getMsgListSms().values()) {
+                sendSmsRemovedEvent(msg);
+                listChanged = true;
+            }
 
-                        /* We must filter out any actions made by the MCE, hence do not send e.g.
-                         * a message deleted and/or MessageShift for messages deleted by the MCE. */
+            setMsgListSms(msgListSms, listChanged);
+            mSmsIdWatermark = maxId;
+            mLastSmsResyncMillis = SystemClock.elapsedRealtime();
+        }
+    }
 
-                        if (msg == null) {
-                            /* New message */
-                            msg = new Msg(id, type, threadId, read);
-                            msgListSms.put(id, msg);
-                            listChanged = true;
-                            Event evt;
-                            if (mTransmitEvents && // extract contact details only if needed
-                                    mMapEventReportVersion
-                                            > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                                long timestamp = c.getLong(c.getColumnIndex(Sms.DATE));
-                                String date = BluetoothMapUtils.getDateTimeString(timestamp);
-                                if (BluetoothMapUtils.isDateTimeOlderThanOneYear(timestamp)) {
-                                    // Skip sending message events older than one year
-                                    listChanged = false;
-                                    msgListSms.remove(id);
-                                    continue;
-                                }
-                                String subject = c.getString(c.getColumnIndex(Sms.BODY));
-                                if (subject == null) {
-                                    subject = "";
-                                }
-                                String name = "";
-                                String phone = "";
-                                if (type == 1) { //inbox
-                                    phone = c.getString(c.getColumnIndex(Sms.ADDRESS));
-                                    if (phone != null && !phone.isEmpty()) {
-                                        name = BluetoothMapContent.getContactNameFromPhone(phone,
-                                                mResolver);
-                                        if (name == null || name.isEmpty()) {
-                                            name = phone;
-                                        }
-                                    } else {
-                                        name = phone;
-                                    }
-                                } else {
-                                    TelephonyManager tm = mContext.getSystemService(
-                                            TelephonyManager.class);
-                                    if (tm != null) {
-                                        phone = tm.getLine1Number();
-                                        name = phone;
-                                    }
-                                }
-                                String priority = "no"; // no priority for sms
-                                /* Incoming message from the network */
-                                if (mMapEventReportVersion
-                                        == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
-                                    evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type),
-                                            mSmsType, date, subject, name, priority);
-                                } else {
-                                    evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type),
-                                            mSmsType, date, subject, name, priority,
-                                            (long) threadId, null);
-                                }
-                            } else {
-                                /* Incoming message from the network */
-                                evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type), null,
-                                        mSmsType);
-                            }
-                            sendEvent(evt);
-                        } else {
-                            /* Existing message */
-                            if (type != msg.type) {
-                                listChanged = true;
-                                Log.d(TAG, "new type: " + type + " old type: " + msg.type);
-                                String oldFolder = getSmsFolderName(msg.type);
-                                String newFolder = getSmsFolderName(type);
-                                // Filter out the intermediate outbox steps
-                                if (!oldFolder.equalsIgnoreCase(newFolder)) {
-                                    Event evt =
-                                            new Event(EVENT_TYPE_SHIFT, id, getSmsFolderName(type),
-                                                    oldFolder, mSmsType);
-                                    sendEvent(evt);
-                                }
-                                msg.type = type;
-                            } else if (threadId != msg.threadId) {
-                                listChanged = true;
-                                Log.d(TAG, "Message delete change: type: " + type + " old type: "
-                                        + msg.type + "\n    threadId: " + threadId
-                                        + " old threadId: " + msg.threadId);
-                                if (threadId == DELETED_THREAD_ID) { // Message deleted
-                                    // TODO:
-                                    // We shall only use the folder attribute, but can't remember
-                                    // wether to set it to "deleted" or the name of the folder
-                                    // from which the message have been deleted.
-                                    // "old_folder" used only for MessageShift event
-                                    Event evt = new Event(EVENT_TYPE_DELETE, id,
-                                            getSmsFolderName(msg.type), null, mSmsType);
-                                    sendEvent(evt);
-                                    msg.threadId = threadId;
-                                } else { // Undelete
-                                    Event evt = new Event(EVENT_TYPE_SHIFT, id,
-                                            getSmsFolderName(msg.type),
-                                            BluetoothMapContract.FOLDER_NAME_DELETED, mSmsType);
-                                    sendEvent(evt);
-                                    msg.threadId = threadId;
-                                }
-                            }
-                            if (read != msg.flagRead) {
-                                listChanged = true;
-                                msg.flagRead = read;
-                                if (mMapEventReportVersion
-                                        > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                                    Event evt = new Event(EVENT_TYPE_READ_STATUS, id,
-                                            getSmsFolderName(msg.type), mSmsType);
-                                    sendEvent(evt);
-                                }
-                            }
-                            msgListSms.put(id, msg);
+    /**
+     * Updates the SMS message list from the rows with the given ids and the rows added since the
+     * last update. Unlike {@link #handleMsgListChangesSms()}, only messages whose id is given can
+     * be reported deleted.
+     */
+    @VisibleForTesting
+    void handleMsgListChangesSms(Set<Long> ids) {
+        if (V) {
+            Log.d(TAG, "handleMsgListChangesSms ids: " + ids + " watermark: " + mSmsIdWatermark);
+        }
+
+        Set<Long> missingIds = new HashSet<Long>(ids);
+        boolean listChanged = false;
+        long maxId = mSmsIdWatermark;
+
+        Cursor c;
+        synchronized (getMsgListSms()) {
+            Map<Long, Msg> msgListSms = getMsgListSms();
+            c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
+                    Sms.CONTENT_URI, getSmsProjection(),
+                    getChangedRowsSelection(Sms._ID, mSmsIdWatermark, ids), null, null);
+            try {
+                if (c != null && c.moveToFirst()) {
+                    SmsColumns cols = new SmsColumns(c);
+                    do {
+                        if (c.isNull(cols.id)) {
+                            Log.w(TAG, "handleMsgListChangesSms, ID is null");
+                            continue;
                         }
+                        long id = c.getLong(cols.id);
+                        maxId = Math.max(maxId, id);
+                        missingIds.remove(id);
+                        listChanged = updateListChanged(listChanged,
+                                handleSmsRow(c, cols, id, msgListSms.get(id), msgListSms));
                     } while (c.moveToNext());
                 }
             } finally {
@@ -1572,23 +1884,155 @@ public class BluetoothMapContentObserver {
                     c.close();
                 }
             }
-            String eventType = EVENT_TYPE_DELETE;
-            for (Msg msg : getMsgListSms().values()) {
-                // "old_folder" used only for MessageShift event
-                if (mMapEventReportVersion >= BluetoothMapUtils.MAP_EVENT_REPORT_V12) {
-                    eventType = EVENT_TYPE_REMOVED;
-                    if (V) Log.v(TAG," sent EVENT_TYPE_REMOVED");
+            for (long id : missingIds) {
+                Msg msg = msgListSms.remove(id);
+                if (msg != null) {
+                    sendSmsRemovedEvent(msg);
+                    listChanged = true;
                 }
-                Event evt = new Event(eventType, msg.id, getSmsFolderName(msg.type), null,
-                        mSmsType);
-                sendEvent(evt);
-                listChanged = true;
             }
 
             setMsgListSms(msgListSms, listChanged);
+            mSmsIdWatermark = maxId;
         }
     }
 
+    /**
+     * Compares a row of the MMS table with the message tracked for it, if any, and sends the
+     * resulting events. The message is put in {@code msgListMms} unless it is not tracked.
+     *
+     * @return true if the message list changed
+     */
+    private boolean handleMmsRow(Cursor c, MmsColumns cols, long id, Msg msg,
+            Map<Long, Msg> msgListMms) {
+        int type = c.getInt(cols.messageBox);
+        int mtype = c.getInt(cols.messageType);
+        int threadId = c.getInt(cols.threadId);
+        // TODO: Go through code to see if we have an issue with mismatch in types
+        //       for threadId. Seems to be a long in DB??
+        int read = c.getInt(cols.read);
+        boolean listChanged = false;
+
+        /* We must filter out any actions made by the MCE, hence do not send
+         * e.g. a message deleted and/or MessageShift for messages deleted by the
+         * MCE.*/
+
+        if (msg == null) {
+            /* New message - only notify on retrieve conf */
+            if (getMmsFolderName(type).equalsIgnoreCase(BluetoothMapContract.FOLDER_NAME_INBOX)
+                    && mtype != MESSAGE_TYPE_RETRIEVE_CONF) {
+                return false;
+            }
+            msg = new Msg(id, type, threadId, read);
+            Event evt;
+            if (mTransmitEvents && // extract contact details only if needed
+                    mMapEventReportVersion != BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+                // MMS date field is in seconds
+                long timestamp = TimeUnit.SECONDS.toMillis(c.getLong(cols.date));
+                String date = BluetoothMapUtils.getDateTimeString(timestamp);
+                if (BluetoothMapUtils.isDateTimeOlderThanOneYear(timestamp)) {
+                    // Skip sending new message events older than one year
+                    return false;
+                }
+                String subject = c.getString(cols.subject);
+                if (subject == null || subject.length() == 0) {
+                    /* Get subject from mms text body parts - if any exists */
+                    subject = BluetoothMapContent.getTextPartsMms(mResolver, id);
+                    if (subject == null) {
+                        subject = "";
+                    }
+                }
+                int tmpPri = c.getInt(cols.priority);
+                Log.d(TAG, "TEMP handleMsgListChangesMms, " + "newMessage 'read' state: " + read
+                        + "priority: " + tmpPri);
+
+                String address = BluetoothMapContent.getAddressMms(mResolver, id,
+                        BluetoothMapContent.MMS_FROM);
+                if (address == null) {
+                    address = "";
+                }
+
+                String priority = "no";
+                if (tmpPri == PduHeaders.PRIORITY_HIGH) {
+                    priority = "yes";
+                }
+
+                /* Incoming message from the network */
+                if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
+                    evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type), TYPE.MMS, date,
+                            subject, address, priority);
+                } else {
+                    evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type), TYPE.MMS, date,
+                            subject, address, priority, (long) threadId, null);
+                }
+
+            } else {
+                /* Incoming message from the network */
+                evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type), null, TYPE.MMS);
+            }
+            msgListMms.put(id, msg);
+            sendEvent(evt);
+            return true;
+        }
+
+        /* Existing message */
+        if (type != msg.type) {
+            Log.d(TAG, "new type: " + type + " old type: " + msg.type);
+            Event evt;
+            listChanged = true;
+            if (!msg.localInitiatedSend) {
+                // Only send events about local initiated changes
+                evt = new Event(EVENT_TYPE_SHIFT, id, getMmsFolderName(type),
+                        getMmsFolderName(msg.type), TYPE.MMS);
+                sendEvent(evt);
+            }
+            msg.type = type;
+
+            if (getMmsFolderName(type).equalsIgnoreCase(BluetoothMapContract.FOLDER_NAME_SENT)
+                    && msg.localInitiatedSend) {
+                // Stop tracking changes for this message
+                msg.localInitiatedSend = false;
+                evt = new Event(EVENT_TYPE_SENDING_SUCCESS, id, getMmsFolderName(type), null,
+                        TYPE.MMS);
+                sendEvent(evt);
+            }
+        } else if (threadId != msg.threadId) {
+            Log.d(TAG, "Message delete change: type: " + type + " old type: " + msg.type
+                    + "\n    threadId: " + threadId + " old threadId: " + msg.threadId);
+            listChanged = true;
+            if (threadId == DELETED_THREAD_ID) { // Message deleted
+                // "old_folder" used only for MessageShift event
+                Event evt = new Event(EVENT_TYPE_DELETE, id, getMmsFolderName(msg.type), null,
+                        TYPE.MMS);
+                sendEvent(evt);
+                msg.threadId = threadId;
+            } else { // Undelete
+                Event evt = new Event(EVENT_TYPE_SHIFT, id, getMmsFolderName(msg.type),
+                        BluetoothMapContract.FOLDER_NAME_DELETED, TYPE.MMS);
+                sendEvent(evt);
+                msg.threadId = threadId;
+            }
+        }
+        if (read != msg.flagRead) {
+            listChanged = true;
+            msg.flagRead = read;
+            if (mMapEventReportVersion > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+                Event evt = new Event(EVENT_TYPE_READ_STATUS, id, getMmsFolderName(msg.type),
+                        TYPE.MMS);
+                sendEvent(evt);
+            }
+        }
+        msgListMms.put(id, msg);
+        return listChanged;
+    }
+
+    private void sendMmsDeletedEvent(Msg msg) {
+        // "old_folder" used only for MessageShift event
+        Event evt = new Event(EVENT_TYPE_DELETE, msg.id, getMmsFolderName(msg.type), null,
+                TYPE.MMS);
+        sendEvent(evt);
+    }
+
     @VisibleForTesting
     void handleMsgListChangesMms() {
         if (V) {
@@ -1597,157 +2041,25 @@ public class BluetoothMapContentObserver {
 
         HashMap<Long, Msg> msgListMms = new HashMap<Long, Msg>();
         boolean listChanged = false;
+        long maxId = -1;
         Cursor c;
         synchronized (getMsgListMms()) {
-            if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT, null, null, null);
-            } else {
-                c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT_EXT, null, null, null);
-            }
+            c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
+                    Mms.CONTENT_URI, getMmsProjection(), null, null, null);
 
             try {
                 if (c != null && c.moveToFirst()) {
+                    MmsColumns cols = new MmsColumns(c);
                     do {
-                        int idIndex = c.getColumnIndexOrThrow(Mms._ID);
-                        if (c.isNull(idIndex)) {
+                        if (c.isNull(cols.id)) {
                             Log.w(TAG, "handleMsgListChangesMms, ID is null");
                             continue;
                         }
-                        long id = c.getLong(idIndex);
-                        int type = c.getInt(c.getColumnIndex(Mms.MESSAGE_BOX));
-                        int mtype = c.getInt(c.getColumnIndex(Mms.MESSAGE_TYPE));
-                        int threadId = c.getInt(c.getColumnIndex(Mms.THREAD_ID));
-                        // TODO: Go through code to see if we have an issue with mismatch in types
-                        //       for threadId. Seems to be a long in DB??
-                        int read = c.getInt(c.getColumnIndex(Mms.READ));
-
+                        long id = c.getLong(cols.id);
+                        maxId = Math.max(maxId, id);
                         Msg msg = getMsgListMms().remove(id);
-
-                        /* We must filter out any actions made by the MCE, hence do not send
-                         * e.g. a message deleted and/or MessageShift for messages deleted by the
-                         * MCE.*/
-
-                        if (msg == null) {
-                            /* New message - only notify on retrieve conf */
-                            if (getMmsFolderName(type).equalsIgnoreCase(
-                                    BluetoothMapContract.FOLDER_NAME_INBOX)
-                                    && mtype != MESSAGE_TYPE_RETRIEVE_CONF) {
-                                continue;
-                            }
-                            msg = new Msg(id, type, threadId, read);
-                            msgListMms.put(id, msg);
-                            Event evt;
-                            if (mTransmitEvents && // extract contact details only if needed
-                                    mMapEventReportVersion
-                                            != BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                                // MMS date field is in seconds
-                                long timestamp =
-                                        TimeUnit.SECONDS.toMillis(
-                                            c.getLong(c.getColumnIndex(Mms.DATE)));
-                                String date = BluetoothMapUtils.getDateTimeString(timestamp);
-                                if (BluetoothMapUtils.isDateTimeOlderThanOneYear(timestamp)) {
-                                    // Skip sending new message events older than one year
-                                    msgListMms.remove(id);
-                                    continue;
-                                }
-                                String subject = c.getString(c.getColumnIndex(Mms.SUBJECT));
-                                if (subject == null || subject.length() == 0) {
-                                    /* Get subject from mms text body parts - if any exists */
-                                    subject = BluetoothMapContent.getTextPartsMms(mResolver, id);
-                                    if (subject == null) {
-                                        subject = "";
-                                    }
-                                }
-                                int tmpPri = c.getInt(c.getColumnIndex(Mms.PRIORITY));
-                                Log.d(TAG, "TEMP handleMsgListChangesMms, "
-                                        + "newMessage 'read' state: " + read + "priority: "
-                                        + tmpPri);
-
-                                String address = BluetoothMapContent.getAddressMms(mResolver, id,
-                                        BluetoothMapContent.MMS_FROM);
-                                if (address == null) {
-                                    address = "";
-                                }
-
-                                String priority = "no";
-                                if (tmpPri == PduHeaders.PRIORITY_HIGH) {
-                                    priority = "yes";
-                                }
-
-                                /* Incoming message from the network */
-                                if (mMapEventReportVersion
-                                        == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
-                                    evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type),
-                                            TYPE.MMS, date, subject, address, priority);
-                                } else {
-                                    evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type),
-                                            TYPE.MMS, date, subject, address, priority,
-                                            (long) threadId, null);
-                                }
-
-                            } else {
-                                /* Incoming message from the network */
-                                evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type), null,
-                                        TYPE.MMS);
-                            }
+                        if (handleMmsRow(c, cols, id, msg, msgListMms)) {
                             listChanged = true;
-
-                            sendEvent(evt);
-                        } else {
-                            /* Existing message */
-                            if (type != msg.type) {
-                                Log.d(TAG, "new type: " + type + " old type: " + msg.type);
-                                Event evt;
-                                listChanged = true;
-                                if (!msg.localInitiatedSend) {
-                                    // Only send events about local initiated changes
-                                    evt = new Event(EVENT_TYPE_SHIFT, id, getMmsFolderName(type),
-                                            getMmsFolderName(msg.type), TYPE.MMS);
-                                    sendEvent(evt);
-                                }
-                                msg.type = type;
-
-                                if (getMmsFolderName(type).equalsIgnoreCase(
-                                        BluetoothMapContract.FOLDER_NAME_SENT)
-                                        && msg.localInitiatedSend) {
-                                    // Stop tracking changes for this message
-                                    msg.localInitiatedSend = false;
-                                    evt = new Event(EVENT_TYPE_SENDING_SUCCESS, id,
-                                            getMmsFolderName(type), null, TYPE.MMS);
-                                    sendEvent(evt);
-                                }
-                            } else if (threadId != msg.threadId) {
-                                Log.d(TAG, "Message delete change: type: " + type + " old type: "
-                                        + msg.type + "\n    threadId: " + threadId
-                                        + " old threadId: " + msg.threadId);
-                                listChanged = true;
-                                if (threadId == DELETED_THREAD_ID) { // Message deleted
-                                    // "old_folder" used only for MessageShift event
-                                    Event evt = new Event(EVENT_TYPE_DELETE, id,
-                                            getMmsFolderName(msg.type), null, TYPE.MMS);
-                                    sendEvent(evt);
-                                    msg.threadId = threadId;
-                                } else { // Undelete
-                                    Event evt = new Event(EVENT_TYPE_SHIFT, id,
-                                            getMmsFolderName(msg.type),
-                                            BluetoothMapContract.FOLDER_NAME_DELETED, TYPE.MMS);
-                                    sendEvent(evt);
-                                    msg.threadId = threadId;
-                                }
-                            }
-                            if (read != msg.flagRead) {
-                                listChanged = true;
-                                msg.flagRead = read;
-                                if (mMapEventReportVersion
-                                        > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                                    Event evt = new Event(EVENT_TYPE_READ_STATUS, id,
-                                            getMmsFolderName(msg.type), TYPE.MMS);
-                                    sendEvent(evt);
-                                }
-                            }
-                            msgListMms.put(id, msg);
                         }
                     } while (c.moveToNext());
 
@@ -1758,13 +2070,65 @@ public class BluetoothMapContentObserver {
                 }
             }
             for (Msg msg : getMsgListMms().values()) {
-                // "old_folder" used only for MessageShift event
-                Event evt = new Event(EVENT_TYPE_DELETE, msg.id, getMmsFolderName(msg.type), null,
-                        TYPE.MMS);
-                sendEvent(evt);
+                sendMmsDeletedEvent(msg);
                 listChanged = true;
             }
             setMsgListMms(msgListMms, listChanged);
+            mMmsIdWatermark = maxId;
+            mLastMmsResyncMillis = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Updates the MMS message list from the rows with the given ids and the rows added since the
+     * last update. Unlike {@link #handleMsgListChangesMms()}, only messages whose id is given can
+     * be reported deleted.
+     */
+    @VisibleForTesting
+    void handleMsgListChangesMms(Set<Long> ids) {
+        if (V) {
+            Log.d(TAG, "handleMsgListChangesMms ids: " + ids + " watermark: " + mMmsIdWatermark);
+        }
+
+        Set<Long> missingIds = new HashSet<Long>(ids);
+        boolean listChanged = false;
+        long maxId = mMmsIdWatermark;
+        Cursor c;
+        synchronized (getMsgListMms()) {
+            Map<Long, Msg> msgListMms = getMsgListMms();
+            c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
+                    Mms.CONTENT_URI, getMmsProjection(),
+                    getChangedRowsSelection(Mms._ID, mMmsIdWatermark, ids), null, null);
+            try {
+                if (c != null && c.moveToFirst()) {
+                    MmsColumns cols = new MmsColumns(c);
+                    do {
+                        if (c.isNull(cols.id)) {
+                            Log.w(TAG, "handleMsgListChangesMms, ID is null");
+                            continue;
+                        }
+                        long id = c.getLong(cols.id);
+                        maxId = Math.max(maxId, id);
+                        missingIds.remove(id);
+                        if (handleMmsRow(c, cols, id, msgListMms.get(id), msgListMms)) {
+                            listChanged = true;
+                        }
+                    } while (c.moveToNext());
+                }
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+            for (long id : missingIds) {
+                Msg msg = msgListMms.remove(id);
+                if (msg != null) {
+                    sendMmsDeletedEvent(msg);
+                    listChanged = true;
+                }
+            }
+            setMsgListMms(msgListMms, listChanged);
+            mMmsIdWatermark = maxId;
         }
     }
 
@@ -1978,8 +2342,7 @@ public class BluetoothMapContentObserver {
         }
         // TODO: check to see if there could be problem with IM and SMS in one instance
         if (mEnableSmsMms) {
-            handleMsgListChangesSms();
-            handleMsgListChangesMms();
+            onSmsMmsChange(uri);
         }
     }
 
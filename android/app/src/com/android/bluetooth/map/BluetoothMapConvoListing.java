@@ -23,10 +23,15 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -90,9 +95,32 @@ public class BluetoothMapConvoListing {
      */
     public byte[] encode() throws UnsupportedEncodingException {
         StringWriter sw = new StringWriter();
+        try {
+            encode(sw);
+        } catch (IOException e) {
+            Log.w(TAG, e);
+        }
+        return sw.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Encode the list of BluetoothMapConvoListingElement(s) as UTF-8 formatted XML into
+     * {@code out}, while the elements are serialized. The bytes written are the ones returned by
+     * {@link #encode()}. {@code out} is flushed but not closed.
+     *
+     * @param out the stream to write the listing to, e.g. the OBEX body stream.
+     * @throws IOException if writing to {@code out} fails
+     */
+    public void encode(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        encode(writer);
+        writer.flush();
+    }
+
+    private void encode(Writer writer) throws IOException {
         XmlSerializer xmlConvoElement = Xml.newSerializer();
         try {
-            xmlConvoElement.setOutput(sw);
+            xmlConvoElement.setOutput(writer);
             xmlConvoElement.startDocument("UTF-8", true);
             xmlConvoElement.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output",
                     true);
@@ -108,10 +136,7 @@ public class BluetoothMapConvoListing {
             Log.w(TAG, e);
         } catch (IllegalStateException e) {
             Log.w(TAG, e);
-        } catch (IOException e) {
-            Log.w(TAG, e);
         }
-        return sw.toString().getBytes("UTF-8");
     }
 
     public void sort() {
@@ -22,9 +22,14 @@ import com.android.bluetooth.Utils;
 
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -67,6 +72,14 @@ public class BluetoothMapMessageListing {
         return mHasUnread;
     }
 
+    /**
+     * Sets whether the listing has unread messages, including those not part of the list.
+     * @param hasUnread true if there are unread messages
+     */
+    public void setHasUnread(boolean hasUnread) {
+        mHasUnread = hasUnread;
+    }
+
 
     /**
      *  returns the entire list as a list
@@ -91,6 +104,45 @@ public class BluetoothMapMessageListing {
     public byte[] encode(boolean includeThreadId, String version)
             throws UnsupportedEncodingException {
         StringWriter sw = new StringWriter();
+        try {
+            encode(sw, includeThreadId, version);
+        } catch (IOException e) {
+            Log.w(TAG, e);
+        }
+        /* Fix IOT issue to replace '&amp;' by '&', &lt; by < and '&gt; by '>' in MessageListing */
+        if (isBrezzaCarkit()) {
+            return sw.toString()
+                    .replaceAll("&amp;", "&")
+                    .replaceAll("&lt;", "<")
+                    .replaceAll("&gt;", ">")
+                    .getBytes("UTF-8");
+        }
+        return sw.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Encode the list of BluetoothMapMessageListingElement(s) as UTF-8 formatted XML into
+     * {@code out}, while the elements are serialized. The bytes written are the ones returned by
+     * {@link #encode(boolean, String)}. {@code out} is flushed but not closed.
+     *
+     * @param out the stream to write the listing to, e.g. the OBEX body stream.
+     * @throws IOException if writing to {@code out} fails
+     */
+    public void encode(OutputStream out, boolean includeThreadId, String version)
+            throws IOException {
+        if (isBrezzaCarkit()) {
+            // The workaround rewrites the escaped text of the whole listing.
+            out.write(encode(includeThreadId, version));
+            out.flush();
+            return;
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        encode(writer, includeThreadId, version);
+        writer.flush();
+    }
+
+    private void encode(Writer writer, boolean includeThreadId, String version)
+            throws IOException {
         boolean isBenzCarkit;
 
         if (Utils.isInstrumentationTestMode()) {
@@ -102,7 +154,7 @@ public class BluetoothMapMessageListing {
         }
         try {
             XmlSerializer xmlMsgElement = Xml.newSerializer();
-            xmlMsgElement.setOutput(sw);
+            xmlMsgElement.setOutput(writer);
             if (isBenzCarkit) {
                 Log.d(TAG, "java_interop: Remote is Mercedes Benz, "
                         + "using Xml Workaround.");
@@ -124,20 +176,13 @@ public class BluetoothMapMessageListing {
             Log.w(TAG, e);
         } catch (IllegalStateException e) {
             Log.w(TAG, e);
-        } catch (IOException e) {
-            Log.w(TAG, e);
         }
-        /* Fix IOT issue to replace '&amp;' by '&', &lt; by < and '&gt; by '>' in MessageListing */
-        if (!Utils.isInstrumentationTestMode() && DeviceWorkArounds.addressStartsWith(
+    }
+
+    private static boolean isBrezzaCarkit() {
+        return !Utils.isInstrumentationTestMode() && DeviceWorkArounds.addressStartsWith(
                 BluetoothMapService.getRemoteDevice().getAddress(),
-                DeviceWorkArounds.BREZZA_ZDI_CARKIT)) {
-            return sw.toString()
-                    .replaceAll("&amp;", "&")
-                    .replaceAll("&lt;", "<")
-                    .replaceAll("&gt;", ">")
-                    .getBytes("UTF-8");
-        }
-        return sw.toString().getBytes("UTF-8");
+                DeviceWorkArounds.BREZZA_ZDI_CARKIT);
     }
 
     public void sort() {
@@ -39,6 +39,7 @@ import com.android.obex.Operation;
 import com.android.obex.ResponseCodes;
 import com.android.obex.ServerRequestHandler;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -1138,12 +1139,12 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
     private int sendMessageListingRsp(Operation op, BluetoothMapAppParams appParams,
             String folderName) {
         OutputStream outStream = null;
-        byte[] outBytes = null;
-        int maxChunkSize, bytesToWrite, bytesWritten = 0, listSize;
+        int maxChunkSize, listSize;
         boolean hasUnread = false;
         HeaderSet replyHeaders = new HeaderSet();
         BluetoothMapAppParams outAppParams = new BluetoothMapAppParams();
-        BluetoothMapMessageListing outList;
+        BluetoothMapMessageListing outList = null;
+        String version = null;
         if (appParams == null) {
             appParams = new BluetoothMapAppParams();
             appParams.setMaxListCount(1024);
@@ -1192,7 +1193,6 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                 outList = mOutContent.msgListing(folderToList, appParams);
                 // Generate the byte stream
                 outAppParams.setMessageListingSize(outList.getCount());
-                String version;
                 if (0 < (mRemoteFeatureMask
                         & BluetoothMapUtils.MAP_FEATURE_MESSAGE_LISTING_FORMAT_V11_BIT)) {
                     version = BluetoothMapUtils.MAP_V11_STR;
@@ -1200,8 +1200,7 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                     version = BluetoothMapUtils.MAP_V10_STR;
                 }
                 /* This will only set the version, the bit must also be checked before adding any
-                 * 1.1 bits to the listing. */
-                outBytes = outList.encode(mThreadIdSupport, version);
+                 * 1.1 bits to the listing. The listing is encoded once the body stream is open. */
                 hasUnread = outList.hasUnread();
             } else {
                 listSize = mOutContent.msgListingSize(folderToList, appParams);
@@ -1264,13 +1263,12 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
         }
 
         maxChunkSize = op.getMaxPacketSize(); // This must be called after setting the headers.
-        if (outBytes != null) {
+        if (outList != null) {
+            boolean encoded = false;
             try {
-                while (bytesWritten < outBytes.length && !mIsAborted) {
-                    bytesToWrite = Math.min(maxChunkSize, outBytes.length - bytesWritten);
-                    outStream.write(outBytes, bytesWritten, bytesToWrite);
-                    bytesWritten += bytesToWrite;
-                }
+                outList.encode(new ObexBodyOutputStream(outStream, maxChunkSize), mThreadIdSupport,
+                        version);
+                encoded = true;
             } catch (IOException e) {
                 if (D) {
                     Log.w(TAG, e);
@@ -1285,8 +1283,8 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                     }
                 }
             }
-            if (bytesWritten != outBytes.length && !mIsAborted) {
-                Log.w(TAG, "sendMessageListingRsp: bytesWritten != outBytes.length"
+            if (!encoded && !mIsAborted) {
+                Log.w(TAG, "sendMessageListingRsp: listing not fully sent"
                         + " - sending OBEX_HTTP_BAD_REQUEST");
                 return ResponseCodes.OBEX_HTTP_BAD_REQUEST;
             }
@@ -1357,12 +1355,13 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
      */
     private int sendConvoListingRsp(Operation op, BluetoothMapAppParams appParams) {
         OutputStream outStream = null;
-        byte[] outBytes = null;
-        int maxChunkSize, bytesToWrite, bytesWritten = 0;
+        int maxChunkSize;
         //boolean hasUnread = false;
         HeaderSet replyHeaders = new HeaderSet();
         BluetoothMapAppParams outAppParams = new BluetoothMapAppParams();
         BluetoothMapConvoListing outList;
+        // The listing to encode once the body stream is open
+        BluetoothMapConvoListing bodyList = null;
         if (appParams == null) {
             appParams = new BluetoothMapAppParams();
             appParams.setMaxListCount(1024);
@@ -1385,11 +1384,7 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
             if (appParams.getMaxListCount() != 0) {
                 outList = mOutContent.convoListing(appParams, false);
                 outAppParams.setConvoListingSize(outList.getCount());
-                // Generate the byte stream
-                outBytes = outList.encode(); // Include thread ID for clients that supports it.
-                if (D) {
-                    Log.d(TAG, "outBytes size:" + outBytes.length);
-                }
+                bodyList = outList;
             } else {
                 outList = mOutContent.convoListing(appParams, true);
                 outAppParams.setConvoListingSize(outList.getCount());
@@ -1412,7 +1407,6 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                 Log.d(TAG, "outList size:" + outList.getCount() + " MaxListCount: "
                         + appParams.getMaxListCount());
             }
-            outList = null; // We don't need it anymore - we might as well give it up for GC
             outAppParams.setDatabaseIdentifier(0, mMasInstance.getDbIdentifier());
 
             // Build the application parameter header
@@ -1454,13 +1448,11 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
         }
 
         maxChunkSize = op.getMaxPacketSize(); // This must be called after setting the headers.
-        if (outBytes != null) {
+        if (bodyList != null) {
+            boolean encoded = false;
             try {
-                while (bytesWritten < outBytes.length && !mIsAborted) {
-                    bytesToWrite = Math.min(maxChunkSize, outBytes.length - bytesWritten);
-                    outStream.write(outBytes, bytesWritten, bytesToWrite);
-                    bytesWritten += bytesToWrite;
-                }
+                bodyList.encode(new ObexBodyOutputStream(outStream, maxChunkSize));
+                encoded = true;
             } catch (IOException e) {
                 if (D) {
                     Log.w(TAG, e);
@@ -1475,8 +1467,8 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                     }
                 }
             }
-            if (bytesWritten != outBytes.length && !mIsAborted) {
-                Log.w(TAG, "sendConvoListingRsp: bytesWritten != outBytes.length"
+            if (!encoded && !mIsAborted) {
+                Log.w(TAG, "sendConvoListingRsp: listing not fully sent"
                         + " - sending OBEX_HTTP_BAD_REQUEST");
                 return ResponseCodes.OBEX_HTTP_BAD_REQUEST;
             }
@@ -1889,6 +1881,37 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
         return ResponseCodes.OBEX_HTTP_BAD_REQUEST;
     }
 
+    /**
+     * OBEX body stream writing at most one packet at a time, which fails once the operation is
+     * aborted so that encoding into it stops.
+     */
+    private class ObexBodyOutputStream extends FilterOutputStream {
+        private final int mMaxChunkSize;
+
+        ObexBodyOutputStream(OutputStream out, int maxChunkSize) {
+            super(out);
+            mMaxChunkSize = maxChunkSize;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (mIsAborted) {
+                    throw new IOException("Operation aborted");
+                }
+                int bytesToWrite = Math.min(mMaxChunkSize, len);
+                out.write(b, off, bytesToWrite);
+                off += bytesToWrite;
+                len -= bytesToWrite;
+            }
+        }
+    }
+
     private void notifyUpdateWakeLock() {
         if (mCallback != null) {
             Message msg = Message.obtain(mCallback);
@@ -724,6 +724,7 @@ public class BluetoothMapService extends ProfileService {
 
         mEnabledAccounts = mAppObserver.getEnabledAccountItems();
         createMasInstances();  // Uses mEnabledAccounts
+        ContactNameCache.getInstance().register(getContentResolver());
 
         sendStartListenerMessage(-1);
         setBluetoothMapService(this);
@@ -912,6 +913,7 @@ public class BluetoothMapService extends ProfileService {
             unregisterReceiver(mMapReceiver);
             mAppObserver.shutdown();
         }
+        ContactNameCache.getInstance().unregister();
         sendShutdownMessage();
         setComponentAvailable(MAP_SETTINGS_ACTIVITY, false);
         setComponentAvailable(MAP_FILE_PROVIDER, false);
@@ -1450,5 +1452,6 @@ public class BluetoothMapService extends ProfileService {
         for (BluetoothMapAccountItem account : mEnabledAccounts) {
             println(sb, "  " + account);
         }
+        ContactNameCache.getInstance().dump(sb);
     }
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.provider.ContactsContract;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+/**
+ * Bounded cache of the contact names looked up from phone numbers, shared by the MAS instances.
+ *
+ * <p>Message listings and new message events look up the name of the sender or recipient of each
+ * message. Names are only cached while the cache is registered, since a {@link ContactsContract}
+ * observer is what drops them when contacts change.
+ */
+class ContactNameCache {
+    private static final String TAG = "ContactNameCache";
+    private static final boolean D = BluetoothMapService.DEBUG;
+
+    @VisibleForTesting
+    static final int MAX_SIZE = 512;
+
+    private static final ContactNameCache sInstance = new ContactNameCache(MAX_SIZE);
+
+    // Phone numbers without a contact are cached as a MapContact with a negative id.
+    private final LruCache<String, MapContact> mContacts;
+
+    private final ContentObserver mContactsObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidate();
+        }
+    };
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private ContentResolver mResolver;
+    // Incremented on invalidation, so lookups racing with it do not cache stale names.
+    @GuardedBy("mLock")
+    private int mGeneration;
+    @GuardedBy("mLock")
+    private long mInvalidations;
+
+    @VisibleForTesting
+    ContactNameCache(int maxSize) {
+        mContacts = new LruCache<>(maxSize);
+    }
+
+    static ContactNameCache getInstance() {
+        return sInstance;
+    }
+
+    /** Starts caching names, until {@link #unregister()} is called. */
+    void register(ContentResolver resolver) {
+        synchronized (mLock) {
+            if (mResolver != null) {
+                return;
+            }
+            mResolver = resolver;
+            mGeneration++;
+            mContacts.evictAll();
+        }
+        BluetoothMethodProxy.getInstance().contentResolverRegisterContentObserver(resolver,
+                ContactsContract.AUTHORITY_URI, true, mContactsObserver);
+    }
+
+    void unregister() {
+        ContentResolver resolver;
+        synchronized (mLock) {
+            resolver = mResolver;
+            if (resolver == null) {
+                return;
+            }
+            mResolver = null;
+            mGeneration++;
+            mContacts.evictAll();
+        }
+        BluetoothMethodProxy.getInstance().contentResolverUnregisterContentObserver(resolver,
+                mContactsObserver);
+    }
+
+    /** Drops every cached name. */
+    @VisibleForTesting
+    void invalidate() {
+        synchronized (mLock) {
+            mGeneration++;
+            mInvalidations++;
+            mContacts.evictAll();
+        }
+        if (D) {
+            Log.d(TAG, "Contacts changed, cached names dropped");
+        }
+    }
+
+    /**
+     * Returns the display name of the contact with the phone number {@code phone}.
+     *
+     * @return the name of the contact or null, if no contact was found
+     */
+    String getContactName(String phone, ContentResolver resolver) {
+        boolean registered;
+        int generation;
+        synchronized (mLock) {
+            registered = mResolver != null;
+            generation = mGeneration;
+        }
+        if (registered) {
+            MapContact contact = mContacts.get(phone);
+            if (contact != null) {
+                return contact.getName();
+            }
+        }
+        // The contacts provider is queried without holding the lock, so that a slow lookup does
+        // not block the other MAS instances.
+        MapContact contact = BluetoothMapContent.lookupContactFromPhone(phone, resolver);
+        synchronized (mLock) {
+            if (registered && generation == mGeneration) {
+                mContacts.put(phone, contact);
+            }
+        }
+        return contact.getName();
+    }
+
+    @VisibleForTesting
+    int getHitCount() {
+        return mContacts.hitCount();
+    }
+
+    @VisibleForTesting
+    int getMissCount() {
+        return mContacts.missCount();
+    }
+
+    void dump(StringBuilder sb) {
+        long invalidations;
+        synchronized (mLock) {
+            invalidations = mInvalidations;
+        }
+        BluetoothMapService.println(sb, "Contact name cache: size=" + mContacts.size() + "/"
+                + mContacts.maxSize() + " hits=" + mContacts.hitCount() + " misses="
+                + mContacts.missCount() + " evictions=" + mContacts.evictionCount()
+                + " invalidations=" + invalidations);
+    }
+}
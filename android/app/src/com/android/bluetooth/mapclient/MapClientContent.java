@@ -19,11 +19,16 @@ package com.android.bluetooth.mapclient;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothMapClient;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
 import android.provider.Telephony;
 import android.provider.Telephony.Mms;
 import android.provider.Telephony.MmsSms;
@@ -33,22 +38,30 @@ import android.telephony.PhoneNumberUtils;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
+import android.text.TextUtils;
 import android.util.ArraySet;
 import android.util.Log;
 
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.map.BluetoothMapbMessageMime;
 import com.android.bluetooth.map.BluetoothMapbMessageMime.MimePart;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.vcard.VCardConstants;
 import com.android.vcard.VCardEntry;
 import com.android.vcard.VCardProperty;
 
 import com.google.android.mms.pdu.PduHeaders;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 class MapClientContent {
 
@@ -57,6 +70,14 @@ class MapClientContent {
     private static final int DEFAULT_CHARSET = 106;
     private static final int ORIGINATOR_ADDRESS_TYPE = 137;
     private static final int RECIPIENT_ADDRESS_TYPE = 151;
+    private static final Set<String> MESSAGE_FOLDERS =
+            Set.of("inbox", "sent", "draft", "drafts", "outbox", "failed", "queued");
+    private static final String[] READ_STATUS_PROJECTION = {BaseColumns._ID, Sms.READ};
+    // Number of messages checked by one query of the provider.
+    private static final int MAX_MESSAGES_PER_QUERY = 500;
+    // Delay to coalesce changes notified without a message URI, such as our own inserts.
+    @VisibleForTesting
+    static final long SYNC_DELAY_MS = 2000;
 
     final BluetoothDevice mDevice;
     private final Context mContext;
@@ -68,7 +89,16 @@ class MapClientContent {
     private SubscriptionManager mSubscriptionManager;
     private TelephonyManager mTelephonyManager;
     private HashMap<String, Uri> mHandleToUriMap = new HashMap<>();
-    private HashMap<Uri, MessageStatus> mUriToHandleMap = new HashMap<>();
+    // Messages inserted by this device, keyed by their table URI and id. Updated on the observer
+    // thread when changes are found.
+    private Map<Uri, MessageStatus> mUriToHandleMap = new ConcurrentHashMap<>();
+    private final Handler mHandler;
+    private final Runnable mSyncAllMessages = () -> syncMessages(mUriToHandleMap.keySet());
+    private final Object mSyncLock = new Object();
+    private boolean mCleanedUp = false;
+    // Uptime until which the conversation changes are the ones of a message change already
+    // handled, the providers notifying both. Only used on the observer thread.
+    private long mIgnoreConversationChangesUntilMs = 0;
 
     /**
      * Callbacks
@@ -90,9 +120,11 @@ class MapClientContent {
      * MceStateMachine:  the interface to send outbound updates such as when a message is read
      * locally
      * device: the associated Bluetooth device used for associating messages with a subscription
+     * looper: the looper on which the provider changes are observed, such as the one of the
+     * MceStateMachine
      */
     MapClientContent(Context context, Callbacks callbacks,
-            BluetoothDevice device) {
+            BluetoothDevice device, Looper looper) {
         mContext = context;
         mDevice = device;
         mCallbacks = callbacks;
@@ -109,7 +141,8 @@ class MapClientContent {
             mSubscriptionId = info.getSubscriptionId();
         }
 
-        mContentObserver = new ContentObserver(null) {
+        mHandler = new Handler(looper);
+        mContentObserver = new ContentObserver(mHandler) {
             @Override
             public boolean deliverSelfNotifications() {
                 return false;
@@ -118,13 +151,26 @@ class MapClientContent {
             @Override
             public void onChange(boolean selfChange) {
                 logV("onChange(self=" + selfChange + ")");
-                findChangeInDatabase();
+                scheduleSyncAllMessages();
             }
 
             @Override
             public void onChange(boolean selfChange, Uri uri) {
-                logV("onChange(self=" + selfChange + ", uri=" + uri.toString() + ")");
-                findChangeInDatabase();
+                logV("onChange(self=" + selfChange + ", uri=" + uri + ")");
+                Uri messageUri = uri != null ? getMessageUri(uri) : null;
+                if (messageUri != null) {
+                    mIgnoreConversationChangesUntilMs =
+                            SystemClock.uptimeMillis() + SYNC_DELAY_MS;
+                    if (mUriToHandleMap.containsKey(messageUri)) {
+                        syncMessages(Collections.singletonList(messageUri));
+                    }
+                } else if (uri != null
+                        && MmsSms.CONTENT_URI.getAuthority().equals(uri.getAuthority())
+                        && SystemClock.uptimeMillis() < mIgnoreConversationChangesUntilMs) {
+                    logV("Ignoring the conversation change of a handled message change");
+                } else {
+                    scheduleSyncAllMessages();
+                }
             }
         };
 
@@ -237,7 +283,7 @@ class MapClientContent {
 
         Uri results = mResolver.insert(contentUri, values);
         mHandleToUriMap.put(handle, results);
-        mUriToHandleMap.put(results, new MessageStatus(handle, readStatus));
+        trackMessage(results, new MessageStatus(handle, readStatus));
         logD("Map InsertedThread" + results);
     }
 
@@ -269,38 +315,108 @@ class MapClientContent {
     }
 
     /**
-     * findChangeInDatabase
-     * compare the current state of the local content provider to the expected state and propagate
-     * changes to the remote.
+     * trackMessage
+     * remember the status of a message inserted in the local provider, to detect local changes
      */
-    private void findChangeInDatabase() {
-        HashMap<Uri, MessageStatus> originalUriToHandleMap;
-        HashMap<Uri, MessageStatus> duplicateUriToHandleMap;
-
-        originalUriToHandleMap = mUriToHandleMap;
-        duplicateUriToHandleMap = new HashMap<>(originalUriToHandleMap);
-        for (Uri uri : new Uri[]{Mms.CONTENT_URI, Sms.CONTENT_URI}) {
-            try (Cursor cursor = mResolver.query(uri, null, null, null, null)) {
-                while (cursor.moveToNext()) {
-                    Uri index =
-                            Uri.withAppendedPath(
-                                    uri, cursor.getString(cursor.getColumnIndex("_id")));
-                    int readStatus = cursor.getInt(cursor.getColumnIndex(Sms.READ));
-                    MessageStatus currentMessage = duplicateUriToHandleMap.remove(index);
-                    if (currentMessage != null && currentMessage.mRead != readStatus) {
-                        logV(currentMessage.mHandle);
-                        currentMessage.mRead = readStatus;
-                        mCallbacks.onMessageStatusChanged(
-                                currentMessage.mHandle, BluetoothMapClient.READ);
-                    }
+    private void trackMessage(Uri uri, MessageStatus status) {
+        Uri messageUri = uri != null ? getMessageUri(uri) : null;
+        if (messageUri != null) {
+            mUriToHandleMap.put(messageUri, status);
+        }
+    }
+
+    /**
+     * getMessageUri
+     * return the URI of a message in its SMS or MMS table, such as content://sms/1 for
+     * content://sms/inbox/1, or null if the URI does not designate a message
+     */
+    @VisibleForTesting
+    static Uri getMessageUri(Uri uri) {
+        if (!Sms.CONTENT_URI.getAuthority().equals(uri.getAuthority())
+                && !Mms.CONTENT_URI.getAuthority().equals(uri.getAuthority())) {
+            return null;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() == 0 || segments.size() > 2
+                || (segments.size() == 2 && !MESSAGE_FOLDERS.contains(segments.get(0)))) {
+            return null;
+        }
+        String id = segments.get(segments.size() - 1);
+        if (id.isEmpty() || !TextUtils.isDigitsOnly(id)) {
+            return null;
+        }
+        return ContentUris.withAppendedId(getTableUri(uri), Long.parseLong(id));
+    }
+
+    private static Uri getTableUri(Uri uri) {
+        return Mms.CONTENT_URI.getAuthority().equals(uri.getAuthority()) ? Mms.CONTENT_URI
+                : Sms.CONTENT_URI;
+    }
+
+    private void scheduleSyncAllMessages() {
+        if (!mHandler.hasCallbacks(mSyncAllMessages)) {
+            mHandler.postDelayed(mSyncAllMessages, SYNC_DELAY_MS);
+        }
+    }
+
+    /**
+     * syncMessages
+     * compare the current state of the given messages in the local content provider to the
+     * expected state and propagate changes to the remote. Only the read status of the messages
+     * inserted by this device is read, a chunk of messages at a time.
+     */
+    private void syncMessages(Collection<Uri> messageUris) {
+        Map<Uri, List<Long>> idsByTable = new HashMap<>();
+        for (Uri messageUri : messageUris) {
+            idsByTable.computeIfAbsent(getTableUri(messageUri), k -> new ArrayList<>())
+                    .add(ContentUris.parseId(messageUri));
+        }
+        synchronized (mSyncLock) {
+            if (mCleanedUp) {
+                return;
+            }
+            for (Map.Entry<Uri, List<Long>> entry : idsByTable.entrySet()) {
+                List<Long> ids = entry.getValue();
+                for (int i = 0; i < ids.size(); i += MAX_MESSAGES_PER_QUERY) {
+                    syncMessages(entry.getKey(),
+                            ids.subList(i, Math.min(i + MAX_MESSAGES_PER_QUERY, ids.size())));
+                }
+            }
+        }
+    }
+
+    private void syncMessages(Uri tableUri, List<Long> ids) {
+        Set<Long> foundIds = new HashSet<>();
+        try (Cursor cursor = mResolver.query(tableUri, READ_STATUS_PROJECTION,
+                BaseColumns._ID + " IN (" + TextUtils.join(",", ids) + ")", null, null)) {
+            if (cursor == null) {
+                return;
+            }
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                int readStatus = cursor.getInt(1);
+                foundIds.add(id);
+                MessageStatus currentMessage =
+                        mUriToHandleMap.get(ContentUris.withAppendedId(tableUri, id));
+                if (currentMessage != null && currentMessage.mRead != readStatus) {
+                    logV(currentMessage.mHandle);
+                    currentMessage.mRead = readStatus;
+                    mCallbacks.onMessageStatusChanged(
+                            currentMessage.mHandle, BluetoothMapClient.READ);
                 }
             }
         }
-        for (HashMap.Entry record : duplicateUriToHandleMap.entrySet()) {
-            logV("Deleted " + ((MessageStatus) record.getValue()).mHandle);
-            originalUriToHandleMap.remove(record.getKey());
-            mCallbacks.onMessageStatusChanged(((MessageStatus) record.getValue()).mHandle,
-                    BluetoothMapClient.DELETED);
+        for (long id : ids) {
+            if (foundIds.contains(id)) {
+                continue;
+            }
+            MessageStatus deletedMessage =
+                    mUriToHandleMap.remove(ContentUris.withAppendedId(tableUri, id));
+            if (deletedMessage != null) {
+                logV("Deleted " + deletedMessage.mHandle);
+                mCallbacks.onMessageStatusChanged(deletedMessage.mHandle,
+                        BluetoothMapClient.DELETED);
+            }
         }
     }
 
@@ -343,7 +459,7 @@ class MapClientContent {
 
             Uri results = mResolver.insert(contentUri, values);
             mHandleToUriMap.put(handle, results);
-            mUriToHandleMap.put(results, new MessageStatus(handle, read));
+            trackMessage(results, new MessageStatus(handle, read));
 
             logD("Map InsertedThread" + results);
 
@@ -414,6 +530,11 @@ class MapClientContent {
         logD("cleanUp(device=" + Utils.getLoggableAddress(mDevice)
                 + "subscriptionId=" + mSubscriptionId);
         mResolver.unregisterContentObserver(mContentObserver);
+        mHandler.removeCallbacks(mSyncAllMessages);
+        // Clearing the messages must not be reported as deletions to the remote.
+        synchronized (mSyncLock) {
+            mCleanedUp = true;
+        }
         clearMessages(mContext, mSubscriptionId);
         try {
             mSubscriptionManager.removeSubscriptionInfoRecord(mDevice.getAddress(),
@@ -612,6 +733,7 @@ class MapClientContent {
     public void dump(StringBuilder sb) {
         sb.append("    Device Message DB:");
         sb.append("\n      Subscription ID: " + mSubscriptionId);
+        sb.append("\n      Tracked Messages: " + mUriToHandleMap.size());
         if (mSubscriptionId != SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
             sb.append("\n      SMS Messages (Inbox/Sent/Total): "
                     + getStoredMessagesCount(Sms.Inbox.CONTENT_URI)
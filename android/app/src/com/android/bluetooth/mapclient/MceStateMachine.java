@@ -650,7 +650,8 @@ class MceStateMachine extends StateMachine {
             };
             // Keeps mock database from being overwritten in tests
             if (mDatabase == null) {
-                mDatabase = new MapClientContent(mService, callbacks, mDevice);
+                mDatabase = new MapClientContent(mService, callbacks, mDevice,
+                        getHandler().getLooper());
             }
             onConnectionStateChanged(mPreviousState, BluetoothProfile.STATE_CONNECTED);
             if (Utils.isPtsTestMode()) return;
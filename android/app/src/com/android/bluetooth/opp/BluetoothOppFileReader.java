@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import android.util.Log;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a file to send from a reader thread, so the next chunk is read while the current one is
+ * transmitted.
+ *
+ * <p>The reader fills {@link #BUFFER_COUNT} buffers in turn. Each chunk is full except the last
+ * one. Files are read through their {@link FileChannel}, other streams are read directly.
+ */
+class BluetoothOppFileReader {
+    private static final String TAG = "BluetoothOppFileReader";
+
+    @VisibleForTesting
+    static final int BUFFER_COUNT = 2;
+
+    private static final long POLL_TIMEOUT_MS = 100;
+
+    private static class Chunk {
+        final byte[] mData;
+        int mLength;
+        IOException mException;
+
+        Chunk(int size) {
+            mData = new byte[size];
+        }
+    }
+
+    private final InputStream mInputStream;
+    private final FileChannel mChannel;
+    private final long mLength;
+    private final BlockingQueue<Chunk> mFreeChunks = new ArrayBlockingQueue<>(BUFFER_COUNT);
+    private final BlockingQueue<Chunk> mReadChunks = new ArrayBlockingQueue<>(BUFFER_COUNT);
+    private final Thread mReader = new Thread(this::readChunks, TAG);
+    private volatile boolean mStopped;
+    private boolean mEnded;
+
+    /**
+     * @param inputStream the stream of the file to send
+     * @param chunkSize the size of the chunks to read
+     * @param length the number of bytes to read
+     */
+    BluetoothOppFileReader(InputStream inputStream, int chunkSize, long length) {
+        mInputStream = inputStream;
+        mChannel = inputStream instanceof FileInputStream
+                ? ((FileInputStream) inputStream).getChannel() : null;
+        mLength = length;
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            mFreeChunks.add(new Chunk(chunkSize));
+        }
+    }
+
+    void start() {
+        mReader.start();
+    }
+
+    /**
+     * Copies the next chunk into {@code buffer}, which must hold a chunk.
+     *
+     * @return the length of the chunk, or -1 once the file was read
+     * @throws IOException if reading the file failed
+     */
+    int read(byte[] buffer) throws IOException {
+        if (mEnded) {
+            return -1;
+        }
+        Chunk chunk;
+        try {
+            chunk = mReadChunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading file");
+        }
+        if (chunk.mException != null) {
+            mEnded = true;
+            throw chunk.mException;
+        }
+        int length = chunk.mLength;
+        if (length == -1) {
+            mEnded = true;
+            return -1;
+        }
+        System.arraycopy(chunk.mData, 0, buffer, 0, length);
+        mFreeChunks.add(chunk);
+        return length;
+    }
+
+    /** Stops the reader thread. The stream is left open. */
+    void close() {
+        mStopped = true;
+        try {
+            mReader.join();
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while stopping the reader");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void readChunks() {
+        long remaining = mLength;
+        try {
+            while (!mStopped) {
+                Chunk chunk = mFreeChunks.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (chunk == null) {
+                    continue;
+                }
+                try {
+                    chunk.mLength = remaining > 0 ? readChunk(chunk.mData,
+                            (int) Math.min(chunk.mData.length, remaining)) : -1;
+                } catch (IOException e) {
+                    chunk.mException = e;
+                }
+                // There are only BUFFER_COUNT chunks, so a read chunk always fits.
+                mReadChunks.add(chunk);
+                if (chunk.mLength <= 0 || chunk.mException != null) {
+                    return;
+                }
+                remaining -= chunk.mLength;
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Reader interrupted");
+        }
+    }
+
+    private int readChunk(byte[] data, int size) throws IOException {
+        if (mChannel == null) {
+            int length = BluetoothOppObexClientSession.readFully(mInputStream, data, size);
+            return length > 0 ? length : -1;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, size);
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer) == -1) {
+                break;
+            }
+        }
+        return buffer.position() > 0 ? buffer.position() : -1;
+    }
+}
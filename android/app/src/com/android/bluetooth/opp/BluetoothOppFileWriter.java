@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import android.util.Log;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes a received file from a writer thread, so the next packet is received while the previous
+ * ones are written.
+ *
+ * <p>Chunks are written in the order they were queued, at most {@link #BUFFER_COUNT} at a time.
+ * Files are written through their {@link FileChannel}, other streams are written directly. A
+ * write failure is thrown by the next call to {@link #write} or {@link #finish}.
+ */
+class BluetoothOppFileWriter {
+    private static final String TAG = "BluetoothOppFileWriter";
+
+    @VisibleForTesting
+    static final int BUFFER_COUNT = 2;
+
+    private static class Chunk {
+        final byte[] mData;
+        int mLength;
+
+        Chunk(int size) {
+            mData = new byte[size];
+        }
+    }
+
+    // Queued by finish() after the last chunk.
+    private static final Chunk END_OF_CHUNKS = new Chunk(0);
+
+    private final OutputStream mOutputStream;
+    private final FileChannel mChannel;
+    private final BlockingQueue<Chunk> mFreeChunks = new ArrayBlockingQueue<>(BUFFER_COUNT);
+    private final BlockingQueue<Chunk> mPendingChunks = new ArrayBlockingQueue<>(BUFFER_COUNT + 1);
+    private final Thread mWriter = new Thread(this::writeChunks, TAG);
+    private volatile IOException mException;
+
+    /**
+     * @param outputStream the stream of the received file
+     * @param chunkSize the maximum size of the chunks to write
+     */
+    BluetoothOppFileWriter(OutputStream outputStream, int chunkSize) {
+        mOutputStream = outputStream;
+        mChannel = outputStream instanceof FileOutputStream
+                ? ((FileOutputStream) outputStream).getChannel() : null;
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            mFreeChunks.add(new Chunk(chunkSize));
+        }
+    }
+
+    void start() {
+        mWriter.start();
+    }
+
+    /**
+     * Queues {@code length} bytes of {@code data} to be written, waiting for a buffer to be
+     * free if needed.
+     *
+     * @throws IOException if writing a previous chunk failed
+     */
+    void write(byte[] data, int length) throws IOException {
+        throwIfFailed();
+        Chunk chunk;
+        try {
+            chunk = mFreeChunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing file");
+        }
+        // The writer returns its chunk after a failure, check again before queueing.
+        throwIfFailed();
+        System.arraycopy(data, 0, chunk.mData, 0, length);
+        chunk.mLength = length;
+        mPendingChunks.add(chunk);
+    }
+
+    /**
+     * Waits for the queued chunks to be written and stops the writer thread. The stream is left
+     * open.
+     *
+     * @throws IOException if writing a chunk failed
+     */
+    void finish() throws IOException {
+        if (mWriter.isAlive()) {
+            mPendingChunks.add(END_OF_CHUNKS);
+            try {
+                mWriter.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing file");
+            }
+        }
+        throwIfFailed();
+    }
+
+    private void throwIfFailed() throws IOException {
+        IOException exception = mException;
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private void writeChunks() {
+        try {
+            while (true) {
+                Chunk chunk = mPendingChunks.take();
+                if (chunk == END_OF_CHUNKS) {
+                    return;
+                }
+                // Keep draining the queue after a failure, so that a blocked receiver notices it.
+                if (mException == null) {
+                    try {
+                        writeChunk(chunk);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Error when writing file: " + e);
+                        mException = e;
+                    }
+                }
+                mFreeChunks.add(chunk);
+            }
+        } catch (InterruptedException e) {
+            mException = new IOException("Writer interrupted");
+        }
+    }
+
+    private void writeChunk(Chunk chunk) throws IOException {
+        if (mChannel == null) {
+            mOutputStream.write(chunk.mData, 0, chunk.mLength);
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(chunk.mData, 0, chunk.mLength);
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+}
@@ -194,12 +194,18 @@ class BluetoothOppNotification {
     // 3. Handler sends a delayed message to self
     // 4. Handler checks if there are any more updates after 1 second.
     // 5. If there is an update, update it else stop.
+    // Running transfers write their progress to the provider only every few seconds, so keep
+    // updating while a transfer is running to show the progress published in memory.
     private Handler mHandler = new Handler() {
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case NOTIFY:
                     synchronized (BluetoothOppNotification.this) {
+                        if (mPendingUpdate == 0
+                                && BluetoothOppProgressReporter.hasRunningTransfers()) {
+                            mPendingUpdate++;
+                        }
                         if (mPendingUpdate > 0 && mUpdateNotificationThread == null) {
                             if (V) {
                                 Log.v(TAG, "new notify threadi!");
@@ -284,7 +290,8 @@ class BluetoothOppNotification {
             int dir = cursor.getInt(directionIndex);
             int id = cursor.getInt(idIndex);
             long total = cursor.getLong(totalBytesIndex);
-            long current = cursor.getLong(currentBytesIndex);
+            long current = BluetoothOppProgressReporter.getCurrentBytes(id,
+                    cursor.getLong(currentBytesIndex));
             int confirmation = cursor.getInt(confirmIndex);
 
             String destination = cursor.getString(destinationIndex);
@@ -54,7 +54,6 @@ import com.android.obex.ResponseCodes;
 
 import com.google.common.annotations.VisibleForTesting;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -385,6 +384,8 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
             ClientOperation putOperation = null;
             OutputStream outputStream = null;
             InputStream inputStream = null;
+            BluetoothOppProgressReporter progressReporter = null;
+            BluetoothOppFileReader fileReader = null;
             try {
                 synchronized (this) {
                     mWaitingForRemote = true;
@@ -446,18 +447,18 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
 
                 if (!error) {
                     int readLength = 0;
-                    long percent = 0;
-                    long prevPercent = 0;
                     boolean okToProceed = false;
                     long timestamp = 0;
                     long currentTime = 0;
-                    long prevTimestamp = SystemClock.elapsedRealtime();
+                    progressReporter = new BluetoothOppProgressReporter(mContext1, mInfo.mId);
                     int outputBufferSize = putOperation.getMaxPacketSize();
                     byte[] buffer = new byte[outputBufferSize];
-                    BufferedInputStream a = new BufferedInputStream(fileInfo.mInputStream, 0x4000);
+                    fileReader = new BluetoothOppFileReader(fileInfo.mInputStream,
+                            outputBufferSize, fileInfo.mLength);
+                    fileReader.start();
 
                     if (!mInterrupted && (position != fileInfo.mLength)) {
-                        readLength = readFully(a, buffer, outputBufferSize);
+                        readLength = fileReader.read(buffer);
 
                         mCallbackHandler.sendMessageDelayed(
                                 mCallbackHandler.obtainMessage(
@@ -494,10 +495,8 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                                 Log.v(TAG, "Remote accept");
                             }
                             okToProceed = true;
-                            updateValues = new ContentValues();
-                            updateValues.put(BluetoothShare.CURRENT_BYTES, position);
-                            mContext1.getContentResolver()
-                                    .update(contentUri, updateValues, null, null);
+                            progressReporter.update(position);
+                            progressReporter.persist();
                             mNumFilesAttemptedToSend++;
                         } else {
                             Log.i(TAG, "Remote reject, Response code is " + responseCode);
@@ -509,7 +508,7 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                             timestamp = SystemClock.elapsedRealtime();
                         }
 
-                        readLength = a.read(buffer, 0, outputBufferSize);
+                        readLength = fileReader.read(buffer);
                         outputStream.write(buffer, 0, readLength);
 
                         /* check remote abort */
@@ -529,18 +528,7 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                                         + " readLength " + readLength + " bytes took "
                                         + (currentTime - timestamp) + " ms");
                             }
-                            // Update the Progress Bar only if there is change in percentage
-                            // or once per a period to notify NFC of this transfer is still alive
-                            percent = position * 100 / fileInfo.mLength;
-                            if (percent > prevPercent
-                                    || currentTime - prevTimestamp > Constants.NFC_ALIVE_CHECK_MS) {
-                                updateValues = new ContentValues();
-                                updateValues.put(BluetoothShare.CURRENT_BYTES, position);
-                                mContext1.getContentResolver()
-                                        .update(contentUri, updateValues, null, null);
-                                prevPercent = percent;
-                                prevTimestamp = currentTime;
-                            }
+                            progressReporter.update(position);
                         }
                     }
 
@@ -579,6 +567,12 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                 } catch (IOException e) {
                     Log.e(TAG, "Error when closing output stream after send");
                 }
+                if (progressReporter != null) {
+                    progressReporter.finish();
+                }
+                if (fileReader != null) {
+                    fileReader.close();
+                }
 
                 // Close InputStream and remove SendFileInfo from map
                 BluetoothOppUtility.closeSendFileInfo(mInfo.mUri);
@@ -465,8 +465,7 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
         }
 
         long position = 0;
-        long percent;
-        long prevPercent = 0;
+        BluetoothOppProgressReporter progressReporter = null;
 
         if (!error) {
             try {
@@ -484,7 +483,9 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
             int readLength;
             long timestamp = 0;
             long currentTime;
-            long prevTimestamp = SystemClock.elapsedRealtime();
+            progressReporter = new BluetoothOppProgressReporter(mContext, mInfo.mId);
+            BluetoothOppFileWriter fileWriter = new BluetoothOppFileWriter(os, outputBufferSize);
+            fileWriter.start();
             try {
                 while ((!mInterrupted) && (position != fileInfo.mLength)) {
 
@@ -501,9 +502,17 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                         break;
                     }
 
-                    os.write(b, 0, readLength);
+                    try {
+                        fileWriter.write(b, readLength);
+                    } catch (IOException e) {
+                        // A previous chunk failed to be written to the file, not received.
+                        Log.e(TAG, "Error when writing file: " + e);
+                        status = BluetoothShare.STATUS_FILE_ERROR;
+                        error = true;
+                        break;
+                    }
                     position += readLength;
-                    percent = position * 100 / fileInfo.mLength;
+                    progressReporter.update(position);
                     currentTime = SystemClock.elapsedRealtime();
 
                     if (V) {
@@ -511,19 +520,6 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                                 "Receive file position = " + position + " readLength " + readLength
                                         + " bytes took " + (currentTime - timestamp) + " ms");
                     }
-
-                    // Update the Progress Bar only if there is change in percentage
-                    // or once per a period to notify NFC of this transfer is still alive
-                    if (percent > prevPercent
-                            || currentTime - prevTimestamp > Constants.NFC_ALIVE_CHECK_MS) {
-                        ContentValues updateValues = new ContentValues();
-                        updateValues.put(BluetoothShare.CURRENT_BYTES, position);
-                        BluetoothMethodProxy.getInstance().contentResolverUpdate(
-                                mContext.getContentResolver(), contentUri, updateValues, null,
-                                null);
-                        prevPercent = percent;
-                        prevTimestamp = currentTime;
-                    }
                 }
             } catch (IOException e1) {
                 Log.e(TAG, "Error when receiving file: " + e1);
@@ -534,6 +530,17 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                     status = BluetoothShare.STATUS_OBEX_DATA_ERROR;
                 }
                 error = true;
+            } finally {
+                try {
+                    fileWriter.finish();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error when writing file: " + e);
+                    if (!error) {
+                        status = BluetoothShare.STATUS_FILE_ERROR;
+                        error = true;
+                    }
+                }
+                progressReporter.finish();
             }
         }
 
@@ -543,7 +550,7 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
             }
             status = BluetoothShare.STATUS_CANCELED;
         } else {
-            if (position == fileInfo.mLength) {
+            if (!error && position == fileInfo.mLength) {
                 if (D) {
                     Log.d(TAG, "Receiving file completed for " + fileInfo.mFileName);
                 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reports the progress of a running transfer.
+ *
+ * <p>The bytes transferred are published in memory at every packet, for {@link
+ * BluetoothOppNotification} to show them, but are written to {@link BluetoothShare#CURRENT_BYTES}
+ * only every {@link #PERSIST_INTERVAL_MS} and when {@link #persist} or {@link #finish} is called
+ * on a state transition, as each write refreshes the whole share list of the service.
+ */
+class BluetoothOppProgressReporter {
+    private static final String TAG = "BluetoothOppProgressReporter";
+    private static final boolean D = Constants.DEBUG;
+
+    // Must stay below Constants.NFC_ALIVE_CHECK_MS, writes also tell NFC the transfer is alive.
+    @VisibleForTesting
+    static final long PERSIST_INTERVAL_MS = 5000;
+
+    // Running transfers by share id.
+    private static final Map<Integer, BluetoothOppProgressReporter> sReporters =
+            new ConcurrentHashMap<>();
+
+    private final Context mContext;
+    private final int mId;
+    private final Uri mContentUri;
+    private final long mStartTime;
+    private volatile long mCurrentBytes;
+    private long mPersistedBytes = -1;
+    private long mPersistedTime;
+
+    BluetoothOppProgressReporter(Context context, int id) {
+        mContext = context;
+        mId = id;
+        mContentUri = Uri.parse(BluetoothShare.CONTENT_URI + "/" + id);
+        mStartTime = SystemClock.elapsedRealtime();
+        mPersistedTime = mStartTime;
+        sReporters.put(id, this);
+    }
+
+    /**
+     * Returns the bytes transferred by the share {@code id} if it is running, or {@code
+     * persistedBytes} read from the provider otherwise.
+     */
+    static long getCurrentBytes(int id, long persistedBytes) {
+        BluetoothOppProgressReporter reporter = sReporters.get(id);
+        return reporter != null ? reporter.mCurrentBytes : persistedBytes;
+    }
+
+    /** Returns the throughput of the share {@code id} in bytes per second, or -1 if not running. */
+    static long getThroughput(int id) {
+        BluetoothOppProgressReporter reporter = sReporters.get(id);
+        return reporter != null ? reporter.getThroughput() : -1;
+    }
+
+    /** Returns whether a transfer is running. */
+    static boolean hasRunningTransfers() {
+        return !sReporters.isEmpty();
+    }
+
+    /** Publishes that {@code position} bytes were transferred. */
+    void update(long position) {
+        mCurrentBytes = position;
+        if (SystemClock.elapsedRealtime() - mPersistedTime >= PERSIST_INTERVAL_MS) {
+            persist();
+        }
+    }
+
+    /** Writes the bytes transferred to the provider. */
+    void persist() {
+        mPersistedTime = SystemClock.elapsedRealtime();
+        long position = mCurrentBytes;
+        if (position == mPersistedBytes) {
+            return;
+        }
+        ContentValues updateValues = new ContentValues();
+        updateValues.put(BluetoothShare.CURRENT_BYTES, position);
+        BluetoothMethodProxy.getInstance().contentResolverUpdate(mContext.getContentResolver(),
+                mContentUri, updateValues, null, null);
+        mPersistedBytes = position;
+    }
+
+    /** Writes the bytes transferred to the provider, once the transfer stopped. */
+    void finish() {
+        persist();
+        sReporters.remove(mId, this);
+        if (D) {
+            Log.d(TAG, "Transfer " + mId + " ended at " + mCurrentBytes + " bytes, "
+                    + getThroughput() + " bytes/s");
+        }
+    }
+
+    private long getThroughput() {
+        long elapsed = SystemClock.elapsedRealtime() - mStartTime;
+        return elapsed > 0 ? mCurrentBytes * 1000 / elapsed : 0;
+    }
+}
@@ -323,8 +323,11 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
                 String dir = info.mDirection == BluetoothShare.DIRECTION_OUTBOUND ? " -> " : " <- ";
                 SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss", Locale.US);
                 Date date = new Date(info.mTimestamp);
-                println(sb, "  " + format.format(date) + dir + info.mCurrentBytes + "/"
-                        + info.mTotalBytes);
+                long throughput = BluetoothOppProgressReporter.getThroughput(info.mId);
+                println(sb, "  " + format.format(date) + dir
+                        + BluetoothOppProgressReporter.getCurrentBytes(info.mId,
+                                info.mCurrentBytes) + "/" + info.mTotalBytes
+                        + (throughput >= 0 ? " (" + throughput + " bytes/s)" : ""));
             }
         }
     }
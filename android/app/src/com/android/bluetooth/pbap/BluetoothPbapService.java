@@ -78,6 +78,7 @@ import com.android.bluetooth.sdp.SdpManagerNativeInterface;
 import com.android.bluetooth.util.DevicePolicyUtils;
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -193,6 +194,7 @@ public class BluetoothPbapService extends ProfileService implements IObexConnect
 
     private static final String PBAP_NOTIFICATION_ID = "pbap_notification";
     private static final String PBAP_NOTIFICATION_NAME = "BT_PBAP_ADVANCE_SUPPORT";
+    private static final String VCARD_CACHE_DIR = "pbap_vcards";
     private static final int PBAP_ADV_VERSION = 0x0102;
     private static NotificationManager sNotificationManager;
 
@@ -329,6 +331,12 @@ public class BluetoothPbapService extends ProfileService implements IObexConnect
                         return;
                     }
                     Log.d(TAG, "Got " + action + " to userId " + userId);
+                    if (Intent.ACTION_USER_SWITCHED.equals(action)) {
+                        BluetoothPbapVcardCache cache = BluetoothPbapVcardCache.getInstance();
+                        if (cache != null) {
+                            cache.clear();
+                        }
+                    }
                     UserManager userManager = getSystemService(UserManager.class);
                     if (userManager.isUserUnlocked(UserHandle.of(userId))) {
                         sendUpdateRequest();
@@ -721,6 +729,8 @@ public class BluetoothPbapService extends ProfileService implements IObexConnect
         filter.addAction(AUTH_RESPONSE_ACTION);
         filter.addAction(AUTH_CANCELLED_ACTION);
         BluetoothPbapConfig.init(this);
+        BluetoothPbapVcardCache.setInstance(
+                new BluetoothPbapVcardCache(new File(getCacheDir(), VCARD_CACHE_DIR)));
         registerReceiver(mPbapReceiver, filter);
         try {
             mContactChangeObserver = new BluetoothPbapContentObserver();
@@ -755,6 +765,7 @@ public class BluetoothPbapService extends ProfileService implements IObexConnect
             Log.v(TAG, "stop()");
         }
         setBluetoothPbapService(null);
+        BluetoothPbapVcardCache.setInstance(null);
         if (mSessionStatusHandler != null) {
             mSessionStatusHandler.obtainMessage(SHUTDOWN).sendToTarget();
         }
@@ -1018,6 +1029,15 @@ public class BluetoothPbapService extends ProfileService implements IObexConnect
         }
     }
 
+    @Override
+    public void dump(StringBuilder sb) {
+        super.dump(sb);
+        BluetoothPbapVcardCache cache = BluetoothPbapVcardCache.getInstance();
+        if (cache != null) {
+            cache.dump(sb);
+        }
+    }
+
     private void getLocalTelephonyDetails() {
         TelephonyManager tm = getSystemService(TelephonyManager.class);
         if (tm != null) {
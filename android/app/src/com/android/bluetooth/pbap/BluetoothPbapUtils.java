@@ -340,6 +340,10 @@ class BluetoothPbapUtils {
             if (V) {
                 Log.v(TAG, "Deleted Contacts : " + deletedContacts);
             }
+            BluetoothPbapVcardCache cache = BluetoothPbapVcardCache.getInstance();
+            if (cache != null) {
+                cache.remove(deletedContacts);
+            }
 
             // to decrement totalFields and totalSvcFields count
             for (String deletedContact : deletedContacts) {
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * On-disk cache of the vCards sent for phonebook pulls, so that a PCE pulling the phonebook again
+ * on reconnection gets the vCards of the contacts that did not change without composing them.
+ *
+ * <p>A vCard is stored for a contact id and a format, made of the vCard type, the photo setting
+ * and the PBAP filter it was composed with. It is only used for the same contact version, the
+ * last updated timestamp of the contact. The least recently used vCards are evicted once the
+ * stored size goes over the limit.
+ */
+class BluetoothPbapVcardCache {
+    private static final String TAG = "BluetoothPbapVcardCache";
+    private static final boolean V = BluetoothPbapService.VERBOSE;
+
+    @VisibleForTesting
+    static final long MAX_SIZE_BYTES = 8 * 1024 * 1024;
+    // vCards larger than this, e.g. with a photo, would evict too many others.
+    private static final long MAX_ENTRY_SIZE_BYTES = MAX_SIZE_BYTES / 32;
+
+    private static final String FILE_SUFFIX = ".vcf";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static BluetoothPbapVcardCache sInstance;
+
+    private static class Entry {
+        final String fileName;
+        final long version;
+        final long size;
+
+        Entry(String fileName, long version, long size) {
+            this.fileName = fileName;
+            this.version = version;
+            this.size = size;
+        }
+    }
+
+    private final File mDir;
+    private final long mMaxSize;
+
+    // Keyed by "<format>_<contactId>", in access order.
+    @GuardedBy("this")
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    @GuardedBy("this")
+    private boolean mLoaded;
+    @GuardedBy("this")
+    private long mSize;
+    @GuardedBy("this")
+    private long mHits;
+    @GuardedBy("this")
+    private long mMisses;
+    @GuardedBy("this")
+    private long mEvictions;
+
+    BluetoothPbapVcardCache(File dir) {
+        this(dir, MAX_SIZE_BYTES);
+    }
+
+    @VisibleForTesting
+    BluetoothPbapVcardCache(File dir, long maxSize) {
+        mDir = dir;
+        mMaxSize = maxSize;
+    }
+
+    /** Returns the cache of the running PBAP service, or null. */
+    static synchronized BluetoothPbapVcardCache getInstance() {
+        return sInstance;
+    }
+
+    static synchronized void setInstance(BluetoothPbapVcardCache cache) {
+        sInstance = cache;
+    }
+
+    /**
+     * Returns the format the vCards composed with {@code vcardType} and {@code filter} are stored
+     * under.
+     */
+    static String getFormat(int vcardType, byte[] filter) {
+        StringBuilder sb = new StringBuilder(Integer.toHexString(vcardType));
+        sb.append(BluetoothPbapConfig.includePhotosInVcard() ? "-p-" : "-n-");
+        if (filter == null) {
+            sb.append("all");
+        } else {
+            for (byte b : filter) {
+                sb.append(String.format("%02x", b));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the vCard of {@code contactId} at {@code version} in {@code format}, or null if it
+     * is not cached.
+     */
+    synchronized byte[] get(String format, long contactId, long version) {
+        load();
+        String key = format + "_" + contactId;
+        Entry entry = mEntries.get(key);
+        if (entry == null || entry.version != version) {
+            if (entry != null) {
+                removeEntry(key, entry);
+            }
+            mMisses++;
+            return null;
+        }
+        byte[] vCard = new byte[(int) entry.size];
+        try (InputStream in = new FileInputStream(new File(mDir, entry.fileName))) {
+            int read = 0;
+            while (read < vCard.length) {
+                int count = in.read(vCard, read, vCard.length - read);
+                if (count < 0) {
+                    throw new IOException("Truncated vCard");
+                }
+                read += count;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + entry.fileName, e);
+            removeEntry(key, entry);
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return vCard;
+    }
+
+    /** Returns whether the vCard of {@code contactId} at {@code version} is cached. */
+    synchronized boolean contains(String format, long contactId, long version) {
+        load();
+        Entry entry = mEntries.get(format + "_" + contactId);
+        return entry != null && entry.version == version;
+    }
+
+    /** Stores the vCard of {@code contactId} at {@code version} in {@code format}. */
+    synchronized void put(String format, long contactId, long version, byte[] vCard) {
+        if (vCard.length > MAX_ENTRY_SIZE_BYTES || vCard.length > mMaxSize) {
+            return;
+        }
+        load();
+        String key = format + "_" + contactId;
+        Entry old = mEntries.get(key);
+        if (old != null) {
+            removeEntry(key, old);
+        }
+        String fileName = key + "_" + version + FILE_SUFFIX;
+        File tmp = new File(mDir, fileName + TMP_SUFFIX);
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write(vCard);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + fileName, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(new File(mDir, fileName))) {
+            tmp.delete();
+            return;
+        }
+        mEntries.put(key, new Entry(fileName, version, vCard.length));
+        mSize += vCard.length;
+        trimToSize();
+    }
+
+    /** Drops the vCards of the contacts {@code contactIds}, e.g. once they are deleted. */
+    synchronized void remove(Collection<String> contactIds) {
+        load();
+        Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            String key = e.getKey();
+            if (contactIds.contains(key.substring(key.lastIndexOf('_') + 1))) {
+                it.remove();
+                mSize -= e.getValue().size;
+                deleteFile(e.getValue());
+            }
+        }
+    }
+
+    /** Drops every vCard, e.g. once the contacts of another user are used. */
+    synchronized void clear() {
+        for (Entry entry : mEntries.values()) {
+            deleteFile(entry);
+        }
+        mEntries.clear();
+        mSize = 0;
+        // Also drops files left over by a previous run.
+        mLoaded = false;
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        long lookups = mHits + mMisses;
+        sb.append("  vCard cache: entries=" + mEntries.size() + " size=" + mSize + "/" + mMaxSize
+                + " hits=" + mHits + " misses=" + mMisses + " evictions=" + mEvictions);
+        if (lookups > 0) {
+            sb.append(String.format(" (hit rate %.1f%%)", 100f * mHits / lookups));
+        }
+        sb.append("\n");
+    }
+
+    @GuardedBy("this")
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.w(TAG, "Failed to create " + mDir);
+            return;
+        }
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Oldest first, so the least recently written vCards are evicted first.
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(FILE_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            // "<format>_<contactId>_<version>.vcf"
+            String base = name.substring(0, name.length() - FILE_SUFFIX.length());
+            int versionStart = base.lastIndexOf('_');
+            long version;
+            try {
+                version = Long.parseLong(base.substring(versionStart + 1));
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                file.delete();
+                continue;
+            }
+            String key = base.substring(0, versionStart);
+            Entry old = mEntries.put(key, new Entry(name, version, file.length()));
+            if (old != null) {
+                mSize -= old.size;
+                deleteFile(old);
+            }
+            mSize += file.length();
+        }
+        trimToSize();
+        if (V) {
+            Log.v(TAG, "Loaded " + mEntries.size() + " vCards, " + mSize + " bytes");
+        }
+    }
+
+    @GuardedBy("this")
+    private void trimToSize() {
+        Iterator<Entry> it = mEntries.values().iterator();
+        while (mSize > mMaxSize && it.hasNext()) {
+            Entry entry = it.next();
+            it.remove();
+            deleteFile(entry);
+            mSize -= entry.size;
+            mEvictions++;
+        }
+    }
+
+    @GuardedBy("this")
+    private void removeEntry(String key, Entry entry) {
+        mEntries.remove(key);
+        mSize -= entry.size;
+        deleteFile(entry);
+    }
+
+    private void deleteFile(Entry entry) {
+        if (!new File(mDir, entry.fileName).delete() && V) {
+            Log.v(TAG, "Failed to delete " + entry.fileName);
+        }
+    }
+}
@@ -46,7 +46,6 @@ import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.Data;
 import android.provider.ContactsContract.PhoneLookup;
-import android.provider.ContactsContract.RawContactsEntity;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
 import android.util.Log;
@@ -64,7 +63,10 @@ import com.android.vcard.VCardPhoneNumberTranslationCallback;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 public class BluetoothPbapVcardManager {
     private static final String TAG = "BluetoothPbapVcardManager";
@@ -102,6 +104,9 @@ public class BluetoothPbapVcardManager {
 
     private static final int NEED_SEND_BODY = -1;
 
+    // Contact ids per query of the versions of the cached vCards.
+    private static final int CONTACT_VERSIONS_BATCH_SIZE = 500;
+
     public BluetoothPbapVcardManager(final Context context) {
         mContext = context;
         mResolver = mContext.getContentResolver();
@@ -372,9 +377,11 @@ public class BluetoothPbapVcardManager {
 
                 int i = 0;
                 contactCursor.moveToFirst();
+                RawContactEntityPrefetcher prefetcher =
+                        new RawContactEntityPrefetcher(mResolver, contactCursor, idColumn);
                 while (!contactCursor.isAfterLast()) {
-                    String vcard = composer.buildVCard(RawContactsEntity.queryRawContactEntity(
-                                mResolver, contactCursor.getLong(idColumn)));
+                    String vcard = composer.buildVCard(
+                            prefetcher.getRawContactEntity(contactCursor.getLong(idColumn)));
                     if (!contactCursor.moveToNext()) {
                         Log.i(TAG, "Cursor#moveToNext() returned false");
                     }
@@ -748,7 +755,7 @@ public class BluetoothPbapVcardManager {
                     return numberWithControlSequence;
                 }
             });
-            buffer = new HandlerForStringBuffer(op, ownerVCard);
+            buffer = new PipelinedHandlerForStringBuffer(op, ownerVCard);
             Log.v(TAG, "contactIdCursor size: " + contactIdCursor.getCount());
             if (!composer.init(contactIdCursor) || !buffer.init()) {
                 return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
@@ -757,15 +764,52 @@ public class BluetoothPbapVcardManager {
             if (idColumn < 0) {
                 idColumn = contactIdCursor.getColumnIndex(Contacts._ID);
             }
+            long[] contactIds = RawContactEntityPrefetcher.readContactIds(contactIdCursor,
+                    idColumn);
+            BluetoothPbapVcardCache cache = BluetoothPbapVcardCache.getInstance();
+            String format = null;
+            Map<Long, Long> versions = Collections.emptyMap();
+            if (cache != null) {
+                format = BluetoothPbapVcardCache.getFormat(vcardType,
+                        ignorefilter ? null : filter);
+                // Read before composing, so that a contact updated meanwhile is composed again
+                // on the next pull.
+                versions = getContactVersions(contactIds);
+                // Only the entities of the contacts to compose are prefetched.
+                long[] uncachedIds = new long[contactIds.length];
+                int count = 0;
+                for (long id : contactIds) {
+                    Long version = versions.get(id);
+                    if (version == null || !cache.contains(format, id, version)) {
+                        uncachedIds[count++] = id;
+                    }
+                }
+                contactIds = Arrays.copyOf(uncachedIds, count);
+            }
+            RawContactEntityPrefetcher prefetcher =
+                    new RawContactEntityPrefetcher(mResolver, contactIds);
 
             while (!contactIdCursor.isAfterLast()) {
                 if (BluetoothPbapObexServer.sIsAborted) {
                     ((ServerOperation) op).setAborted(true);
                     BluetoothPbapObexServer.sIsAborted = false;
+                    buffer.abort();
                     break;
                 }
-                String vcard = composer.buildVCard(RawContactsEntity.queryRawContactEntity(
-                            mResolver, contactIdCursor.getLong(idColumn)));
+                long contactId = contactIdCursor.getLong(idColumn);
+                Long version = versions.get(contactId);
+                byte[] cachedVCard =
+                        version != null ? cache.get(format, contactId, version) : null;
+                if (cachedVCard != null) {
+                    if (!contactIdCursor.moveToNext()) {
+                        Log.i(TAG, "Cursor#moveToNext() returned false");
+                    }
+                    if (!buffer.writeVCard(cachedVCard)) {
+                        return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
+                    }
+                    continue;
+                }
+                String vcard = composer.buildVCard(prefetcher.getRawContactEntity(contactId));
                 if (!contactIdCursor.moveToNext()) {
                     Log.i(TAG, "Cursor#moveToNext() returned false");
                 }
@@ -787,7 +831,11 @@ public class BluetoothPbapVcardManager {
                     Log.v(TAG, "vCard after cleanup: " + vcard);
                 }
 
-                if (!buffer.writeVCard(vcard)) {
+                byte[] vCardBytes = vcard.getBytes();
+                if (version != null) {
+                    cache.put(format, contactId, version, vCardBytes);
+                }
+                if (!buffer.writeVCard(vCardBytes)) {
                     // onEntryCreate() already emits error.
                     return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
                 }
@@ -800,6 +848,10 @@ public class BluetoothPbapVcardManager {
                 buffer.terminate();
             }
         }
+        if (buffer.hasFailed()) {
+            Log.e(TAG, "Failed to send the pending vCards");
+            return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
+        }
 
         if (V) {
             Log.v(TAG, "Total vcard composing and sending out takes " + (System.currentTimeMillis()
@@ -809,6 +861,37 @@ public class BluetoothPbapVcardManager {
         return ResponseCodes.OBEX_HTTP_OK;
     }
 
+    /** Returns the last updated timestamp of the contacts {@code contactIds}, by contact id. */
+    private Map<Long, Long> getContactVersions(long[] contactIds) {
+        Map<Long, Long> versions = new HashMap<>();
+        for (int start = 0; start < contactIds.length; start += CONTACT_VERSIONS_BATCH_SIZE) {
+            int end = Math.min(start + CONTACT_VERSIONS_BATCH_SIZE, contactIds.length);
+            StringBuilder selection = new StringBuilder(Contacts._ID).append(" IN (");
+            for (int i = start; i < end; i++) {
+                if (i > start) {
+                    selection.append(',');
+                }
+                selection.append(contactIds[i]);
+            }
+            selection.append(')');
+            Cursor cursor = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
+                    Contacts.CONTENT_URI,
+                    new String[] {Contacts._ID, Contacts.CONTACT_LAST_UPDATED_TIMESTAMP},
+                    selection.toString(), null, null);
+            if (cursor == null) {
+                continue;
+            }
+            try {
+                while (cursor.moveToNext()) {
+                    versions.put(cursor.getLong(0), cursor.getLong(1));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return versions;
+    }
+
     private int composeContactsAndSendSelectedVCards(Operation op, final Cursor contactIdCursor,
             final boolean vcardType21, String ownerVCard, int needSendBody, int pbSize,
             boolean ignorefilter, byte[] filter, byte[] selector, String vcardselectorop) {
@@ -853,7 +936,7 @@ public class BluetoothPbapVcardManager {
                     return numberWithControlSequence;
                 }
             });
-            buffer = new HandlerForStringBuffer(op, ownerVCard);
+            buffer = new PipelinedHandlerForStringBuffer(op, ownerVCard);
             Log.v(TAG, "contactIdCursor size: " + contactIdCursor.getCount());
             if (!composer.init(contactIdCursor) || !buffer.init()) {
                 return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
@@ -862,15 +945,18 @@ public class BluetoothPbapVcardManager {
             if (idColumn < 0) {
                 idColumn = contactIdCursor.getColumnIndex(Contacts._ID);
             }
+            RawContactEntityPrefetcher prefetcher =
+                    new RawContactEntityPrefetcher(mResolver, contactIdCursor, idColumn);
 
             while (!contactIdCursor.isAfterLast()) {
                 if (BluetoothPbapObexServer.sIsAborted) {
                     ((ServerOperation) op).setAborted(true);
                     BluetoothPbapObexServer.sIsAborted = false;
+                    buffer.abort();
                     break;
                 }
-                String vcard = composer.buildVCard(RawContactsEntity.queryRawContactEntity(
-                            mResolver, contactIdCursor.getLong(idColumn)));
+                String vcard = composer.buildVCard(
+                        prefetcher.getRawContactEntity(contactIdCursor.getLong(idColumn)));
                 if (!contactIdCursor.moveToNext()) {
                     Log.i(TAG, "Cursor#moveToNext() returned false");
                 }
@@ -920,6 +1006,10 @@ public class BluetoothPbapVcardManager {
                 buffer.terminate();
             }
         }
+        if (buffer.hasFailed()) {
+            Log.e(TAG, "Failed to send the pending vCards");
+            return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
+        }
 
         if (V) {
             Log.v(TAG, "Total vcard composing and sending out takes " + (System.currentTimeMillis()
@@ -945,7 +1035,7 @@ public class BluetoothPbapVcardManager {
             VCardFilter vcardfilter = new VCardFilter(ignorefilter ? null : filter);
             PropertySelector vcardselector = new PropertySelector(selector);
             composer = new BluetoothPbapCallLogComposer(mContext);
-            buffer = new HandlerForStringBuffer(op, ownerVCard);
+            buffer = new PipelinedHandlerForStringBuffer(op, ownerVCard);
             if (!composer.init(CallLog.Calls.CONTENT_URI, selection, null, CALLLOG_SORT_ORDER)
                     || !buffer.init()) {
                 return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
@@ -955,6 +1045,7 @@ public class BluetoothPbapVcardManager {
                 if (BluetoothPbapObexServer.sIsAborted) {
                     ((ServerOperation) op).setAborted(true);
                     BluetoothPbapObexServer.sIsAborted = false;
+                    buffer.abort();
                     break;
                 }
                 String vcard = composer.createOneEntry(vcardType21);
@@ -1006,6 +1097,10 @@ public class BluetoothPbapVcardManager {
                 buffer.terminate();
             }
         }
+        if (buffer.hasFailed()) {
+            Log.e(TAG, "Failed to send the pending vCards");
+            return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
+        }
 
         if (V) {
             Log.v(TAG, "Total vcard composing and sending out takes " + (System.currentTimeMillis()
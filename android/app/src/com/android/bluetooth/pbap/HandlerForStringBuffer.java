@@ -56,17 +56,36 @@ public class HandlerForStringBuffer {
     }
 
     public boolean writeVCard(String vCard) {
+        if (vCard != null) {
+            return writeVCard(vCard.getBytes());
+        }
+        return false;
+    }
+
+    /** Emits an already encoded vCard. */
+    public boolean writeVCard(byte[] vCard) {
+        return write(vCard);
+    }
+
+    /** Writes an encoded vCard to the output stream. */
+    boolean write(byte[] vCard) {
         try {
-            if (vCard != null) {
-                mOutputStream.write(vCard.getBytes());
-                return true;
-            }
+            mOutputStream.write(vCard);
+            return true;
         } catch (IOException e) {
             Log.e(TAG, "write failed", e);
         }
         return false;
     }
 
+    /** Called when the PCE aborted the operation, before {@link #terminate()}. */
+    public void abort() {}
+
+    /** Returns true if a vCard failed to be sent, checked after {@link #terminate()}. */
+    public boolean hasFailed() {
+        return false;
+    }
+
     public void terminate() {
         boolean result = BluetoothPbapObexServer.closeStream(mOutputStream, mOperation);
         if (BluetoothPbapService.VERBOSE) {
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.obex.Operation;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handler to emit vCards to PCE from a sender thread, so the next vCards are composed while the
+ * previous ones are transmitted.
+ *
+ * <p>At most {@link #MAX_PENDING_VCARDS} encoded vCards wait to be sent, {@link #writeVCard}
+ * blocks the composer until the sender catches up. Once a write failed or the PCE aborted, the
+ * pending vCards are dropped and {@link #writeVCard} returns false.
+ */
+public class PipelinedHandlerForStringBuffer extends HandlerForStringBuffer {
+    private static final String TAG = "PipelinedHandlerForStringBuffer";
+
+    @VisibleForTesting
+    static final int MAX_PENDING_VCARDS = 16;
+
+    private static final long OFFER_TIMEOUT_MS = 100;
+
+    // Queued by terminate() after the last vCard.
+    private static final byte[] END_OF_VCARDS = new byte[0];
+
+    private final BlockingQueue<byte[]> mPendingVCards =
+            new ArrayBlockingQueue<>(MAX_PENDING_VCARDS);
+    private final Thread mSender = new Thread(this::sendVCards, TAG);
+    private volatile boolean mStopped;
+    private volatile boolean mFailed;
+
+    public PipelinedHandlerForStringBuffer(Operation op, String ownerVCard) {
+        super(op, ownerVCard);
+    }
+
+    @Override
+    public boolean init() {
+        mSender.start();
+        return super.init();
+    }
+
+    @Override
+    public boolean writeVCard(byte[] vCard) {
+        if (mStopped) {
+            return false;
+        }
+        try {
+            while (!mPendingVCards.offer(vCard, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                if (mStopped) {
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void abort() {
+        mStopped = true;
+    }
+
+    /**
+     * Waits for the pending vCards to be sent, then closes the output stream. {@link #hasFailed()}
+     * tells whether all of them were sent.
+     */
+    @Override
+    public void terminate() {
+        if (mSender.isAlive()) {
+            try {
+                mPendingVCards.put(END_OF_VCARDS);
+                mSender.join();
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while sending vCards");
+                mStopped = true;
+                mFailed = true;
+                Thread.currentThread().interrupt();
+            }
+        }
+        super.terminate();
+    }
+
+    @Override
+    public boolean hasFailed() {
+        return mFailed;
+    }
+
+    private void sendVCards() {
+        try {
+            while (true) {
+                byte[] vCard = mPendingVCards.take();
+                if (vCard == END_OF_VCARDS) {
+                    return;
+                }
+                // Keep draining the queue, so that a blocked composer notices the failure.
+                if (mStopped) {
+                    continue;
+                }
+                if (!write(vCard)) {
+                    mStopped = true;
+                    mFailed = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            mStopped = true;
+            mFailed = true;
+        }
+    }
+}
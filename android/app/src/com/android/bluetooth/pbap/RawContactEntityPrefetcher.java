@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Entity;
+import android.content.EntityIterator;
+import android.database.Cursor;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.RawContacts;
+import android.provider.ContactsContract.RawContactsEntity;
+import android.util.Log;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the raw contact entities of the contacts of a contact id cursor, a window of contacts at a
+ * time, for {@link com.android.vcard.VCardComposer#buildVCard(Map)}.
+ *
+ * <p>The entities of a contact are the ones {@link RawContactsEntity#queryRawContactEntity}
+ * returns, but a single query reads those of the next {@link #WINDOW_SIZE} contacts of the cursor.
+ * Enterprise contacts are still read one at a time.
+ */
+class RawContactEntityPrefetcher {
+    private static final String TAG = "RawContactEntityPrefetcher";
+    private static final boolean V = BluetoothPbapService.VERBOSE;
+
+    @VisibleForTesting
+    static final int WINDOW_SIZE = 100;
+
+    // Keeps the rows of each raw contact together, as the entity iterator expects, and the rows
+    // of a contact in the order the query for the contact alone returns them.
+    private static final String SORT_ORDER = Data.CONTACT_ID + "," + RawContactsEntity._ID + ","
+            + RawContactsEntity.DATA_ID;
+
+    private final ContentResolver mResolver;
+    private final int mWindowSize;
+    // Ids of the contacts, in cursor order.
+    private final long[] mContactIds;
+    private int mNextIndex;
+    private final Map<Long, Map<String, List<ContentValues>>> mWindow = new HashMap<>();
+
+    /**
+     * Reads the ids of the contacts from the current position of {@code contactIdCursor}, which
+     * is left unchanged.
+     */
+    RawContactEntityPrefetcher(ContentResolver resolver, Cursor contactIdCursor, int idColumn) {
+        this(resolver, readContactIds(contactIdCursor, idColumn), WINDOW_SIZE);
+    }
+
+    /** Prefetches the contacts {@code contactIds}, in order. */
+    RawContactEntityPrefetcher(ContentResolver resolver, long[] contactIds) {
+        this(resolver, contactIds, WINDOW_SIZE);
+    }
+
+    @VisibleForTesting
+    RawContactEntityPrefetcher(ContentResolver resolver, long[] contactIds, int windowSize) {
+        mResolver = resolver;
+        mContactIds = contactIds;
+        mWindowSize = windowSize;
+    }
+
+    /**
+     * Returns the ids of the contacts from the current position of {@code contactIdCursor}, which
+     * is left unchanged.
+     */
+    static long[] readContactIds(Cursor contactIdCursor, int idColumn) {
+        int position = contactIdCursor.getPosition();
+        long[] contactIds =
+                new long[Math.max(contactIdCursor.getCount() - Math.max(position, 0), 0)];
+        int count = 0;
+        if (contactIdCursor.moveToPosition(Math.max(position, 0))) {
+            do {
+                contactIds[count++] = contactIdCursor.getLong(idColumn);
+            } while (count < contactIds.length && contactIdCursor.moveToNext());
+        }
+        contactIdCursor.moveToPosition(position);
+        return contactIds;
+    }
+
+    /**
+     * Returns the entities of the contact {@code contactId} by mimetype, or an empty map if the
+     * contact does not exist anymore.
+     */
+    Map<String, List<ContentValues>> getRawContactEntity(long contactId) {
+        if (Contacts.isEnterpriseContactId(contactId)) {
+            return RawContactsEntity.queryRawContactEntity(mResolver, contactId);
+        }
+        Map<String, List<ContentValues>> entity = mWindow.get(contactId);
+        if (entity == null) {
+            if (!loadWindow(contactId)) {
+                return RawContactsEntity.queryRawContactEntity(mResolver, contactId);
+            }
+            entity = mWindow.get(contactId);
+        }
+        return entity;
+    }
+
+    /** Reads the entities of {@code contactId} and of the contacts following it in the cursor. */
+    private boolean loadWindow(long contactId) {
+        int index = mNextIndex;
+        while (index < mContactIds.length && mContactIds[index] != contactId) {
+            index++;
+        }
+        if (index == mContactIds.length) {
+            return false;
+        }
+        mWindow.clear();
+        StringBuilder selection = new StringBuilder(Data.CONTACT_ID).append(" IN (");
+        int end = index;
+        for (; end < mContactIds.length && mWindow.size() < mWindowSize; end++) {
+            long id = mContactIds[end];
+            if (Contacts.isEnterpriseContactId(id) || mWindow.containsKey(id)) {
+                continue;
+            }
+            if (!mWindow.isEmpty()) {
+                selection.append(',');
+            }
+            selection.append(id);
+            mWindow.put(id, new HashMap<String, List<ContentValues>>());
+        }
+        selection.append(')');
+        mNextIndex = end;
+
+        Cursor cursor = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
+                RawContactsEntity.CONTENT_URI, null, selection.toString(), null, SORT_ORDER);
+        if (cursor == null) {
+            Log.e(TAG, "Failed to query raw contact entities");
+            return true;
+        }
+        if (V) {
+            Log.v(TAG, "Read " + cursor.getCount() + " rows for " + mWindow.size() + " contacts");
+        }
+        EntityIterator entityIterator = RawContacts.newEntityIterator(cursor);
+        try {
+            while (entityIterator.hasNext()) {
+                Entity entity = entityIterator.next();
+                Long id = entity.getEntityValues().getAsLong(RawContacts.CONTACT_ID);
+                Map<String, List<ContentValues>> contentValuesListMap = mWindow.get(id);
+                if (contentValuesListMap == null) {
+                    continue;
+                }
+                for (Entity.NamedContentValues namedContentValues : entity.getSubValues()) {
+                    ContentValues contentValues = namedContentValues.values;
+                    String key = contentValues.getAsString(Data.MIMETYPE);
+                    if (key != null) {
+                        List<ContentValues> contentValuesList = contentValuesListMap.get(key);
+                        if (contentValuesList == null) {
+                            contentValuesList = new ArrayList<>();
+                            contentValuesListMap.put(key, contentValuesList);
+                        }
+                        contentValuesList.add(contentValues);
+                    }
+                }
+            }
+        } finally {
+            entityIterator.close();
+        }
+        return true;
+    }
+}
@@ -18,6 +18,7 @@ package com.android.bluetooth.pbapclient;
 
 import android.util.Log;
 
+import com.android.bluetooth.ObexAppParameters;
 import com.android.obex.ClientOperation;
 import com.android.obex.ClientSession;
 import com.android.obex.HeaderSet;
@@ -40,6 +41,9 @@ abstract class BluetoothPbapRequest {
     protected static final byte OAP_TAGID_FORMAT = 0x07;
     protected static final byte OAP_TAGID_PHONEBOOK_SIZE = 0x08;
     protected static final byte OAP_TAGID_NEW_MISSED_CALLS = 0x09;
+    protected static final byte OAP_TAGID_PRIMARY_VERSION_COUNTER = 0x0A;
+    protected static final byte OAP_TAGID_SECONDARY_VERSION_COUNTER = 0x0B;
+    protected static final byte OAP_TAGID_DATABASE_IDENTIFIER = 0x0D;
     protected static final byte OAP_TAGID_PBAP_SUPPORTED_FEATURES = 0x10;
 
     protected HeaderSet mHeaderSet;
@@ -124,6 +128,18 @@ abstract class BluetoothPbapRequest {
         /* nothing here by dafault */
     }
 
+    /** Returns the 128-bit value of {@code tag} in {@code oap} in hex, or null if missing. */
+    protected static String getHexValue(ObexAppParameters oap, byte tag) {
+        if (!oap.exists(tag)) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : oap.getByteArray(tag)) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
     protected void checkResponseCode(int responseCode) throws IOException {
         if (DBG) Log.v(TAG, "checkResponseCode");
 
@@ -22,6 +22,7 @@ import android.util.Log;
 import com.android.bluetooth.ObexAppParameters;
 import com.android.obex.HeaderSet;
 import com.android.vcard.VCardEntry;
+import com.android.vcard.VCardEntryHandler;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -41,9 +42,21 @@ final class BluetoothPbapRequestPullPhoneBook extends BluetoothPbapRequest {
 
     private final byte mFormat;
 
+    private final VCardEntryHandler mEntryHandler;
+
     BluetoothPbapRequestPullPhoneBook(String pbName, Account account, long filter, byte format,
             int maxListCount, int listStartOffset) {
+        this(pbName, account, filter, format, maxListCount, listStartOffset, null);
+    }
+
+    /**
+     * Pulls the phonebook, handing each vCard entry over to {@code entryHandler} as soon as it is
+     * parsed, if not null, instead of keeping them for {@link #getList}.
+     */
+    BluetoothPbapRequestPullPhoneBook(String pbName, Account account, long filter, byte format,
+            int maxListCount, int listStartOffset, VCardEntryHandler entryHandler) {
         mAccount = account;
+        mEntryHandler = entryHandler;
         if (maxListCount < 0 || maxListCount > 65535) {
             throw new IllegalArgumentException("maxListCount should be [0..65535]");
         }
@@ -93,7 +106,7 @@ final class BluetoothPbapRequestPullPhoneBook extends BluetoothPbapRequest {
     protected void readResponse(InputStream stream) throws IOException {
         if (VDBG) Log.v(TAG, "readResponse");
 
-        mResponse = new BluetoothPbapVcardList(mAccount, stream, mFormat);
+        mResponse = new BluetoothPbapVcardList(mAccount, stream, mFormat, mEntryHandler);
         if (VDBG) {
             Log.d(TAG, "Read " + mResponse.getCount() + " entries.");
         }
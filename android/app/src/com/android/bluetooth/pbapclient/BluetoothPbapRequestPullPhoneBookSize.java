@@ -29,6 +29,10 @@ final class BluetoothPbapRequestPullPhoneBookSize extends BluetoothPbapRequest {
 
     private int mSize;
 
+    private String mPrimaryVersionCounter;
+
+    private String mDatabaseIdentifier;
+
     BluetoothPbapRequestPullPhoneBookSize(String pbName, long filter) {
         mHeaderSet.setHeader(HeaderSet.NAME, pbName);
 
@@ -57,9 +61,21 @@ final class BluetoothPbapRequestPullPhoneBookSize extends BluetoothPbapRequest {
         if (oap.exists(OAP_TAGID_PHONEBOOK_SIZE)) {
             mSize = oap.getShort(OAP_TAGID_PHONEBOOK_SIZE);
         }
+        mPrimaryVersionCounter = getHexValue(oap, OAP_TAGID_PRIMARY_VERSION_COUNTER);
+        mDatabaseIdentifier = getHexValue(oap, OAP_TAGID_DATABASE_IDENTIFIER);
     }
 
     public int getSize() {
         return mSize;
     }
+
+    /** Returns the primary version counter of the phonebook in hex, or null if not sent. */
+    public String getPrimaryVersionCounter() {
+        return mPrimaryVersionCounter;
+    }
+
+    /** Returns the database identifier of the PSE in hex, or null if not sent. */
+    public String getDatabaseIdentifier() {
+        return mDatabaseIdentifier;
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbapclient;
+
+import android.accounts.Account;
+import android.util.Log;
+
+import com.android.bluetooth.ObexAppParameters;
+import com.android.obex.HeaderSet;
+import com.android.vcard.VCardEntryHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Pulls a single vCard of the current folder by handle. */
+final class BluetoothPbapRequestPullVcardEntry extends BluetoothPbapRequest {
+    private static final String TAG = "PbapClient.PullVcardE";
+    private static final boolean VDBG = Log.isLoggable(TAG, Log.VERBOSE);
+
+    private static final String TYPE = "x-bt/vcard";
+
+    private final Account mAccount;
+
+    private final byte mFormat;
+
+    private final VCardEntryHandler mEntryHandler;
+
+    private int mCount;
+
+    BluetoothPbapRequestPullVcardEntry(String handle, Account account, long filter, byte format,
+            VCardEntryHandler entryHandler) {
+        mAccount = account;
+        mEntryHandler = entryHandler;
+
+        mHeaderSet.setHeader(HeaderSet.NAME, handle);
+
+        mHeaderSet.setHeader(HeaderSet.TYPE, TYPE);
+
+        ObexAppParameters oap = new ObexAppParameters();
+
+        if (format != PbapClientConnectionHandler.VCARD_TYPE_21
+                && format != PbapClientConnectionHandler.VCARD_TYPE_30) {
+            format = PbapClientConnectionHandler.VCARD_TYPE_21;
+        }
+
+        if (filter != 0) {
+            oap.add(OAP_TAGID_FILTER, filter);
+        }
+
+        oap.add(OAP_TAGID_FORMAT, format);
+
+        oap.addToHeaderSet(mHeaderSet);
+
+        mFormat = format;
+    }
+
+    @Override
+    protected void readResponse(InputStream stream) throws IOException {
+        if (VDBG) Log.v(TAG, "readResponse");
+
+        mCount = new BluetoothPbapVcardList(mAccount, stream, mFormat, mEntryHandler).getCount();
+    }
+
+    /** Returns the number of entries handed over, 1 unless the vCard could not be parsed. */
+    public int getCount() {
+        return mCount;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbapclient;
+
+import android.util.Log;
+
+import com.android.bluetooth.ObexAppParameters;
+import com.android.obex.HeaderSet;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/** Pulls the vCard listing of the current folder, i.e. the handle and name of each vCard. */
+final class BluetoothPbapRequestPullVcardListing extends BluetoothPbapRequest {
+    private static final String TAG = "PbapClient.PullVcardL";
+    private static final boolean VDBG = Log.isLoggable(TAG, Log.VERBOSE);
+
+    private static final String TYPE = "x-bt/vcard-listing";
+
+    /** A vCard of the listing. */
+    static final class Card {
+        final String handle;
+        final String name;
+
+        Card(String handle, String name) {
+            this.handle = handle;
+            this.name = name != null ? name : "";
+        }
+    }
+
+    private final ArrayList<Card> mCards = new ArrayList<>();
+
+    private String mPrimaryVersionCounter;
+
+    private String mDatabaseIdentifier;
+
+    BluetoothPbapRequestPullVcardListing() {
+        mHeaderSet.setEmptyNameHeader();
+
+        mHeaderSet.setHeader(HeaderSet.TYPE, TYPE);
+
+        ObexAppParameters oap = new ObexAppParameters();
+        oap.add(OAP_TAGID_MAX_LIST_COUNT, (short) 65535);
+        oap.addToHeaderSet(mHeaderSet);
+    }
+
+    @Override
+    protected void readResponse(InputStream stream) throws IOException {
+        if (VDBG) Log.v(TAG, "readResponse");
+
+        try {
+            XmlPullParser xpp = XmlPullParserFactory.newInstance().newPullParser();
+            xpp.setInput(stream, "utf-8");
+
+            int event = xpp.getEventType();
+            while (event != XmlPullParser.END_DOCUMENT) {
+                if (event == XmlPullParser.START_TAG && xpp.getName().equals("card")) {
+                    String handle = xpp.getAttributeValue(null, "handle");
+                    if (handle != null) {
+                        mCards.add(new Card(handle, xpp.getAttributeValue(null, "name")));
+                    }
+                }
+                event = xpp.next();
+            }
+        } catch (XmlPullParserException e) {
+            throw new IOException("Invalid vCard listing", e);
+        }
+        if (VDBG) {
+            Log.d(TAG, "Read " + mCards.size() + " cards.");
+        }
+    }
+
+    @Override
+    protected void readResponseHeaders(HeaderSet headerset) {
+        if (VDBG) Log.v(TAG, "readResponseHeaders");
+
+        ObexAppParameters oap = ObexAppParameters.fromHeaderSet(headerset);
+
+        mPrimaryVersionCounter = getHexValue(oap, OAP_TAGID_PRIMARY_VERSION_COUNTER);
+        mDatabaseIdentifier = getHexValue(oap, OAP_TAGID_DATABASE_IDENTIFIER);
+    }
+
+    /** Returns the vCards of the folder, in handle order. */
+    public ArrayList<Card> getList() {
+        return mCards;
+    }
+
+    /** Returns the primary version counter of the folder in hex, or null if not sent. */
+    public String getPrimaryVersionCounter() {
+        return mPrimaryVersionCounter;
+    }
+
+    /** Returns the database identifier of the PSE in hex, or null if not sent. */
+    public String getDatabaseIdentifier() {
+        return mDatabaseIdentifier;
+    }
+}
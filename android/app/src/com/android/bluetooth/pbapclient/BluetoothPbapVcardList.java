@@ -41,6 +41,11 @@ class BluetoothPbapVcardList {
 
     private final ArrayList<VCardEntry> mCards = new ArrayList<VCardEntry>();
     private final Account mAccount;
+    // Receives the entries as they are parsed instead of mCards, if set.
+    private final VCardEntryHandler mEntryHandler;
+    private int mCount;
+    // Entries parsed by the current parser, the first mCount ones were already handed over.
+    private int mParsedCount;
 
     class CardEntryHandler implements VCardEntryHandler {
         @Override
@@ -49,7 +54,15 @@ class BluetoothPbapVcardList {
 
         @Override
         public void onEntryCreated(VCardEntry entry) {
-            mCards.add(entry);
+            if (++mParsedCount <= mCount) {
+                return;
+            }
+            mCount++;
+            if (mEntryHandler != null) {
+                mEntryHandler.onEntryCreated(entry);
+            } else {
+                mCards.add(entry);
+            }
         }
 
         @Override
@@ -58,11 +71,21 @@ class BluetoothPbapVcardList {
     }
 
     BluetoothPbapVcardList(Account account, InputStream in, byte format) throws IOException {
+        this(account, in, format, null);
+    }
+
+    /**
+     * Parses the vCards of {@code in}, handing each entry over to {@code entryHandler} as soon as
+     * it is parsed rather than keeping them in the list, if {@code entryHandler} is not null.
+     */
+    BluetoothPbapVcardList(Account account, InputStream in, byte format,
+            VCardEntryHandler entryHandler) throws IOException {
         if (format != PbapClientConnectionHandler.VCARD_TYPE_21
                 && format != PbapClientConnectionHandler.VCARD_TYPE_30) {
             throw new IllegalArgumentException("Unsupported vCard version.");
         }
         mAccount = account;
+        mEntryHandler = entryHandler;
         parse(in, format);
     }
 
@@ -102,7 +125,12 @@ class BluetoothPbapVcardList {
             }
             // reset and try again
             bufferedInput.reset();
-            mCards.clear();
+            // The entries already handed over are skipped when parsed again.
+            if (mEntryHandler == null) {
+                mCards.clear();
+                mCount = 0;
+            }
+            mParsedCount = 0;
             constructor.clear();
             parser.addInterpreter(constructor);
             if (parsedWithVcardVersionException(parser, bufferedInput)) {
@@ -134,7 +162,7 @@ class BluetoothPbapVcardList {
     }
 
     public int getCount() {
-        return mCards.size();
+        return mCount;
     }
 
     public ArrayList<VCardEntry> getList() {
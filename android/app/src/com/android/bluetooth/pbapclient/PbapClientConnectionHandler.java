@@ -22,9 +22,11 @@ import android.bluetooth.BluetoothSocket;
 import android.bluetooth.BluetoothUuid;
 import android.bluetooth.SdpPseRecord;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.RemoteException;
 import android.provider.CallLog;
 import android.provider.CallLog.Calls;
 import android.util.Log;
@@ -36,11 +38,16 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.obex.ClientSession;
 import com.android.obex.HeaderSet;
 import com.android.obex.ResponseCodes;
-import com.android.vcard.VCardEntry;
 
 import java.io.IOException;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /* Bluetooth/pbapclient/PbapClientConnectionHandler is responsible
  * for connecting, disconnecting and downloading contacts from the
@@ -86,8 +93,12 @@ class PbapClientConnectionHandler extends Handler {
     };
 
     private static final int PBAP_FEATURE_DEFAULT_IMAGE_FORMAT = 0x00000200;
+    private static final int PBAP_FEATURE_FOLDER_VERSION_COUNTERS = 0x00000008;
+    private static final int PBAP_FEATURE_DATABASE_IDENTIFIER = 0x00000004;
     private static final int PBAP_FEATURE_BROWSING = 0x00000002;
     private static final int PBAP_FEATURE_DOWNLOADING = 0x00000001;
+    private static final int PBAP_FEATURES_INCREMENTAL_SYNC =
+            PBAP_FEATURE_FOLDER_VERSION_COUNTERS | PBAP_FEATURE_DATABASE_IDENTIFIER;
 
     private static final long PBAP_FILTER_VERSION = 1 << 0;
     private static final long PBAP_FILTER_FN = 1 << 1;
@@ -126,6 +137,16 @@ class PbapClientConnectionHandler extends Handler {
     public static final byte VCARD_TYPE_21 = 0;
     public static final byte VCARD_TYPE_30 = 1;
 
+    private static final String OWNER_CARD_HANDLE = "0.vcf";
+    private static final String VCARD_FILE_SUFFIX = ".vcf";
+
+    // Account user data of the last incremental sync of a path, keyed by these prefixes and the
+    // path.
+    @VisibleForTesting
+    static final String KEY_DATABASE_IDENTIFIER = "pbap_database_identifier:";
+    @VisibleForTesting
+    static final String KEY_PRIMARY_VERSION_COUNTER = "pbap_primary_version_counter:";
+
     private Account mAccount;
     private AccountManager mAccountManager;
     private BluetoothSocket mSocket;
@@ -137,6 +158,7 @@ class PbapClientConnectionHandler extends Handler {
     private BluetoothPbapObexAuthenticator mAuth = null;
     private final PbapClientStateMachine mPbapClientStateMachine;
     private boolean mAccountCreated;
+    private final boolean mIncrementalSyncEnabled;
 
     /**
      * Constructs PCEConnectionHandler object
@@ -152,6 +174,8 @@ class PbapClientConnectionHandler extends Handler {
         mAccountManager = AccountManager.get(mPbapClientStateMachine.getContext());
         mAccount =
                 new Account(mDevice.getAddress(), mContext.getString(R.string.pbap_account_type));
+        mIncrementalSyncEnabled =
+                mContext.getResources().getBoolean(R.bool.pbap_client_incremental_sync);
     }
 
     public static class Builder {
@@ -240,26 +264,29 @@ class PbapClientConnectionHandler extends Handler {
                 if (DBG) {
                     Log.d(TAG, "Completing Disconnect");
                 }
-                removeAccount();
+                // Contacts synced incrementally are kept for the next connection.
+                if (!isIncrementalSyncSupported()) {
+                    removeAccount();
+                }
                 removeCallLog();
 
                 mPbapClientStateMachine.sendMessage(PbapClientStateMachine.MSG_CONNECTION_CLOSED);
                 break;
 
             case MSG_DOWNLOAD:
-                mAccountCreated = addAccount();
+                mAccountCreated = addAccount() || (isIncrementalSyncSupported() && hasAccount());
                 if (!mAccountCreated) {
                     Log.e(TAG, "Account creation failed.");
                     return;
                 }
                 if (isRepositorySupported(SUPPORTED_REPOSITORIES_FAVORITES)) {
-                    downloadContacts(FAV_PATH);
+                    downloadOrSyncContacts(FAV_PATH);
                 }
                 if (isRepositorySupported(SUPPORTED_REPOSITORIES_LOCALPHONEBOOK)) {
-                    downloadContacts(PB_PATH);
+                    downloadOrSyncContacts(PB_PATH);
                 }
                 if (isRepositorySupported(SUPPORTED_REPOSITORIES_SIMCARD)) {
-                    downloadContacts(SIM_PB_PATH);
+                    downloadOrSyncContacts(SIM_PB_PATH);
                 }
 
                 HashMap<String, Integer> callCounter = new HashMap<>();
@@ -341,7 +368,9 @@ class PbapClientConnectionHandler extends Handler {
 
                 if (mPseRec.getProfileVersion() >= PBAP_V1_2) {
                     oap.add(BluetoothPbapRequest.OAP_TAGID_PBAP_SUPPORTED_FEATURES,
-                            PBAP_SUPPORTED_FEATURE);
+                            mIncrementalSyncEnabled
+                                    ? PBAP_SUPPORTED_FEATURE | PBAP_FEATURES_INCREMENTAL_SYNC
+                                    : PBAP_SUPPORTED_FEATURE);
                 }
 
                 oap.addToHeaderSet(connectionRequest);
@@ -385,12 +414,20 @@ class PbapClientConnectionHandler extends Handler {
         }
     }
 
+    private void downloadOrSyncContacts(String path) {
+        if (isIncrementalSyncSupported()) {
+            syncContacts(path);
+        } else {
+            downloadContacts(path);
+        }
+    }
+
     @VisibleForTesting
     void downloadContacts(String path) {
         try {
             PhonebookPullRequest processor =
                     new PhonebookPullRequest(mPbapClientStateMachine.getContext(),
-                            mAccount);
+                            mAccount, path);
 
             // Download contacts in batches of size DEFAULT_BATCH_SIZE
             BluetoothPbapRequestPullPhoneBookSize requestPbSize =
@@ -398,47 +435,296 @@ class PbapClientConnectionHandler extends Handler {
                             PBAP_REQUESTED_FIELDS);
             requestPbSize.execute(mObexSession);
 
-            int numberOfContactsRemaining = requestPbSize.getSize();
-            int startOffset = 0;
-            if (PB_PATH.equals(path)) {
-                // PBAP v1.2.3, Sec 3.1.5. The first contact in pb is owner card 0.vcf, which we
-                // do not want to download. The other phonebook objects (e.g., fav) don't have an
-                // owner card, so they don't need an offset.
-                startOffset = 1;
-                // "-1" because Owner Card 0.vcf is also included in /pb, but not in /fav.
-                numberOfContactsRemaining -= 1;
+            pullPhonebook(path, requestPbSize.getSize(), null, processor);
+        } catch (IOException e) {
+            Log.e(TAG, "Download contacts failure", e);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Download contacts failure: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Brings the contacts of {@code path} up to date with the PSE, using the folder version
+     * counter and database identifier of the last sync.
+     *
+     * <p>Nothing is pulled if they did not change. If only the version counter changed, the vCard
+     * listing is compared with the handle and name each contact was synced for, and the new and
+     * renamed vCards are pulled one by one. The PSE counts one change per new, changed or removed
+     * vCard: if the version counter counts more changes than the listing shows, e.g. a new phone
+     * number of a contact, or if the database changed, every vCard is pulled again in batches,
+     * each contact tagged with the listing entry at the same offset.
+     *
+     * <p>The counters are only recorded once every vCard to pull was pulled, or was removed from
+     * the PSE meanwhile.
+     */
+    @VisibleForTesting
+    void syncContacts(String path) {
+        String databaseKey = KEY_DATABASE_IDENTIFIER + path;
+        String versionKey = KEY_PRIMARY_VERSION_COUNTER + path;
+        try {
+            PhonebookPullRequest processor =
+                    new PhonebookPullRequest(mPbapClientStateMachine.getContext(),
+                            mAccount, path);
+
+            BluetoothPbapRequestPullPhoneBookSize requestPbSize =
+                    new BluetoothPbapRequestPullPhoneBookSize(path,
+                            PBAP_REQUESTED_FIELDS);
+            requestPbSize.execute(mObexSession);
+
+            String syncedDatabase = mAccountManager.getUserData(mAccount, databaseKey);
+            String syncedVersion = mAccountManager.getUserData(mAccount, versionKey);
+            if (requestPbSize.getDatabaseIdentifier() != null
+                    && requestPbSize.getDatabaseIdentifier().equals(syncedDatabase)
+                    && requestPbSize.getPrimaryVersionCounter() != null
+                    && requestPbSize.getPrimaryVersionCounter().equals(syncedVersion)) {
+                Log.i(TAG, "Contacts of " + path + " are up to date");
+                return;
+            }
+            // Forget the last sync until the contacts match the PSE again, so that an interrupted
+            // sync is followed by a full one.
+            mAccountManager.setUserData(mAccount, databaseKey, null);
+            mAccountManager.setUserData(mAccount, versionKey, null);
+
+            BluetoothPbapRequestPullVcardListing requestListing = pullListing(path);
+            ArrayList<BluetoothPbapRequestPullVcardListing.Card> cards = requestListing.getList();
+            // The listing carries the counters of the handles it lists, if the PSE sends them.
+            String databaseIdentifier = requestListing.getDatabaseIdentifier() != null
+                    ? requestListing.getDatabaseIdentifier()
+                    : requestPbSize.getDatabaseIdentifier();
+            String versionCounter = requestListing.getPrimaryVersionCounter() != null
+                    ? requestListing.getPrimaryVersionCounter()
+                    : requestPbSize.getPrimaryVersionCounter();
+
+            ArrayList<BluetoothPbapRequestPullVcardListing.Card> changedCards = null;
+            Set<String> staleHandles = null;
+            if (syncedDatabase != null && syncedDatabase.equals(databaseIdentifier)) {
+                Map<String, String> syncedCards = processor.getSyncedCards();
+                staleHandles = new HashSet<>(syncedCards.keySet());
+                changedCards = new ArrayList<>();
+                for (BluetoothPbapRequestPullVcardListing.Card card : cards) {
+                    if (card.name.equals(syncedCards.get(card.handle))) {
+                        staleHandles.remove(card.handle);
+                    } else {
+                        changedCards.add(card);
+                    }
+                }
+                // Some of the changes are not shown by the listing: which contacts they changed
+                // is unknown.
+                if (!isChangeCount(syncedVersion, versionCounter,
+                        changedCards.size() + staleHandles.size())) {
+                    changedCards = null;
+                }
+            }
+
+            boolean synced;
+            if (changedCards == null) {
+                Log.i(TAG, "Pulling all contacts of " + path);
+                processor.deleteContacts(null);
+                boolean tagged = pullPhonebook(path,
+                        PB_PATH.equals(path) ? cards.size() + 1 : cards.size(), cards, processor);
+                // The offsets of the contacts only match those of the listing if it did not change
+                // meanwhile.
+                synced = tagged && isSameListing(cards, pullListing(path).getList());
+            } else {
+                Log.i(TAG, "Pulling " + changedCards.size() + " contacts of " + path
+                        + ", deleting " + staleHandles.size());
+                processor.deleteContacts(staleHandles);
+                Set<String> pulledHandles = pullVcards(path, changedCards, processor);
+                synced = true;
+                if (pulledHandles.size() < changedCards.size()) {
+                    Set<String> listedHandles = new HashSet<>();
+                    for (BluetoothPbapRequestPullVcardListing.Card card :
+                            pullListing(path).getList()) {
+                        listedHandles.add(card.handle);
+                    }
+                    for (BluetoothPbapRequestPullVcardListing.Card card : changedCards) {
+                        if (!pulledHandles.contains(card.handle)
+                                && listedHandles.contains(card.handle)) {
+                            Log.w(TAG, "Failed to pull " + card.handle + " of " + path);
+                            synced = false;
+                        }
+                    }
+                }
+            }
+
+            if (synced && !processor.hasFailed()) {
+                mAccountManager.setUserData(mAccount, databaseKey, databaseIdentifier);
+                mAccountManager.setUserData(mAccount, versionKey, versionCounter);
             }
+        } catch (IOException | OperationApplicationException | RemoteException e) {
+            Log.e(TAG, "Sync contacts failure", e);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Sync contacts failure: " + e.getMessage(), e);
+        }
+    }
 
+    /**
+     * Returns whether the hex version counter {@code versionCounter} is {@code changes} past
+     * {@code syncedVersion}.
+     */
+    private static boolean isChangeCount(String syncedVersion, String versionCounter,
+            int changes) {
+        if (syncedVersion == null || versionCounter == null) {
+            return false;
+        }
+        try {
+            return new BigInteger(versionCounter, 16).subtract(new BigInteger(syncedVersion, 16))
+                    .equals(BigInteger.valueOf(changes));
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid version counter " + syncedVersion + " or " + versionCounter);
+            return false;
+        }
+    }
+
+    /** Returns whether both listings list the same vCards in the same order. */
+    private static boolean isSameListing(List<BluetoothPbapRequestPullVcardListing.Card> cards,
+            List<BluetoothPbapRequestPullVcardListing.Card> otherCards) {
+        if (cards.size() != otherCards.size()) {
+            return false;
+        }
+        for (int i = 0; i < cards.size(); i++) {
+            if (!cards.get(i).handle.equals(otherCards.get(i).handle)
+                    || !cards.get(i).name.equals(otherCards.get(i).name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Pulls the vCard listing of the folder of {@code path}, without the owner card. */
+    private BluetoothPbapRequestPullVcardListing pullListing(String path) throws IOException {
+        setPath(path.substring(0, path.length() - VCARD_FILE_SUFFIX.length()));
+        BluetoothPbapRequestPullVcardListing request = new BluetoothPbapRequestPullVcardListing();
+        request.execute(mObexSession);
+        setPath(null);
+        if (PB_PATH.equals(path)) {
+            request.getList().removeIf(card -> OWNER_CARD_HANDLE.equals(card.handle));
+        }
+        return request;
+    }
+
+    /**
+     * Pulls the {@code phonebookSize} vCards of {@code path} in batches into {@code processor}.
+     *
+     * <p>If {@code cards} is not null, it is the listing of {@code path} without the owner card,
+     * and the contact of each vCard is tagged with the listing entry at the same offset.
+     *
+     * @return whether each batch handed over as many entries as vCards requested
+     */
+    private boolean pullPhonebook(String path, int phonebookSize,
+            List<BluetoothPbapRequestPullVcardListing.Card> cards,
+            PhonebookPullRequest processor) throws IOException {
+        int numberOfContactsRemaining = phonebookSize;
+        int startOffset = 0;
+        if (PB_PATH.equals(path)) {
+            // PBAP v1.2.3, Sec 3.1.5. The first contact in pb is owner card 0.vcf, which we
+            // do not want to download. The other phonebook objects (e.g., fav) don't have an
+            // owner card, so they don't need an offset.
+            startOffset = 1;
+            // "-1" because Owner Card 0.vcf is also included in /pb, but not in /fav.
+            numberOfContactsRemaining -= 1;
+        }
+        int firstOffset = startOffset;
+        boolean complete = true;
+
+        // The parsed vCards are inserted by the processor thread, while the next batch is
+        // requested.
+        processor.start();
+        try {
             while ((numberOfContactsRemaining > 0) && (startOffset <= UPPER_LIMIT)) {
                 int numberOfContactsToDownload =
                         Math.min(Math.min(DEFAULT_BATCH_SIZE, numberOfContactsRemaining),
                         UPPER_LIMIT - startOffset + 1);
+                if (cards != null) {
+                    int index = startOffset - firstOffset;
+                    processor.setCards(
+                            cards.subList(index, index + numberOfContactsToDownload));
+                }
+                int entryCount = processor.getEntryCount();
                 BluetoothPbapRequestPullPhoneBook request =
                         new BluetoothPbapRequestPullPhoneBook(path, mAccount,
                                 PBAP_REQUESTED_FIELDS, VCARD_TYPE_30,
-                                numberOfContactsToDownload, startOffset);
+                                numberOfContactsToDownload, startOffset, processor);
                 request.execute(mObexSession);
-                ArrayList<VCardEntry> vcards = request.getList();
-                if (path == FAV_PATH) {
-                    // mark each vcard as a favorite
-                    for (VCardEntry v : vcards) {
-                        v.setStarred(true);
-                    }
+                if (processor.getEntryCount() - entryCount != numberOfContactsToDownload) {
+                    complete = false;
                 }
-                processor.setResults(vcards);
-                processor.onPullComplete();
 
                 startOffset += numberOfContactsToDownload;
                 numberOfContactsRemaining -= numberOfContactsToDownload;
             }
-            if ((startOffset > UPPER_LIMIT) && (numberOfContactsRemaining > 0)) {
-                Log.w(TAG, "Download contacts incomplete, index exceeded upper limit.");
+        } finally {
+            processor.finish();
+        }
+        if ((startOffset > UPPER_LIMIT) && (numberOfContactsRemaining > 0)) {
+            Log.w(TAG, "Download contacts incomplete, index exceeded upper limit.");
+            complete = false;
+        }
+        return complete;
+    }
+
+    /**
+     * Pulls the vCards {@code cards} of the folder of {@code path} one by one into
+     * {@code processor}, tagging the contact of each with its card.
+     *
+     * @return the handles of the vCards that were pulled
+     */
+    private Set<String> pullVcards(String path,
+            List<BluetoothPbapRequestPullVcardListing.Card> cards,
+            PhonebookPullRequest processor) throws IOException {
+        Set<String> pulledHandles = new HashSet<>();
+        setPath(path.substring(0, path.length() - VCARD_FILE_SUFFIX.length()));
+        processor.start();
+        try {
+            for (BluetoothPbapRequestPullVcardListing.Card card : cards) {
+                processor.setCards(Collections.singletonList(card));
+                int entryCount = processor.getEntryCount();
+                BluetoothPbapRequestPullVcardEntry request =
+                        new BluetoothPbapRequestPullVcardEntry(card.handle, mAccount,
+                                PBAP_REQUESTED_FIELDS, VCARD_TYPE_30, processor);
+                request.execute(mObexSession);
+                // A vCard removed meanwhile is not found.
+                if (request.isSuccess() && processor.getEntryCount() > entryCount) {
+                    pulledHandles.add(card.handle);
+                }
+            }
+        } finally {
+            processor.finish();
+        }
+        setPath(null);
+        return pulledHandles;
+    }
+
+    /** Sets the current folder of the session to {@code folder}, or to the root if null. */
+    private void setPath(String folder) throws IOException {
+        HeaderSet request = new HeaderSet();
+        request.setEmptyNameHeader();
+        HeaderSet response = mObexSession.setPath(request, false, false);
+        if (folder != null) {
+            for (String name : folder.split("/")) {
+                if (response.getResponseCode() != ResponseCodes.OBEX_HTTP_OK) {
+                    break;
+                }
+                request = new HeaderSet();
+                request.setHeader(HeaderSet.NAME, name);
+                response = mObexSession.setPath(request, false, false);
             }
-        } catch (IOException e) {
-            Log.e(TAG, "Download contacts failure", e);
-        } catch (IllegalArgumentException e) {
-            Log.e(TAG, "Download contacts failure: " + e.getMessage(), e);
         }
+        if (response.getResponseCode() != ResponseCodes.OBEX_HTTP_OK) {
+            throw new IOException("Failed to set path to " + folder);
+        }
+    }
+
+    /**
+     * Returns whether the contacts are synced incrementally, which requires the PSE to send
+     * folder version counters and database identifiers.
+     */
+    @VisibleForTesting
+    boolean isIncrementalSyncSupported() {
+        return mIncrementalSyncEnabled && mPseRec != null
+                && mPseRec.getProfileVersion() >= PBAP_V1_2
+                && (mPseRec.getSupportedFeatures() & PBAP_FEATURES_INCREMENTAL_SYNC)
+                        == PBAP_FEATURES_INCREMENTAL_SYNC;
     }
 
     @VisibleForTesting
@@ -470,6 +756,15 @@ class PbapClientConnectionHandler extends Handler {
         return false;
     }
 
+    private boolean hasAccount() {
+        for (Account account : mAccountManager.getAccountsByType(mAccount.type)) {
+            if (mAccount.equals(account)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @VisibleForTesting
     void removeAccount() {
         if (mAccountManager.removeAccountExplicitly(mAccount)) {
@@ -49,9 +49,11 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.SynchronousResultReceiver;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -246,7 +248,19 @@ public class PbapClientService extends ProfileService {
         Account[] accounts =
                 accountManager.getAccountsByType(getString(R.string.pbap_account_type));
         if (VDBG) Log.v(TAG, "Found " + accounts.length + " unclean accounts");
+        // The contacts of bonded devices may be synced incrementally on the next connection.
+        Set<String> bondedAddresses = new HashSet<>();
+        AdapterService adapterService = AdapterService.getAdapterService();
+        if (getResources().getBoolean(R.bool.pbap_client_incremental_sync)
+                && adapterService != null) {
+            for (BluetoothDevice device : adapterService.getBondedDevices()) {
+                bondedAddresses.add(device.getAddress());
+            }
+        }
         for (Account acc : accounts) {
+            if (bondedAddresses.contains(acc.name)) {
+                continue;
+            }
             Log.w(TAG, "Deleting " + acc);
             try {
                 getContentResolver().delete(CallLog.Calls.CONTENT_URI,
@@ -343,6 +357,35 @@ public class PbapClientService extends ProfileService {
         }
     }
 
+    /**
+     * Removes the contacts and call logs of {@code device} once it is unbonded. They are kept after
+     * disconnection for the incremental sync of the next connection.
+     */
+    public void handleBondStateChanged(BluetoothDevice device, int fromState, int toState) {
+        if (toState != BluetoothDevice.BOND_NONE) {
+            return;
+        }
+        mHandler.post(() -> removeDeviceAccount(device));
+    }
+
+    private void removeDeviceAccount(BluetoothDevice device) {
+        if (DBG) Log.d(TAG, "Device unbonded, removing its account: " + device);
+        try {
+            BluetoothMethodProxy.getInstance().contentResolverDelete(getContentResolver(),
+                    CallLog.Calls.CONTENT_URI, CallLog.Calls.PHONE_ACCOUNT_ID + "=?",
+                    new String[]{device.getAddress()});
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Call Logs could not be deleted, they may not exist yet.");
+        }
+        if (!isAuthenticationServiceReady()) {
+            Log.w(TAG, "Can't remove account. AccountManager hasn't registered our service yet.");
+            return;
+        }
+        // The device ID is the name of the account.
+        AccountManager.get(this).removeAccountExplicitly(
+                new Account(device.getAddress(), getString(R.string.pbap_account_type)));
+    }
+
     /**
      * Ensure that after HFP disconnects, we remove call logs. This addresses the situation when
      * PBAP was never connected while calls were made. Ideally {@link PbapClientConnectionHandler}
@@ -20,30 +20,78 @@ import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.RemoteException;
 import android.provider.ContactsContract;
+import android.provider.ContactsContract.RawContacts;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.vcard.VCardEntry;
+import com.android.vcard.VCardEntryHandler;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
-public class PhonebookPullRequest extends PullRequest {
+/**
+ * Inserts the pulled contacts into the contacts provider.
+ *
+ * <p>The contacts are either inserted at once from {@link #setResults} by {@link #onPullComplete},
+ * or as they are pulled: {@link #start} starts an inserter thread, to which the parser hands each
+ * entry over through {@link #onEntryCreated}, and {@link #finish} waits for the last entries to be
+ * inserted. At most {@link #MAX_PENDING_ENTRIES} entries wait to be inserted, so the next vCards
+ * are pulled and parsed while the previous ones are written, without keeping the whole phonebook
+ * in memory.
+ *
+ * <p>For incremental syncs, the raw contact of each entry pulled after {@link #setCards} is tagged
+ * with the path in {@link RawContacts#SYNC1}, and with the handle and name of the vCard listing
+ * entry it was pulled for in {@link RawContacts#SYNC2} and {@link RawContacts#SYNC3}, so that it
+ * can be found again once the PSE changed or removed that vCard.
+ */
+public class PhonebookPullRequest extends PullRequest implements VCardEntryHandler {
     private static final String TAG = "PhonebookPullRequest";
     private static final boolean VDBG = Log.isLoggable(TAG, Log.VERBOSE);
 
     @VisibleForTesting
     static final int MAX_OPS = 250;
 
+    @VisibleForTesting
+    static final int MAX_PENDING_ENTRIES = 100;
+
+    // Queued by finish() after the last entry.
+    private static final PendingEntry END_OF_ENTRIES = new PendingEntry(null, false, null);
+
     private final Account mAccount;
     private final Context mContext;
-    public boolean complete = false;
+    private final boolean mStarred;
+    private final BlockingQueue<PendingEntry> mPendingEntries =
+            new ArrayBlockingQueue<>(MAX_PENDING_ENTRIES);
+    private Thread mInserter;
+    // Listing entries of the vCards being pulled, in order, if the contacts are tagged.
+    private List<BluetoothPbapRequestPullVcardListing.Card> mCards;
+    private int mCardIndex;
+    private int mEntryCount;
+    private volatile boolean mFailed;
+    // Insert batches that failed to be applied, only updated by the inserting thread.
+    private int mFailedBatches;
+    public volatile boolean complete = false;
 
     public PhonebookPullRequest(Context context, Account account) {
+        this(context, account, PbapClientConnectionHandler.PB_PATH);
+    }
+
+    /** Inserts the contacts pulled from {@code path}, starred if it is the favorites. */
+    PhonebookPullRequest(Context context, Account account, String path) {
         mContext = context;
         mAccount = account;
-        path = PbapClientConnectionHandler.PB_PATH;
+        this.path = path;
+        mStarred = PbapClientConnectionHandler.FAV_PATH.equals(path);
     }
 
 
@@ -57,44 +105,294 @@ public class PhonebookPullRequest extends PullRequest {
             Log.d(TAG, "onPullComplete with " + mEntries.size() + " count.");
         }
 
+        boolean failed = false;
         try {
             ContentResolver contactsProvider = mContext.getContentResolver();
             ArrayList<ContentProviderOperation> insertOperations = new ArrayList<>();
-            ArrayList<ContentProviderOperation> currentContactOperations;
             // Group insert operations together to minimize inter process communication and improve
             // processing time.
             for (VCardEntry e : mEntries) {
                 if (Thread.currentThread().isInterrupted()) {
                     Log.e(TAG, "Interrupted durring insert.");
+                    failed = true;
                     break;
                 }
-                int numberOfOperations = insertOperations.size();
-                // Append current vcard to list of insert operations.
-                e.constructInsertOperations(contactsProvider, insertOperations);
-                if (insertOperations.size() >= MAX_OPS) {
-                    // If we have exceded the limit to the insert operation remove the latest vcard
-                    // and submit.
-                    insertOperations.subList(numberOfOperations, insertOperations.size()).clear();
-                    contactsProvider.applyBatch(ContactsContract.AUTHORITY, insertOperations);
-                    insertOperations = e.constructInsertOperations(contactsProvider, null);
-                    if (insertOperations.size() >= MAX_OPS) {
-                        // Current VCard has more than 500 attributes, drop the card.
-                        insertOperations.clear();
-                    }
+                try {
+                    insertOperations = addInsertOperations(contactsProvider, insertOperations, e);
+                } catch (NumberFormatException ex) {
+                    Log.e(TAG, "Got exception: ", ex);
+                    failed = true;
                 }
             }
-            if (insertOperations.size() > 0) {
-                // Apply any unsubmitted vcards.
-                contactsProvider.applyBatch(ContactsContract.AUTHORITY, insertOperations);
-                insertOperations.clear();
-            }
+            // Apply any unsubmitted vcards.
+            applyInsertOperations(contactsProvider, insertOperations);
             if (VDBG) {
                 Log.d(TAG, "Sync complete: add=" + mEntries.size());
             }
-        } catch (OperationApplicationException | RemoteException | NumberFormatException e) {
-            Log.e(TAG, "Got exception: ", e);
         } finally {
-            complete = true;
+            reportCompletion(failed);
+        }
+    }
+
+    /**
+     * Tags the raw contacts of the entries handed over next with the path and, in order, with
+     * {@code cards}, the listing entries of the vCards they are pulled from. Entries handed over
+     * beyond {@code cards} are only tagged with the path, so that the next full sync deletes them.
+     * Entries are not tagged if null.
+     */
+    void setCards(List<BluetoothPbapRequestPullVcardListing.Card> cards) {
+        mCards = cards;
+        mCardIndex = 0;
+    }
+
+    /** Returns the number of entries handed over through {@link #onEntryCreated}. */
+    int getEntryCount() {
+        return mEntryCount;
+    }
+
+    /** Returns whether some of the entries handed over could not be inserted. */
+    boolean hasFailed() {
+        return mFailed;
+    }
+
+    /** Returns the name of the vCard each tagged raw contact of the path was inserted for. */
+    Map<String, String> getSyncedCards() {
+        Map<String, String> cards = new HashMap<>();
+        try (Cursor cursor = mContext.getContentResolver().query(RawContacts.CONTENT_URI,
+                new String[] {RawContacts.SYNC2, RawContacts.SYNC3}, getPathSelection(),
+                getPathSelectionArgs(), null)) {
+            if (cursor == null) {
+                return cards;
+            }
+            while (cursor.moveToNext()) {
+                if (cursor.getString(0) != null) {
+                    cards.put(cursor.getString(0), cursor.getString(1));
+                }
+            }
+        }
+        return cards;
+    }
+
+    /** Deletes the raw contacts of the path, only those of {@code handles} if not null. */
+    void deleteContacts(Collection<String> handles)
+            throws OperationApplicationException, RemoteException {
+        ContentResolver contactsProvider = mContext.getContentResolver();
+        Uri uri = RawContacts.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ContactsContract.CALLER_IS_SYNCADAPTER, "true")
+                .build();
+        if (handles == null) {
+            contactsProvider.delete(uri, getPathSelection(), getPathSelectionArgs());
+            return;
+        }
+        ArrayList<ContentProviderOperation> deleteOperations = new ArrayList<>();
+        for (String handle : handles) {
+            deleteOperations.add(ContentProviderOperation.newDelete(uri)
+                    .withSelection(getPathSelection() + " AND " + RawContacts.SYNC2 + "=?",
+                            new String[] {mAccount.name, mAccount.type, path, handle})
+                    .build());
+            if (deleteOperations.size() >= MAX_OPS) {
+                contactsProvider.applyBatch(ContactsContract.AUTHORITY, deleteOperations);
+                deleteOperations.clear();
+            }
+        }
+        if (deleteOperations.size() > 0) {
+            contactsProvider.applyBatch(ContactsContract.AUTHORITY, deleteOperations);
+        }
+    }
+
+    private static String getPathSelection() {
+        return RawContacts.ACCOUNT_NAME + "=? AND " + RawContacts.ACCOUNT_TYPE + "=? AND "
+                + RawContacts.SYNC1 + "=?";
+    }
+
+    private String[] getPathSelectionArgs() {
+        return new String[] {mAccount.name, mAccount.type, path};
+    }
+
+    /** Starts inserting the entries handed over through {@link #onEntryCreated}. */
+    void start() {
+        mInserter = new Thread(this::insertPendingEntries, TAG);
+        mInserter.start();
+    }
+
+    @Override
+    public void onStart() {
+    }
+
+    /** Queues {@code entry} for insertion, waiting while too many entries are pending. */
+    @Override
+    public void onEntryCreated(VCardEntry entry) {
+        if (mStarred) {
+            entry.setStarred(true);
+        }
+        mEntryCount++;
+        BluetoothPbapRequestPullVcardListing.Card card = null;
+        if (mCards != null && mCardIndex < mCards.size()) {
+            card = mCards.get(mCardIndex++);
+        }
+        try {
+            mPendingEntries.put(new PendingEntry(entry, mCards != null, card));
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while queuing entry.");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void onEnd() {
+    }
+
+    /** Waits for the entries handed over through {@link #onEntryCreated} to be inserted. */
+    void finish() {
+        if (mInserter == null) {
+            return;
+        }
+        try {
+            mPendingEntries.put(END_OF_ENTRIES);
+            mInserter.join();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while waiting for inserts.");
+            mInserter.interrupt();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void insertPendingEntries() {
+        ContentResolver contactsProvider = mContext.getContentResolver();
+        ArrayList<ContentProviderOperation> insertOperations = new ArrayList<>();
+        int count = 0;
+        boolean failed = false;
+        try {
+            while (true) {
+                PendingEntry pendingEntry = mPendingEntries.take();
+                if (pendingEntry == END_OF_ENTRIES) {
+                    break;
+                }
+                VCardEntry e = pendingEntry.mEntry;
+                try {
+                    insertOperations = addInsertOperations(contactsProvider, insertOperations, e);
+                } catch (NumberFormatException ex) {
+                    Log.e(TAG, "Got exception: ", ex);
+                    failed = true;
+                    continue;
+                }
+                if (pendingEntry.mTagged && !e.isIgnorable()) {
+                    addTagOperation(insertOperations, pendingEntry.mCard);
+                }
+                count++;
+            }
+            // Apply any unsubmitted vcards.
+            applyInsertOperations(contactsProvider, insertOperations);
+            if (VDBG) {
+                Log.d(TAG, "Sync complete: add=" + count);
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted durring insert.");
+            failed = true;
+        } finally {
+            reportCompletion(failed);
+        }
+    }
+
+    /** Records the end of the inserts, logging once if some of them failed. */
+    private void reportCompletion(boolean failed) {
+        if (failed || mFailedBatches > 0) {
+            Log.e(TAG, "Some contacts of " + path + " could not be inserted, " + mFailedBatches
+                    + " failed batches");
+            mFailed = true;
+        }
+        complete = true;
+    }
+
+    /**
+     * Submits {@code insertOperations} and clears them. Operations that fail to be applied are
+     * dropped, so that the next batches are still submitted.
+     */
+    private void applyInsertOperations(ContentResolver contactsProvider,
+            ArrayList<ContentProviderOperation> insertOperations) {
+        if (insertOperations.isEmpty()) {
+            return;
+        }
+        try {
+            contactsProvider.applyBatch(ContactsContract.AUTHORITY, insertOperations);
+        } catch (OperationApplicationException | RemoteException e) {
+            Log.e(TAG, "Failed to apply " + insertOperations.size() + " insert operations: ", e);
+            mFailedBatches++;
+        }
+        insertOperations.clear();
+    }
+
+    /**
+     * Appends the operation tagging the raw contact of the entry whose insert operations were
+     * appended last, if any, with the path and {@code card}, if not null.
+     */
+    private void addTagOperation(ArrayList<ContentProviderOperation> insertOperations,
+            BluetoothPbapRequestPullVcardListing.Card card) {
+        int rawContactIndex = insertOperations.size() - 1;
+        // The raw contact is the first insert operation of the entry.
+        while (rawContactIndex >= 0 && !isRawContactInsert(insertOperations.get(rawContactIndex))) {
+            rawContactIndex--;
+        }
+        if (rawContactIndex < 0) {
+            return;
+        }
+        insertOperations.add(ContentProviderOperation.newUpdate(RawContacts.CONTENT_URI)
+                .withSelection(RawContacts._ID + "=?", new String[1])
+                .withSelectionBackReference(0, rawContactIndex)
+                .withValue(RawContacts.SYNC1, path)
+                .withValue(RawContacts.SYNC2, card != null ? card.handle : null)
+                .withValue(RawContacts.SYNC3, card != null ? card.name : null)
+                .build());
+    }
+
+    /** An entry handed over, with whether and with which listing entry to tag its raw contact. */
+    private static class PendingEntry {
+        final VCardEntry mEntry;
+        final boolean mTagged;
+        final BluetoothPbapRequestPullVcardListing.Card mCard;
+
+        PendingEntry(VCardEntry entry, boolean tagged,
+                BluetoothPbapRequestPullVcardListing.Card card) {
+            mEntry = entry;
+            mTagged = tagged;
+            mCard = card;
+        }
+    }
+
+    private static boolean isRawContactInsert(ContentProviderOperation operation) {
+        return operation.isInsert() && RawContacts.CONTENT_URI.equals(operation.getUri());
+    }
+
+    /**
+     * Appends the insert operations of {@code e} to {@code insertOperations}, submitting the
+     * previous ones first if that would exceed {@link #MAX_OPS}.
+     *
+     * @return the operations left to submit
+     * @throws NumberFormatException if {@code e} could not be read, none of its operations are
+     *     appended then
+     */
+    private ArrayList<ContentProviderOperation> addInsertOperations(
+            ContentResolver contactsProvider, ArrayList<ContentProviderOperation> insertOperations,
+            VCardEntry e) {
+        int numberOfOperations = insertOperations.size();
+        // Append current vcard to list of insert operations.
+        try {
+            e.constructInsertOperations(contactsProvider, insertOperations);
+        } catch (NumberFormatException ex) {
+            insertOperations.subList(numberOfOperations, insertOperations.size()).clear();
+            throw ex;
+        }
+        if (insertOperations.size() >= MAX_OPS) {
+            // If we have exceded the limit to the insert operation remove the latest vcard
+            // and submit.
+            insertOperations.subList(numberOfOperations, insertOperations.size()).clear();
+            applyInsertOperations(contactsProvider, insertOperations);
+            insertOperations = e.constructInsertOperations(contactsProvider, null);
+            if (insertOperations.size() >= MAX_OPS) {
+                // Current VCard has more than 500 attributes, drop the card.
+                insertOperations.clear();
+            }
         }
+        return insertOperations;
     }
 }
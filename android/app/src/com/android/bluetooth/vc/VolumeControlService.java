@@ -44,6 +44,7 @@ import android.util.Log;
 
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.ConnectionStateIndex;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
@@ -301,6 +302,7 @@ public class VolumeControlService extends ProfileService {
                 sm.cleanup();
             }
             mStateMachines.clear();
+            ConnectionStateIndex.getInstance().clear(BluetoothProfile.VOLUME_CONTROL);
         }
 
         if (mStateMachinesThread != null) {
@@ -485,7 +487,8 @@ public class VolumeControlService extends ProfileService {
         if (states == null) {
             return devices;
         }
-        final BluetoothDevice[] bondedDevices = mAdapterService.getBondedDevices();
+        final BluetoothDevice[] bondedDevices = ConnectionStateIndex.getInstance()
+                .getBondedDevicesToCheck(mAdapterService, BluetoothProfile.VOLUME_CONTROL, states);
         if (bondedDevices == null) {
             return devices;
         }
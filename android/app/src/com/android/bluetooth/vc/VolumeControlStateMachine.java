@@ -27,6 +27,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 
+import com.android.bluetooth.btservice.ConnectionStateIndex;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.State;
@@ -96,6 +97,8 @@ public class VolumeControlStateMachine extends StateMachine {
 
     public void doQuit() {
         log("doQuit for device " + mDevice);
+        ConnectionStateIndex.getInstance().setConnectionState(BluetoothProfile.VOLUME_CONTROL,
+                mDevice, BluetoothProfile.STATE_DISCONNECTED);
         quitNow();
     }
 
@@ -506,6 +509,8 @@ public class VolumeControlStateMachine extends StateMachine {
         log("Connection state " + mDevice + ": " + profileStateToString(prevState)
                 + "->" + profileStateToString(newState));
 
+        ConnectionStateIndex.getInstance()
+                .setConnectionState(BluetoothProfile.VOLUME_CONTROL, mDevice, newState);
         mService.handleConnectionStateChanged(mDevice, prevState, newState);
         Intent intent = new Intent(BluetoothVolumeControl.ACTION_CONNECTION_STATE_CHANGED);
         intent.putExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE, prevState);
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test for BluetoothAddress.java
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothAddressTest {
+    private static final String ADDRESS = "00:11:22:AA:BB:CC";
+    private static final byte[] ADDRESS_BYTES =
+            new byte[] {0x00, 0x11, 0x22, (byte) 0xAA, (byte) 0xBB, (byte) 0xCC};
+
+    @Test
+    public void parse_anyCaseWithOrWithoutColons() {
+        assertThat(BluetoothAddress.parse(ADDRESS)).isEqualTo(0x001122AABBCCL);
+        assertThat(BluetoothAddress.parse("00:11:22:aa:bb:cc")).isEqualTo(0x001122AABBCCL);
+        assertThat(BluetoothAddress.parse("001122AABBCC")).isEqualTo(0x001122AABBCCL);
+    }
+
+    @Test
+    public void parse_invalidAddress_throws() {
+        assertThrows(NumberFormatException.class, () -> BluetoothAddress.parse("00:11:22"));
+        assertThrows(NumberFormatException.class,
+                () -> BluetoothAddress.parse("00:11:22:AA:BB:CC:DD"));
+        assertThrows(NumberFormatException.class,
+                () -> BluetoothAddress.parse("00:11:22:AA:BB:CG"));
+        assertThat(BluetoothAddress.fromString("0:011:22:AA:BB:CC")).isNull();
+    }
+
+    @Test
+    public void toString_canonicalAndInterned() {
+        long value = BluetoothAddress.parse("00:11:22:aa:bb:cc");
+
+        String address = BluetoothAddress.toString(value);
+
+        assertThat(address).isEqualTo(ADDRESS);
+        assertThat(BluetoothAddress.toString(value)).isSameInstanceAs(address);
+    }
+
+    @Test
+    public void bytesConversions() {
+        assertThat(BluetoothAddress.fromBytes(ADDRESS_BYTES).toString()).isEqualTo(ADDRESS);
+        assertThat(BluetoothAddress.fromString(ADDRESS).toBytes()).isEqualTo(ADDRESS_BYTES);
+
+        byte[] reversed =
+                new byte[] {0x01, (byte) 0xCC, (byte) 0xBB, (byte) 0xAA, 0x22, 0x11, 0x00};
+        assertThat(BluetoothAddress.toLongReversed(reversed, 1)).isEqualTo(0x001122AABBCCL);
+    }
+
+    @Test
+    public void equalsAndHashCode_onPackedValue() {
+        BluetoothAddress upper = BluetoothAddress.fromString(ADDRESS);
+        BluetoothAddress lower = BluetoothAddress.fromString(ADDRESS.toLowerCase());
+
+        assertThat(upper).isEqualTo(lower);
+        assertThat(upper.hashCode()).isEqualTo(lower.hashCode());
+        assertThat(upper).isNotEqualTo(BluetoothAddress.fromLong(0x001122AABBCDL));
+    }
+
+    @Test
+    public void utils_useBluetoothAddress() {
+        assertThat(Utils.getAddressStringFromByte(ADDRESS_BYTES)).isEqualTo(ADDRESS);
+        assertThat(Utils.getBytesFromAddress(ADDRESS)).isEqualTo(ADDRESS_BYTES);
+    }
+}
@@ -17,6 +17,7 @@ package com.android.bluetooth;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.junit.Assert.assertThrows;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -70,6 +71,21 @@ public class UtilsTest {
         assertThat(str).isEqualTo("01 02");
     }
 
+    @Test
+    public void getBytesFromAddress() {
+        assertThat(Utils.getBytesFromAddress("00:11:22:AA:bb:CC")).isEqualTo(
+                new byte[] {0x00, 0x11, 0x22, (byte) 0xAA, (byte) 0xBB, (byte) 0xCC});
+        // Short addresses are converted as far as they go
+        assertThat(Utils.getBytesFromAddress("00:11")).isEqualTo(
+                new byte[] {0x00, 0x11, 0x00, 0x00, 0x00, 0x00});
+    }
+
+    @Test
+    public void getBytesFromAddress_tooLong_throws() {
+        assertThrows(ArrayIndexOutOfBoundsException.class,
+                () -> Utils.getBytesFromAddress("00:11:22:33:44:55:66"));
+    }
+
     @Test
     public void uuidsToByteArray() {
         ParcelUuid[] uuids = new ParcelUuid[] {
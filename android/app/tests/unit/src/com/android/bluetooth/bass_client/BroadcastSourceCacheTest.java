@@ -0,0 +1,145 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.bass_client;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import android.bluetooth.le.ScanResult;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class BroadcastSourceCacheTest {
+    private final List<Integer> mRemovedBroadcastIds = new ArrayList<>();
+    private long mNow;
+    private BroadcastSourceCache mCache;
+
+    @Before
+    public void setUp() {
+        mNow = 1000;
+        mCache = new BroadcastSourceCache(mRemovedBroadcastIds::add, () -> mNow);
+    }
+
+    @Test
+    public void put_returnsWhetherSourceIsNewInSearch() {
+        ScanResult result = createScanResult(-50);
+
+        assertThat(mCache.put(1, result)).isTrue();
+        assertThat(mCache.put(1, result)).isFalse();
+
+        mCache.beginSearch();
+
+        assertThat(mCache.put(1, result)).isTrue();
+        assertThat(mCache.getScanResult(1).getRssi()).isEqualTo(-50);
+    }
+
+    @Test
+    public void put_updatesRssiAndLastSeenTime() {
+        mCache.put(1, createScanResult(-50));
+        mNow += 100;
+        ScanResult result = createScanResult(-40);
+        doReturn(3).when(result).getAdvertisingSid();
+        doReturn(80).when(result).getPeriodicAdvertisingInterval();
+
+        mCache.put(1, result);
+
+        BroadcastSourceCache.Source source = mCache.get(1);
+        assertThat(source.getScanResult().getAdvertisingSid()).isEqualTo(3);
+        assertThat(source.getScanResult().getPeriodicAdvertisingInterval()).isEqualTo(80);
+        assertThat(source.getRssi()).isEqualTo(-40);
+        assertThat(source.getLastSeenTime()).isEqualTo(mNow);
+    }
+
+    @Test
+    public void get_returnsCopyNotUpdatedByLaterChanges() {
+        mCache.put(1, createScanResult(-50));
+        BroadcastSourceCache.Source source = mCache.get(1);
+
+        mCache.updateBroadcastName(1, "Gate 12");
+        mCache.put(1, createScanResult(-40));
+
+        assertThat(source.getBroadcastName()).isNull();
+        assertThat(source.getRssi()).isEqualTo(-50);
+        assertThat(mCache.get(1).getBroadcastName()).isEqualTo("Gate 12");
+    }
+
+    @Test
+    public void put_overMaxSources_evictsLeastRecentlySeen() {
+        for (int i = 0; i < BroadcastSourceCache.MAX_SOURCES; i++) {
+            mCache.put(i, createScanResult(-50));
+        }
+        // Seen again, so no longer the least recently seen.
+        mCache.put(0, createScanResult(-50));
+
+        mCache.put(BroadcastSourceCache.MAX_SOURCES, createScanResult(-50));
+
+        assertThat(mCache.size()).isEqualTo(BroadcastSourceCache.MAX_SOURCES);
+        assertThat(mCache.get(0)).isNotNull();
+        assertThat(mCache.get(1)).isNull();
+        assertThat(mRemovedBroadcastIds).containsExactly(1);
+    }
+
+    @Test
+    public void get_afterExpiry_returnsNull() {
+        mCache.put(1, createScanResult(-50));
+        mNow += BroadcastSourceCache.EXPIRY_MS / 2;
+        mCache.put(2, createScanResult(-50));
+        mNow += BroadcastSourceCache.EXPIRY_MS / 2;
+
+        assertThat(mCache.get(1)).isNull();
+        assertThat(mCache.get(2)).isNotNull();
+        assertThat(mRemovedBroadcastIds).containsExactly(1);
+    }
+
+    @Test
+    public void updateBroadcastName_updatesCachedSource() {
+        mCache.put(1, createScanResult(-50));
+
+        mCache.updateBroadcastName(1, "Gate 12");
+        mCache.updateBroadcastName(2, "Unknown");
+
+        assertThat(mCache.get(1).getBroadcastName()).isEqualTo("Gate 12");
+        assertThat(mCache.get(2)).isNull();
+    }
+
+    @Test
+    public void dump_printsStats() {
+        mCache.put(1, createScanResult(-50));
+        mCache.get(1);
+        mCache.get(2);
+
+        StringBuilder sb = new StringBuilder();
+        mCache.dump(sb);
+
+        assertThat(sb.toString()).contains("hits=1 misses=1");
+    }
+
+    private static ScanResult createScanResult(int rssi) {
+        ScanResult result = mock(ScanResult.class);
+        doReturn(rssi).when(result).getRssi();
+        return result;
+    }
+}
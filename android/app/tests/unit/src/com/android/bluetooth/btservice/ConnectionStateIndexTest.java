@@ -0,0 +1,177 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.TestUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+/**
+ * Test cases for {@link ConnectionStateIndex}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ConnectionStateIndexTest {
+    private static final int[] CONNECTED_STATES = {
+            BluetoothProfile.STATE_CONNECTING, BluetoothProfile.STATE_CONNECTED};
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private AdapterService mAdapterService;
+
+    private BluetoothDevice mDevice1;
+    private BluetoothDevice mDevice2;
+    private ConnectionStateIndex mIndex;
+
+    @Before
+    public void setUp() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        mDevice1 = TestUtils.getTestDevice(adapter, 1);
+        mDevice2 = TestUtils.getTestDevice(adapter, 2);
+        mIndex = new ConnectionStateIndex();
+    }
+
+    @Test
+    public void setConnectionState_disconnected_removesDevice() {
+        mIndex.setConnectionState(BluetoothProfile.A2DP, mDevice1,
+                BluetoothProfile.STATE_CONNECTED);
+
+        mIndex.setConnectionState(BluetoothProfile.A2DP, mDevice1,
+                BluetoothProfile.STATE_DISCONNECTED);
+
+        assertThat(mIndex.getBondedDevicesToCheck(mAdapterService, BluetoothProfile.A2DP,
+                CONNECTED_STATES)).isEmpty();
+    }
+
+    @Test
+    public void getConnectionState_returnsIndexedStateOrDisconnected() {
+        mIndex.setConnectionState(BluetoothProfile.A2DP, mDevice1,
+                BluetoothProfile.STATE_CONNECTING);
+
+        assertThat(mIndex.getConnectionState(BluetoothProfile.A2DP, mDevice1))
+                .isEqualTo(BluetoothProfile.STATE_CONNECTING);
+        assertThat(mIndex.getConnectionState(BluetoothProfile.A2DP, mDevice2))
+                .isEqualTo(BluetoothProfile.STATE_DISCONNECTED);
+        assertThat(mIndex.getConnectionState(BluetoothProfile.HEADSET, mDevice1))
+                .isEqualTo(BluetoothProfile.STATE_DISCONNECTED);
+    }
+
+    @Test
+    public void getDevicesMatchingConnectionStates_returnsDevicesInStatesOfProfile() {
+        mIndex.setConnectionState(BluetoothProfile.A2DP, mDevice1,
+                BluetoothProfile.STATE_CONNECTED);
+        mIndex.setConnectionState(BluetoothProfile.A2DP, mDevice2,
+                BluetoothProfile.STATE_DISCONNECTING);
+        mIndex.setConnectionState(BluetoothProfile.HEADSET, mDevice2,
+                BluetoothProfile.STATE_CONNECTED);
+
+        assertThat(mIndex.getDevicesMatchingConnectionStates(BluetoothProfile.A2DP,
+                CONNECTED_STATES)).containsExactly(mDevice1);
+        assertThat(mIndex.getDevicesMatchingConnectionStates(BluetoothProfile.A2DP,
+                new int[] {BluetoothProfile.STATE_DISCONNECTED})).isEmpty();
+        assertThat(mIndex.getDevicesMatchingConnectionStates(BluetoothProfile.LE_AUDIO,
+                CONNECTED_STATES)).isEmpty();
+    }
+
+    @Test
+    public void containsDisconnectedState() {
+        assertThat(ConnectionStateIndex.containsDisconnectedState(CONNECTED_STATES)).isFalse();
+        assertThat(ConnectionStateIndex.containsDisconnectedState(new int[] {
+                BluetoothProfile.STATE_CONNECTED, BluetoothProfile.STATE_DISCONNECTED}))
+                .isTrue();
+    }
+
+    @Test
+    public void getBondedDevicesToCheck_withoutDisconnected_returnsBondedIndexedDevices() {
+        mIndex.setConnectionState(BluetoothProfile.A2DP, mDevice1,
+                BluetoothProfile.STATE_CONNECTED);
+        mIndex.setConnectionState(BluetoothProfile.A2DP, mDevice2,
+                BluetoothProfile.STATE_CONNECTED);
+        doReturn(BluetoothDevice.BOND_BONDED).when(mAdapterService).getBondState(mDevice1);
+        doReturn(BluetoothDevice.BOND_NONE).when(mAdapterService).getBondState(mDevice2);
+
+        assertThat(mIndex.getBondedDevicesToCheck(mAdapterService, BluetoothProfile.A2DP,
+                CONNECTED_STATES)).asList().containsExactly(mDevice1);
+        verify(mAdapterService, never()).getBondedDevices();
+    }
+
+    @Test
+    public void getBondedDevicesToCheck_withoutDisconnected_returnsIndexedDevicesInAnyState() {
+        // The state machine may already be connected while the index is not updated yet.
+        mIndex.setConnectionState(BluetoothProfile.A2DP, mDevice1,
+                BluetoothProfile.STATE_CONNECTING);
+        mIndex.setConnectionState(BluetoothProfile.A2DP, mDevice2,
+                BluetoothProfile.STATE_DISCONNECTING);
+        mIndex.setConnectionState(BluetoothProfile.HEADSET, mDevice2,
+                BluetoothProfile.STATE_CONNECTED);
+        doReturn(BluetoothDevice.BOND_BONDED).when(mAdapterService).getBondState(mDevice1);
+        doReturn(BluetoothDevice.BOND_BONDED).when(mAdapterService).getBondState(mDevice2);
+
+        assertThat(mIndex.getBondedDevicesToCheck(mAdapterService, BluetoothProfile.A2DP,
+                new int[] {BluetoothProfile.STATE_CONNECTED})).asList()
+                .containsExactly(mDevice1, mDevice2);
+        assertThat(mIndex.getBondedDevicesToCheck(mAdapterService, BluetoothProfile.LE_AUDIO,
+                CONNECTED_STATES)).isEmpty();
+    }
+
+    @Test
+    public void getBondedDevicesToCheck_withDisconnected_returnsBondedDevices() {
+        BluetoothDevice[] bondedDevices = {mDevice1, mDevice2};
+        doReturn(bondedDevices).when(mAdapterService).getBondedDevices();
+
+        assertThat(mIndex.getBondedDevicesToCheck(mAdapterService, BluetoothProfile.A2DP,
+                new int[] {BluetoothProfile.STATE_DISCONNECTED})).isSameInstanceAs(bondedDevices);
+    }
+
+    @Test
+    public void clear_forgetsStatesOfProfile() {
+        mIndex.setConnectionState(BluetoothProfile.A2DP, mDevice1,
+                BluetoothProfile.STATE_CONNECTED);
+        mIndex.setConnectionState(BluetoothProfile.HEADSET, mDevice1,
+                BluetoothProfile.STATE_CONNECTED);
+
+        doReturn(BluetoothDevice.BOND_BONDED).when(mAdapterService).getBondState(mDevice1);
+
+        mIndex.clear(BluetoothProfile.A2DP);
+
+        assertThat(mIndex.getBondedDevicesToCheck(mAdapterService, BluetoothProfile.A2DP,
+                CONNECTED_STATES)).isEmpty();
+        assertThat(mIndex.getBondedDevicesToCheck(mAdapterService, BluetoothProfile.HEADSET,
+                CONNECTED_STATES)).asList().containsExactly(mDevice1);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.a2dp.A2dpService;
+import com.android.bluetooth.pan.PanService;
+import com.android.bluetooth.pbap.BluetoothPbapService;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test cases for {@link ProfileStartupScheduler}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ProfileStartupSchedulerTest {
+    private final List<Class> mStartedServices = new ArrayList<>();
+    private long mTimeMs;
+    private ProfileStartupScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mScheduler = new ProfileStartupScheduler(mStartedServices::add, () -> mTimeMs);
+    }
+
+    @Test
+    public void start_startsAudioProfilesFirst() {
+        mScheduler.start(new Class[] {PanService.class, A2dpService.class,
+                BluetoothPbapService.class});
+
+        assertThat(mStartedServices).containsExactly(A2dpService.class, PanService.class,
+                BluetoothPbapService.class).inOrder();
+    }
+
+    @Test
+    public void cancel_afterStart_returnsNoService() {
+        mScheduler.start(new Class[] {A2dpService.class, PanService.class});
+
+        assertThat(mScheduler.cancel()).isEmpty();
+    }
+
+    @Test
+    public void cancel_duringStart_skipsRemainingServices() {
+        List<Class> notStartedServices = new ArrayList<>();
+        mScheduler = new ProfileStartupScheduler(service -> {
+            mStartedServices.add(service);
+            notStartedServices.addAll(mScheduler.cancel());
+        }, () -> mTimeMs);
+
+        mScheduler.start(new Class[] {PanService.class, A2dpService.class,
+                BluetoothPbapService.class});
+
+        assertThat(mStartedServices).containsExactly(A2dpService.class);
+        assertThat(notStartedServices).containsExactly(PanService.class,
+                BluetoothPbapService.class).inOrder();
+    }
+
+    @Test
+    public void dump_printsStartupTimings() {
+        mScheduler.recordPhase("keystore", mTimeMs);
+        mTimeMs = 5;
+        mScheduler.start(new Class[] {A2dpService.class, PanService.class});
+        mTimeMs = 25;
+        mScheduler.onServiceStarted(A2dpService.class.getSimpleName());
+        mTimeMs = 45;
+        mScheduler.onServiceStarted(PanService.class.getSimpleName());
+
+        StringBuilder sb = new StringBuilder();
+        mScheduler.dump(sb);
+
+        assertThat(sb.toString()).contains("keystore: 0 ms");
+        assertThat(sb.toString()).contains("A2dpService started in 20 ms");
+        assertThat(sb.toString()).contains("PanService started in 40 ms");
+        assertThat(sb.toString()).contains("audio profiles ready: 20 ms");
+        assertThat(sb.toString()).contains("all profiles ready: 40 ms");
+    }
+}
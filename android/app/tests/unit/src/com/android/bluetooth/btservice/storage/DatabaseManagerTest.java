@@ -119,6 +119,8 @@ public final class DatabaseManagerTest {
         mFakeFlagsImpl = new FakeFeatureFlagsImpl();
 
         mDatabaseManager = new DatabaseManager(mAdapterService, mFakeFlagsImpl);
+        // Write updates on the next handler iteration, as tests check the database right after.
+        mDatabaseManager.setWriteCoalescingWindowMillis(0);
 
         BluetoothDevice[] bondedDevices = {mTestDevice};
         doReturn(bondedDevices).when(mAdapterService).getBondedDevices();
@@ -340,6 +342,42 @@ public final class DatabaseManagerTest {
 
     }
 
+    @Test
+    public void testUpdatesCoalescedUntilShutdown() {
+        mDatabaseManager.setWriteCoalescingWindowMillis(TimeUnit.HOURS.toMillis(1));
+        Metadata data = new Metadata(TEST_BT_ADDR);
+        mDatabaseManager.mMetadataCache.put(TEST_BT_ADDR, data);
+
+        mDatabaseManager.setCustomMeta(mTestDevice, 0, TEST_BYTE_ARRAY);
+        mDatabaseManager.setProfileConnectionPolicy(mTestDevice, BluetoothProfile.HEADSET,
+                BluetoothProfile.CONNECTION_POLICY_ALLOWED);
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+
+        // Still waiting for the coalescing window
+        Assert.assertEquals(0, mDatabase.load().size());
+
+        // Pending updates are written on shutdown
+        mDatabaseManager.cleanup();
+        List<Metadata> list = mDatabase.load();
+        Assert.assertEquals(1, list.size());
+        Assert.assertArrayEquals(TEST_BYTE_ARRAY, list.get(0).getCustomizedMeta(0));
+        Assert.assertEquals(BluetoothProfile.CONNECTION_POLICY_ALLOWED,
+                list.get(0).getProfileConnectionPolicy(BluetoothProfile.HEADSET));
+    }
+
+    @Test
+    public void testPendingUpdateDroppedOnBondRemoval() {
+        mDatabaseManager.setWriteCoalescingWindowMillis(TimeUnit.HOURS.toMillis(1));
+        Metadata data = new Metadata(TEST_BT_ADDR);
+        mDatabaseManager.mMetadataCache.put(TEST_BT_ADDR, data);
+
+        mDatabaseManager.setCustomMeta(mTestDevice, 0, TEST_BYTE_ARRAY);
+        mDatabaseManager.bondStateChanged(mTestDevice, BluetoothDevice.BOND_NONE);
+        mDatabaseManager.cleanup();
+
+        Assert.assertEquals(0, mDatabase.load().size());
+    }
+
     @Test
     public void testSetGetCustomMeta() {
         int badKey = 100;
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.le.ScanResult;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test cases for {@link BatchScanReportDecoder}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BatchScanReportDecoderTest {
+
+    @Test
+    public void fullRecords_decodedInPlace() {
+        byte[] data = new byte[] {
+                // Address, address type, tx power, rssi, timestamp.
+                0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x00, 0x00, (byte) 0xC4, 0x00, 0x00,
+                // Advertise packet and scan response packet.
+                0x03, 0x02, 0x01, 0x06, 0x03, 0x02, 0x0A, 0x00,
+                // Second record without data.
+                0x11, 0x22, 0x33, 0x44, 0x55, 0x66, 0x00, 0x00, 0x10, 0x00, 0x00, 0x00, 0x00,
+        };
+        BatchScanReportDecoder records =
+                new BatchScanReportDecoder(ScanManager.SCAN_RESULT_TYPE_FULL, 2, data);
+
+        assertThat(records.moveToNext()).isTrue();
+        assertThat(records.getAddress()).isEqualTo("06:05:04:03:02:01");
+        ScanResult result = records.getResult();
+        assertThat(result).isSameInstanceAs(records.getResult());
+        assertThat(result.getDevice().getAddress()).isEqualTo("06:05:04:03:02:01");
+        assertThat(result.getRssi()).isEqualTo(-60);
+        assertThat(result.getScanRecord().getBytes())
+                .isEqualTo(new byte[] {0x02, 0x01, 0x06, 0x02, 0x0A, 0x00});
+        assertThat(result.getScanRecord().getAdvertiseFlags()).isEqualTo(0x06);
+        assertThat(result.getScanRecord().getTxPowerLevel()).isEqualTo(0);
+
+        assertThat(records.moveToNext()).isTrue();
+        assertThat(records.getAddress()).isEqualTo("66:55:44:33:22:11");
+        assertThat(records.getResult().getScanRecord().getBytes()).isEmpty();
+
+        assertThat(records.moveToNext()).isFalse();
+    }
+
+    @Test
+    public void truncatedRecords_stopAfterNumRecords() {
+        byte[] data = new byte[] {
+                0x00, 0x00, 0x00, 0x00, 0x00, 0x02, 0x06, 0x04, 0x02, 0x02, 0x00,
+                0x01, 0x00, 0x00, 0x00, 0x00, 0x03, 0x06, 0x04, 0x05, 0x00, 0x00,
+        };
+        BatchScanReportDecoder records =
+                new BatchScanReportDecoder(ScanManager.SCAN_RESULT_TYPE_TRUNCATED, 1, data);
+
+        assertThat(records.moveToNext()).isTrue();
+        assertThat(records.getAddress()).isEqualTo("02:00:00:00:00:00");
+        assertThat(records.getResult().getRssi()).isEqualTo(2);
+        assertThat(records.moveToNext()).isFalse();
+    }
+
+    @Test
+    public void duplicateRecords_skipped() {
+        byte[] data = new byte[] {
+                0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x00, 0x00, 0x10, 0x00, 0x00, 0x00, 0x00,
+                0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x00, 0x00, 0x10, 0x00, 0x00, 0x00, 0x00,
+                // Same device with another rssi.
+                0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x00, 0x00, 0x20, 0x00, 0x00, 0x00, 0x00,
+                0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x00, 0x00, 0x10, 0x00, 0x00, 0x00, 0x00,
+        };
+        BatchScanReportDecoder records =
+                new BatchScanReportDecoder(ScanManager.SCAN_RESULT_TYPE_FULL, 4, data);
+
+        assertThat(records.moveToNext()).isTrue();
+        assertThat(records.getResult().getRssi()).isEqualTo(0x10);
+        assertThat(records.moveToNext()).isTrue();
+        assertThat(records.getResult().getRssi()).isEqualTo(0x20);
+        assertThat(records.moveToNext()).isFalse();
+    }
+
+    @Test
+    public void noRecords() {
+        BatchScanReportDecoder records = new BatchScanReportDecoder(
+                ScanManager.SCAN_RESULT_TYPE_FULL, 0, new byte[] {0x01, 0x02});
+
+        assertThat(records.moveToNext()).isFalse();
+    }
+
+    @Test
+    public void parseTimestampNanos() {
+        assertThat(BatchScanReportDecoder.parseTimestampNanos(new byte[] {0x00, -54, 7}, 1))
+                .isEqualTo(99700000000L);
+    }
+}
@@ -102,6 +102,81 @@ public class ContextMapTest {
         assertThat(contextMapByName.name).isEqualTo(APP_NAME);
     }
 
+    @Test
+    public void setId_indexesAppById() {
+        ContextMap contextMap = new ContextMap<>();
+        UUID uuid = UUID.randomUUID();
+        int id = 7;
+
+        ContextMap.App app = contextMap.add(uuid, null, null, null, mMockGatt);
+        assertThat(contextMap.getById(id)).isNull();
+
+        contextMap.setId(app, id);
+        assertThat(contextMap.getById(id)).isSameInstanceAs(app);
+        assertThat(contextMap.getByUuid(uuid)).isSameInstanceAs(app);
+
+        contextMap.remove(id);
+        assertThat(contextMap.getById(id)).isNull();
+        assertThat(contextMap.getByUuid(uuid)).isNull();
+    }
+
+    @Test
+    public void getById_withIdZero_findsApp() {
+        ContextMap contextMap = new ContextMap<>();
+        UUID uuid1 = UUID.randomUUID();
+        UUID uuid2 = UUID.randomUUID();
+
+        // Apps are registered with ID 0 until the stack assigns their ID.
+        ContextMap.App app1 = contextMap.add(uuid1, null, null, null, mMockGatt);
+        ContextMap.App app2 = contextMap.add(uuid2, null, null, null, mMockGatt);
+        assertThat(contextMap.getById(0)).isSameInstanceAs(app1);
+
+        contextMap.remove(uuid1);
+        assertThat(contextMap.getById(0)).isSameInstanceAs(app2);
+
+        contextMap.remove(uuid2);
+        assertThat(contextMap.getById(0)).isNull();
+    }
+
+    @Test
+    public void connections_indexedByConnIdAndAddress() {
+        ContextMap contextMap = new ContextMap<>();
+        int id = 7;
+        int connId = 3;
+        String address = "00:01:02:03:04:05";
+        ContextMap.App app = contextMap.add(UUID.randomUUID(), null, null, null, mMockGatt);
+        contextMap.setId(app, id);
+
+        contextMap.addConnection(id, connId, address);
+
+        assertThat(contextMap.addressByConnId(connId)).isEqualTo(address);
+        assertThat(contextMap.connIdByAddress(id, address.toLowerCase())).isEqualTo(connId);
+        assertThat(contextMap.getByConnId(connId)).isSameInstanceAs(app);
+        assertThat(contextMap.getConnectedDevices()).containsExactly(address);
+
+        contextMap.removeConnection(id, connId);
+
+        assertThat(contextMap.addressByConnId(connId)).isNull();
+        assertThat(contextMap.connIdByAddress(id, address)).isNull();
+        assertThat(contextMap.getConnectedDevices()).isEmpty();
+    }
+
+    @Test
+    public void removeConnectionsByAppId_clearsAddressIndex() {
+        ContextMap contextMap = new ContextMap<>();
+        int id = 7;
+        String address = "00:01:02:03:04:05";
+        ContextMap.App app = contextMap.add(UUID.randomUUID(), null, null, null, mMockGatt);
+        contextMap.setId(app, id);
+        contextMap.addConnection(id, 3, address);
+        contextMap.addConnection(id, 4, "00:01:02:03:04:06");
+
+        contextMap.removeConnectionsByAppId(id);
+
+        assertThat(contextMap.connIdByAddress(id, address)).isNull();
+        assertThat(contextMap.getConnectionByApp(id)).isEmpty();
+    }
+
     @Test
     public void advertisingSetAndData() {
         ContextMap contextMap = new ContextMap<>();
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanSettings;
+import android.os.ParcelUuid;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Test cases for {@link ScanFilterIndex}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanFilterIndexTest {
+    private static final String ADDRESS = "DD:34:02:05:5C:4D";
+    private static final ParcelUuid FAST_PAIR_UUID =
+            ParcelUuid.fromString("0000FE2C-0000-1000-8000-00805F9B34FB");
+    private static final ParcelUuid OTHER_UUID =
+            ParcelUuid.fromString("0000FD6F-0000-1000-8000-00805F9B34FB");
+    private static final int MANUFACTURER_ID = 0x004C;
+
+    // Flags, 16-bit service uuid 0xFE2C, manufacturer data of 0x004C (0x12 0x34).
+    private static final byte[] ADV_DATA = new byte[] {
+            0x02, 0x01, 0x06,
+            0x03, 0x03, 0x2C, (byte) 0xFE,
+            0x05, (byte) 0xFF, 0x4C, 0x00, 0x12, 0x34,
+    };
+
+    private static ScanClient newClient(int scannerId, ScanFilter... filters) {
+        List<ScanFilter> list = new ArrayList<>();
+        for (ScanFilter filter : filters) {
+            list.add(filter);
+        }
+        return new ScanClient(scannerId, new ScanSettings.Builder().build(), list);
+    }
+
+    @Test
+    public void getCandidates_serviceUuid() {
+        ScanFilterIndex index = new ScanFilterIndex();
+        ScanClient matching = newClient(1,
+                new ScanFilter.Builder().setServiceUuid(OTHER_UUID).build(),
+                new ScanFilter.Builder().setServiceUuid(FAST_PAIR_UUID).build());
+        ScanClient notMatching = newClient(2,
+                new ScanFilter.Builder().setServiceUuid(OTHER_UUID).build());
+
+        ScanFilterIndex.Candidates candidates =
+                index.getCandidates(List.of(matching, notMatching), ADV_DATA, ADDRESS, null);
+
+        assertThat(candidates.isIndexed(matching)).isTrue();
+        BitSet expected = new BitSet();
+        expected.set(1);
+        assertThat(candidates.get(matching)).isEqualTo(expected);
+        assertThat(candidates.get(notMatching)).isNull();
+        assertThat(index.getFilterCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void getCandidates_manufacturerData_appliesMask() {
+        ScanFilterIndex index = new ScanFilterIndex();
+        ScanClient masked = newClient(1, new ScanFilter.Builder()
+                .setManufacturerData(MANUFACTURER_ID, new byte[] {0x12, 0x00},
+                        new byte[] {(byte) 0xFF, 0x00})
+                .build());
+        ScanClient mismatched = newClient(2, new ScanFilter.Builder()
+                .setManufacturerData(MANUFACTURER_ID, new byte[] {0x12, 0x35})
+                .build());
+
+        ScanFilterIndex.Candidates candidates =
+                index.getCandidates(List.of(masked, mismatched), ADV_DATA, ADDRESS, null);
+
+        assertThat(candidates.get(masked)).isNotNull();
+        assertThat(candidates.get(mismatched)).isNull();
+    }
+
+    @Test
+    public void getCandidates_address_matchesOriginalAddress() {
+        ScanFilterIndex index = new ScanFilterIndex();
+        String identityAddress = "00:11:22:33:44:55";
+        ScanClient client = newClient(1,
+                new ScanFilter.Builder().setDeviceAddress(identityAddress).build());
+
+        assertThat(index.getCandidates(List.of(client), ADV_DATA, ADDRESS, null).get(client))
+                .isNull();
+        assertThat(index.getCandidates(List.of(client), ADV_DATA, ADDRESS,
+                identityAddress.toLowerCase()).get(client)).isNotNull();
+    }
+
+    @Test
+    public void getCandidates_unindexedFilter_alwaysCandidate() {
+        ScanFilterIndex index = new ScanFilterIndex();
+        ScanClient client = newClient(1,
+                new ScanFilter.Builder().setDeviceName("name").build());
+
+        assertThat(index.getCandidates(List.of(client), new byte[0], ADDRESS, null).get(client))
+                .isNotNull();
+    }
+
+    @Test
+    public void getCandidates_rebuildsWhenClientsChange() {
+        ScanFilterIndex index = new ScanFilterIndex();
+        ScanClient first = newClient(1,
+                new ScanFilter.Builder().setServiceUuid(FAST_PAIR_UUID).build());
+        ScanClient second = newClient(2,
+                new ScanFilter.Builder().setServiceUuid(FAST_PAIR_UUID).build());
+
+        index.getCandidates(List.of(first), ADV_DATA, ADDRESS, null);
+        ScanFilterIndex.Candidates candidates =
+                index.getCandidates(List.of(first, second), ADV_DATA, ADDRESS, null);
+
+        assertThat(candidates.isIndexed(second)).isTrue();
+        assertThat(candidates.get(second)).isNotNull();
+        assertThat(index.getFilterCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void uuidAt_matchesBluetoothUuidParsing() {
+        byte[] bytes = new byte[] {0x2C, (byte) 0xFE};
+        assertThat(ScanFilterIndex.uuidAt(bytes, 0, 2)).isEqualTo(FAST_PAIR_UUID.getUuid());
+
+        UUID uuid = UUID.fromString("01020304-0506-0708-090A-0B0C0D0E0F10");
+        byte[] uuid128 = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            uuid128[i] = (byte) (16 - i);
+        }
+        assertThat(ScanFilterIndex.uuidAt(uuid128, 0, 16)).isEqualTo(uuid);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Test cases for {@link ScanFilterPipeline}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanFilterPipelineTest {
+    private static final int SCANNER_ID = 3;
+    private static final int TIMEOUT_MS = 500;
+
+    @Mock private ScanNativeInterface mNativeInterface;
+
+    private ScanFilterPipeline mPipeline;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mPipeline = new ScanFilterPipeline(mNativeInterface, TIMEOUT_MS);
+    }
+
+    @Test
+    public void execute_issuesAllCommandsBeforeWaiting() {
+        doReturn(true).when(mNativeInterface).waitForCallback(anyInt());
+        mPipeline.enqueue(ScanFilterPipeline.COMMAND_ENABLE, SCANNER_ID, -1,
+                () -> mNativeInterface.gattClientScanFilterEnable(SCANNER_ID, true));
+        mPipeline.enqueue(ScanFilterPipeline.COMMAND_PARAM_DELETE, SCANNER_ID, 4,
+                () -> mNativeInterface.gattClientScanFilterParamDelete(SCANNER_ID, 4));
+
+        assertThat(mPipeline.execute()).isTrue();
+
+        InOrder order = inOrder(mNativeInterface);
+        order.verify(mNativeInterface).resetCountDownLatch(2);
+        order.verify(mNativeInterface).gattClientScanFilterEnable(SCANNER_ID, true);
+        order.verify(mNativeInterface).gattClientScanFilterParamDelete(SCANNER_ID, 4);
+        order.verify(mNativeInterface).waitForCallback(2 * TIMEOUT_MS);
+    }
+
+    @Test
+    public void execute_emptyQueue_doesNotWait() {
+        assertThat(mPipeline.execute()).isTrue();
+
+        verify(mNativeInterface, never()).waitForCallback(anyInt());
+    }
+
+    @Test
+    public void execute_timeout_returnsFalse() {
+        doReturn(false).when(mNativeInterface).waitForCallback(anyInt());
+        mPipeline.enqueue(ScanFilterPipeline.COMMAND_ENABLE, SCANNER_ID, -1, () -> {});
+
+        assertThat(mPipeline.execute()).isFalse();
+    }
+
+    @Test
+    public void onCommandComplete_correlatesInOrderAndRecordsLatency() {
+        doReturn(true).when(mNativeInterface).waitForCallback(anyInt());
+        mPipeline.enqueue(ScanFilterPipeline.COMMAND_ADD, SCANNER_ID, 4, () -> {});
+        mPipeline.enqueue(ScanFilterPipeline.COMMAND_PARAM_ADD, SCANNER_ID, 4, () -> {});
+        mPipeline.execute();
+
+        assertThat(mPipeline.onCommandComplete(ScanFilterPipeline.COMMAND_ADD, SCANNER_ID, 0))
+                .isTrue();
+        assertThat(mPipeline.onCommandComplete(
+                ScanFilterPipeline.COMMAND_PARAM_ADD, SCANNER_ID, 0)).isTrue();
+        assertThat(mPipeline.onCommandComplete(
+                ScanFilterPipeline.COMMAND_PARAM_ADD, SCANNER_ID, 0)).isFalse();
+
+        verify(mNativeInterface, times(2)).callbackDone();
+        assertThat(mPipeline.getLatencyCount(ScanFilterPipeline.COMMAND_ADD)).isEqualTo(1);
+        assertThat(mPipeline.getLatencyCount(ScanFilterPipeline.COMMAND_PARAM_ADD)).isEqualTo(1);
+        StringBuilder sb = new StringBuilder();
+        mPipeline.dump(sb);
+        assertThat(sb.toString()).contains("ParamAdd");
+    }
+
+    @Test
+    public void onCommandComplete_afterTimeout_dropsLateCompletion() {
+        doReturn(false).when(mNativeInterface).waitForCallback(anyInt());
+        mPipeline.enqueue(ScanFilterPipeline.COMMAND_ADD, SCANNER_ID, 4, () -> {});
+        mPipeline.execute();
+        doReturn(true).when(mNativeInterface).waitForCallback(anyInt());
+        mPipeline.enqueue(ScanFilterPipeline.COMMAND_ENABLE, SCANNER_ID, -1, () -> {});
+        mPipeline.execute();
+
+        // Completes the timed out command, not the one in flight.
+        assertThat(mPipeline.onCommandComplete(ScanFilterPipeline.COMMAND_ADD, SCANNER_ID, 0))
+                .isTrue();
+        verify(mNativeInterface, never()).callbackDone();
+
+        assertThat(mPipeline.onCommandComplete(
+                ScanFilterPipeline.COMMAND_ENABLE, SCANNER_ID, 0)).isTrue();
+        verify(mNativeInterface).callbackDone();
+    }
+
+    @Test
+    public void onCommandComplete_otherCommand_isDropped() {
+        doReturn(true).when(mNativeInterface).waitForCallback(anyInt());
+        mPipeline.enqueue(ScanFilterPipeline.COMMAND_PARAM_DELETE, SCANNER_ID, 4, () -> {});
+        mPipeline.execute();
+
+        assertThat(mPipeline.onCommandComplete(
+                ScanFilterPipeline.COMMAND_PARAM_ADD, SCANNER_ID, 0)).isTrue();
+        assertThat(mPipeline.onCommandComplete(
+                ScanFilterPipeline.COMMAND_PARAM_DELETE, SCANNER_ID + 1, 0)).isTrue();
+        verify(mNativeInterface, never()).callbackDone();
+
+        assertThat(mPipeline.onCommandComplete(
+                ScanFilterPipeline.COMMAND_PARAM_DELETE, SCANNER_ID, 0)).isTrue();
+        verify(mNativeInterface).callbackDone();
+    }
+}
@@ -196,4 +196,21 @@ public class ScanFilterQueueTest {
         int numOfEntries = 7;
         assertThat(queue.toArray().length).isEqualTo(numOfEntries);
     }
+
+    @Test
+    public void canonicalKey_independentOfInsertionOrder() {
+        UUID uuid = UUID.randomUUID();
+        ScanFilterQueue first = new ScanFilterQueue();
+        first.addName("name");
+        first.addUuid(uuid);
+        ScanFilterQueue second = new ScanFilterQueue();
+        second.addUuid(uuid);
+        second.addName("name");
+        ScanFilterQueue other = new ScanFilterQueue();
+        other.addUuid(uuid);
+        other.addName("other");
+
+        assertThat(first.getCanonicalKey()).isEqualTo(second.getCanonicalKey());
+        assertThat(first.getCanonicalKey()).isNotEqualTo(other.getCanonicalKey());
+    }
 }
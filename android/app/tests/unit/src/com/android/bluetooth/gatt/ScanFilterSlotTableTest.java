@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test cases for {@link ScanFilterSlotTable}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanFilterSlotTableTest {
+    private static final String KEY = "0/500/1/2,null";
+    private static final int FILTER_INDEX = 5;
+
+    @Test
+    public void acquire_unknownKey_returnsInvalidIndex() {
+        ScanFilterSlotTable table = new ScanFilterSlotTable();
+
+        assertThat(table.acquire(KEY)).isEqualTo(-1);
+        assertThat(table.getFilterIndex(KEY)).isEqualTo(-1);
+    }
+
+    @Test
+    public void release_freesSlotAfterLastReference() {
+        ScanFilterSlotTable table = new ScanFilterSlotTable();
+        table.add(KEY, FILTER_INDEX);
+
+        assertThat(table.acquire(KEY)).isEqualTo(FILTER_INDEX);
+        assertThat(table.getSlotCount()).isEqualTo(1);
+        assertThat(table.getReferenceCount()).isEqualTo(2);
+
+        assertThat(table.release(FILTER_INDEX)).isFalse();
+        assertThat(table.release(FILTER_INDEX)).isTrue();
+        assertThat(table.getSlotCount()).isEqualTo(0);
+        assertThat(table.getFilterIndex(KEY)).isEqualTo(-1);
+    }
+
+    @Test
+    public void release_unsharedIndex_returnsTrue() {
+        ScanFilterSlotTable table = new ScanFilterSlotTable();
+
+        assertThat(table.release(FILTER_INDEX)).isTrue();
+        assertThat(table.getReferenceCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void dump_reportsSharingRatio() {
+        ScanFilterSlotTable table = new ScanFilterSlotTable();
+        table.add(KEY, FILTER_INDEX);
+        table.acquire(KEY);
+        table.acquire(KEY);
+        StringBuilder sb = new StringBuilder();
+
+        table.dump(sb, 1, 10);
+
+        assertThat(sb.toString()).contains("1 used, 10 free");
+        assertThat(sb.toString()).contains("sharing ratio 3.00");
+    }
+}
@@ -42,6 +42,7 @@ import android.app.ActivityManager;
 import android.app.AlarmManager;
 import android.bluetooth.BluetoothProfile;
 import android.bluetooth.BluetoothProtoEnums;
+import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
@@ -1366,6 +1367,23 @@ public class ScanManagerTest {
         assertThat(client.settings.getScanMode()).isEqualTo(SCAN_MODE_BALANCED);
     }
 
+    @Test
+    public void startScan_whenScanFiltersFail_reportsFailureAndDoesNotStartScan()
+            throws Exception {
+        // Filter commands time out
+        doReturn(false).when(mScanNativeInterface).waitForCallback(anyInt());
+        sendMessageWaitForProcessed(createScreenOnOffMessage(true));
+        ScanClient client = createScanClient(0, true, SCAN_MODE_LOW_LATENCY);
+
+        sendMessageWaitForProcessed(createStartStopScanMessage(true, client));
+
+        assertThat(mScanManager.getRegularScanQueue().contains(client)).isFalse();
+        assertThat(client.started).isFalse();
+        verify(mMockGattService).onScanManagerErrorCallback(0,
+                ScanCallback.SCAN_FAILED_INTERNAL_ERROR);
+        verify(mScanNativeInterface, never()).gattClientScan(true);
+    }
+
     @Test
     public void testDowngradeWithNullClientAppScanStats() {
         // Set filtered scan flag
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.le.ScanResult;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test cases for {@link SharedScanResult}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SharedScanResultTest {
+    private static final String ADDRESS = "DD:34:02:05:5C:4D";
+    private static final byte[] ADV_DATA = new byte[] {
+            0x02, 0x01, 0x06, // Flags
+            0x03, 0x03, 0x6F, (byte) 0xFD, // 16-bit service UUID
+    };
+
+    private SharedScanResult newSharedResult() {
+        return new SharedScanResult(0x1b, 0x01, ADDRESS, 1, 0, 0xff, 127, -56, 0, ADV_DATA);
+    }
+
+    @Test
+    public void getResult_sameForm_returnsSameInstance() {
+        SharedScanResult sharedResult = newSharedResult();
+
+        ScanResult first = sharedResult.getResult(false);
+        ScanResult second = sharedResult.getResult(false);
+
+        assertThat(second).isSameInstanceAs(first);
+        assertThat(first.getDevice().getAddress()).isEqualTo(ADDRESS);
+        assertThat(first.getScanRecord().getBytes()).isEqualTo(ADV_DATA);
+        assertThat(sharedResult.getParsesSaved()).isEqualTo(1);
+    }
+
+    @Test
+    public void getResult_legacy_padsToFixedSize() {
+        SharedScanResult sharedResult = newSharedResult();
+
+        ScanResult legacy = sharedResult.getResult(true);
+        ScanResult extended = sharedResult.getResult(false);
+
+        assertThat(legacy).isNotSameInstanceAs(extended);
+        assertThat(legacy.getScanRecord().getBytes().length)
+                .isEqualTo(SharedScanResult.LEGACY_ADV_DATA_LENGTH);
+        assertThat(legacy.getTimestampNanos()).isEqualTo(extended.getTimestampNanos());
+        assertThat(sharedResult.getParsesSaved()).isEqualTo(0);
+        assertThat(sharedResult.getAllocationsSaved()).isEqualTo(0);
+    }
+
+    @Test
+    public void getAllocationsSaved_noLegacyClient_countsSkippedLegacyCopy() {
+        SharedScanResult sharedResult = newSharedResult();
+
+        sharedResult.getResult(false);
+        sharedResult.getResult(false);
+        sharedResult.getResult(false);
+        sharedResult.markDelivered();
+
+        assertThat(sharedResult.getParsesSaved()).isEqualTo(2);
+        assertThat(sharedResult.getAllocationsSaved()).isEqualTo(5);
+    }
+
+    @Test
+    public void getAllocationsSaved_resultNotDelivered_doesNotCountLegacyCopy() {
+        SharedScanResult sharedResult = newSharedResult();
+
+        // Built for the permission and filter checks of a client that did not pass them.
+        sharedResult.getResult(false);
+
+        assertThat(sharedResult.getAllocationsSaved()).isEqualTo(0);
+    }
+
+    @Test
+    public void getAllocationsSaved_noClient_countsNothing() {
+        SharedScanResult sharedResult = newSharedResult();
+
+        assertThat(sharedResult.getParsesSaved()).isEqualTo(0);
+        assertThat(sharedResult.getAllocationsSaved()).isEqualTo(0);
+    }
+
+    @Test
+    public void recordSharedScanResultSavings_reportedInDump() {
+        long parsesBefore = AppScanStats.getScanRecordParsesSaved();
+        long allocationsBefore = AppScanStats.getScanResultAllocationsSaved();
+
+        AppScanStats.recordSharedScanResultSavings(3, 7);
+
+        assertThat(AppScanStats.getScanRecordParsesSaved()).isEqualTo(parsesBefore + 3);
+        assertThat(AppScanStats.getScanResultAllocationsSaved())
+                .isEqualTo(allocationsBefore + 7);
+        StringBuilder sb = new StringBuilder();
+        AppScanStats.dumpSharedScanResultSavings(sb);
+        assertThat(sb.toString()).contains("Shared scan results");
+    }
+}
@@ -186,6 +186,9 @@ public class HeadsetServiceAndStateMachineTest {
                 .getRemoteUuids(any(BluetoothDevice.class));
         doAnswer(invocation -> mBondedDevices.toArray(new BluetoothDevice[]{})).when(
                 mAdapterService).getBondedDevices();
+        doAnswer(invocation -> mBondedDevices.contains(invocation.getArgument(0))
+                ? BluetoothDevice.BOND_BONDED : BluetoothDevice.BOND_NONE).when(mAdapterService)
+                .getBondState(any(BluetoothDevice.class));
         doReturn(new BluetoothSinkAudioPolicy.Builder().build()).when(mAdapterService)
                 .getRequestedAudioPolicyAsSink(any(BluetoothDevice.class));
         doReturn(mActiveDeviceManager).when(mAdapterService).getActiveDeviceManager();
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.le_audio;
+
+import static android.bluetooth.IBluetoothLeAudio.LE_AUDIO_GROUP_ID_INVALID;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.TestUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+/**
+ * Test cases for {@link LeAudioGroupIndex}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class LeAudioGroupIndexTest {
+    private static final int GROUP_ID = 1;
+    private static final int OTHER_GROUP_ID = 2;
+
+    private BluetoothDevice mDevice1;
+    private BluetoothDevice mDevice2;
+    private LeAudioGroupIndex mIndex;
+
+    @Before
+    public void setUp() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        mDevice1 = TestUtils.getTestDevice(adapter, 1);
+        mDevice2 = TestUtils.getTestDevice(adapter, 2);
+        mIndex = new LeAudioGroupIndex();
+    }
+
+    @Test
+    public void getGroupId_forUnknownDevice_returnsNull() {
+        assertThat(mIndex.getGroupId(mDevice1)).isNull();
+
+        mIndex.addDevice(mDevice1);
+
+        assertThat(mIndex.getGroupId(mDevice1)).isEqualTo(LE_AUDIO_GROUP_ID_INVALID);
+    }
+
+    @Test
+    public void setGroupId_addsDeviceToGroupMembers() {
+        mIndex.addDevice(mDevice1);
+        mIndex.setGroupId(mDevice1, GROUP_ID);
+        mIndex.setGroupId(mDevice2, GROUP_ID);
+
+        assertThat(mIndex.getGroupId(mDevice1)).isEqualTo(GROUP_ID);
+        assertThat(mIndex.getGroupDevices(GROUP_ID)).containsExactly(mDevice1, mDevice2).inOrder();
+        assertThat(mIndex.isGroupEmpty(GROUP_ID)).isFalse();
+        assertThat(mIndex.getGroupDevices(OTHER_GROUP_ID)).isEmpty();
+    }
+
+    @Test
+    public void setGroupId_toOtherGroup_movesDevice() {
+        mIndex.setGroupId(mDevice1, GROUP_ID);
+        mIndex.setGroupId(mDevice2, GROUP_ID);
+
+        mIndex.setGroupId(mDevice1, OTHER_GROUP_ID);
+
+        assertThat(mIndex.getGroupDevices(GROUP_ID)).containsExactly(mDevice2);
+        assertThat(mIndex.getGroupDevices(OTHER_GROUP_ID)).containsExactly(mDevice1);
+    }
+
+    @Test
+    public void setGroupId_invalid_leavesGroup() {
+        mIndex.setGroupId(mDevice1, GROUP_ID);
+
+        mIndex.setGroupId(mDevice1, LE_AUDIO_GROUP_ID_INVALID);
+
+        assertThat(mIndex.getGroupId(mDevice1)).isEqualTo(LE_AUDIO_GROUP_ID_INVALID);
+        assertThat(mIndex.isGroupEmpty(GROUP_ID)).isTrue();
+    }
+
+    @Test
+    public void removeDevice_forgetsDevice() {
+        mIndex.setGroupId(mDevice1, GROUP_ID);
+        mIndex.setGroupId(mDevice2, GROUP_ID);
+
+        mIndex.removeDevice(mDevice1);
+
+        assertThat(mIndex.getGroupId(mDevice1)).isNull();
+        assertThat(mIndex.getGroupDevices(GROUP_ID)).containsExactly(mDevice2);
+    }
+
+    @Test
+    public void getGroupDevices_returnsSnapshot() {
+        mIndex.setGroupId(mDevice1, GROUP_ID);
+        List<BluetoothDevice> members = mIndex.getGroupDevices(GROUP_ID);
+
+        mIndex.setGroupId(mDevice2, GROUP_ID);
+
+        assertThat(members).containsExactly(mDevice1);
+    }
+
+    @Test
+    public void setGroupActive_tracksActiveGroup() {
+        assertThat(mIndex.getActiveGroupId()).isEqualTo(LE_AUDIO_GROUP_ID_INVALID);
+
+        mIndex.setGroupActive(GROUP_ID, true);
+        assertThat(mIndex.getActiveGroupId()).isEqualTo(GROUP_ID);
+
+        // Deactivating another group keeps the active group.
+        mIndex.setGroupActive(OTHER_GROUP_ID, false);
+        assertThat(mIndex.getActiveGroupId()).isEqualTo(GROUP_ID);
+
+        mIndex.setGroupActive(GROUP_ID, false);
+        assertThat(mIndex.getActiveGroupId()).isEqualTo(LE_AUDIO_GROUP_ID_INVALID);
+    }
+
+    @Test
+    public void clear_forgetsEverything() {
+        mIndex.setGroupId(mDevice1, GROUP_ID);
+        mIndex.setGroupActive(GROUP_ID, true);
+
+        mIndex.clear();
+
+        assertThat(mIndex.getGroupId(mDevice1)).isNull();
+        assertThat(mIndex.isGroupEmpty(GROUP_ID)).isTrue();
+        assertThat(mIndex.getActiveGroupId()).isEqualTo(LE_AUDIO_GROUP_ID_INVALID);
+    }
+}
@@ -30,6 +30,7 @@ import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserManager;
 import android.provider.ContactsContract;
 import android.provider.Telephony;
@@ -63,6 +64,7 @@ import org.mockito.Spy;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -1935,6 +1937,125 @@ public class BluetoothMapContentObserverTest {
         verify(mProviderClient, never()).query(any(), any(), any(), any(), any(), any());
     }
 
+    @Test
+    public void getMessageId_fromNotifiedUri() {
+        Assert.assertEquals(5, BluetoothMapContentObserver.getSmsMessageId(
+                Uri.parse("content://sms/5")));
+        Assert.assertEquals(5, BluetoothMapContentObserver.getSmsMessageId(
+                Uri.parse("content://sms/inbox/5")));
+        Assert.assertEquals(-1, BluetoothMapContentObserver.getSmsMessageId(
+                Uri.parse("content://sms/conversations/5")));
+        Assert.assertEquals(-1, BluetoothMapContentObserver.getSmsMessageId(Sms.CONTENT_URI));
+        Assert.assertEquals(7, BluetoothMapContentObserver.getMmsMessageId(
+                Uri.parse("content://mms/7")));
+        Assert.assertEquals(7, BluetoothMapContentObserver.getMmsMessageId(
+                Uri.parse("content://mms/7/part")));
+        Assert.assertEquals(7, BluetoothMapContentObserver.getMmsMessageId(
+                Uri.parse("content://mms/inbox/7")));
+        Assert.assertEquals(-1, BluetoothMapContentObserver.getMmsMessageId(
+                Uri.parse("content://mms/part/7")));
+        Assert.assertEquals(-1, BluetoothMapContentObserver.getMmsMessageId(Mms.CONTENT_URI));
+    }
+
+    @Test
+    public void getChangedRowsSelection() {
+        Assert.assertEquals("_id > 10",
+                BluetoothMapContentObserver.getChangedRowsSelection("_id", 10, new HashSet<>()));
+        Assert.assertEquals("_id > 10 OR _id IN (3)",
+                BluetoothMapContentObserver.getChangedRowsSelection("_id", 10,
+                        Collections.singleton(3L)));
+    }
+
+    @Test
+    public void handleMsgListChangesSms_withIds_onlyRemovesNotifiedMessages() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {Sms._ID, Sms.TYPE, Sms.THREAD_ID,
+                Sms.READ});
+        doReturn(cursor).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(),
+                any(), any());
+
+        Map<Long, BluetoothMapContentObserver.Msg> map = new HashMap<>();
+        map.put(TEST_HANDLE_ONE, new BluetoothMapContentObserver.Msg(TEST_HANDLE_ONE,
+                TEST_SMS_TYPE_INBOX, TEST_THREAD_ID, TEST_READ_FLAG_ONE));
+        map.put(TEST_HANDLE_TWO, new BluetoothMapContentObserver.Msg(TEST_HANDLE_TWO,
+                TEST_SMS_TYPE_INBOX, TEST_THREAD_ID, TEST_READ_FLAG_ONE));
+        mObserver.setMsgListSms(map, true);
+        mObserver.mSmsIdWatermark = TEST_HANDLE_TWO;
+
+        mObserver.handleMsgListChangesSms(Collections.singleton(TEST_HANDLE_ONE));
+
+        Assert.assertFalse(mObserver.getMsgListSms().containsKey(TEST_HANDLE_ONE));
+        Assert.assertTrue(mObserver.getMsgListSms().containsKey(TEST_HANDLE_TWO));
+    }
+
+    @Test
+    public void handlePendingMsgListChanges_withMessageUri_queriesChangedRowsOnly() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {Sms._ID, Sms.TYPE, Sms.THREAD_ID,
+                Sms.READ});
+        cursor.addRow(new Object[] {TEST_HANDLE_TWO, TEST_SMS_TYPE_INBOX, TEST_THREAD_ID,
+                TEST_READ_FLAG_ONE});
+        doReturn(cursor).when(mMapMethodProxy).contentResolverQuery(any(), eq(Sms.CONTENT_URI),
+                any(), any(), any(), any());
+        doReturn(null).when(mMapMethodProxy).contentResolverQuery(any(), eq(Mms.CONTENT_URI),
+                any(), any(), any(), any());
+        mObserver.mObserverRegistered = true;
+        mObserver.mSmsIdWatermark = TEST_HANDLE_ONE;
+        mObserver.mMmsIdWatermark = 0;
+        mObserver.mLastSmsResyncMillis = SystemClock.elapsedRealtime();
+        mObserver.mLastMmsResyncMillis = SystemClock.elapsedRealtime();
+
+        mObserver.onSmsMmsChange(Uri.withAppendedPath(Sms.CONTENT_URI, "2"));
+        mObserver.handlePendingMsgListChanges();
+
+        verify(mMapMethodProxy).contentResolverQuery(any(), eq(Sms.CONTENT_URI), any(),
+                eq("_id > 1 OR _id IN (2)"), any(), any());
+        verify(mMapMethodProxy).contentResolverQuery(any(), eq(Mms.CONTENT_URI), any(),
+                eq("_id > 0"), any(), any());
+        Assert.assertTrue(mObserver.getMsgListSms().containsKey(TEST_HANDLE_TWO));
+        Assert.assertEquals(TEST_HANDLE_TWO, mObserver.mSmsIdWatermark);
+    }
+
+    @Test
+    public void handlePendingMsgListChanges_withUnattributedChange_scansFullTables() {
+        doReturn(null).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(),
+                any(), any());
+        mObserver.mObserverRegistered = true;
+        mObserver.mSmsIdWatermark = TEST_HANDLE_ONE;
+        mObserver.mMmsIdWatermark = TEST_HANDLE_ONE;
+        mObserver.mLastSmsResyncMillis = SystemClock.elapsedRealtime();
+        mObserver.mLastMmsResyncMillis = SystemClock.elapsedRealtime();
+
+        mObserver.onSmsMmsChange(Telephony.MmsSms.CONTENT_URI);
+        mObserver.handlePendingMsgListChanges();
+
+        verify(mMapMethodProxy).contentResolverQuery(any(), eq(Sms.CONTENT_URI), any(),
+                isNull(), any(), any());
+        verify(mMapMethodProxy).contentResolverQuery(any(), eq(Mms.CONTENT_URI), any(),
+                isNull(), any(), any());
+    }
+
+    @Test
+    public void handlePendingMsgListChanges_withMessageAndMmsSmsUri_queriesChangedRowsOnly() {
+        doReturn(null).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(),
+                any(), any());
+        mObserver.mObserverRegistered = true;
+        mObserver.mSmsIdWatermark = TEST_HANDLE_ONE;
+        mObserver.mMmsIdWatermark = TEST_HANDLE_ONE;
+        mObserver.mLastSmsResyncMillis = SystemClock.elapsedRealtime();
+        mObserver.mLastMmsResyncMillis = SystemClock.elapsedRealtime();
+
+        // As notified by the provider for a new SMS.
+        mObserver.onSmsMmsChange(Uri.withAppendedPath(Sms.CONTENT_URI, "2"));
+        mObserver.onSmsMmsChange(Telephony.MmsSms.CONTENT_URI);
+        mObserver.handlePendingMsgListChanges();
+
+        verify(mMapMethodProxy).contentResolverQuery(any(), eq(Sms.CONTENT_URI), any(),
+                eq("_id > 1 OR _id IN (2)"), any(), any());
+        verify(mMapMethodProxy).contentResolverQuery(any(), eq(Mms.CONTENT_URI), any(),
+                eq("_id > 1"), any(), any());
+        verify(mMapMethodProxy, never()).contentResolverQuery(any(), any(), any(), isNull(),
+                any(), any());
+    }
+
     private BluetoothMapContentObserver.Msg createSimpleMsg() {
         return new BluetoothMapContentObserver.Msg(1, 1L, 1);
     }
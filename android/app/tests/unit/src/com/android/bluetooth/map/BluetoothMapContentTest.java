@@ -1416,6 +1416,51 @@ public class BluetoothMapContentTest {
         assertThat(imElement.getThreadName()).isEqualTo(TEST_NAME);
     }
 
+    @Test
+    public void msgListing_withSmsAndMmsCursors_mergesByDate() {
+        when(mParams.getParameterMask()).thenReturn((long) BluetoothMapContent.MASK_DATETIME);
+        int smsAndMms = BluetoothMapAppParams.FILTER_NO_EMAIL | BluetoothMapAppParams.FILTER_NO_IM;
+        when(mParams.getFilterMessageType()).thenReturn(smsAndMms);
+        when(mParams.getMaxListCount()).thenReturn(2);
+        when(mParams.getStartOffset()).thenReturn(1);
+
+        mCurrentFolder.setHasSmsMmsContent(true);
+        mCurrentFolder.setFolderId(TEST_ID);
+
+        MatrixCursor smsCursor = new MatrixCursor(new String[] {BaseColumns._ID, Telephony.Sms.TYPE,
+                Telephony.Sms.READ, Telephony.Sms.BODY, Telephony.Sms.ADDRESS, Telephony.Sms.DATE,
+                Telephony.Sms.THREAD_ID, ContactsContract.Contacts.DISPLAY_NAME});
+        smsCursor.addRow(new Object[] {1L, TEST_SENT_NO, TEST_READ_FALSE, TEST_SUBJECT,
+                TEST_ADDRESS, 4000L, TEST_THREAD_ID, TEST_PHONE_NAME});
+        smsCursor.addRow(new Object[] {2L, TEST_SENT_NO, TEST_READ_TRUE, TEST_SUBJECT,
+                TEST_ADDRESS, 2000L, TEST_THREAD_ID, TEST_PHONE_NAME});
+        smsCursor.addRow(new Object[] {3L, TEST_SENT_NO, TEST_READ_TRUE, TEST_SUBJECT,
+                TEST_ADDRESS, 1000L, TEST_THREAD_ID, TEST_PHONE_NAME});
+        doReturn(smsCursor).when(mMapMethodProxy).contentResolverQuery(any(), any(),
+                eq(BluetoothMapContent.SMS_PROJECTION), any(), any(), any());
+        MatrixCursor mmsCursor = new MatrixCursor(new String[] {BaseColumns._ID,
+                Telephony.Mms.MESSAGE_BOX, Telephony.Mms.READ, Telephony.Mms.MESSAGE_SIZE,
+                Telephony.Mms.TEXT_ONLY, Telephony.Mms.DATE, Telephony.Mms.SUBJECT,
+                Telephony.Mms.THREAD_ID, Telephony.Mms.Addr.ADDRESS,
+                ContactsContract.Contacts.DISPLAY_NAME, Telephony.Mms.PRIORITY});
+        // Mms dates are in seconds.
+        mmsCursor.addRow(new Object[] {4L, TEST_SENT_NO, TEST_READ_TRUE, TEST_SIZE,
+                TEST_TEXT_ONLY, 3L, TEST_SUBJECT, TEST_THREAD_ID, TEST_PHONE,
+                TEST_PHONE_NAME, PduHeaders.PRIORITY_HIGH});
+        doReturn(mmsCursor).when(mMapMethodProxy).contentResolverQuery(any(), any(),
+                eq(BluetoothMapContent.MMS_PROJECTION), any(), any(), any());
+
+        BluetoothMapMessageListing listing = mContent.msgListing(mCurrentFolder, mParams);
+
+        assertThat(listing.getCount()).isEqualTo(2);
+        assertThat(listing.getList().get(0).getHandle()).isEqualTo(4L);
+        assertThat(listing.getList().get(0).getDateTime()).isEqualTo(3000L);
+        assertThat(listing.getList().get(1).getHandle()).isEqualTo(2L);
+        assertThat(listing.getList().get(1).getDateTime()).isEqualTo(2000L);
+        // The skipped first message is unread.
+        assertThat(listing.hasUnread()).isTrue();
+    }
+
     @Test
     public void msgListingSize() {
         when(mParams.getFilterMessageType()).thenReturn(TEST_NO_FILTER);
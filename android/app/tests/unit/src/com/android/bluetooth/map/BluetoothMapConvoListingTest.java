@@ -27,6 +27,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 
 @RunWith(AndroidJUnit4.class)
@@ -176,4 +177,18 @@ public class BluetoothMapConvoListingTest {
         assertThat(listing.getList().get(1).getConvoId()).isEqualTo(
                 signedLongLongIdTwo.toHexString());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void encodeToStream_writesSameBytesAsEncode() throws Exception {
+        final BluetoothMapConvoListingElement element = new BluetoothMapConvoListingElement();
+        element.setConvoId(0, 1111);
+        element.setName("Caf\u00e9 & \ud83d\ude00");
+        final BluetoothMapConvoListing listing = new BluetoothMapConvoListing();
+        listing.add(element);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        listing.encode(out);
+
+        assertThat(out.toByteArray()).isEqualTo(listing.encode());
+    }
+}
@@ -31,6 +31,7 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
@@ -136,6 +137,19 @@ public class BluetoothMapMessageListingTest {
         assertThat(listing.getList().get(1).getReadBool()).isTrue();
     }
 
+    @Test
+    public void encodeToStream_writesSameBytesAsEncode() throws Exception {
+        final BluetoothMapMessageListingElement element = new BluetoothMapMessageListingElement();
+        element.setDateTime(TEST_DATE_TIME_LATEST);
+        element.setSubject("Caf\u00e9 <&> \ud83d\ude00");
+        mListing.add(element);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        mListing.encode(out, true, TEST_VERSION);
+
+        assertThat(out.toByteArray()).isEqualTo(mListing.encode(true, TEST_VERSION));
+    }
+
     /**
      * Decodes the encoded xml document then append the BluetoothMapMessageListingElements to the
      * given BluetoothMapMessageListing object.
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyBoolean;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.ContentResolver;
+import android.database.MatrixCursor;
+import android.provider.ContactsContract.Contacts;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+/**
+ * Test cases for {@link ContactNameCache}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ContactNameCacheTest {
+    private static final String TEST_PHONE = "5551212";
+    private static final String TEST_NAME = "test_name";
+
+    @Mock
+    private ContentResolver mResolver;
+    @Spy
+    private BluetoothMethodProxy mMapMethodProxy = BluetoothMethodProxy.getInstance();
+
+    private ContactNameCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        BluetoothMethodProxy.setInstanceForTesting(mMapMethodProxy);
+        doNothing().when(mMapMethodProxy).contentResolverRegisterContentObserver(any(), any(),
+                anyBoolean(), any());
+        doNothing().when(mMapMethodProxy).contentResolverUnregisterContentObserver(any(), any());
+        // Each lookup gets a fresh cursor.
+        doReturn(createCursor(), createCursor(), createCursor()).when(mMapMethodProxy)
+                .contentResolverQuery(any(), any(), any(), any(), any(), any());
+        mCache = new ContactNameCache(ContactNameCache.MAX_SIZE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mCache.unregister();
+        BluetoothMethodProxy.setInstanceForTesting(null);
+    }
+
+    @Test
+    public void getContactName_whenNotRegistered_queriesEachTime() {
+        assertThat(mCache.getContactName(TEST_PHONE, mResolver)).isEqualTo(TEST_NAME);
+        assertThat(mCache.getContactName(TEST_PHONE, mResolver)).isEqualTo(TEST_NAME);
+
+        verify(mMapMethodProxy, times(2)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+    }
+
+    @Test
+    public void getContactName_whenRegistered_usesCache() {
+        mCache.register(mResolver);
+
+        assertThat(mCache.getContactName(TEST_PHONE, mResolver)).isEqualTo(TEST_NAME);
+        assertThat(mCache.getContactName(TEST_PHONE, mResolver)).isEqualTo(TEST_NAME);
+
+        verify(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(), any(), any());
+        assertThat(mCache.getHitCount()).isEqualTo(1);
+        assertThat(mCache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void getContactName_afterInvalidate_queriesAgain() {
+        mCache.register(mResolver);
+        mCache.getContactName(TEST_PHONE, mResolver);
+
+        mCache.invalidate();
+
+        assertThat(mCache.getContactName(TEST_PHONE, mResolver)).isEqualTo(TEST_NAME);
+        verify(mMapMethodProxy, times(2)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+    }
+
+    @Test
+    public void dump_showsCounters() {
+        mCache.register(mResolver);
+        mCache.getContactName(TEST_PHONE, mResolver);
+        StringBuilder sb = new StringBuilder();
+
+        mCache.dump(sb);
+
+        assertThat(sb.toString()).contains("hits=0 misses=1");
+    }
+
+    private static MatrixCursor createCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {Contacts._ID, Contacts.DISPLAY_NAME});
+        cursor.addRow(new Object[] {1L, TEST_NAME});
+        return cursor;
+    }
+}
@@ -18,11 +18,13 @@ package com.android.bluetooth.mapclient;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.Mockito.after;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -36,7 +38,9 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.provider.Telephony.Mms;
+import android.provider.Telephony.MmsSms;
 import android.provider.Telephony.Sms;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
@@ -81,6 +85,7 @@ public class MapClientContentTest {
     private Context mTargetContext;
 
     private Handler mHandler;
+    private HandlerThread mHandlerThread;
     private Bmessage mTestMessage1;
     private Bmessage mTestMessage2;
     private Long mTestMessage1Timestamp = 1234L;
@@ -88,6 +93,7 @@ public class MapClientContentTest {
     private String mTestMessage2Handle = "0002";
     private static final boolean MESSAGE_SEEN = true;
     private static final boolean MESSAGE_NOT_SEEN = false;
+    private static final long SYNC_TIMEOUT_MS = MapClientContent.SYNC_DELAY_MS + 1000;
 
 
     private VCardEntry mOriginator;
@@ -148,10 +154,15 @@ public class MapClientContentTest {
         when(mMockSubscriptionManager.getActiveSubscriptionInfoList())
                 .thenReturn(Arrays.asList(mMockSubscription));
         createTestMessages();
+        mHandlerThread = new HandlerThread(TAG);
+        mHandlerThread.start();
     }
 
     @After
     public void tearDown() throws Exception {
+        if (mHandlerThread != null) {
+            mHandlerThread.quitSafely();
+        }
     }
 
     /**
@@ -159,7 +170,8 @@ public class MapClientContentTest {
      */
     @Test
     public void testCreateMapClientContent() {
-        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
         verify(mMockSubscriptionManager).addSubscriptionInfoRecord(any(), any(), anyInt(),
                 eq(SubscriptionManager.SUBSCRIPTION_TYPE_REMOTE_SIM));
         Assert.assertEquals(0, mMockSmsContentProvider.mContentValues.size());
@@ -170,13 +182,15 @@ public class MapClientContentTest {
      */
     @Test
     public void testCleanDirtyDatabase() {
-        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
         mMapClientContent.storeMessage(mTestMessage1, mTestMessage1Handle, mTestMessage1Timestamp,
                 MESSAGE_SEEN);
         verify(mMockSubscriptionManager).addSubscriptionInfoRecord(any(), any(), anyInt(),
                 eq(SubscriptionManager.SUBSCRIPTION_TYPE_REMOTE_SIM));
         Assert.assertEquals(1, mMockSmsContentProvider.mContentValues.size());
-        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
         Assert.assertEquals(0, mMockSmsContentProvider.mContentValues.size());
     }
 
@@ -185,7 +199,8 @@ public class MapClientContentTest {
      */
     @Test
     public void testStoreTwoSMS() {
-        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
         mMapClientContent.storeMessage(mTestMessage1, mTestMessage1Handle, mTestMessage1Timestamp,
                 MESSAGE_SEEN);
         verify(mMockSubscriptionManager).addSubscriptionInfoRecord(any(), any(), anyInt(),
@@ -207,7 +222,8 @@ public class MapClientContentTest {
      */
     @Test
     public void testStoreTwoMMS() {
-        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
         mMapClientContent.storeMessage(mTestMessage2, mTestMessage1Handle, mTestMessage1Timestamp,
         MESSAGE_SEEN);
         verify(mMockSubscriptionManager).addSubscriptionInfoRecord(any(), any(), anyInt(),
@@ -227,7 +243,8 @@ public class MapClientContentTest {
      */
     @Test
     public void testStoreOneSMSOneMMS() {
-        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
         mMapClientContent.storeMessage(mTestMessage2, mTestMessage1Handle, mTestMessage1Timestamp,
                 MESSAGE_SEEN);
         verify(mMockSubscriptionManager).addSubscriptionInfoRecord(any(), any(), anyInt(),
@@ -247,7 +264,8 @@ public class MapClientContentTest {
      */
     @Test
     public void testReadStatusChanged() {
-        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
         mMapClientContent.storeMessage(mTestMessage2, mTestMessage1Handle, mTestMessage1Timestamp,
                 MESSAGE_SEEN);
         verify(mMockSubscriptionManager).addSubscriptionInfoRecord(any(), any(), anyInt(),
@@ -273,13 +291,69 @@ public class MapClientContentTest {
      */
     @Test
     public void testLocalReadStatusChanged() {
-        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
         mMapClientContent.storeMessage(mTestMessage2, mTestMessage1Handle, mTestMessage1Timestamp,
             MESSAGE_SEEN);
         Assert.assertEquals(1, mMockMmsContentProvider.mContentValues.size());
         mMapClientContent.mContentObserver.onChange(false);
+        verify(mCallbacks, timeout(SYNC_TIMEOUT_MS)).onMessageStatusChanged(
+                eq(mTestMessage1Handle), eq(BluetoothMapClient.READ));
+    }
+
+    /**
+     * Test read status changed in local provider, notified for the message URI
+     *
+     * Verify that the change is propagated to the remote without waiting
+     */
+    @Test
+    public void testLocalReadStatusChangedForMessageUri() {
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
+        mMapClientContent.storeMessage(mTestMessage2, mTestMessage1Handle, mTestMessage1Timestamp,
+                MESSAGE_SEEN);
+        Uri messageUri = (Uri) mMockMmsContentProvider.mContentValues.keySet().toArray()[0];
+        mMapClientContent.mContentObserver.onChange(false, messageUri);
+        verify(mCallbacks).onMessageStatusChanged(eq(mTestMessage1Handle),
+                eq(BluetoothMapClient.READ));
+    }
+
+    /**
+     * Test a conversation change notified along with a handled message change
+     *
+     * Verify that it does not trigger a synchronization of all the messages
+     */
+    @Test
+    public void testConversationChangeAfterMessageUri_ignored() {
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
+        mMapClientContent.storeMessage(mTestMessage2, mTestMessage1Handle, mTestMessage1Timestamp,
+                MESSAGE_SEEN);
+        Uri messageUri = (Uri) mMockMmsContentProvider.mContentValues.keySet().toArray()[0];
+        mMapClientContent.mContentObserver.onChange(false, messageUri);
         verify(mCallbacks).onMessageStatusChanged(eq(mTestMessage1Handle),
                 eq(BluetoothMapClient.READ));
+        Mockito.clearInvocations(mMockMmsContentProvider);
+
+        mMapClientContent.mContentObserver.onChange(false, MmsSms.CONTENT_URI);
+        verify(mMockMmsContentProvider, after(SYNC_TIMEOUT_MS).never())
+                .query(any(), any(), any(), any(), any());
+    }
+
+    /**
+     * Test the URIs of notified changes which designate a single message
+     */
+    @Test
+    public void testGetMessageUri() {
+        assertThat(MapClientContent.getMessageUri(Uri.parse("content://sms/inbox/12")))
+                .isEqualTo(Uri.parse("content://sms/12"));
+        assertThat(MapClientContent.getMessageUri(Uri.parse("content://mms/12")))
+                .isEqualTo(Uri.parse("content://mms/12"));
+        assertThat(MapClientContent.getMessageUri(Uri.parse("content://sms"))).isNull();
+        assertThat(MapClientContent.getMessageUri(Uri.parse("content://sms/conversations/3")))
+                .isNull();
+        assertThat(MapClientContent.getMessageUri(Uri.parse("content://mms/part/3"))).isNull();
+        assertThat(MapClientContent.getMessageUri(Uri.parse("content://mms-sms/3"))).isNull();
     }
 
     /**
@@ -287,7 +361,8 @@ public class MapClientContentTest {
      */
      @Test
      public void testStoreSmsMessageWithSeenTrue_smsWrittenWithSeenTrue() {
-        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
         mMapClientContent.storeMessage(mTestMessage1, mTestMessage1Handle, mTestMessage1Timestamp,
                 MESSAGE_SEEN);
         assertThat(mMockSmsContentProvider.mContentValues.size()).isEqualTo(1);
@@ -304,7 +379,8 @@ public class MapClientContentTest {
      */
      @Test
      public void testStoreSmsMessageWithSeenFalse_smsWrittenWithSeenFalse() {
-        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
         mMapClientContent.storeMessage(mTestMessage1, mTestMessage1Handle, mTestMessage1Timestamp,
                 MESSAGE_NOT_SEEN);
         assertThat(mMockSmsContentProvider.mContentValues.size()).isEqualTo(1);
@@ -321,7 +397,8 @@ public class MapClientContentTest {
      */
      @Test
      public void testStoreMmsMessageWithSeenTrue_mmsWrittenWithSeenTrue() {
-        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
         mMapClientContent.storeMessage(mTestMessage2, mTestMessage1Handle, mTestMessage1Timestamp,
                 MESSAGE_SEEN);
         assertThat(mMockMmsContentProvider.mContentValues.size()).isEqualTo(1);
@@ -338,7 +415,8 @@ public class MapClientContentTest {
      */
      @Test
      public void testStoreMmsMessageWithSeenFalse_mmsWrittenWithSeenFalse() {
-        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
         mMapClientContent.storeMessage(mTestMessage2, mTestMessage1Handle, mTestMessage1Timestamp,
                 MESSAGE_NOT_SEEN);
         assertThat(mMockMmsContentProvider.mContentValues.size()).isEqualTo(1);
@@ -358,7 +436,8 @@ public class MapClientContentTest {
      */
     @Test
     public void testMessageDeleted() {
-        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
         mMapClientContent.storeMessage(mTestMessage1, mTestMessage1Handle, mTestMessage1Timestamp,
                 MESSAGE_SEEN);
         verify(mMockSubscriptionManager).addSubscriptionInfoRecord(any(), any(), anyInt(),
@@ -381,7 +460,8 @@ public class MapClientContentTest {
      */
     @Test
     public void testLocalMessageDeleted() {
-        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
         mMapClientContent.storeMessage(mTestMessage1, mTestMessage1Handle, mTestMessage1Timestamp,
                 MESSAGE_SEEN);
         verify(mMockSubscriptionManager).addSubscriptionInfoRecord(any(), any(), anyInt(),
@@ -389,8 +469,8 @@ public class MapClientContentTest {
         Assert.assertEquals(1, mMockSmsContentProvider.mContentValues.size());
         mMockSmsContentProvider.mContentValues.clear();
         mMapClientContent.mContentObserver.onChange(false);
-        verify(mCallbacks).onMessageStatusChanged(eq(mTestMessage1Handle),
-                eq(BluetoothMapClient.DELETED));
+        verify(mCallbacks, timeout(SYNC_TIMEOUT_MS)).onMessageStatusChanged(
+                eq(mTestMessage1Handle), eq(BluetoothMapClient.DELETED));
     }
 
     /**
@@ -407,7 +487,8 @@ public class MapClientContentTest {
     public void testSetRemoteDeviceOwnNumber() {
         String testNumber = "5551212";
 
-        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
         assertThat(mMapClientContent.mPhoneNumber).isNull();
 
         mMapClientContent.setRemoteDeviceOwnNumber(testNumber);
@@ -419,7 +500,8 @@ public class MapClientContentTest {
      */
     @Test
     public void testStoreBadMessage() {
-        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
         mTestMessage1 = new Bmessage();
         mTestMessage1.setBodyContent("HelloWorld");
         mTestMessage1.setType(Bmessage.Type.SMS_GSM);
@@ -441,7 +523,8 @@ public class MapClientContentTest {
      */
     @Test
     public void testCleanUpRemoteException() {
-        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice,
+                mHandlerThread.getLooper());
         doThrow(java.lang.NullPointerException.class).when(mMockSubscriptionManager)
                 .removeSubscriptionInfoRecord(any(), anyInt());
         mMapClientContent.cleanUp();
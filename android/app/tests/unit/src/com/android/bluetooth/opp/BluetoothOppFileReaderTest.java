@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothOppFileReaderTest {
+    private static final byte[] DATA = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new File(InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getCacheDir(), "opp_file_reader_test");
+        try (FileOutputStream os = new FileOutputStream(mFile)) {
+            os.write(DATA);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void read_fromFile_returnsFullChunksInOrder() throws IOException {
+        try (FileInputStream is = new FileInputStream(mFile)) {
+            assertReadsDataInChunksOf4(is);
+        }
+    }
+
+    @Test
+    public void read_fromStream_returnsFullChunksInOrder() throws IOException {
+        assertReadsDataInChunksOf4(new ByteArrayInputStream(DATA));
+    }
+
+    @Test
+    public void read_stopsAtLength() throws IOException {
+        BluetoothOppFileReader reader =
+                new BluetoothOppFileReader(new ByteArrayInputStream(DATA), 4, 6);
+        reader.start();
+        byte[] buffer = new byte[4];
+
+        assertThat(reader.read(buffer)).isEqualTo(4);
+        assertThat(reader.read(buffer)).isEqualTo(2);
+        assertThat(reader.read(buffer)).isEqualTo(-1);
+        reader.close();
+    }
+
+    @Test
+    public void read_whenStreamFails_throwsIOException() throws IOException {
+        InputStream is = mock(InputStream.class);
+        doThrow(new IOException()).when(is).read(any(), anyInt(), anyInt());
+        BluetoothOppFileReader reader = new BluetoothOppFileReader(is, 4, DATA.length);
+        reader.start();
+
+        assertThrows(IOException.class, () -> reader.read(new byte[4]));
+        reader.close();
+    }
+
+    private static void assertReadsDataInChunksOf4(InputStream is) throws IOException {
+        BluetoothOppFileReader reader = new BluetoothOppFileReader(is, 4, DATA.length);
+        reader.start();
+        byte[] buffer = new byte[4];
+
+        assertThat(reader.read(buffer)).isEqualTo(4);
+        assertThat(buffer).isEqualTo(Arrays.copyOfRange(DATA, 0, 4));
+        assertThat(reader.read(buffer)).isEqualTo(4);
+        assertThat(buffer).isEqualTo(Arrays.copyOfRange(DATA, 4, 8));
+        assertThat(reader.read(buffer)).isEqualTo(2);
+        assertThat(Arrays.copyOf(buffer, 2)).isEqualTo(Arrays.copyOfRange(DATA, 8, 10));
+        assertThat(reader.read(buffer)).isEqualTo(-1);
+        reader.close();
+    }
+}
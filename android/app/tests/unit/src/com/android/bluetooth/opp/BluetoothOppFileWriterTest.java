@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothOppFileWriterTest {
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getCacheDir(), "opp_file_writer_test");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void finish_toFile_writesChunksInOrder() throws IOException {
+        try (FileOutputStream os = new FileOutputStream(mFile)) {
+            writeChunks(os);
+        }
+
+        assertThat(Files.readAllBytes(mFile.toPath())).isEqualTo(new byte[] {1, 2, 3, 4, 5});
+    }
+
+    @Test
+    public void finish_toStream_writesChunksInOrder() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        writeChunks(os);
+
+        assertThat(os.toByteArray()).isEqualTo(new byte[] {1, 2, 3, 4, 5});
+    }
+
+    @Test
+    public void finish_whenStreamFails_throwsIOException() throws IOException {
+        OutputStream os = mock(OutputStream.class);
+        doThrow(new IOException()).when(os).write(any(), anyInt(), anyInt());
+        BluetoothOppFileWriter writer = new BluetoothOppFileWriter(os, 2);
+        writer.start();
+
+        writer.write(new byte[] {1, 2}, 2);
+
+        assertThrows(IOException.class, writer::finish);
+    }
+
+    private static void writeChunks(OutputStream os) throws IOException {
+        BluetoothOppFileWriter writer = new BluetoothOppFileWriter(os, 2);
+        writer.start();
+        byte[] buffer = new byte[2];
+        for (int i = 1; i <= 5; i += 2) {
+            buffer[0] = (byte) i;
+            buffer[1] = (byte) (i + 1);
+            // The buffer is reused, as for received packets.
+            writer.write(buffer, i == 5 ? 1 : 2);
+        }
+        writer.finish();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.Context;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothOppProgressReporterTest {
+    private static final int SHARE_ID = 42;
+
+    @Mock
+    BluetoothMethodProxy mBluetoothMethodProxy;
+
+    private Context mContext;
+    private BluetoothOppProgressReporter mReporter;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        BluetoothMethodProxy.setInstanceForTesting(mBluetoothMethodProxy);
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mReporter = new BluetoothOppProgressReporter(mContext, SHARE_ID);
+    }
+
+    @After
+    public void tearDown() {
+        mReporter.finish();
+        BluetoothMethodProxy.setInstanceForTesting(null);
+    }
+
+    @Test
+    public void update_beforePersistInterval_publishesInMemoryOnly() {
+        mReporter.update(100);
+
+        verify(mBluetoothMethodProxy, never()).contentResolverUpdate(any(), any(), any(), any(),
+                any());
+        assertThat(BluetoothOppProgressReporter.getCurrentBytes(SHARE_ID, 0)).isEqualTo(100);
+        assertThat(BluetoothOppProgressReporter.hasRunningTransfers()).isTrue();
+        assertThat(BluetoothOppProgressReporter.getThroughput(SHARE_ID)).isAtLeast(0);
+    }
+
+    @Test
+    public void persist_writesCurrentBytesOnce() {
+        mReporter.update(100);
+
+        mReporter.persist();
+        mReporter.persist();
+
+        verify(mBluetoothMethodProxy, times(1)).contentResolverUpdate(any(), any(),
+                argThat(values -> values.getAsLong(BluetoothShare.CURRENT_BYTES) == 100), any(),
+                any());
+    }
+
+    @Test
+    public void finish_writesCurrentBytesAndStopsPublishing() {
+        mReporter.update(100);
+
+        mReporter.finish();
+
+        verify(mBluetoothMethodProxy).contentResolverUpdate(any(), any(),
+                argThat(values -> values.getAsLong(BluetoothShare.CURRENT_BYTES) == 100), any(),
+                any());
+        assertThat(BluetoothOppProgressReporter.getCurrentBytes(SHARE_ID, 7)).isEqualTo(7);
+        assertThat(BluetoothOppProgressReporter.getThroughput(SHARE_ID)).isEqualTo(-1);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Collections;
+
+/**
+ * Test cases for {@link BluetoothPbapVcardCache}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothPbapVcardCacheTest {
+    private static final String FORMAT = "1-n-all";
+
+    private File mDir;
+    private BluetoothPbapVcardCache mCache;
+
+    @Before
+    public void setUp() {
+        mDir = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "pbap_vcard_cache_test");
+        mCache = new BluetoothPbapVcardCache(mDir, 10);
+        mCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        mCache.clear();
+        mDir.delete();
+    }
+
+    @Test
+    public void get_afterPut_returnsVCard() {
+        mCache.put(FORMAT, 1, 100, "vCard".getBytes());
+
+        assertThat(mCache.contains(FORMAT, 1, 100)).isTrue();
+        assertThat(mCache.get(FORMAT, 1, 100)).isEqualTo("vCard".getBytes());
+    }
+
+    @Test
+    public void get_withOtherVersionOrFormat_returnsNull() {
+        mCache.put(FORMAT, 1, 100, "vCard".getBytes());
+
+        assertThat(mCache.get("1-n-ff", 1, 100)).isNull();
+        assertThat(mCache.get(FORMAT, 1, 101)).isNull();
+        // The outdated vCard is dropped.
+        assertThat(mCache.contains(FORMAT, 1, 100)).isFalse();
+    }
+
+    @Test
+    public void get_fromNewInstance_readsVCardsOnDisk() {
+        mCache.put(FORMAT, 1, 100, "vCard".getBytes());
+
+        BluetoothPbapVcardCache cache = new BluetoothPbapVcardCache(mDir, 10);
+
+        assertThat(cache.get(FORMAT, 1, 100)).isEqualTo("vCard".getBytes());
+    }
+
+    @Test
+    public void put_overMaxSize_evictsLeastRecentlyUsed() {
+        mCache.put(FORMAT, 1, 100, "vCard".getBytes());
+        mCache.put(FORMAT, 2, 100, "vCard".getBytes());
+        mCache.get(FORMAT, 1, 100);
+
+        mCache.put(FORMAT, 3, 100, "vCard".getBytes());
+
+        assertThat(mCache.contains(FORMAT, 1, 100)).isTrue();
+        assertThat(mCache.contains(FORMAT, 2, 100)).isFalse();
+        assertThat(mCache.contains(FORMAT, 3, 100)).isTrue();
+    }
+
+    @Test
+    public void remove_dropsVCardsOfContactInEveryFormat() {
+        mCache.put(FORMAT, 1, 100, "v1".getBytes());
+        mCache.put("1-n-ff", 1, 100, "v1".getBytes());
+        mCache.put(FORMAT, 2, 100, "v2".getBytes());
+
+        mCache.remove(Collections.singleton("1"));
+
+        assertThat(mCache.contains(FORMAT, 1, 100)).isFalse();
+        assertThat(mCache.contains("1-n-ff", 1, 100)).isFalse();
+        assertThat(mCache.contains(FORMAT, 2, 100)).isTrue();
+    }
+
+    @Test
+    public void dump_printsHitsAndMisses() {
+        mCache.put(FORMAT, 1, 100, "vCard".getBytes());
+        mCache.get(FORMAT, 1, 100);
+        mCache.get(FORMAT, 2, 100);
+
+        StringBuilder sb = new StringBuilder();
+        mCache.dump(sb);
+
+        assertThat(sb.toString()).contains("hits=1 misses=1");
+    }
+}
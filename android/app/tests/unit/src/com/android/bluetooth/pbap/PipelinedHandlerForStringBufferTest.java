@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.obex.Operation;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Test cases for {@link PipelinedHandlerForStringBuffer}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PipelinedHandlerForStringBufferTest {
+
+    @Mock
+    private Operation mOperation;
+
+    @Mock
+    private OutputStream mOutputStream;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(mOperation.openOutputStream()).thenReturn(mOutputStream);
+    }
+
+    @Test
+    public void terminate_sendsPendingVCardsInOrderBeforeClosing() throws Exception {
+        String ownerVcard = "testOwnerVcard";
+        PipelinedHandlerForStringBuffer buffer =
+                new PipelinedHandlerForStringBuffer(mOperation, ownerVcard);
+        assertThat(buffer.init()).isTrue();
+
+        for (int i = 0; i < PipelinedHandlerForStringBuffer.MAX_PENDING_VCARDS * 2; i++) {
+            assertThat(buffer.writeVCard("vCard" + i)).isTrue();
+        }
+        buffer.terminate();
+
+        InOrder order = inOrder(mOutputStream);
+        order.verify(mOutputStream).write(ownerVcard.getBytes());
+        for (int i = 0; i < PipelinedHandlerForStringBuffer.MAX_PENDING_VCARDS * 2; i++) {
+            order.verify(mOutputStream).write(("vCard" + i).getBytes());
+        }
+        order.verify(mOutputStream).close();
+        assertThat(buffer.hasFailed()).isFalse();
+    }
+
+    @Test
+    public void writeVCard_afterAbort_returnsFalse() throws Exception {
+        PipelinedHandlerForStringBuffer buffer =
+                new PipelinedHandlerForStringBuffer(mOperation, /*ownerVcard=*/null);
+        buffer.init();
+
+        buffer.abort();
+
+        assertThat(buffer.writeVCard("newVCard")).isFalse();
+        buffer.terminate();
+        verify(mOutputStream, never()).write(any());
+    }
+
+    @Test
+    public void writeVCard_afterFailedWrite_returnsFalse() throws Exception {
+        doThrow(new IOException()).when(mOutputStream).write(any(byte[].class));
+        PipelinedHandlerForStringBuffer buffer =
+                new PipelinedHandlerForStringBuffer(mOperation, /*ownerVcard=*/null);
+        buffer.init();
+
+        boolean written = true;
+        // The failure is noticed once the sender thread tried to write the vCard.
+        for (int i = 0; written && i < PipelinedHandlerForStringBuffer.MAX_PENDING_VCARDS * 4;
+                i++) {
+            written = buffer.writeVCard("newVCard");
+            Thread.sleep(10);
+        }
+        buffer.terminate();
+
+        assertThat(written).isFalse();
+        assertThat(buffer.hasFailed()).isTrue();
+    }
+
+    @Test
+    public void hasFailed_afterFailedWriteOfLastVCards_returnsTrue() throws Exception {
+        doThrow(new IOException()).when(mOutputStream).write(any(byte[].class));
+        PipelinedHandlerForStringBuffer buffer =
+                new PipelinedHandlerForStringBuffer(mOperation, /*ownerVcard=*/null);
+        buffer.init();
+
+        // Queued without waiting, the failure is only known once terminate() sent them.
+        assertThat(buffer.writeVCard("newVCard")).isTrue();
+        buffer.terminate();
+
+        assertThat(buffer.hasFailed()).isTrue();
+    }
+
+    @Test
+    public void hasFailed_afterAbort_returnsFalse() throws Exception {
+        PipelinedHandlerForStringBuffer buffer =
+                new PipelinedHandlerForStringBuffer(mOperation, /*ownerVcard=*/null);
+        buffer.init();
+
+        buffer.abort();
+        buffer.terminate();
+
+        assertThat(buffer.hasFailed()).isFalse();
+    }
+}
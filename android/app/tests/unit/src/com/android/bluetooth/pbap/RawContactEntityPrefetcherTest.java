@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.RawContacts;
+import android.provider.ContactsContract.RawContactsEntity;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test cases for {@link RawContactEntityPrefetcher}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class RawContactEntityPrefetcherTest {
+    private static final String[] ENTITY_COLUMNS = createEntityColumns();
+
+    @Mock
+    private ContentResolver mResolver;
+    @Spy
+    private BluetoothMethodProxy mPbapMethodProxy = BluetoothMethodProxy.getInstance();
+
+    private MatrixCursor mContactIdCursor;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        BluetoothMethodProxy.setInstanceForTesting(mPbapMethodProxy);
+        mContactIdCursor = new MatrixCursor(new String[] {Contacts._ID});
+        mContactIdCursor.addRow(new Object[] {1L});
+        mContactIdCursor.addRow(new Object[] {2L});
+        mContactIdCursor.addRow(new Object[] {3L});
+        mContactIdCursor.moveToFirst();
+    }
+
+    @After
+    public void tearDown() {
+        BluetoothMethodProxy.setInstanceForTesting(null);
+    }
+
+    @Test
+    public void getRawContactEntity_readsContactsOfWindowInOneQuery() {
+        MatrixCursor firstWindow = new MatrixCursor(ENTITY_COLUMNS);
+        addEntityRow(firstWindow, 1, 10, 100, Phone.CONTENT_ITEM_TYPE, "555-0001");
+        addEntityRow(firstWindow, 1, 10, 101, Phone.CONTENT_ITEM_TYPE, "555-0002");
+        addEntityRow(firstWindow, 2, 20, 200, StructuredName.CONTENT_ITEM_TYPE, "Name");
+        MatrixCursor secondWindow = new MatrixCursor(ENTITY_COLUMNS);
+        doReturn(firstWindow, secondWindow).when(mPbapMethodProxy).contentResolverQuery(any(),
+                any(), any(), any(), any(), any());
+        RawContactEntityPrefetcher prefetcher =
+                new RawContactEntityPrefetcher(mResolver,
+                        RawContactEntityPrefetcher.readContactIds(mContactIdCursor, 0), 2);
+
+        Map<String, List<ContentValues>> first = prefetcher.getRawContactEntity(1);
+        Map<String, List<ContentValues>> second = prefetcher.getRawContactEntity(2);
+
+        verify(mPbapMethodProxy).contentResolverQuery(any(), eq(RawContactsEntity.CONTENT_URI),
+                any(), eq(Data.CONTACT_ID + " IN (1,2)"), any(), any());
+        assertThat(first.get(Phone.CONTENT_ITEM_TYPE)).hasSize(2);
+        assertThat(first.get(Phone.CONTENT_ITEM_TYPE).get(0).getAsString(Data.DATA1))
+                .isEqualTo("555-0001");
+        assertThat(first.get(Phone.CONTENT_ITEM_TYPE).get(1).getAsString(Data.DATA1))
+                .isEqualTo("555-0002");
+        assertThat(second.keySet()).containsExactly(StructuredName.CONTENT_ITEM_TYPE);
+        // The cursor is left where the composer expects it.
+        assertThat(mContactIdCursor.getPosition()).isEqualTo(0);
+    }
+
+    @Test
+    public void getRawContactEntity_whenContactWasDeleted_returnsEmptyMap() {
+        doReturn(new MatrixCursor(ENTITY_COLUMNS), new MatrixCursor(ENTITY_COLUMNS))
+                .when(mPbapMethodProxy).contentResolverQuery(any(), any(), any(), any(), any(),
+                        any());
+        RawContactEntityPrefetcher prefetcher =
+                new RawContactEntityPrefetcher(mResolver,
+                        RawContactEntityPrefetcher.readContactIds(mContactIdCursor, 0), 2);
+
+        prefetcher.getRawContactEntity(1);
+        prefetcher.getRawContactEntity(2);
+        assertThat(prefetcher.getRawContactEntity(3)).isEmpty();
+
+        verify(mPbapMethodProxy, times(2)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+    }
+
+    private static String[] createEntityColumns() {
+        List<String> columns = new ArrayList<>();
+        columns.add(RawContacts._ID);
+        columns.add(RawContacts.CONTACT_ID);
+        columns.add(RawContactsEntity.DATA_ID);
+        columns.add(Data.MIMETYPE);
+        for (int i = 1; i <= 15; i++) {
+            columns.add("data" + i);
+        }
+        for (int i = 1; i <= 4; i++) {
+            columns.add("data_sync" + i);
+        }
+        return columns.toArray(new String[0]);
+    }
+
+    private static void addEntityRow(MatrixCursor cursor, long contactId, long rawContactId,
+            long dataId, String mimeType, String data1) {
+        MatrixCursor.RowBuilder row = cursor.newRow();
+        row.add(RawContacts._ID, rawContactId);
+        row.add(RawContacts.CONTACT_ID, contactId);
+        row.add(RawContactsEntity.DATA_ID, dataId);
+        row.add(Data.MIMETYPE, mimeType);
+        row.add(Data.DATA1, data1);
+    }
+}
@@ -22,6 +22,7 @@ import static com.google.common.truth.Truth.assertWithMessage;
 import androidx.test.filters.SmallTest;
 import androidx.test.runner.AndroidJUnit4;
 
+import com.android.bluetooth.ObexAppParameters;
 import com.android.obex.HeaderSet;
 
 import org.junit.Before;
@@ -49,4 +50,24 @@ public class BluetoothPbapRequestPullPhoneBookSizeTest {
             assertWithMessage("Exception should not happen.").fail();
         }
     }
+
+    @Test
+    public void readResponseHeaders_withVersionCounterAndDatabaseIdentifier() {
+        byte[] versionCounter = new byte[16];
+        versionCounter[15] = 0x2a;
+        byte[] databaseIdentifier = new byte[16];
+        databaseIdentifier[0] = (byte) 0xff;
+        ObexAppParameters oap = new ObexAppParameters();
+        oap.add(BluetoothPbapRequest.OAP_TAGID_PRIMARY_VERSION_COUNTER, versionCounter);
+        oap.add(BluetoothPbapRequest.OAP_TAGID_DATABASE_IDENTIFIER, databaseIdentifier);
+        HeaderSet headerSet = new HeaderSet();
+        oap.addToHeaderSet(headerSet);
+
+        mRequest.readResponseHeaders(headerSet);
+
+        assertThat(mRequest.getPrimaryVersionCounter())
+                .isEqualTo("0000000000000000000000000000002a");
+        assertThat(mRequest.getDatabaseIdentifier())
+                .isEqualTo("ff000000000000000000000000000000");
+    }
 }
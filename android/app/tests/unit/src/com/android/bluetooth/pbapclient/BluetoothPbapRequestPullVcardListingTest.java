@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbapclient;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothPbapRequestPullVcardListingTest {
+
+    @Test
+    public void readResponse_readsHandlesAndNames() throws IOException {
+        String listing = "<?xml version=\"1.0\"?>"
+                + "<!DOCTYPE vcard-listing SYSTEM \"vcard-listing.dtd\">"
+                + "<vCard-listing version=\"1.0\">"
+                + "<card handle=\"0.vcf\" name=\"Owner\"/>"
+                + "<card handle=\"1.vcf\" name=\"Doe;John\"/>"
+                + "<card handle=\"2.vcf\"/>"
+                + "</vCard-listing>";
+        BluetoothPbapRequestPullVcardListing request = new BluetoothPbapRequestPullVcardListing();
+
+        request.readResponse(
+                new ByteArrayInputStream(listing.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(request.getList()).hasSize(3);
+        assertThat(request.getList().get(1).handle).isEqualTo("1.vcf");
+        assertThat(request.getList().get(1).name).isEqualTo("Doe;John");
+        assertThat(request.getList().get(2).name).isEmpty();
+    }
+}
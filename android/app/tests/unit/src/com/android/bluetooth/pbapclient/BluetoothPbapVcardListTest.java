@@ -19,7 +19,9 @@ package com.android.bluetooth.pbapclient;
 import static com.google.common.truth.Truth.assertThat;
 
 import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 import android.accounts.Account;
 import android.content.Context;
@@ -31,6 +33,7 @@ import androidx.test.runner.AndroidJUnit4;
 
 import com.android.bluetooth.R;
 import com.android.bluetooth.TestUtils;
+import com.android.vcard.VCardEntryHandler;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -98,6 +101,21 @@ public class BluetoothPbapVcardListTest {
         assertThat(result.getCount()).isEqualTo(1);
     }
 
+    @Test
+    public void constructor_withEntryHandler_handsEntriesOver() throws IOException {
+        InputStream fileStream = mTestResources.openRawResource(
+                com.android.bluetooth.tests.R.raw.v21_simple);
+        VCardEntryHandler handler = mock(VCardEntryHandler.class);
+
+        // The entry is handed over once, although the stream is parsed twice.
+        BluetoothPbapVcardList result = new BluetoothPbapVcardList(ACCOUNT, fileStream,
+                PbapClientConnectionHandler.VCARD_TYPE_30, handler);
+
+        verify(handler).onEntryCreated(any());
+        assertThat(result.getCount()).isEqualTo(1);
+        assertThat(result.getList()).isEmpty();
+    }
+
     @Test
     public void test30ParserWithUnsupportedVcardVersion_parsingFails() throws IOException {
         InputStream fileStream = mTestResources.openRawResource(
@@ -183,4 +183,14 @@ public class PbapClientConnectionHandlerTest {
 
         assertThat(mHandler.isRepositorySupported(mask)).isTrue();
     }
+
+    @Test
+    public void isIncrementalSyncSupported_whenDisabledByDefault_returnsFalse() {
+        SdpPseRecord record = mock(SdpPseRecord.class);
+        when(record.getProfileVersion()).thenReturn(PbapClientConnectionHandler.PBAP_V1_2);
+        when(record.getSupportedFeatures()).thenReturn(0x0C);
+        mHandler.setPseRecord(record);
+
+        assertThat(mHandler.isIncrementalSyncSupported()).isFalse();
+    }
 }
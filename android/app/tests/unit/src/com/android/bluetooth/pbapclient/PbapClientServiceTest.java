@@ -350,6 +350,32 @@ public class PbapClientServiceTest {
         verify(sm).tryDownloadIfConnected();
     }
 
+    @Test
+    public void handleBondStateChanged_toBondNone_removesCallLog() {
+        BluetoothMethodProxy methodProxy = spy(BluetoothMethodProxy.getInstance());
+        BluetoothMethodProxy.setInstanceForTesting(methodProxy);
+
+        mService.handleBondStateChanged(
+                mRemoteDevice, BluetoothDevice.BOND_BONDED, BluetoothDevice.BOND_NONE);
+        TestUtils.waitForLooperToFinishScheduledTask(Looper.getMainLooper());
+
+        verify(methodProxy).contentResolverDelete(any(), eq(CallLog.Calls.CONTENT_URI),
+                eq(CallLog.Calls.PHONE_ACCOUNT_ID + "=?"),
+                eq(new String[] {mRemoteDevice.getAddress()}));
+    }
+
+    @Test
+    public void handleBondStateChanged_toBonded_keepsCallLog() {
+        BluetoothMethodProxy methodProxy = spy(BluetoothMethodProxy.getInstance());
+        BluetoothMethodProxy.setInstanceForTesting(methodProxy);
+
+        mService.handleBondStateChanged(
+                mRemoteDevice, BluetoothDevice.BOND_BONDING, BluetoothDevice.BOND_BONDED);
+        TestUtils.waitForLooperToFinishScheduledTask(Looper.getMainLooper());
+
+        verify(methodProxy, never()).contentResolverDelete(any(), any(), any(), any());
+    }
+
     @Test
     public void headsetClientConnectionStateChanged_hfpCallLogIsRemoved() {
         BluetoothMethodProxy methodProxy = spy(BluetoothMethodProxy.getInstance());
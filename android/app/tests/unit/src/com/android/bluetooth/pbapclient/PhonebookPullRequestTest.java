@@ -18,10 +18,19 @@ package com.android.bluetooth.pbapclient;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import android.accounts.Account;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.Context;
+import android.content.OperationApplicationException;
+import android.provider.ContactsContract;
 
 import androidx.test.filters.SmallTest;
 import androidx.test.platform.app.InstrumentationRegistry;
@@ -74,6 +83,53 @@ public class PhonebookPullRequestTest {
         assertThat(mRequest.complete).isTrue();
     }
 
+    @Test
+    public void finish_afterEntriesHandedOver_completes() {
+        mRequest.start();
+        for (int i = 0; i < PhonebookPullRequest.MAX_PENDING_ENTRIES * 2; i++) {
+            mRequest.onEntryCreated(createEntry(1));
+        }
+
+        mRequest.finish();
+
+        assertThat(mRequest.complete).isTrue();
+    }
+
+    @Test
+    public void onEntryCreated_forFavorites_starsEntry() {
+        PhonebookPullRequest request = new PhonebookPullRequest(mTargetContext,
+                mock(Account.class), PbapClientConnectionHandler.FAV_PATH);
+        VCardEntry entry = mock(VCardEntry.class);
+        request.start();
+
+        request.onEntryCreated(entry);
+        request.finish();
+
+        verify(entry).setStarred(true);
+    }
+
+    @Test
+    public void finish_afterFailedBatch_insertsNextBatchesAndReportsFailure() throws Exception {
+        Context context = mock(Context.class);
+        ContentResolver resolver = mock(ContentResolver.class);
+        when(context.getContentResolver()).thenReturn(resolver);
+        when(resolver.applyBatch(eq(ContactsContract.AUTHORITY), any()))
+                .thenThrow(new OperationApplicationException())
+                .thenReturn(new ContentProviderResult[0]);
+        PhonebookPullRequest request = new PhonebookPullRequest(context, mock(Account.class));
+        request.start();
+
+        request.onEntryCreated(createEntry(200));
+        request.onEntryCreated(createEntry(200));
+        request.onEntryCreated(createEntry(1));
+        request.finish();
+
+        // The first entry fails to be inserted, the second one is inserted with the third one.
+        verify(resolver, times(2)).applyBatch(eq(ContactsContract.AUTHORITY), any());
+        assertThat(request.complete).isTrue();
+        assertThat(request.hasFailed()).isTrue();
+    }
+
     private VCardProperty createProperty(String name, String value) {
         VCardProperty property = new VCardProperty();
         property.setName(name);
@@ -335,30 +335,46 @@ public final class ScanRecord {
      */
     public static final int DATA_TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
 
+    // Fields of a lazily parsed record, decoded on first access.
+    private static final int LAZY_SERVICE_UUIDS = 1 << 0;
+    private static final int LAZY_MANUFACTURER_DATA = 1 << 1;
+    private static final int LAZY_SERVICE_DATA = 1 << 2;
+    private static final int LAZY_DEVICE_NAME = 1 << 3;
+    private static final int LAZY_ADVERTISING_DATA_MAP = 1 << 4;
+
+    // Entries of the AD structure offset table: field type, data offset and data length.
+    private static final int AD_STRUCTURE_SIZE = 3;
+
     // Flags of the advertising data.
     private final int mAdvertiseFlags;
 
-    @Nullable private final List<ParcelUuid> mServiceUuids;
-    @Nullable private final List<ParcelUuid> mServiceSolicitationUuids;
+    @Nullable private List<ParcelUuid> mServiceUuids;
+    @Nullable private List<ParcelUuid> mServiceSolicitationUuids;
 
-    private final SparseArray<byte[]> mManufacturerSpecificData;
+    private SparseArray<byte[]> mManufacturerSpecificData;
 
-    private final Map<ParcelUuid, byte[]> mServiceData;
+    private Map<ParcelUuid, byte[]> mServiceData;
 
     // Transmission power level(in dB).
     private final int mTxPowerLevel;
 
     // Local name of the Bluetooth LE device.
-    private final String mDeviceName;
+    private String mDeviceName;
 
     // Raw bytes of scan record.
     private final byte[] mBytes;
 
-    private final Map<Integer, byte[]> mAdvertisingDataMap;
+    private Map<Integer, byte[]> mAdvertisingDataMap;
 
     // Transport Discovery data.
     private final TransportDiscoveryData mTransportDiscoveryData;
 
+    // AD structure offset table of a lazily parsed record, null once every field is decoded.
+    @Nullable private int[] mAdStructures;
+
+    // LAZY_* fields not decoded yet. Written after the decoded field, read before it.
+    private volatile int mPendingFields;
+
     /**
      * Returns the advertising flags indicating the discoverable mode and capability of the device.
      * Returns -1 if the flag field is not set.
@@ -372,6 +388,7 @@ public final class ScanRecord {
      * bluetooth GATT services.
      */
     public List<ParcelUuid> getServiceUuids() {
+        decodeIfPending(LAZY_SERVICE_UUIDS);
         return mServiceUuids;
     }
 
@@ -381,6 +398,7 @@ public final class ScanRecord {
      */
     @NonNull
     public List<ParcelUuid> getServiceSolicitationUuids() {
+        decodeIfPending(LAZY_SERVICE_UUIDS);
         return mServiceSolicitationUuids;
     }
 
@@ -389,6 +407,7 @@ public final class ScanRecord {
      * data.
      */
     public SparseArray<byte[]> getManufacturerSpecificData() {
+        decodeIfPending(LAZY_MANUFACTURER_DATA);
         return mManufacturerSpecificData;
     }
 
@@ -398,6 +417,7 @@ public final class ScanRecord {
      */
     @Nullable
     public byte[] getManufacturerSpecificData(int manufacturerId) {
+        decodeIfPending(LAZY_MANUFACTURER_DATA);
         if (mManufacturerSpecificData == null) {
             return null;
         }
@@ -406,6 +426,7 @@ public final class ScanRecord {
 
     /** Returns a map of service UUID and its corresponding service data. */
     public Map<ParcelUuid, byte[]> getServiceData() {
+        decodeIfPending(LAZY_SERVICE_DATA);
         return mServiceData;
     }
 
@@ -415,7 +436,11 @@ public final class ScanRecord {
      */
     @Nullable
     public byte[] getServiceData(ParcelUuid serviceDataUuid) {
-        if (serviceDataUuid == null || mServiceData == null) {
+        if (serviceDataUuid == null) {
+            return null;
+        }
+        decodeIfPending(LAZY_SERVICE_DATA);
+        if (mServiceData == null) {
             return null;
         }
         return mServiceData.get(serviceDataUuid);
@@ -435,6 +460,7 @@ public final class ScanRecord {
     /** Returns the local name of the BLE device. This is a UTF-8 encoded string. */
     @Nullable
     public String getDeviceName() {
+        decodeIfPending(LAZY_DEVICE_NAME);
         return mDeviceName;
     }
 
@@ -444,6 +470,7 @@ public final class ScanRecord {
      * (https://www.bluetooth.com/specifications/assigned-numbers/)
      */
     public @NonNull Map<Integer, byte[]> getAdvertisingDataMap() {
+        decodeIfPending(LAZY_ADVERTISING_DATA_MAP);
         return mAdvertisingDataMap;
     }
 
@@ -506,6 +533,20 @@ public final class ScanRecord {
         mBytes = bytes;
     }
 
+    private ScanRecord(int advertiseFlags, int txPowerLevel, int[] adStructures, byte[] bytes) {
+        mAdvertiseFlags = advertiseFlags;
+        mTxPowerLevel = txPowerLevel;
+        mTransportDiscoveryData = null;
+        mAdStructures = adStructures;
+        mPendingFields =
+                LAZY_SERVICE_UUIDS
+                        | LAZY_MANUFACTURER_DATA
+                        | LAZY_SERVICE_DATA
+                        | LAZY_DEVICE_NAME
+                        | LAZY_ADVERTISING_DATA_MAP;
+        mBytes = bytes;
+    }
+
     /**
      * Parse scan record bytes to {@link ScanRecord}.
      *
@@ -689,22 +730,250 @@ public final class ScanRecord {
         }
     }
 
+    /**
+     * Parse scan record bytes to a lazily decoded {@link ScanRecord}.
+     *
+     * <p>Only the AD structure boundaries, the flags and the tx power level are read here. Service
+     * UUIDs, service data, manufacturer specific data, the local name and the advertising data map
+     * are decoded from the raw bytes on first access, without copying fields nobody reads. The
+     * public getters return the same values as for a record from {@link #parseFromBytes}.
+     *
+     * @param scanRecord The scan record of Bluetooth LE advertisement and/or scan response.
+     * @hide
+     */
+    public static ScanRecord parseFromBytesLazily(byte[] scanRecord) {
+        if (scanRecord == null) {
+            return null;
+        }
+
+        int count = 0;
+        int currentPos = 0;
+        while (currentPos < scanRecord.length) {
+            int length = scanRecord[currentPos++] & 0xFF;
+            if (length == 0) {
+                break;
+            }
+            count++;
+            currentPos += length;
+        }
+
+        int[] adStructures = new int[count * AD_STRUCTURE_SIZE];
+        int advertiseFlag = -1;
+        int txPowerLevel = Integer.MIN_VALUE;
+        currentPos = 0;
+        for (int i = 0; i < adStructures.length; i += AD_STRUCTURE_SIZE) {
+            int dataLength = (scanRecord[currentPos++] & 0xFF) - 1;
+            if (currentPos >= scanRecord.length
+                    || currentPos + 1 + dataLength > scanRecord.length) {
+                // Truncated record, let the eager parser apply its error handling.
+                return parseFromBytes(scanRecord);
+            }
+            int fieldType = scanRecord[currentPos++] & 0xFF;
+            int uuidLength = 0;
+            switch (fieldType) {
+                case DATA_TYPE_FLAGS:
+                case DATA_TYPE_TX_POWER_LEVEL:
+                    if (currentPos >= scanRecord.length) {
+                        return parseFromBytes(scanRecord);
+                    }
+                    if (fieldType == DATA_TYPE_FLAGS) {
+                        advertiseFlag = scanRecord[currentPos] & 0xFF;
+                    } else {
+                        txPowerLevel = scanRecord[currentPos];
+                    }
+                    break;
+                case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+                case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+                case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_16_BIT:
+                    uuidLength = BluetoothUuid.UUID_BYTES_16_BIT;
+                    break;
+                case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+                case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+                case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_32_BIT:
+                    uuidLength = BluetoothUuid.UUID_BYTES_32_BIT;
+                    break;
+                case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+                case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+                case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_128_BIT:
+                    uuidLength = BluetoothUuid.UUID_BYTES_128_BIT;
+                    break;
+                case DATA_TYPE_SERVICE_DATA_16_BIT:
+                case DATA_TYPE_SERVICE_DATA_32_BIT:
+                case DATA_TYPE_SERVICE_DATA_128_BIT:
+                    if (dataLength < getServiceDataUuidLength(fieldType)) {
+                        return parseFromBytes(scanRecord);
+                    }
+                    break;
+                case DATA_TYPE_MANUFACTURER_SPECIFIC_DATA:
+                    if (dataLength < 2) {
+                        return parseFromBytes(scanRecord);
+                    }
+                    break;
+                case DATA_TYPE_TRANSPORT_DISCOVERY_DATA:
+                    // Rarely advertised, not worth a lazy path.
+                    return parseFromBytes(scanRecord);
+                default:
+                    break;
+            }
+            // A partial trailing UUID is read past the structure, it must still be in bounds.
+            if (uuidLength > 0
+                    && currentPos + (dataLength + uuidLength - 1) / uuidLength * uuidLength
+                            > scanRecord.length) {
+                return parseFromBytes(scanRecord);
+            }
+            adStructures[i] = fieldType;
+            adStructures[i + 1] = currentPos;
+            adStructures[i + 2] = dataLength;
+            currentPos += dataLength;
+        }
+        return new ScanRecord(advertiseFlag, txPowerLevel, adStructures, scanRecord);
+    }
+
+    private static int getServiceDataUuidLength(int fieldType) {
+        if (fieldType == DATA_TYPE_SERVICE_DATA_32_BIT) {
+            return BluetoothUuid.UUID_BYTES_32_BIT;
+        } else if (fieldType == DATA_TYPE_SERVICE_DATA_128_BIT) {
+            return BluetoothUuid.UUID_BYTES_128_BIT;
+        }
+        return BluetoothUuid.UUID_BYTES_16_BIT;
+    }
+
+    private void decodeIfPending(int field) {
+        if ((mPendingFields & field) != 0) {
+            decode(field);
+        }
+    }
+
+    // Decodes a field of a lazily parsed record, in the same order as parseFromBytes.
+    private synchronized void decode(int field) {
+        if ((mPendingFields & field) == 0) {
+            return;
+        }
+        final byte[] scanRecord = mBytes;
+        final int[] adStructures = mAdStructures;
+        switch (field) {
+            case LAZY_SERVICE_UUIDS:
+                List<ParcelUuid> serviceUuids = new ArrayList<ParcelUuid>();
+                List<ParcelUuid> serviceSolicitationUuids = new ArrayList<ParcelUuid>();
+                for (int i = 0; i < adStructures.length; i += AD_STRUCTURE_SIZE) {
+                    int pos = adStructures[i + 1];
+                    int dataLength = adStructures[i + 2];
+                    switch (adStructures[i]) {
+                        case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+                        case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+                            parseServiceUuid(scanRecord, pos, dataLength,
+                                    BluetoothUuid.UUID_BYTES_16_BIT, serviceUuids);
+                            break;
+                        case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+                        case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+                            parseServiceUuid(scanRecord, pos, dataLength,
+                                    BluetoothUuid.UUID_BYTES_32_BIT, serviceUuids);
+                            break;
+                        case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+                        case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+                            parseServiceUuid(scanRecord, pos, dataLength,
+                                    BluetoothUuid.UUID_BYTES_128_BIT, serviceUuids);
+                            break;
+                        case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_16_BIT:
+                            parseServiceSolicitationUuid(scanRecord, pos, dataLength,
+                                    BluetoothUuid.UUID_BYTES_16_BIT, serviceSolicitationUuids);
+                            break;
+                        case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_32_BIT:
+                            parseServiceSolicitationUuid(scanRecord, pos, dataLength,
+                                    BluetoothUuid.UUID_BYTES_32_BIT, serviceSolicitationUuids);
+                            break;
+                        case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_128_BIT:
+                            parseServiceSolicitationUuid(scanRecord, pos, dataLength,
+                                    BluetoothUuid.UUID_BYTES_128_BIT, serviceSolicitationUuids);
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                mServiceUuids = serviceUuids.isEmpty() ? null : serviceUuids;
+                mServiceSolicitationUuids = serviceSolicitationUuids;
+                break;
+            case LAZY_MANUFACTURER_DATA:
+                SparseArray<byte[]> manufacturerData = new SparseArray<byte[]>();
+                for (int i = 0; i < adStructures.length; i += AD_STRUCTURE_SIZE) {
+                    if (adStructures[i] != DATA_TYPE_MANUFACTURER_SPECIFIC_DATA) {
+                        continue;
+                    }
+                    int pos = adStructures[i + 1];
+                    // The first two bytes are the manufacturer id, in little endian.
+                    int manufacturerId =
+                            ((scanRecord[pos + 1] & 0xFF) << 8) + (scanRecord[pos] & 0xFF);
+                    manufacturerData.put(
+                            manufacturerId,
+                            extractBytes(scanRecord, pos + 2, adStructures[i + 2] - 2));
+                }
+                mManufacturerSpecificData = manufacturerData;
+                break;
+            case LAZY_SERVICE_DATA:
+                Map<ParcelUuid, byte[]> serviceData = new ArrayMap<ParcelUuid, byte[]>();
+                for (int i = 0; i < adStructures.length; i += AD_STRUCTURE_SIZE) {
+                    int fieldType = adStructures[i];
+                    if (fieldType != DATA_TYPE_SERVICE_DATA_16_BIT
+                            && fieldType != DATA_TYPE_SERVICE_DATA_32_BIT
+                            && fieldType != DATA_TYPE_SERVICE_DATA_128_BIT) {
+                        continue;
+                    }
+                    int pos = adStructures[i + 1];
+                    int uuidLength = getServiceDataUuidLength(fieldType);
+                    ParcelUuid serviceDataUuid =
+                            BluetoothUuid.parseUuidFrom(extractBytes(scanRecord, pos, uuidLength));
+                    serviceData.put(
+                            serviceDataUuid,
+                            extractBytes(scanRecord, pos + uuidLength,
+                                    adStructures[i + 2] - uuidLength));
+                }
+                mServiceData = serviceData;
+                break;
+            case LAZY_DEVICE_NAME:
+                for (int i = 0; i < adStructures.length; i += AD_STRUCTURE_SIZE) {
+                    if (adStructures[i] == DATA_TYPE_LOCAL_NAME_SHORT
+                            || adStructures[i] == DATA_TYPE_LOCAL_NAME_COMPLETE) {
+                        mDeviceName =
+                                new String(
+                                        extractBytes(scanRecord, adStructures[i + 1],
+                                                adStructures[i + 2]));
+                    }
+                }
+                break;
+            case LAZY_ADVERTISING_DATA_MAP:
+                HashMap<Integer, byte[]> advertisingDataMap = new HashMap<Integer, byte[]>();
+                for (int i = 0; i < adStructures.length; i += AD_STRUCTURE_SIZE) {
+                    advertisingDataMap.put(
+                            adStructures[i],
+                            extractBytes(scanRecord, adStructures[i + 1], adStructures[i + 2]));
+                }
+                mAdvertisingDataMap = advertisingDataMap;
+                break;
+            default:
+                return;
+        }
+        mPendingFields &= ~field;
+        if (mPendingFields == 0) {
+            mAdStructures = null;
+        }
+    }
+
     @Override
     public String toString() {
         return "ScanRecord [mAdvertiseFlags="
                 + mAdvertiseFlags
                 + ", mServiceUuids="
-                + mServiceUuids
+                + getServiceUuids()
                 + ", mServiceSolicitationUuids="
-                + mServiceSolicitationUuids
+                + getServiceSolicitationUuids()
                 + ", mManufacturerSpecificData="
-                + BluetoothLeUtils.toString(mManufacturerSpecificData)
+                + BluetoothLeUtils.toString(getManufacturerSpecificData())
                 + ", mServiceData="
-                + BluetoothLeUtils.toString(mServiceData)
+                + BluetoothLeUtils.toString(getServiceData())
                 + ", mTxPowerLevel="
                 + mTxPowerLevel
                 + ", mDeviceName="
-                + mDeviceName
+                + getDeviceName()
                 + ", mTransportDiscoveryData="
                 + mTransportDiscoveryData
                 + "]";
@@ -182,6 +182,70 @@ public class ScanRecordTest extends TestCase {
         assertArrayEquals(new byte[] {0x50, 0x64}, data.getServiceData().get(uuid2));
     }
 
+    @SmallTest
+    public void testParseFromBytesLazily_sameAsEager() {
+        assertLazyParseSameAsEager(HexDump.hexStringToByteArray(RECORD_URL));
+        assertLazyParseSameAsEager(HexDump.hexStringToByteArray(RECORD_UUID));
+        assertLazyParseSameAsEager(HexDump.hexStringToByteArray(RECORD_TLM));
+        assertLazyParseSameAsEager(HexDump.hexStringToByteArray(RECORD_IBEACON));
+        assertLazyParseSameAsEager(HexDump.hexStringToByteArray(RECORD_E2EE_EID));
+        assertLazyParseSameAsEager(new byte[0]);
+    }
+
+    @SmallTest
+    public void testParseFromBytesLazily_malformed() {
+        // Structure longer than the record.
+        assertLazyParseSameAsEager(new byte[] {0x02, 0x01, 0x06, 0x05, (byte) 0xff, 0x4c});
+        // Manufacturer specific data without a full manufacturer id.
+        assertLazyParseSameAsEager(new byte[] {0x02, 0x01, 0x06, 0x02, (byte) 0xff, 0x4c});
+        // Service data shorter than its uuid.
+        assertLazyParseSameAsEager(new byte[] {0x02, 0x16, 0x0b, 0x02, 0x01, 0x06});
+        // Partial trailing 16 bit uuid, read from the next structure.
+        assertLazyParseSameAsEager(new byte[] {0x04, 0x03, 0x0a, 0x11, 0x0b, 0x02, 0x01, 0x06});
+        // Partial trailing 16 bit uuid, past the end of the record.
+        assertLazyParseSameAsEager(new byte[] {0x02, 0x01, 0x06, 0x02, 0x03, 0x0a});
+        // Length without a field type.
+        assertLazyParseSameAsEager(new byte[] {0x02, 0x01, 0x06, 0x01});
+    }
+
+    private static void assertLazyParseSameAsEager(byte[] bytes) {
+        ScanRecord eager = ScanRecord.parseFromBytes(bytes);
+        ScanRecord lazy = ScanRecord.parseFromBytesLazily(bytes);
+
+        assertEquals(eager.getAdvertiseFlags(), lazy.getAdvertiseFlags());
+        assertEquals(eager.getTxPowerLevel(), lazy.getTxPowerLevel());
+        assertEquals(eager.getServiceUuids(), lazy.getServiceUuids());
+        assertEquals(eager.getServiceSolicitationUuids(), lazy.getServiceSolicitationUuids());
+        assertEquals(eager.getDeviceName(), lazy.getDeviceName());
+        assertEquals(eager.getTransportDiscoveryData(), lazy.getTransportDiscoveryData());
+        assertEquals(
+                String.valueOf(eager.getManufacturerSpecificData()),
+                String.valueOf(lazy.getManufacturerSpecificData()));
+        if (eager.getManufacturerSpecificData() != null) {
+            for (int i = 0; i < eager.getManufacturerSpecificData().size(); i++) {
+                int id = eager.getManufacturerSpecificData().keyAt(i);
+                assertArrayEquals(
+                        eager.getManufacturerSpecificData(id),
+                        lazy.getManufacturerSpecificData(id));
+            }
+        }
+        assertEquals(eager.getServiceData() == null, lazy.getServiceData() == null);
+        if (eager.getServiceData() != null) {
+            assertEquals(eager.getServiceData().keySet(), lazy.getServiceData().keySet());
+            for (ParcelUuid uuid : eager.getServiceData().keySet()) {
+                assertArrayEquals(eager.getServiceData(uuid), lazy.getServiceData(uuid));
+            }
+        }
+        assertEquals(
+                eager.getAdvertisingDataMap().keySet(), lazy.getAdvertisingDataMap().keySet());
+        for (Integer type : eager.getAdvertisingDataMap().keySet()) {
+            assertArrayEquals(
+                    eager.getAdvertisingDataMap().get(type),
+                    lazy.getAdvertisingDataMap().get(type));
+        }
+        assertSame(bytes, lazy.getBytes());
+    }
+
     // Assert two byte arrays are equal.
     private static void assertArrayEquals(byte[] expected, byte[] actual) {
         if (!Arrays.equals(expected, actual)) {